@@ -1,8 +1,10 @@
 package Assembler;
 
+import java.nio.CharBuffer;
 import java.util.List;
 import java.util.LinkedList;
-import java.util.ArrayList;
+import java.util.Set;
+import java.util.LinkedHashSet;
 import Common.ByteOperations;
 import Common.Error;
 import Common.Symbol;
@@ -16,20 +18,49 @@ import Common.SymbolTable;
 public class Assembler {
 
 	/**
-	 * The maximum number of symbols a program is allowed to define.
+	 * Number of words in the 16-bit address space.
 	 */
-	protected static final int MAX_SYMBOLS = 100;
+	protected static final int ADDRESS_SPACE = 0x10000;
 	
 	/**
-	 * The maximum number of literals a program is allwoed to define.
+	 * The maximum number of symbols a program is allowed to define: a label
+	 * for every word of the address space.
 	 */
-	protected static final int MAX_LITERALS = 50;
+	protected static final int MAX_SYMBOLS = Assembler.ADDRESS_SPACE;
 	
 	/**
-	 * The maximum number of source records a program is allowed to compile to.
+	 * The maximum number of literals a program is allwoed to define: each
+	 * takes a word of the address space.
 	 */
-	protected static final int MAX_SOURCE_RECORDS = 2000;
+	protected static final int MAX_LITERALS = Assembler.ADDRESS_SPACE;
+	
+	/**
+	 * The maximum number of source records a program is allowed to compile
+	 * to: one for every word of the address space.
+	 */
+	protected static final int MAX_SOURCE_RECORDS = Assembler.ADDRESS_SPACE;
 
+	/**
+	 * The pseudo-ops and the names in the instruction definition table, which
+	 * the tokenizer recognizes without making a String for each line.
+	 */
+	private static final String[] KNOWN_OPS;
+	
+	/**
+	 * Static constructor. Collects the known operations.
+	 */
+	static {
+		Set<String> ops = new LinkedHashSet<String>();
+		String[] pseudoOps = new String[] { ".ORIG", ".EQU", ".FILL", ".STRZ", ".END", ".BLKW", ".ENT", ".EXT" };
+		for (String op : pseudoOps) {
+			ops.add(op);
+		}
+		for (InstructionDefinition definition : InstructionDefinition.getTable()) {
+			ops.add(definition.getName());
+		}
+		KNOWN_OPS = ops.toArray(new String[ops.size()]);
+	}
+	
 	/**
 	 * Assembles the given code into a Program.
 	 * 
@@ -38,6 +69,19 @@ public class Assembler {
 	 * @return the assembled program
 	 */
 	public Program assemble(String filename, String data) throws Exception {
+		return this.assemble(filename, CharBuffer.wrap(data));
+	}
+	
+	/**
+	 * Assembles the given code into a Program. The code is tokenized in
+	 * place; the Program keeps views of its lines for the listing, so the
+	 * buffer must not be changed afterwards.
+	 * 
+	 * @param filename the file name of the source code
+	 * @param data the source code, from its position to its limit
+	 * @return the assembled program
+	 */
+	public Program assemble(String filename, CharBuffer data) throws Exception {
 		List<Error> errors = new LinkedList<Error>();
 		SymbolTable symbols = new SymbolTable();
 		LiteralTable literals = new LiteralTable();
@@ -52,11 +96,14 @@ public class Assembler {
 		boolean hasEnd = false;
 		
 		List<String> exports = new LinkedList<String>();
+		PageLayout layout = new PageLayout();
+		String startOperand = null;
+		OperandDefinition startDefinition = null;
 		
-		String[] lines = data.split("\n");
-		for (String line : lines) {
+		SourceTokenizer tokenizer = new SourceTokenizer(data, Assembler.KNOWN_OPS);
+		while (tokenizer.nextLine()) {
 
-			if (line.length() >= 1 && line.charAt(0) == ';') {
+			if (tokenizer.isComment()) {
 				lineNumber++;
 				continue; // Skip comment lines
 			}
@@ -64,7 +111,7 @@ public class Assembler {
 			try {
 
 				// Extract the label
-				String label = line.length() >= 8 ? line.substring(0, 7).trim() : "";
+				String label = tokenizer.getLabel();
 				
 				if (!label.equals("")) {
 					char c = label.charAt(0);
@@ -80,15 +127,13 @@ public class Assembler {
 				}
 				
 				// Check for spacing errors.
-				String space1 = line.length() >= 9 ? line.substring(7, 9).trim() : "";
-				String space2 = line.length() >= 17 ? line.substring(14, 17).trim() : "";
-				if (!space1.equals("") || !space2.equals("")) {
+				if (tokenizer.hasSpacingError()) {
 					// Should be blank spaces between label, operation, and operands.
 					errors.add(new Error(lineNumber, "Incorrect spacing."));
 				}
 				
-				String op = line.length() > 9 ? line.substring(9, Math.min(line.length(), 14)).trim() : "";
-				String[] operands = this.getOperands(line);
+				String op = tokenizer.getOp();
+				String[] operands = tokenizer.getOperands();
 
 				if (!label.equals("")) {
 					if (symbols.hasSymbol(label)) {
@@ -96,11 +141,13 @@ public class Assembler {
 						errors.add(new Error(lineNumber, "Symbol redefinition is not allowed."));
 					}
 					if (!op.equals(".EQU")) {
-						symbols.define(new Symbol(label, location, true));
+						Symbol symbol = new Symbol(label, location, true);
+						symbols.define(symbol);
+						layout.addLabel(symbol, instructions.size());
 					}
 				}
 
-				Instruction instruction = new Instruction(op, line);
+				Instruction instruction = new Instruction(op, tokenizer.getLine(), lineNumber);
 
 				// First check if the instruction is a psuedo-op.
 				if (op.equals(".ORIG")) {
@@ -135,7 +182,9 @@ public class Assembler {
 						} else {
 							origin = Operand.parseConstant(operands[0]);
 							location = origin;
-							symbols.define(new Symbol(label, location, true));
+							Symbol symbol = new Symbol(label, location, true);
+							symbols.define(symbol);
+							layout.addLabel(symbol, instructions.size());
 						}
 					} else {
 						relocatable = true;
@@ -157,6 +206,7 @@ public class Assembler {
 								errors.add(new Error(lineNumber, ".EQU cannot be used with imported symbols."));
 							} else {
 								symbols.define(label, operands[0]);
+								layout.addAlias(symbols.get(label), symbol);
 							}
 						} else if (type == OperandType.IMMEDIATE) {
 							symbols.define(new Symbol(label, Operand
@@ -236,11 +286,13 @@ public class Assembler {
 					instruction.setDefinition(new InstructionDefinition(
 						".END", new int[] { }, ops));
 					if (operands.length > 0) {
+						startOperand = operands[0];
+						startDefinition = instruction.getDefinition().getOperandDefinitions()[0];
 						startAddress = Operand.getValue(
-							operands[0],
+							startOperand,
 							symbols,
-							instruction.getDefinition().getOperandDefinitions()[0],
-							Operand.determineType(operands[0]),
+							startDefinition,
+							Operand.determineType(startOperand),
 							literals);
 					} else {
 						startAddress = origin; // Default start address = origin.
@@ -335,12 +387,19 @@ public class Assembler {
 			
 			lineNumber++;
 		}
-		literals.setOffset(location);
+		if (errors.size() == 0) {
+			// Give instructions which reach across pages their far forms,
+			// moving the labels and the start address with them
+			location = layout.place(instructions, symbols, literals, origin, errors);
+			if (startOperand != null) {
+				startAddress = Operand.getValue(startOperand, symbols, startDefinition,
+					Operand.determineType(startOperand), literals);
+			}
+		} else {
+			literals.setOffset(location);
+		}
 		
 		int lastAddress = literals.getOffset() + literals.getEntries().size();
-		if (relocatable && (lastAddress & 0xFE00) > 0) {
-			errors.add(new Error("Program spans multiple memory pages. Relocate or shrink the program to fit inside one memory page."));
-		}
 		
 		if (origin < 0 || lastAddress > 0xFFFF) {
 			errors.add(new Error("Program loads into memory outside the addressable range."));
@@ -398,62 +457,11 @@ public class Assembler {
 	 * 
 	 * @param instruction
 	 *            the instruction to be looked up
-	 * @return null
+	 * @return the matching definition, or null if there is none
 	 */
 	protected InstructionDefinition getInstructionDefinition(
 			Instruction instruction) {
-		for (InstructionDefinition definition : InstructionDefinition.getTable()) {
-			if (definition.isAcceptable(instruction)) {
-				return definition;
-			}
-		}
-		return null;
-	}
-
-	/**
-	 * Extracts the raw string values of the Operands in a given line of source
-	 * code.
-	 * 
-	 * @param line the line of code to extract the value of the Operands from
-	 * @return an array of strings containing the Operands
-	 */
-	protected String[] getOperands(String line) throws Exception {
-		String trimmed = line.length() >= 17 ? line.substring(17).trim() : "";
-		ArrayList<String> result = new ArrayList<String>();
-		boolean inQuotes = false;
-		String currentOperand = "";
-		for (int i = 0; i < trimmed.length(); i++) {
-			char c = trimmed.charAt(i);
-			if (inQuotes) {
-				currentOperand += c;
-				if (c == '"') {
-					inQuotes = false;
-					result.add(currentOperand);
-					currentOperand = "";
-				}
-			} else {
-				if (c == '"') {
-					currentOperand += c;
-					inQuotes = true;
-				} else if (c == ';') {
-					break;
-				} else if (c == ',') {
-					result.add(currentOperand.trim());
-					currentOperand = "";
-				} else {
-					currentOperand += c;
-				}
-			}
-		}
-		if (inQuotes) {
-			// Un-closed quotes
-			throw new Exception("Detected string operand with unclosed quotation mark.");
-		}
-		if (!currentOperand.trim().equals("")) {
-			result.add(currentOperand.trim());
-		}
-		String[] array = new String[result.size()];
-		return result.toArray(array);
+		return InstructionDefinition.find(instruction);
 	}
 
 	/**
@@ -0,0 +1,304 @@
+package Assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An AssemblyCache keeps the object code and listing of assembled files on
+ * disk, keyed by a SHA-256 hash of everything the output depends on: the
+ * source, the name the file was given by, the charset it is decoded with,
+ * the assembler version and the instruction definition table. A file whose
+ * hash is in the cache need not be parsed at all.
+ *
+ * Each entry is one file named by its hash. Entries are written to a
+ * temporary file and renamed into place, so threads and processes sharing a
+ * cache never see part of an entry. A hit touches its entry, and evict
+ * removes the least recently used entries until the cache fits its size.
+ */
+public class AssemblyCache {
+
+	/**
+	 * Version of the assembler's output. Raise it whenever a change to the
+	 * assembler changes the output for the same source, so that no entry
+	 * made by an older assembler is used.
+	 */
+	private static final int ASSEMBLER_VERSION = 2;
+
+	/**
+	 * Identifies an entry file.
+	 */
+	private static final int MAGIC = 0x4C43414B;
+
+	/**
+	 * Extension of entry files.
+	 */
+	private static final String ENTRY_EXTENSION = ".entry";
+
+	/**
+	 * Encoding of the text in entry files.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Digest of the instruction definition table, so that a change to the
+	 * table invalidates every entry without raising the version.
+	 */
+	private static final byte[] TABLE_DIGEST = AssemblyCache.digestTable();
+
+	/**
+	 * The object code and listing of an assembled file.
+	 */
+	public static class Entry {
+
+		/**
+		 * Text of the .out file.
+		 */
+		public String objectCode;
+
+		/**
+		 * The source code listing.
+		 */
+		public String listing;
+	}
+
+	/**
+	 * Directory holding the entries.
+	 */
+	private File directory;
+
+	/**
+	 * Number of bytes the entries may take once evicted.
+	 */
+	private long maxSize;
+
+	/**
+	 * Instantiates an AssemblyCache in the given directory, creating it if needed.
+	 * @param _directory Path to the cache directory.
+	 * @param _maxSize Number of bytes the entries may take once evicted.
+	 */
+	public AssemblyCache(String _directory, long _maxSize) throws IOException {
+		this.directory = new File(_directory);
+		this.maxSize = _maxSize;
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Cannot create the cache directory " + _directory + ".");
+		}
+	}
+
+	/**
+	 * Hashes everything the output of assembling a file depends on.
+	 * @param filename The file name the source is assembled under.
+	 * @param source The undecoded source.
+	 * @return The hash, in hexadecimal.
+	 */
+	public String hash(String filename, byte[] source) {
+		MessageDigest digest = AssemblyCache.newDigest();
+		digest.update(AssemblyCache.intBytes(AssemblyCache.ASSEMBLER_VERSION));
+		digest.update(AssemblyCache.TABLE_DIGEST);
+		// Lengths keep the fields from running into each other
+		AssemblyCache.update(digest, Charset.defaultCharset().name().getBytes(AssemblyCache.UTF8));
+		AssemblyCache.update(digest, filename.getBytes(AssemblyCache.UTF8));
+		AssemblyCache.update(digest, source);
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Looks up an entry, and marks it as used.
+	 * @param hash The hash of the file.
+	 * @return The entry, or null if there is none or it cannot be read.
+	 */
+	public Entry get(String hash) {
+		File file = this.getFile(hash);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			DataInputStream input = new DataInputStream(new FileInputStream(file));
+			try {
+				if (input.readInt() != AssemblyCache.MAGIC) {
+					return null;
+				}
+				Entry entry = new Entry();
+				entry.objectCode = AssemblyCache.readText(input);
+				entry.listing = AssemblyCache.readText(input);
+				file.setLastModified(System.currentTimeMillis());
+				return entry;
+			}
+			finally {
+				input.close();
+			}
+		}
+		catch (IOException e) {
+			// A damaged entry is a miss; the next put replaces it
+			return null;
+		}
+	}
+
+	/**
+	 * Stores an entry, replacing any entry with the same hash.
+	 * @param hash The hash of the file.
+	 * @param objectCode Text of the .out file.
+	 * @param listing The source code listing.
+	 */
+	public void put(String hash, String objectCode, String listing) throws IOException {
+		File temporary = File.createTempFile(hash, ".tmp", this.directory);
+		try {
+			DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary));
+			try {
+				output.writeInt(AssemblyCache.MAGIC);
+				AssemblyCache.writeText(output, objectCode);
+				AssemblyCache.writeText(output, listing);
+			}
+			finally {
+				output.close();
+			}
+			Files.move(temporary.toPath(), this.getFile(hash).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Removes the least recently used entries until the rest fit in the
+	 * size of the cache.
+	 */
+	public void evict() {
+		File[] entries = this.directory.listFiles();
+		if (entries == null) {
+			return;
+		}
+		long size = 0;
+		for (File entry : entries) {
+			if (entry.getName().endsWith(AssemblyCache.ENTRY_EXTENSION)) {
+				size += entry.length();
+			}
+		}
+		if (size <= this.maxSize) {
+			return;
+		}
+		Arrays.sort(entries, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File entry : entries) {
+			if (size <= this.maxSize) {
+				break;
+			}
+			if (entry.getName().endsWith(AssemblyCache.ENTRY_EXTENSION)) {
+				long length = entry.length();
+				if (entry.delete()) {
+					size -= length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the file holding the entry with the given hash.
+	 */
+	private File getFile(String hash) {
+		return new File(this.directory, hash + AssemblyCache.ENTRY_EXTENSION);
+	}
+
+	/**
+	 * Digests the name, operations and operand definitions of every
+	 * instruction definition in the table.
+	 */
+	private static byte[] digestTable() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream table = new DataOutputStream(bytes);
+		try {
+			for (InstructionDefinition definition : InstructionDefinition.getTable()) {
+				table.writeUTF(definition.getName());
+				table.writeInt(definition.getSize());
+				table.writeInt(definition.getOperations().length);
+				for (int operation : definition.getOperations()) {
+					table.writeInt(operation);
+				}
+				table.writeInt(definition.getOperandDefinitions().length);
+				for (OperandDefinition operand : definition.getOperandDefinitions()) {
+					table.writeBoolean(operand.isRelocatable());
+					table.writeInt(operand.getOperationIndex());
+					table.writeInt(operand.getMostSignificantBit());
+					table.writeInt(operand.getLeastSignificantBit());
+					table.writeInt(operand.getAcceptableTypes().length);
+					for (OperandType type : operand.getAcceptableTypes()) {
+						table.writeUTF(type.name());
+					}
+				}
+			}
+			table.close();
+		}
+		catch (IOException e) {
+			// Not thrown by a ByteArrayOutputStream
+			throw new RuntimeException(e);
+		}
+		return AssemblyCache.newDigest().digest(bytes.toByteArray());
+	}
+
+	/**
+	 * Creates a SHA-256 digest, which every Java platform provides.
+	 */
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Adds the length of the given bytes and then the bytes to a digest.
+	 */
+	private static void update(MessageDigest digest, byte[] data) {
+		digest.update(AssemblyCache.intBytes(data.length));
+		digest.update(data);
+	}
+
+	/**
+	 * Gets the big-endian bytes of an int.
+	 */
+	private static byte[] intBytes(int value) {
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+	}
+
+	/**
+	 * Reads text written by writeText.
+	 */
+	private static String readText(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if (length < 0) {
+			throw new IOException("Damaged cache entry.");
+		}
+		byte[] data = new byte[length];
+		input.readFully(data);
+		return new String(data, AssemblyCache.UTF8);
+	}
+
+	/**
+	 * Writes text of any length, preceded by its length in bytes.
+	 */
+	private static void writeText(DataOutputStream output, String text) throws IOException {
+		byte[] data = text.getBytes(AssemblyCache.UTF8);
+		output.writeInt(data.length);
+		output.write(data);
+	}
+}
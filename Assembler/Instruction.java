@@ -21,9 +21,10 @@ public class Instruction {
 	private Operand[] operands;
 
 	/**
-	 * Source assembly code line corresponding to this Instruction
+	 * Source assembly code line corresponding to this Instruction, which may
+	 * be a view of the source file
 	 */
-	private String source;
+	private CharSequence source;
 
 	/**
 	 * Parsed from the source code; used to match up with the correct
@@ -31,13 +32,27 @@ public class Instruction {
 	 */
 	private String name;
 
+	/**
+	 * Number of the source line in its file, counting from 1, or 0 if unknown.
+	 */
+	private int lineNumber;
+
 	/**
 	 * Instantiates an empty Instruction with the given name and line of source
 	 * code.
 	 */
 	public Instruction(String name, String source) {
+		this(name, source, 0);
+	}
+
+	/**
+	 * Instantiates an empty Instruction with the given name, line of source
+	 * code and line number.
+	 */
+	public Instruction(String name, CharSequence source, int lineNumber) {
 		this.name = name;
 		this.source = source;
+		this.lineNumber = lineNumber;
 	}
 
 	/**
@@ -82,7 +97,7 @@ public class Instruction {
 	 *          Instruction.
 	 */
 	public String getSource() {
-		return this.source;
+		return this.source.toString();
 	}
 
 	/**
@@ -92,6 +107,13 @@ public class Instruction {
 		return this.name;
 	}
 
+	/**
+	 * @return the number of the source line in its file, or 0 if unknown.
+	 */
+	public int getLineNumber() {
+		return this.lineNumber;
+	}
+
 	/**
 	 * @return the definition of this Instruction.
 	 */
@@ -111,7 +133,7 @@ public class Instruction {
 	 * are relocatable.
 	 */
 	public int[] getRelocationMasks(SymbolTable symbols) {
-		int[] masks = new int[this.definition.getOperations().length];
+		int[] masks = this.definition.getRelocationMasks();
 		for (int i = 0; i < this.operands.length; i++) {
 			Operand operand = this.operands[i];
 			if (operand.isRelocatable(symbols)) {
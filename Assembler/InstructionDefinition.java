@@ -1,5 +1,9 @@
 package Assembler;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 /** An InstructionDefinition represents a certain type of assembly instruction (like
  * ADD, LD, STR, etc.). Once an assembly instruction is matched with a definition, the
  * definition is used to turn the source code into binary executable code.
@@ -9,6 +13,10 @@ package Assembler;
  * this is the binary executable code before the Operand values are inserted.
  * A collection of OperandDefinitions which specify which Operands are acceptable
  * for this instruction, and how they are to be inserted into the binary base values.
+ * 
+ * Definitions are not changed once constructed, and the definition table and
+ * its index are built by the static constructor and never changed, so any
+ * number of threads may assemble programs at once.
  */
 public class InstructionDefinition
 {
@@ -17,14 +25,32 @@ public class InstructionDefinition
 	 * Definitions of program instructions. Psuedo-ops are not defined in this
 	 * table.
 	 */
-	protected static InstructionDefinition[] definitions;
+	protected static final InstructionDefinition[] definitions;
+	
+	/**
+	 * Number of bits each operand takes in an operand signature.
+	 */
+	private static final int SIGNATURE_BITS = 3;
+	
+	/**
+	 * Largest number of operands an operand signature can describe.
+	 */
+	private static final int MAX_SIGNATURE_OPERANDS = 31 / InstructionDefinition.SIGNATURE_BITS;
+	
+	/**
+	 * The instruction definition table indexed by name, then by the operand
+	 * signature of every operand list each definition accepts. Built once
+	 * when the class is initialized and never changed, so it may be read by
+	 * any number of threads.
+	 */
+	private static final Map<String, Map<Integer, InstructionDefinition>> index;
 	
 	/**
 	 * Static constructor. Initializes the instruction definition table.
 	 */
 	static {
 		// Initialize instruction definition table.
-		InstructionDefinition.definitions = new InstructionDefinition[] {
+		definitions = new InstructionDefinition[] {
 			new InstructionDefinition("ADD", new int[] { 0x1000 },
 					new OperandDefinition[] {
 							new OperandDefinition(false, new OperandType[] {
@@ -200,11 +226,75 @@ public class InstructionDefinition
 					new OperandDefinition[] { new OperandDefinition(false,
 							new OperandType[] { OperandType.IMMEDIATE,
 									OperandType.SYMBOL }, 7, 0) }) };
+		
+		// Index the table. Where two definitions accept the same operands
+		// (such as AND with a symbol as its last operand), the first one in
+		// the table wins, as it did when the table was searched in order.
+		Map<String, Map<Integer, InstructionDefinition>> names = new HashMap<String, Map<Integer, InstructionDefinition>>();
+		for (InstructionDefinition definition : InstructionDefinition.definitions) {
+			Map<Integer, InstructionDefinition> signatures = names.get(definition.name);
+			if (signatures == null) {
+				signatures = new HashMap<Integer, InstructionDefinition>();
+				names.put(definition.name, signatures);
+			}
+			definition.addSignatures(signatures, 0, 0);
+		}
+		index = Collections.unmodifiableMap(names);
+	}
+	
+	/**
+	 * Finds the definition in the instruction definition table which accepts
+	 * the given Instruction, in constant time. Gives the same result as
+	 * searching the table in order with isAcceptable.
+	 * @param instruction The instruction to be looked up.
+	 * @return The first acceptable definition in the table, or null if there is none.
+	 */
+	public static InstructionDefinition find(Instruction instruction) {
+		Map<Integer, InstructionDefinition> signatures = InstructionDefinition.index.get(instruction.getName());
+		if (signatures == null) {
+			return null;
+		}
+		Operand[] operands = instruction.getOperands();
+		if (operands.length > InstructionDefinition.MAX_SIGNATURE_OPERANDS) {
+			return null;
+		}
+		int signature = 0;
+		for (Operand operand : operands) {
+			signature = InstructionDefinition.appendSignature(signature, operand.getType());
+		}
+		return signatures.get(signature);
+	}
+	
+	/**
+	 * Appends an operand type to an operand signature. Types are numbered
+	 * from 1, so signatures of different lengths never collide.
+	 */
+	private static int appendSignature(int signature, OperandType type) {
+		return (signature << InstructionDefinition.SIGNATURE_BITS) | (type.ordinal() + 1);
+	}
+	
+	/**
+	 * Adds this definition to the given index under the signature of every
+	 * operand list it accepts, unless an earlier definition took it.
+	 * @param signatures The index of the definitions with this name.
+	 * @param operand Index of the next operand to append.
+	 * @param signature Signature of the operands before it.
+	 */
+	private void addSignatures(Map<Integer, InstructionDefinition> signatures, int operand, int signature) {
+		if (operand == this.operands.length) {
+			if (!signatures.containsKey(signature)) {
+				signatures.put(signature, this);
+			}
+			return;
+		}
+		for (OperandType type : this.operands[operand].getAcceptableTypes()) {
+			this.addSignatures(signatures, operand + 1, InstructionDefinition.appendSignature(signature, type));
+		}
 	}
 	
 	/**
 	 * Returns an array of instruction definitions representing the instruction table.
-	 * Pseudo-ops are not defined in this table.
+	 * Pseudo-ops are not defined in this table. The array is shared and must not be changed.
 	 */
 	public static InstructionDefinition[] getTable() {
 		return InstructionDefinition.definitions;
@@ -234,6 +324,12 @@ public class InstructionDefinition
 	 */
 	private int size;
 	
+	/**
+	 * For each binary base value, a bitmask of the bits which are relocatable
+	 * whatever the Operands are, or null if only Operands are relocatable.
+	 */
+	private int[] relocationMasks;
+	
 	/** 
 	 * Instantiates a new default InstructionDefinition. That is, it will create a
 	 * definition that maps to numOperations address slots. If createOperands is
@@ -276,6 +372,19 @@ public class InstructionDefinition
 		this.operands = operands;
 	}
 	
+	/** 
+	 * Instantiates a new InstructionDefinition with the given name, binary base values,
+	 * OperandDefinitions, and relocatable bits of the base values.
+	 * @param name A string that is the English description of the instruction.
+	 * @param operations An array of integers
+	 * @param operands An array of OperandDefinitions.
+	 * @param relocationMasks For each base value, a bitmask of its relocatable bits.
+	 */
+	public InstructionDefinition(String name, int[] operations, OperandDefinition[] operands, int[] relocationMasks) {
+		this(name, operations, operands);
+		this.relocationMasks = relocationMasks;
+	}
+	
 	/** 
 	 * Returns true if the given Instruction (presumably initialized with a name and
 	 * a collection of Operands) is acceptable for this definition.
@@ -309,6 +418,18 @@ public class InstructionDefinition
 		return (int[])this.operations.clone();
 	}
 	
+	/**
+	 * Gets the bits of the binary base values which are relocatable whatever
+	 * the Operands are, such as page offsets fixed by the assembler.
+	 * @return a bitmask for each base value.
+	 */
+	public int[] getRelocationMasks() {
+		if (this.relocationMasks == null) {
+			return new int[this.operations.length];
+		}
+		return this.relocationMasks.clone();
+	}
+	
 	/** 
 	 * Gets the collection of OperandDefinitions for this definition.
 	 * @return An array of OperandDefinitions.
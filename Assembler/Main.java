@@ -1,110 +1,262 @@
 package Assembler;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.PrintStream;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Main {
+	
+	/**
+	 * Number of files in flight per thread of the pool.
+	 */
+	private static final int FILES_PER_THREAD = 2;
+	
+	/**
+	 * Size of the assembly cache, in megabytes, unless --cache-size is given.
+	 */
+	private static final int DEFAULT_CACHE_MEGABYTES = 64;
+	
+	/**
+	 * Bytes in a megabyte.
+	 */
+	private static final long BYTES_PER_MEGABYTE = 1 << 20;
 
 	/**
 	 * Program entry point.
 	 * @param args Command line arguments.
 	 */
 	public static void main(String[] args) throws Exception {
+		Main.run(args, null, System.out, System.err);
+	}
+	
+	/**
+	 * Runs the assembler as the command line would, so that a toolchain
+	 * daemon can run it for a client in a directory of its own.
+	 * @param args Command line arguments.
+	 * @param directory Directory relative paths are resolved against, or null for the working directory.
+	 * @param out Stream listings and errors are printed to.
+	 * @param err Stream stack traces are printed to.
+	 */
+	public static void run(String[] args, File directory, PrintStream out, PrintStream err) throws Exception {
 		// Print usage data if necessary
 		if (args.length < 1 || args[0].equals("--help") || args[0].equals("/?")) {
-			Main.printUsageInformation();
+			Main.printUsageInformation(out);
 			return;
 		}
 		
 		List<String> inputFiles = new LinkedList<String>();
 		boolean generateListing = false;
+		String cacheDirectory = null;
+		long cacheSize = Main.DEFAULT_CACHE_MEGABYTES * Main.BYTES_PER_MEGABYTE;
 		
 		for (int i = 0; i < args.length; i++) {
 			if (args[i].equals("-l")) {
 				// Generate a listing
 				generateListing = true;
 			}
+			else if (args[i].equals("--cache") && i + 1 < args.length) {
+				// Reuse the output of unchanged files
+				cacheDirectory = args[++i];
+			}
+			else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+				try {
+					cacheSize = Long.parseLong(args[++i]) * Main.BYTES_PER_MEGABYTE;
+				}
+				catch (NumberFormatException e) {
+					Main.printUsageInformation(out);
+					return;
+				}
+			}
 			else if (!generateListing) {
-				inputFiles.add(args[i]);
+				File sources = Main.resolve(directory, args[i]);
+				if (sources.isDirectory()) {
+					// Every assembly file in the directory, in order of name
+					File[] files = sources.listFiles();
+					Arrays.sort(files);
+					for (File file : files) {
+						if (file.isFile() && file.getName().endsWith(".asm")) {
+							inputFiles.add(new File(args[i], file.getName()).getPath());
+						}
+					}
+				}
+				else {
+					inputFiles.add(args[i]);
+				}
 			}
 			else {
-				Main.printUsageInformation();
+				Main.printUsageInformation(out);
 				return;
 			}
 		}
 		
 		if (inputFiles.size() == 0) {
-			Main.printUsageInformation();
+			Main.printUsageInformation(out);
 			return;
 		}
 		
+		// Assemble the files in a work-stealing pool with one thread per
+		// processor. Each file is written as soon as it is assembled, and its
+		// listing or errors are reported in input order. A file which fails
+		// does not stop the others.
+		final AssemblyCache cache = cacheDirectory == null ? null : new AssemblyCache(Main.resolve(directory, cacheDirectory).getPath(), cacheSize);
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newWorkStealingPool(threads);
+		Deque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		Iterator<String> reported = inputFiles.iterator();
+		boolean nameFiles = inputFiles.size() > 1;
 		try {
-			for (String inputFile : inputFiles) {
-				String data = Main.readAllText(inputFile);
-				Assembler assembler = new Assembler();
-				Program program = assembler.assemble(inputFile, data);
-				
-				String result = program.getCode(generateListing);
-				int dot = inputFile.lastIndexOf('.');
-				if (dot == -1) {
-					dot = inputFile.length();
+			for (final String inputFile : inputFiles) {
+				if (pending.size() >= threads * Main.FILES_PER_THREAD) {
+					Main.report(reported.next(), pending.removeFirst(), nameFiles, out, err);
 				}
-				Main.writeAllText(inputFile.substring(0, dot) + ".out", result);
+				final boolean listing = generateListing;
+				final File workingDirectory = directory;
+				pending.addLast(pool.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return Main.assembleFile(workingDirectory, inputFile, listing, cache);
+					}
+				}));
+			}
+			while (!pending.isEmpty()) {
+				Main.report(reported.next(), pending.removeFirst(), nameFiles, out, err);
+			}
+			if (cache != null) {
+				cache.evict();
 			}
 		}
-		catch (IOException e) {
-			System.out.println("Failed to assemble program due to an IO error.");
-			return;
+		finally {
+			pool.shutdownNow();
 		}
-		catch (Exception e) {
-			if (e.getMessage() != null) {
-				System.out.println(e.getMessage());
+	}
+	
+	/**
+	 * Assembles a single file and writes its object code next to it, with
+	 * the extension .out. With a cache, a file which was assembled before is
+	 * not parsed; its object code and listing are taken from the cache.
+	 * Files which fail to assemble are not cached.
+	 * @param directory Directory the path is relative to, or null for the working directory.
+	 * @param inputFile Path to the assembly file.
+	 * @param generateListing True to return the listing of the program.
+	 * @param cache The assembly cache, or null to always assemble.
+	 * @return The listing, or null if no listing was asked for.
+	 */
+	private static String assembleFile(File directory, String inputFile, boolean generateListing, AssemblyCache cache) throws Exception {
+		byte[] source = Files.readAllBytes(Main.resolve(directory, inputFile).toPath());
+		int dot = inputFile.lastIndexOf('.');
+		if (dot == -1) {
+			dot = inputFile.length();
+		}
+		File outputFile = Main.resolve(directory, inputFile.substring(0, dot) + ".out");
+		
+		String hash = null;
+		if (cache != null) {
+			hash = cache.hash(inputFile, source);
+			AssemblyCache.Entry entry = cache.get(hash);
+			if (entry != null) {
+				Main.writeAllText(outputFile, entry.objectCode);
+				return generateListing ? entry.listing : null;
+			}
+		}
+		
+		CharBuffer data = Charset.defaultCharset().decode(ByteBuffer.wrap(source));
+		Assembler assembler = new Assembler();
+		Program program = assembler.assemble(inputFile, data);
+		
+		StringBuffer listing = new StringBuffer();
+		String result = program.getCode(listing);
+		Main.writeAllText(outputFile, result);
+		if (cache != null) {
+			try {
+				cache.put(hash, result, listing.toString());
+			}
+			catch (IOException e) {
+				// The file is assembled; it is only assembled again next time
+			}
+		}
+		return generateListing ? listing.toString() : null;
+	}
+	
+	/**
+	 * Waits for a file to be assembled and prints its listing or errors.
+	 * @param inputFile Path to the assembly file.
+	 * @param result The pending result of assembleFile.
+	 * @param nameFile True to name the file before its errors.
+	 * @param out Stream listings and errors are printed to.
+	 * @param err Stream stack traces are printed to.
+	 */
+	private static void report(String inputFile, Future<String> result, boolean nameFile, PrintStream out, PrintStream err) throws InterruptedException {
+		try {
+			String listing = result.get();
+			if (listing != null) {
+				out.println(listing);
+			}
+		}
+		catch (ExecutionException wrapper) {
+			Throwable e = wrapper.getCause();
+			while (e.getClass() == RuntimeException.class && e.getCause() != null) {
+				// The pool wraps the checked exceptions of a task
+				e = e.getCause();
+			}
+			if (nameFile) {
+				out.println(inputFile + ":");
+			}
+			if (e instanceof IOException) {
+				out.println("Failed to assemble program due to an IO error.");
+			} else if (e.getMessage() != null) {
+				out.println(e.getMessage());
 			} else {
-				e.printStackTrace();
+				e.printStackTrace(err);
 			}
-			return;
 		}
 	}
 	
 	/**
 	 * Prints usage information for users of this program.
+	 * @param out Stream to print to.
 	 */
-	private static void printUsageInformation() {
-		System.out.println("Usage:\tjava Assembler.Main inputfiles [options]");
-		System.out.println("\tinputfiles\tSpecify path to input assembly files.");
-		System.out.println("\t-l\t\tGenerate and display source code listing.");
+	private static void printUsageInformation(PrintStream out) {
+		out.println("Usage:\tjava Assembler.Main inputfiles [options]");
+		out.println("\tinputfiles\tSpecify path to input assembly files, or to directories of .asm files.");
+		out.println("\t-l\t\tGenerate and display source code listing.");
+		out.println("\t--cache dir\tReuse the output of files assembled before, kept in dir.");
+		out.println("\t--cache-size n\tEvict least recently used cache entries beyond n megabytes (default " + Main.DEFAULT_CACHE_MEGABYTES + ").");
 	}
 	
 	/**
-	 * Reads all text in the file existing at the given path location into a string.
-	 * @param filename Path to the desired file.
-	 * @return A string containing all the data existing in the desired file.
+	 * Resolves a path given on the command line.
+	 * @param directory Directory the path is relative to, or null for the working directory.
+	 * @param path The path.
+	 * @return The file the path names.
 	 */
-	private static String readAllText(String filename) throws IOException {
-        StringBuffer fileData = new StringBuffer();
-        BufferedReader reader = new BufferedReader(new FileReader(filename));
-		int numRead = 0;
-		String line = null;
-		while ((line = reader.readLine()) != null) {
-			fileData.append(line);
-			fileData.append("\n");
-		}
-        reader.close();
-        return fileData.toString();
-    }
+	private static File resolve(File directory, String path) {
+		File file = new File(path);
+		return directory == null || file.isAbsolute() ? file : new File(directory, path);
+	}
 	
 	/**
 	 * Writes all given text to the file existing at the given path location.
 	 * If the file already exists, it is overwritten. If not, it is created.
-	 * @param filename The filename of the file to write to.
+	 * @param filename The file to write to.
 	 * @param data The text to write to the file.
 	 */
-	private static void writeAllText(String filename, String data) throws IOException {
+	private static void writeAllText(File filename, String data) throws IOException {
         BufferedWriter out = new BufferedWriter(new FileWriter(filename));
 		out.write(data);
 		out.close();
@@ -103,6 +103,21 @@ public class Operand {
 				& (x << this.definition.getLeastSignificantBit());
 	}
 	
+	/**
+	 * Gets the binary value of this Operand as insert would insert it, before
+	 * it is shifted into place.
+	 * 
+	 * @param symbols
+	 *            The SymbolTable used to create this instruction
+	 * @param literals
+	 *            The LiteralTable used to create this instruction
+	 * @return the value of the Operand
+	 * @throws Exception
+	 */
+	public int getValue(SymbolTable symbols, LiteralTable literals) throws Exception {
+		return Operand.getValue(this.value, symbols, this.definition, this.type, literals);
+	}
+	
 	public Symbol getSymbol(SymbolTable symbols) {
 		if (this.type == OperandType.SYMBOL) {
 			return symbols.get(this.value);
@@ -10,6 +10,11 @@ import java.util.Arrays;
  */
 public class OperandDefinition {
 
+	/**
+	 * Number of bits in the page offset of an address.
+	 */
+	private static final int PAGE_OFFSET_BITS = 9;
+
 	/**
 	 * Right-aligned index of the most significant bit this definition's
 	 * Operands are allowed to affect in the executable code.
@@ -191,6 +196,17 @@ public class OperandDefinition {
 		return this.relocatable;
 	}
 
+	/**
+	 * True if this definition's Operands are inserted as the page offset of
+	 * an address, which only reaches the page of the incremented program
+	 * counter.
+	 * 
+	 * @return true if and only if the Operand is a page offset
+	 */
+	public boolean isPageOffset() {
+		return this.relocatable && this.mostSignificant - this.leastSignificant + 1 == OperandDefinition.PAGE_OFFSET_BITS;
+	}
+
 	/**
 	 * Any Operands that use this definition must have a type that is contained
 	 * in this collection.
@@ -0,0 +1,468 @@
+package Assembler;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import Common.Error;
+import Common.Symbol;
+import Common.SymbolTable;
+
+/**
+ * A PageLayout places the instructions of a program at their final addresses
+ * when the program spans more than one memory page. An operand with a 9-bit
+ * page offset can only name an address in the page of the incremented
+ * program counter, so an instruction whose target lies in another page is
+ * given a far form which reaches it through a full address word:
+ *
+ * LD becomes LDI, ST becomes STI, LEA becomes LD and LDI becomes LDI then
+ * LDR Rd, Rd, #0, each through an address word placed after a BRNZP which
+ * skips it. No register is changed that the near form would not change, and
+ * the condition codes are set as the near form sets them. The three words
+ * from the address word on must share a page, so up to two NOPs are put in
+ * front when the sequence would straddle a page boundary. The padding is
+ * worked out afresh as each far form is placed.
+ *
+ * A branch, JSR or JMP whose target is on the next page is padded with NOPs
+ * to the last word of its own page, whose incremented program counter is
+ * already on the next page, when that takes fewer words than its far form.
+ * Otherwise it jumps through a register loaded from an address word. A
+ * branch or JMP becomes LD R7 then JMPR R7, with the address word after the
+ * jump, and a conditional branch first skips all of it on the opposite
+ * condition. JSR becomes LD R6 then JSRR R6 after a BRNZP over the address
+ * word, so that it returns past the sequence; it cannot use R7, since JSRR
+ * links R7 before it reads its base register. Unlike their near forms, these
+ * change R7 or R6 and the condition codes.
+ *
+ * Far forms move everything after them, which may push other targets out of
+ * reach, so layout is repeated until no more instructions need one. An
+ * instruction only moves from its near form to a padded or far form, and
+ * from a padded form to its far form, so the repetition ends. STI has no
+ * far form, since the machine cannot store through a full address without
+ * a free register; it is reported as an error.
+ */
+public class PageLayout {
+
+	/**
+	 * Number of bits to shift an address right to get its page.
+	 */
+	private static final int PAGE_SHIFT = 9;
+
+	/**
+	 * Number of words in a page.
+	 */
+	private static final int PAGE_SIZE = 1 << PageLayout.PAGE_SHIFT;
+
+	/**
+	 * Mask of the page offset of an address.
+	 */
+	private static final int OFFSET_MASK = PageLayout.PAGE_SIZE - 1;
+
+	/**
+	 * Form of an instruction whose target is reached by its page offset.
+	 */
+	private static final int NEAR = 0;
+
+	/**
+	 * Form of a branch, JSR or JMP padded to the last word of its page.
+	 */
+	private static final int PADDED = 1;
+
+	/**
+	 * Form of an instruction which reaches its target through an address word.
+	 */
+	private static final int FAR = 2;
+
+	/**
+	 * Number of words in the 16-bit address space.
+	 */
+	private static final int ADDRESS_SPACE = 0x10000;
+
+	/**
+	 * BRNZP with a zero page offset.
+	 */
+	private static final int BRANCH_ALWAYS = 0x0E00;
+
+	/**
+	 * LD with zero operands.
+	 */
+	private static final int LOAD = 0x2000;
+
+	/**
+	 * LDI with zero operands.
+	 */
+	private static final int LOAD_INDIRECT = 0xA000;
+
+	/**
+	 * STI with zero operands.
+	 */
+	private static final int STORE_INDIRECT = 0xB000;
+
+	/**
+	 * LDR with zero operands.
+	 */
+	private static final int LOAD_REGISTER = 0x6000;
+
+	/**
+	 * JMPR with zero operands.
+	 */
+	private static final int JUMP_REGISTER = 0xC000;
+
+	/**
+	 * JSRR with zero operands.
+	 */
+	private static final int JUMP_SUBROUTINE_REGISTER = 0xC800;
+
+	/**
+	 * Condition bits of a branch.
+	 */
+	private static final int CONDITION_MASK = 0x0E00;
+
+	/**
+	 * Register the far form of a branch or JMP jumps through.
+	 */
+	private static final int JUMP_BASE = 7;
+
+	/**
+	 * Register the far form of JSR jumps through.
+	 */
+	private static final int SUBROUTINE_BASE = 6;
+
+	/**
+	 * Bit the destination register of an instruction starts at.
+	 */
+	private static final int DESTINATION_BIT = 9;
+
+	/**
+	 * Bit the base register of LDR starts at.
+	 */
+	private static final int BASE_BIT = 6;
+
+	/**
+	 * Relocation mask of a full address word.
+	 */
+	private static final int ADDRESS_MASK = 0xFFFF;
+
+	/**
+	 * Labels, with the index of the instruction each names.
+	 */
+	private Map<Symbol, Integer> labels = new LinkedHashMap<Symbol, Integer>();
+
+	/**
+	 * Records that a label names the instruction at the given index, or the
+	 * end of the program if there are no more instructions.
+	 * @param label the label
+	 * @param index index of the instruction in the program
+	 */
+	public void addLabel(Symbol label, int index) {
+		this.labels.put(label, index);
+	}
+
+	/**
+	 * Records that a symbol was defined by .EQU as another symbol, so that it
+	 * moves with it if that symbol is a label.
+	 * @param alias the symbol defined by .EQU
+	 * @param target the symbol it was defined as
+	 */
+	public void addAlias(Symbol alias, Symbol target) {
+		Integer index = this.labels.get(target);
+		if (index != null) {
+			this.labels.put(alias, index);
+		}
+	}
+
+	/**
+	 * Places the instructions of a program, giving padded or far forms to
+	 * those whose targets are out of reach, and moves the labels and the literal table to
+	 * their final addresses.
+	 * @param instructions the instructions of the program
+	 * @param symbols the symbols of the program
+	 * @param literals the literals of the program
+	 * @param origin the address of the first instruction
+	 * @param errors list to add an error to for each target which cannot be reached
+	 * @return the address just past the last instruction
+	 */
+	public int place(List<Instruction> instructions, SymbolTable symbols, LiteralTable literals, int origin, List<Error> errors) throws Exception {
+		Instruction[] program = instructions.toArray(new Instruction[instructions.size()]);
+		int[] addresses = new int[program.length + 1];
+		int[] forms = new int[program.length];
+		int[] padding = new int[program.length];
+		boolean changed = true;
+		while (changed) {
+			// Place every instruction with the forms chosen so far
+			int address = origin;
+			for (int i = 0; i < program.length; i++) {
+				addresses[i] = address;
+				if (forms[i] == PageLayout.PADDED) {
+					padding[i] = PageLayout.getPageEndPadding(address);
+					address += padding[i] + 1;
+				} else if (forms[i] == PageLayout.FAR) {
+					padding[i] = PageLayout.getPadding(program[i], address);
+					address += PageLayout.getFarSize(program[i], padding[i]);
+				} else {
+					address += program[i].getDefinition().getSize();
+				}
+			}
+			addresses[program.length] = address;
+			for (Map.Entry<Symbol, Integer> label : this.labels.entrySet()) {
+				label.getKey().setValue(addresses[label.getValue()]);
+			}
+			literals.setOffset(address);
+			if (address > PageLayout.ADDRESS_SPACE) {
+				// Reported as out of the addressable range
+				return address;
+			}
+
+			changed = false;
+			for (int i = 0; i < program.length; i++) {
+				if (forms[i] == PageLayout.NEAR && PageLayout.hasFarForm(program[i]) && !PageLayout.isReachable(program[i], addresses[i], symbols, literals)) {
+					forms[i] = PageLayout.canPad(program[i], addresses[i], symbols, literals) ? PageLayout.PADDED : PageLayout.FAR;
+					changed = true;
+				} else if (forms[i] == PageLayout.PADDED && !PageLayout.canPad(program[i], addresses[i], symbols, literals)) {
+					forms[i] = PageLayout.FAR;
+					changed = true;
+				}
+			}
+		}
+
+		for (int i = 0; i < program.length; i++) {
+			if (forms[i] == PageLayout.PADDED) {
+				program[i].setDefinition(PageLayout.getPaddedDefinition(program[i], padding[i]));
+			} else if (forms[i] == PageLayout.FAR) {
+				program[i].setDefinition(PageLayout.getFarDefinition(program[i], addresses[i], padding[i], symbols, literals));
+			}
+			else if (!PageLayout.isReachable(program[i], addresses[i], symbols, literals)) {
+				// Only STI has no far form
+				errors.add(new Error(program[i].getLineNumber(), "Target of STI is on another memory page. Load its address and store with STR."));
+			}
+		}
+		return addresses[program.length];
+	}
+
+	/**
+	 * Determines whether the page offset operand of an instruction at the
+	 * given address reaches its target. Instructions without one, and
+	 * targets which are immediate, imported or undefined, are taken as
+	 * reachable; the latter are checked when the code is made.
+	 */
+	private static boolean isReachable(Instruction instruction, int address, SymbolTable symbols, LiteralTable literals) {
+		Operand operand = PageLayout.getPageOffsetOperand(instruction);
+		if (operand == null || operand.getType() == OperandType.IMMEDIATE) {
+			return true;
+		}
+		Symbol symbol = operand.getSymbol(symbols);
+		if (operand.getType() == OperandType.SYMBOL && (symbol == null || symbol.isImport())) {
+			return true;
+		}
+		int target;
+		try {
+			target = operand.getValue(symbols, literals);
+		}
+		catch (Exception e) {
+			return true;
+		}
+		return (target >> PageLayout.PAGE_SHIFT) == ((address + 1) >> PageLayout.PAGE_SHIFT);
+	}
+
+	/**
+	 * Gets the operand of an instruction which is inserted as a page offset.
+	 * @return the operand, or null if there is none
+	 */
+	private static Operand getPageOffsetOperand(Instruction instruction) {
+		OperandDefinition[] definitions = instruction.getDefinition().getOperandDefinitions();
+		Operand[] operands = instruction.getOperands();
+		for (int i = 0; i < definitions.length && i < operands.length; i++) {
+			if (definitions[i].isPageOffset()) {
+				return operands[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determines whether an instruction has a far form.
+	 */
+	private static boolean hasFarForm(Instruction instruction) {
+		return PageLayout.getFarOperation(instruction.getName()) != 0;
+	}
+
+	/**
+	 * Determines whether an instruction is a branch, JSR or JMP.
+	 */
+	private static boolean isJump(String name) {
+		return name.startsWith("BR") || name.equals("JSR") || name.equals("JMP");
+	}
+
+	/**
+	 * Determines whether an instruction is a branch which is not always taken.
+	 */
+	private static boolean isConditional(String name) {
+		return name.startsWith("BR") && !name.equals("BRNZP");
+	}
+
+	/**
+	 * Gets the instruction which reaches the target of the given instruction
+	 * through an address word.
+	 * @return the operation with zero operands, or 0 if there is none
+	 */
+	private static int getFarOperation(String name) {
+		if (name.equals("LD") || name.equals("LDI")) {
+			return PageLayout.LOAD_INDIRECT;
+		} else if (name.equals("ST")) {
+			return PageLayout.STORE_INDIRECT;
+		} else if (name.equals("LEA") || PageLayout.isJump(name)) {
+			return PageLayout.LOAD;
+		}
+		return 0;
+	}
+
+	/**
+	 * Determines whether a branch, JSR or JMP at the given address reaches
+	 * its target from the last word of the page, with fewer NOPs in front
+	 * than its far form has words.
+	 */
+	private static boolean canPad(Instruction instruction, int address, SymbolTable symbols, LiteralTable literals) {
+		int padding = PageLayout.getPageEndPadding(address);
+		return PageLayout.isJump(instruction.getName()) && padding < PageLayout.getFarSize(instruction, 0)
+				&& PageLayout.isReachable(instruction, address + padding, symbols, literals);
+	}
+
+	/**
+	 * Gets the number of NOPs which move an instruction at the given address
+	 * to the last word of its page.
+	 */
+	private static int getPageEndPadding(int address) {
+		return PageLayout.OFFSET_MASK - (address & PageLayout.OFFSET_MASK);
+	}
+
+	/**
+	 * Gets the number of words of the far form of an instruction which must
+	 * share a page, counted from the word after its first: those the page
+	 * offsets in it name, and those after each instruction with one.
+	 */
+	private static int getSharedWords(Instruction instruction) {
+		String name = instruction.getName();
+		if (name.equals("JSR") || !PageLayout.isJump(name)) {
+			// Address word, the instruction using it and the word after that
+			return 3;
+		}
+		// LD's address word and, for a conditional branch, the word its skip lands on
+		return PageLayout.isConditional(name) ? 4 : 2;
+	}
+
+	/**
+	 * Gets the number of NOPs to put in front of the far form of an
+	 * instruction placed at the given address, so that the words it needs
+	 * to share a page do.
+	 */
+	private static int getPadding(Instruction instruction, int address) {
+		int offset = (address + 1) & PageLayout.OFFSET_MASK;
+		return offset > PageLayout.PAGE_SIZE - PageLayout.getSharedWords(instruction) ? PageLayout.PAGE_SIZE - offset : 0;
+	}
+
+	/**
+	 * Gets the number of words the far form of an instruction takes.
+	 */
+	private static int getFarSize(Instruction instruction, int padding) {
+		String name = instruction.getName();
+		if (name.equals("JSR") || name.equals("LDI")) {
+			// Skip, address word, the instruction, and JSRR or LDR
+			return padding + 4;
+		} else if (PageLayout.isJump(name)) {
+			// LD, JMPR, address word and a conditional branch's skip
+			return padding + 3 + (PageLayout.isConditional(name) ? 1 : 0);
+		}
+		// Skip, address word and the instruction
+		return padding + 3;
+	}
+
+	/**
+	 * Makes the padded form of a branch, JSR or JMP: NOPs, then the
+	 * instruction in the last word of the page.
+	 * @param instruction the instruction
+	 * @param padding number of NOPs before it
+	 * @return the padded definition
+	 */
+	private static InstructionDefinition getPaddedDefinition(Instruction instruction, int padding) {
+		int[] operations = new int[padding + 1];
+		operations[padding] = instruction.getDefinition().getOperations()[0];
+		OperandDefinition[] near = instruction.getDefinition().getOperandDefinitions();
+		OperandDefinition[] operands = new OperandDefinition[near.length];
+		for (int i = 0; i < near.length; i++) {
+			operands[i] = new OperandDefinition(near[i].isRelocatable(), near[i].getAcceptableTypes(), padding,
+					near[i].getMostSignificantBit(), near[i].getLeastSignificantBit());
+		}
+		return new InstructionDefinition(instruction.getName(), operations, operands);
+	}
+
+	/**
+	 * Makes the far form of an instruction: NOPs to pad it, the instruction
+	 * loading from the address word and the address word. A load or store
+	 * and JSR have a BRNZP over the address word in front of the instruction,
+	 * and JSR is followed by JSRR. A branch or JMP is followed by JMPR and
+	 * then the address word, and a conditional branch starts with a skip past
+	 * the address word on the opposite condition. The register operand goes
+	 * into the instruction and the target into the address word; the page
+	 * offsets in the form are fixed by the layout, so the definition marks
+	 * them for relocation.
+	 * @param instruction the instruction
+	 * @param address address of the far form
+	 * @param padding number of NOPs in front
+	 * @param symbols the symbols of the program
+	 * @param literals the literals of the program
+	 * @return the far definition
+	 */
+	private static InstructionDefinition getFarDefinition(Instruction instruction, int address, int padding, SymbolTable symbols, LiteralTable literals) throws Exception {
+		String name = instruction.getName();
+		int size = PageLayout.getFarSize(instruction, padding);
+		int[] operations = new int[size];
+		int[] relocationMasks = new int[size];
+		int pointer;
+		int operation;
+		if (name.equals("JSR") || !PageLayout.isJump(name)) {
+			pointer = padding + 1;
+			operation = padding + 2;
+			operations[padding] = PageLayout.BRANCH_ALWAYS | ((address + operation) & PageLayout.OFFSET_MASK);
+			relocationMasks[padding] = PageLayout.OFFSET_MASK;
+		} else {
+			operation = padding;
+			if (PageLayout.isConditional(name)) {
+				int condition = ~instruction.getDefinition().getOperations()[0] & PageLayout.CONDITION_MASK;
+				operations[operation] = condition | ((address + size) & PageLayout.OFFSET_MASK);
+				relocationMasks[operation] = PageLayout.OFFSET_MASK;
+				operation++;
+			}
+			pointer = operation + 2;
+			operations[operation + 1] = PageLayout.JUMP_REGISTER | (PageLayout.JUMP_BASE << PageLayout.BASE_BIT);
+		}
+		operations[operation] = PageLayout.getFarOperation(name) | ((address + pointer) & PageLayout.OFFSET_MASK);
+		relocationMasks[operation] = PageLayout.OFFSET_MASK;
+		if (name.equals("JSR")) {
+			operations[operation] |= PageLayout.SUBROUTINE_BASE << PageLayout.DESTINATION_BIT;
+			operations[operation + 1] = PageLayout.JUMP_SUBROUTINE_REGISTER | (PageLayout.SUBROUTINE_BASE << PageLayout.BASE_BIT);
+		} else if (PageLayout.isJump(name)) {
+			operations[operation] |= PageLayout.JUMP_BASE << PageLayout.DESTINATION_BIT;
+		}
+
+		OperandDefinition[] near = instruction.getDefinition().getOperandDefinitions();
+		OperandDefinition[] operands = new OperandDefinition[near.length];
+		for (int i = 0; i < near.length; i++) {
+			if (near[i].isPageOffset()) {
+				operands[i] = new OperandDefinition(true, near[i].getAcceptableTypes(), pointer, 15, 0);
+				if (instruction.getOperands()[i].getType() == OperandType.LITERAL) {
+					// The address of a literal moves with the program
+					relocationMasks[pointer] = PageLayout.ADDRESS_MASK;
+				}
+			} else {
+				operands[i] = new OperandDefinition(near[i].isRelocatable(), near[i].getAcceptableTypes(), operation,
+						near[i].getMostSignificantBit(), near[i].getLeastSignificantBit());
+				if (name.equals("LDI")) {
+					// Follow the address LDI loaded
+					int register = instruction.getOperands()[i].getValue(symbols, literals);
+					operations[operation + 1] = PageLayout.LOAD_REGISTER
+							| (register << PageLayout.DESTINATION_BIT) | (register << PageLayout.BASE_BIT);
+				}
+			}
+		}
+		return new InstructionDefinition(name, operations, operands, relocationMasks);
+	}
+}
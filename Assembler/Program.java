@@ -8,6 +8,7 @@ import java.util.Comparator;
 import java.util.Collections;
 import Common.ByteOperations;
 import Common.Error;
+import Common.SourceLine;
 import Common.Symbol;
 import Common.SymbolTable;
 
@@ -72,12 +73,60 @@ public class Program {
 		this.origin = origin;
 	}
 	
+	/**
+	 *  Determines whether this Program is relocatable.
+	 * @return true iff the program is relocatable
+	 */
+	public boolean isRelocatable() {
+		return this.isRelocatable;
+	}
+	
+	/**
+	 *  Gets the symbols defined by this Program.
+	 * @return the SymbolTable of the program
+	 */
+	public SymbolTable getSymbols() {
+		return this.symbols;
+	}
+	
+	/**
+	 *  Gets the source lines of this Program with the addresses they assembled
+	 *  into, in the order of the listing. The literal table is not included.
+	 * @return a List of SourceLines, one for each line which is not a comment
+	 */
+	public List<SourceLine> getSourceLines() {
+		List<SourceLine> lines = new LinkedList<SourceLine>();
+		int address = this.origin;
+		for (Instruction instruction : this.instructions) {
+			int size = instruction.getDefinition().getSize();
+			boolean isExecutable = !instruction.getName().startsWith(".");
+			lines.add(new SourceLine(instruction.getLineNumber(), instruction.getSource(), address, size, isExecutable));
+			address += size;
+		}
+		return lines;
+	}
+	
 	/**
 	 *  Gets the object code for this Program, optionally displaying a listing for the user.
 	 * @param printListing a boolean to determine whether or not to print a program listing
 	 * @return a String representing the object file
 	 */
 	public String getCode(boolean printListing) throws Exception {
+		StringBuffer listing = new StringBuffer();
+		String code = this.getCode(listing);
+		if (printListing) {
+			System.out.println(listing);
+		}
+		return code;
+	}
+	
+	/**
+	 *  Gets the object code for this Program, appending its listing to the given buffer.
+	 *  Nothing is appended if the program has errors.
+	 * @param listing a StringBuffer to append the program listing to
+	 * @return a String representing the object file
+	 */
+	public String getCode(StringBuffer listing) throws Exception {
 		
 		StringBuffer output = new StringBuffer();
 		
@@ -213,9 +262,8 @@ public class Program {
 				msg.append("\n");
 			}
 			throw new Exception(msg.toString());
-		} else if (printListing) {
-			System.out.println(output);
 		}
+		listing.append(output);
 		
 		// Return resulting code.
 		return result.toString();
@@ -0,0 +1,304 @@
+package Assembler;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+
+/**
+ * A SourceTokenizer walks the lines of an assembly source file held in a
+ * CharBuffer and cuts each line into its label, operation and operand fields
+ * in place. Fields are kept as offsets into the buffer, so no String is made
+ * for a line, a blank label or a known operation; Strings are only made for
+ * labels, operands and unknown operations, once each, when they are asked for.
+ *
+ * Lines follow String.split("\n"): a line ends at '\n' and empty lines at the
+ * end of the file are dropped. A '\r' before the '\n' is not part of the line,
+ * as when the file is read with BufferedReader.readLine.
+ */
+public class SourceTokenizer {
+
+	/**
+	 * Column the label field ends before.
+	 */
+	private static final int LABEL_END = 7;
+
+	/**
+	 * Length a line must reach to have a label field.
+	 */
+	private static final int LABEL_MIN_LENGTH = 8;
+
+	/**
+	 * Column the operation field starts at.
+	 */
+	private static final int OP_START = 9;
+
+	/**
+	 * Column the operation field ends before.
+	 */
+	private static final int OP_END = 14;
+
+	/**
+	 * Column the operand field starts at.
+	 */
+	private static final int OPERANDS_START = 17;
+
+	/**
+	 * The source file.
+	 */
+	private CharBuffer buffer;
+
+	/**
+	 * Offset just past the last line of the file, dropping empty lines at the end.
+	 */
+	private int end;
+
+	/**
+	 * Offset of the first character of the current line.
+	 */
+	private int lineStart;
+
+	/**
+	 * Offset just past the last character of the current line.
+	 */
+	private int lineEnd;
+
+	/**
+	 * Offset the next line starts at, or -1 once every line has been read.
+	 */
+	private int next;
+
+	/**
+	 * Operations the tokenizer returns without making a String.
+	 */
+	private String[] knownOps;
+
+	/**
+	 * Instantiates a SourceTokenizer over the remaining characters of the given
+	 * buffer, which it reads without moving its position.
+	 *
+	 * @param buffer the source file
+	 * @param knownOps the operations to return without making a String
+	 */
+	public SourceTokenizer(CharBuffer buffer, String[] knownOps) {
+		this.buffer = buffer;
+		this.knownOps = knownOps;
+		int end = buffer.remaining();
+		while (end > 0 && buffer.get(buffer.position() + end - 1) == '\n') {
+			end--;
+		}
+		// String.split gives one empty line for an empty file, but none for
+		// a file of line breaks.
+		this.end = end;
+		this.next = end == 0 && buffer.remaining() > 0 ? -1 : 0;
+	}
+
+	/**
+	 * Advances to the next line.
+	 *
+	 * @return true iff there was another line
+	 */
+	public boolean nextLine() {
+		if (this.next < 0) {
+			return false;
+		}
+		this.lineStart = this.next;
+		int i = this.lineStart;
+		while (i < this.end && this.charAt(i) != '\n') {
+			i++;
+		}
+		this.next = i < this.end ? i + 1 : -1;
+		if (i > this.lineStart && this.charAt(i - 1) == '\r') {
+			i--;
+		}
+		this.lineEnd = i;
+		return true;
+	}
+
+	/**
+	 * @return the current line, as a view of the buffer
+	 */
+	public CharSequence getLine() {
+		return this.buffer.subSequence(this.lineStart, this.lineEnd);
+	}
+
+	/**
+	 * @return the length of the current line
+	 */
+	public int getLength() {
+		return this.lineEnd - this.lineStart;
+	}
+
+	/**
+	 * @return true iff the current line is a comment
+	 */
+	public boolean isComment() {
+		return this.getLength() >= 1 && this.charAt(this.lineStart) == ';';
+	}
+
+	/**
+	 * Gets the label field of the current line, trimmed.
+	 *
+	 * @return the label, or "" if the line has none
+	 */
+	public String getLabel() {
+		if (this.getLength() < SourceTokenizer.LABEL_MIN_LENGTH) {
+			return "";
+		}
+		return this.trimmed(this.lineStart, this.lineStart + SourceTokenizer.LABEL_END);
+	}
+
+	/**
+	 * Determines whether the columns which must separate the fields of the
+	 * current line hold anything but spaces.
+	 *
+	 * @return true iff the line is spaced incorrectly
+	 */
+	public boolean hasSpacingError() {
+		int length = this.getLength();
+		if (length >= SourceTokenizer.OP_START && !this.isBlank(SourceTokenizer.LABEL_END, SourceTokenizer.OP_START)) {
+			return true;
+		}
+		return length >= SourceTokenizer.OPERANDS_START && !this.isBlank(SourceTokenizer.OP_END, SourceTokenizer.OPERANDS_START);
+	}
+
+	/**
+	 * Gets the operation field of the current line, trimmed. Known operations
+	 * are returned as the known String.
+	 *
+	 * @return the operation, or "" if the line has none
+	 */
+	public String getOp() {
+		int length = this.getLength();
+		if (length <= SourceTokenizer.OP_START) {
+			return "";
+		}
+		int start = this.lineStart + SourceTokenizer.OP_START;
+		int end = this.lineStart + Math.min(length, SourceTokenizer.OP_END);
+		while (start < end && this.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && this.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (start == end) {
+			return "";
+		}
+		for (String op : this.knownOps) {
+			if (this.matches(start, end, op)) {
+				return op;
+			}
+		}
+		return this.slice(start, end);
+	}
+
+	/**
+	 * Extracts the raw string values of the operands of the current line: the
+	 * operand field up to a comment, split at commas outside quotes. A quoted
+	 * operand keeps everything from the previous comma to its closing quote.
+	 *
+	 * @return an array of strings containing the operands
+	 * @throws Exception if a quoted operand is not closed
+	 */
+	public String[] getOperands() throws Exception {
+		ArrayList<String> result = new ArrayList<String>();
+		if (this.getLength() < SourceTokenizer.OPERANDS_START) {
+			return new String[0];
+		}
+		int start = this.lineStart + SourceTokenizer.OPERANDS_START;
+		int end = this.lineEnd;
+		while (start < end && this.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && this.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		boolean inQuotes = false;
+		int operandStart = start;
+		int i = start;
+		for (; i < end; i++) {
+			char c = this.charAt(i);
+			if (inQuotes) {
+				if (c == '"') {
+					inQuotes = false;
+					result.add(this.slice(operandStart, i + 1));
+					operandStart = i + 1;
+				}
+			} else if (c == '"') {
+				inQuotes = true;
+			} else if (c == ';') {
+				break;
+			} else if (c == ',') {
+				result.add(this.trimmed(operandStart, i));
+				operandStart = i + 1;
+			}
+		}
+		if (inQuotes) {
+			// Un-closed quotes
+			throw new Exception("Detected string operand with unclosed quotation mark.");
+		}
+		String last = this.trimmed(operandStart, i);
+		if (last.length() > 0) {
+			result.add(last);
+		}
+		String[] array = new String[result.size()];
+		return result.toArray(array);
+	}
+
+	/**
+	 * Gets the characters between the given offsets with spaces and control
+	 * characters trimmed from both ends, as String.trim does.
+	 */
+	private String trimmed(int start, int end) {
+		while (start < end && this.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && this.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return start == end ? "" : this.slice(start, end);
+	}
+
+	/**
+	 * Determines whether the given columns of the current line are blank after trimming.
+	 */
+	private boolean isBlank(int from, int to) {
+		for (int i = this.lineStart + from; i < this.lineStart + to; i++) {
+			if (this.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Determines whether the characters between the given offsets spell the given String.
+	 */
+	private boolean matches(int start, int end, String text) {
+		if (end - start != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (this.charAt(start + i) != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes a String of the characters between the given offsets.
+	 */
+	private String slice(int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			chars[i - start] = this.charAt(i);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Gets the character at the given offset from the start of the file.
+	 */
+	private char charAt(int offset) {
+		return this.buffer.get(this.buffer.position() + offset);
+	}
+}
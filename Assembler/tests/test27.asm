@@ -1,5 +1,5 @@
 Test27   .ORIG
-Test     .EQU    x3             ; 101 literals. Should break the literal limit.
+Test     .EQU    x3             ; 101 literals, past the old limit of 100.
 Begin    LD      R0, =#100
          LD      R0, =#101
          LD      R0, =#102
@@ -0,0 +1,7 @@
+; BRZP is padded with three NOPs to the last word of the page, from which it reaches Far on the next memory page
+Test47   .ORIG   x0FFC
+Begin    BRZP    Far
+         TRAP    x25
+         .BLKW   #4
+Far      TRAP    x25
+         .END    Begin
\ No newline at end of file
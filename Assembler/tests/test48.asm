@@ -0,0 +1,7 @@
+; JSR is padded with three NOPs to the last word of the page, from which it reaches Sub on the next memory page
+Test48   .ORIG   x0FFC
+Begin    JSR     Sub
+         TRAP    x25
+         .BLKW   #4
+Sub      RET
+         .END    Begin
\ No newline at end of file
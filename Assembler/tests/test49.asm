@@ -0,0 +1,7 @@
+; Assembler should give an error; STI cannot reach Ptr on the next memory page
+Test49   .ORIG   x0FFC
+Begin    STI     R0,Ptr
+         TRAP    x25
+         .BLKW   #4
+Ptr      .FILL   x3000
+         .END    Begin
\ No newline at end of file
@@ -0,0 +1,14 @@
+; The program spans two memory pages; LEA and LDI reach Data and Ptr through their far forms.
+; LDI is padded with two NOPs so its address word starts the next page. Prints "BB".
+Test50   .ORIG   x0FFA
+Begin    LEA     R1,Data         ;R1 <- Data
+         LDI     R2,Ptr          ;R2 <- M[M[Ptr]] = x42
+         LDR     R0,R1,#0        ;R0 <- x42
+         ADD     R0,R0,#0
+         TRAP    x21             ;print "B"
+         ADD     R0,R2,#0
+         TRAP    x21             ;print "B"
+         TRAP    x25
+Ptr      .FILL   Data
+Data     .FILL   x42
+         .END    Begin
\ No newline at end of file
@@ -0,0 +1,15 @@
+; LD only needs its far form once LDI's far form pushes Late onto the next
+; memory page, and that moves LDI past the point where it needed two NOPs.
+; LDI should be laid out without them. Prints "AA".
+Test51   .ORIG   x0FF0
+Begin    LD      R3,Late         ;R3 <- x41
+         .BLKW   #12             ;NOPs
+         LDI     R2,Ptr          ;R2 <- M[M[Ptr]] = x41
+Late     .FILL   x41             ;Executed as a NOP
+         ADD     R0,R3,#0
+         TRAP    x21             ;print "A"
+         ADD     R0,R2,#0
+         TRAP    x21             ;print "A"
+         TRAP    x25
+Ptr      .FILL   Late
+         .END    Begin
\ No newline at end of file
@@ -0,0 +1,30 @@
+; The program spans five memory pages. Branches and JMP reach targets two pages away,
+; forwards and backwards, through their far forms, and a far branch which is not taken
+; falls through. Prints "ABCDE".
+Test52   .ORIG   x0FF0
+Begin    LD      R0,CharA
+         BRP     Ahead           ;forwards across two pages
+         TRAP    x25
+CharA    .FILL   x41
+Back     LD      R0,CharC
+         TRAP    x21             ;print "C"
+         BRNZP   Last            ;forwards across four pages
+CharC    .FILL   x43
+         .BLKW   #1100
+Ahead    TRAP    x21             ;print "A"
+         LD      R0,CharB
+         TRAP    x21             ;print "B"
+         BRN     Begin           ;not taken
+         BRZP    Back            ;backwards across two pages
+         TRAP    x25
+Done     LD      R0,CharE
+         TRAP    x21             ;print "E"
+         TRAP    x25
+CharB    .FILL   x42
+CharE    .FILL   x45
+         .BLKW   #1100
+Last     LD      R0,CharD
+         TRAP    x21             ;print "D"
+         JMP     Done            ;backwards across two pages
+CharD    .FILL   x44
+         .END    Begin
\ No newline at end of file
@@ -0,0 +1,30 @@
+; The program spans three memory pages. JSR reaches subroutines two pages forwards and
+; backwards through its far form. The first JSR is padded with NOPs to the last word of
+; its page, from which it reaches the next page. Prints "ABC".
+Test53   .ORIG   x0FFD
+Begin    JSR     PrintA          ;padded to x0FFF
+         JSR     Far             ;forwards across two pages
+         TRAP    x25
+PrintA   ST      R7,Save
+         LD      R0,CharA
+         TRAP    x21             ;print "A"
+         LD      R7,Save
+         RET
+PrintB   ST      R7,Save
+         LD      R0,CharB
+         TRAP    x21             ;print "B"
+         LD      R7,Save
+         RET
+Save     .BLKW   #1
+CharA    .FILL   x41
+CharB    .FILL   x42
+         .BLKW   #1100
+Far      ST      R7,FarSave
+         JSR     PrintB          ;backwards across two pages
+         LD      R0,CharC
+         TRAP    x21             ;print "C"
+         LD      R7,FarSave
+         RET
+FarSave  .BLKW   #1
+CharC    .FILL   x43
+         .END    Begin
\ No newline at end of file
@@ -1,4 +1,4 @@
-; Assembler should give an error; the program spans multiple memory pages
+; The program spans two memory pages; ST reaches Array through its far form
 Test6    .ORIG   x0FF0
 count    .FILL   #4
 Begin    LD      ACC,count       ;R1 <- 4
@@ -1,11 +1,7 @@
 package Common;
 import java.io.PrintStream;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.List;
-import java.util.LinkedList;
-import java.util.Collections;
-import java.util.Comparator;
 
 /**
  * A MemoryBank represents the state of memory in a Machine.
@@ -18,10 +14,41 @@ public class MemoryBank {
 	private static final int PAGE_SHIFT = 9;
 
 	/**
-	 * The concrete representation of the memory. This dictionary maps 16-bit
+	 * Number of memory cells in a page.
+	 */
+	public static final int PAGE_SIZE = 1 << MemoryBank.PAGE_SHIFT;
+
+	/**
+	 * Number of memory cells addressable with a 16-bit unsigned address.
+	 */
+	public static final int MEMORY_SIZE = 0x10000;
+
+	/**
+	 * Number of pages in the 16-bit unsigned address space.
+	 */
+	public static final int PAGE_COUNT = MemoryBank.MEMORY_SIZE / MemoryBank.PAGE_SIZE;
+
+	/**
+	 * Mask used to wrap addresses into the 16-bit unsigned address space.
+	 */
+	private static final int ADDRESS_MASK = 0xFFFF;
+
+	/**
+	 * The concrete representation of the memory. This array maps 16-bit
 	 * unsigned addresses to 16-bit signed values.
 	 */
-	private Map<Integer, Short> data;
+	private short[] data;
+	
+	/**
+	 * Tracks which memory cells have been written. Only these cells are
+	 * emitted as text records or copied into other MemoryBanks.
+	 */
+	private BitSet written;
+	
+	/**
+	 * Listeners notified of every write to this MemoryBank.
+	 */
+	private MemoryListener[] listeners = new MemoryListener[0];
 	
 	/**
 	 * The first address with data in this MemoryBank.
@@ -37,7 +64,8 @@ public class MemoryBank {
 	 * Creates a new MemoryBank with zeroes for all memory values.
 	 */
 	public MemoryBank() {
-		this.data = new HashMap<Integer, Short>();
+		this.data = new short[MemoryBank.MEMORY_SIZE];
+		this.written = new BitSet(MemoryBank.MEMORY_SIZE);
 	}
 	
 	/**
@@ -46,8 +74,14 @@ public class MemoryBank {
 	 * @param value The 16-bit signed value to store in the memory cell.
 	 */
 	public void write(int address, short value) {
+		address &= MemoryBank.ADDRESS_MASK;
 		this.adjustBounds(address);
-		this.data.put(address, value);
+		short previousValue = this.data[address];
+		this.data[address] = value;
+		this.written.set(address);
+		for (MemoryListener listener : this.listeners) {
+			listener.memoryWritten(address, previousValue, value);
+		}
 	}
 	
 	/**
@@ -56,9 +90,59 @@ public class MemoryBank {
 	 * @return The 16-bit signed value stored at the specified memory cell.
 	 */
 	public short read(int address) {
-		if (this.data.containsKey(address))
-			return this.data.get(address);
-		return 0;
+		return this.data[address & MemoryBank.ADDRESS_MASK];
+	}
+	
+	/**
+	 * Copies the cells of the given page into the given array.
+	 * @param page The index of the page to copy.
+	 * @param destination Array of at least PAGE_SIZE cells to copy the page into.
+	 */
+	public void readPage(int page, short[] destination) {
+		System.arraycopy(this.data, page << MemoryBank.PAGE_SHIFT, destination, 0, MemoryBank.PAGE_SIZE);
+	}
+	
+	/**
+	 * Sets the cells of the given page to the values in the given array.
+	 * Only cells whose value changes are written, so listeners are notified
+	 * of the actual changes alone.
+	 * @param page The index of the page to set.
+	 * @param source Array of at least PAGE_SIZE cells to copy from.
+	 */
+	public void writePage(int page, short[] source) {
+		int pageStart = page << MemoryBank.PAGE_SHIFT;
+		for (int i = 0; i < MemoryBank.PAGE_SIZE; i++) {
+			if (this.data[pageStart + i] != source[i]) {
+				this.write(pageStart + i, source[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Registers a listener to be notified of every subsequent write to this MemoryBank.
+	 * @param listener The MemoryListener to notify.
+	 */
+	public void addListener(MemoryListener listener) {
+		MemoryListener[] result = new MemoryListener[this.listeners.length + 1];
+		System.arraycopy(this.listeners, 0, result, 0, this.listeners.length);
+		result[this.listeners.length] = listener;
+		this.listeners = result;
+	}
+	
+	/**
+	 * Stops notifying the given listener of writes to this MemoryBank.
+	 * @param listener The MemoryListener to remove.
+	 */
+	public void removeListener(MemoryListener listener) {
+		for (int i = 0; i < this.listeners.length; i++) {
+			if (this.listeners[i] == listener) {
+				MemoryListener[] result = new MemoryListener[this.listeners.length - 1];
+				System.arraycopy(this.listeners, 0, result, 0, i);
+				System.arraycopy(this.listeners, i + 1, result, i, result.length - i);
+				this.listeners = result;
+				return;
+			}
+		}
 	}
 	
 	/**
@@ -131,12 +215,13 @@ public class MemoryBank {
 			this.write(entry.getAddress(), value);
 		}
 		MemoryBank bank = new MemoryBank();
-		for (Map.Entry<Integer, Short> entry : this.data.entrySet()) {
-			bank.write(entry.getKey() + b - a, entry.getValue());
+		for (int i = this.written.nextSetBit(0); i >= 0; i = this.written.nextSetBit(i + 1)) {
+			bank.write(i + b - a, this.data[i]);
 		}
 		this.firstAddress += b - a;
 		this.lastAddress += b - a;
 		this.data = bank.data;
+		this.written = bank.written;
 	}
 	
 	/**
@@ -158,6 +243,12 @@ public class MemoryBank {
 			}
 			if (!foundNewValue)
 				throw new Exception("Undefined symbol \"" + entry.getSymbol() + "\".");
+			// A page offset can only name the page of the incremented program counter
+			if (entry.getLeastSignificantBit() == 0 && entry.getMostSignificantBit() == 8
+					&& ((newValue & 0xFE00) != ((entry.getAddress() + 1) & 0xFE00))) {
+				throw new Exception("Symbol \"" + entry.getSymbol() + "\" is on another memory page than the instruction at " +
+					ByteOperations.getHex(entry.getAddress(), 4) + " using it.");
+			}
 			value &= entry.getInverseMask();
 			value |= (newValue << entry.getLeastSignificantBit()) & entry.getMask();
 			this.write(entry.getAddress(), value);
@@ -169,8 +260,8 @@ public class MemoryBank {
 	 * @param bank the MemoryBank to insert data into.
 	 */
 	public void insertInto(MemoryBank bank) {
-		for (Map.Entry<Integer, Short> entry : this.data.entrySet()) {
-			bank.write(entry.getKey(), entry.getValue());
+		for (int i = this.written.nextSetBit(0); i >= 0; i = this.written.nextSetBit(i + 1)) {
+			bank.write(i, this.data[i]);
 		}
 	}
 	
@@ -180,17 +271,11 @@ public class MemoryBank {
 	 */
 	public String getRecords() {
 		StringBuffer result = new StringBuffer();
-		List<Map.Entry<Integer, Short>> list = new LinkedList<Map.Entry<Integer, Short>>(this.data.entrySet());
-		Collections.sort(list, new Comparator() {
-			public int compare(Object o1, Object o2) {
-				return ((Comparable) ((Map.Entry) (o1)).getKey())
-				.compareTo(((Map.Entry) (o2)).getKey());
-			}
-		});
-		for (Map.Entry<Integer, Short> entry : list) {
+		// Written cells are visited in ascending address order.
+		for (int i = this.written.nextSetBit(0); i >= 0; i = this.written.nextSetBit(i + 1)) {
 			result.append("T");
-			result.append(ByteOperations.getHex(entry.getKey(), 4));
-			result.append(ByteOperations.getHex(entry.getValue(), 4));
+			result.append(ByteOperations.getHex(i, 4));
+			result.append(ByteOperations.getHex(this.data[i], 4));
 			result.append("\r\n");
 		}
 		return result.toString();
@@ -0,0 +1,15 @@
+package Common;
+
+/**
+ * A MemoryListener is notified every time a cell of a MemoryBank it is
+ * attached to is written.
+ */
+public interface MemoryListener {
+	/**
+	 * Called after the memory cell at the given address has been written.
+	 * @param address The 16-bit unsigned address of the modified cell.
+	 * @param previousValue The value the cell held before the write.
+	 * @param value The value the cell holds now.
+	 */
+	void memoryWritten(int address, short previousValue, short value);
+}
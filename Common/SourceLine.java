@@ -0,0 +1,81 @@
+package Common;
+
+/**
+ * A SourceLine relates one line of assembly source code to the memory words
+ * it assembled into, so that facts about addresses can be reported against
+ * the source.
+ */
+public class SourceLine {
+	
+	/**
+	 * The number of the line in its source file, counting from 1.
+	 */
+	private int lineNumber;
+	
+	/**
+	 * The text of the line.
+	 */
+	private String source;
+	
+	/**
+	 * The address of the first word the line assembled into.
+	 */
+	private int address;
+	
+	/**
+	 * The number of words the line assembled into.
+	 */
+	private int size;
+	
+	/**
+	 * True iff the line is a machine instruction rather than a pseudo-op.
+	 */
+	private boolean isExecutable;
+	
+	/**
+	 * Instantiates a new SourceLine with the given data.
+	 */
+	public SourceLine(int lineNumber, String source, int address, int size, boolean isExecutable) {
+		this.lineNumber = lineNumber;
+		this.source = source;
+		this.address = address;
+		this.size = size;
+		this.isExecutable = isExecutable;
+	}
+	
+	/**
+	 * Gets the number of the line in its source file.
+	 */
+	public int getLineNumber() {
+		return this.lineNumber;
+	}
+	
+	/**
+	 * Gets the text of the line.
+	 */
+	public String getSource() {
+		return this.source;
+	}
+	
+	/**
+	 * Gets the address of the first word the line assembled into. Relocatable
+	 * programs give addresses relative to their origin.
+	 */
+	public int getAddress() {
+		return this.address;
+	}
+	
+	/**
+	 * Gets the number of words the line assembled into.
+	 */
+	public int getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * Returns true iff the line is a machine instruction rather than a pseudo-op.
+	 */
+	public boolean isExecutable() {
+		return this.isExecutable;
+	}
+}
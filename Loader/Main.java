@@ -1,4 +1,5 @@
 package Loader;
+import java.io.File;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -17,14 +18,25 @@ public class Main {
 	 * @param args Command line arguments.
 	 */
 	public static void main(String[] args) {
+		Main.run(args, null, System.out);
+	}
+	
+	/**
+	 * Runs the loader as the command line would, so that a toolchain daemon
+	 * can run it for a client in a directory of its own.
+	 * @param args Command line arguments.
+	 * @param directory Directory relative paths are resolved against, or null for the working directory.
+	 * @param out Stream listings and errors are printed to.
+	 */
+	public static void run(String[] args, File directory, PrintStream out) {
 		// Print usage data if necessary
 		if (args.length < 1 || args[0].equals("--help")) {
-			Main.printUsageInformation();
+			Main.printUsageInformation(out);
 			return;
 		}
 		
 		// IO stream for all program and trace output
-		PrintStream printStream = System.out;
+		PrintStream printStream = out;
 		PrintStream outputStream = null;
 		
 		List<String> inputFiles = new LinkedList<String>();
@@ -41,15 +53,15 @@ public class Main {
 					i++;
 					if (i < args.length) {
 						try {
-							outputStream = new PrintStream(args[i]);
+							outputStream = new PrintStream(Main.resolve(directory, args[i]));
 						}
 						catch (IOException e) {
-							System.out.println("Failed to open file \"" + args[i] + "\" for writing.");
+							printStream.println("Failed to open file \"" + args[i] + "\" for writing.");
 							return;
 						}
 					}
 					else {
-						Main.printUsageInformation();
+						Main.printUsageInformation(out);
 						return;
 					}
 					hasOutputFile = true;
@@ -67,23 +79,23 @@ public class Main {
 							origin = ByteOperations.parseHex(args[i]);
 						}
 						catch (Exception e) {
-							Main.printUsageInformation();
+							Main.printUsageInformation(out);
 							return;
 						}
 					}
 					else {
-						Main.printUsageInformation();
+						Main.printUsageInformation(out);
 						return;
 					}
 				}
 				else {
-					Main.printUsageInformation();
+					Main.printUsageInformation(out);
 					return;
 				}
 			}
 			
 			if (!hasOutputFile) {
-				Main.printUsageInformation();
+				Main.printUsageInformation(out);
 				return;
 			}
 			
@@ -91,10 +103,10 @@ public class Main {
 			List<String> fileData = new LinkedList<String>();
 			for (String inputFile : inputFiles) {
 				try {
-					fileData.add(Main.readAllText(inputFile));
+					fileData.add(Main.readAllText(Main.resolve(directory, inputFile)));
 				}
 				catch (IOException e) {
-					System.out.println("Failed to open file \"" + inputFile + "\" for reading.");
+					printStream.println("Failed to open file \"" + inputFile + "\" for reading.");
 					return;
 				}
 			}
@@ -115,6 +127,12 @@ public class Main {
 							objectFile.relocate(0, address);
 						else
 							throw new Exception("Object file \"" + file + "\" was expected to be relocatable, but is not.");
+						// Page offsets only survive relocation by whole pages, unless the file stays in one page
+						MemoryBank bank = objectFile.getMemoryBank();
+						if ((address & 0x01FF) != 0 && (bank.getFirstAddress() & 0xFE00) != (bank.getLastAddress() & 0xFE00)) {
+							throw new Exception("Object file \"" + inputFiles.get(i) + "\" would span multiple memory pages at " +
+								ByteOperations.getHex(address, 4) + ". Relocate it to the start of a page.");
+						}
 					}
 					if (i == 0) {
 						startAddress = objectFile.getStartAddress();
@@ -140,12 +158,6 @@ public class Main {
 					bank.resolveSymbols(symbolTables, file.getSymbolEntries());
 					bank.insertInto(result);
 				}
-				// If we relocated any files, make sure they don't span multiple memory pages
-				if (objectFiles.size() > 1 && (result.getFirstAddress() & 0xFE00) != (result.getLastAddress() & 0xFE00)) {
-					throw new Exception("Resulting program would span multiple memory pages. " +
-						" First address: " + ByteOperations.getHex(result.getFirstAddress(), 4) + 
-						" Last address: " + ByteOperations.getHex(result.getLastAddress(), 4));
-				}
 				String header = "H" + segmentName + ByteOperations.getHex(result.getFirstAddress(), 4) + ByteOperations.getHex(1 + result.getLastAddress() - result.getFirstAddress(), 4);
 				String textRecords = result.getRecords();
 				String end = "E" + ByteOperations.getHex(startAddress, 4);
@@ -173,20 +185,32 @@ public class Main {
 	
 	/**
 	 * Prints usage information for users of this program.
+	 * @param out Stream to print to.
+	 */
+	private static void printUsageInformation(PrintStream out) {
+		out.println("Usage:\tjava Loader.Main [inputfiles] -o outfile [options]");
+		out.println("\t-l\tGenerate listing");
+		out.println("\t-a addr\tRelocate program to addr (4-digit hex memory address)");
+		out.println("Note: if linking an absolute object file, it must come first in the file list.");
+	}
+	
+	/**
+	 * Resolves a path given on the command line.
+	 * @param directory Directory the path is relative to, or null for the working directory.
+	 * @param path The path.
+	 * @return The file the path names.
 	 */
-	private static void printUsageInformation() {
-		System.out.println("Usage:\tjava Loader.Main [inputfiles] -o outfile [options]");
-		System.out.println("\t-l\tGenerate listing");
-		System.out.println("\t-a addr\tRelocate program to addr (4-digit hex memory address)");
-		System.out.println("Note: if linking an absolute object file, it must come first in the file list.");
+	private static File resolve(File directory, String path) {
+		File file = new File(path);
+		return directory == null || file.isAbsolute() ? file : new File(directory, path);
 	}
 	
 	/**
 	 * Reads all text in the file existing at the given path location into a string.
-	 * @param filename Path to the desired file.
+	 * @param filename The desired file.
 	 * @return A string containing all the data existing in the desired file.
 	 */
-	private static String readAllText(String filename) throws IOException {
+	private static String readAllText(File filename) throws IOException {
         StringBuffer fileData = new StringBuffer();
         BufferedReader reader = new BufferedReader(new FileReader(filename));
 		int numRead = 0;
@@ -1,12 +1,31 @@
 package Simulator;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+import Assembler.Assembler;
+import Assembler.Program;
 import Common.MemoryBank;
+import Common.Symbol;
+import Simulator.program.BatchRunner;
+import Simulator.state.Journal;
+import Simulator.program.Breakpoints;
+import Simulator.program.Coverage;
+import Simulator.program.CoverageReport;
+import Simulator.program.DebugConsole;
+import Simulator.program.DebugServer;
 import Simulator.program.Loader;
 import Simulator.program.Machine;
 import Simulator.program.ExecutionMode;
+import Simulator.program.ExecutionEngine;
+import Simulator.program.TraceDecoder;
+import Simulator.program.TraceWriter;
 
 public class Main {
 	/**
@@ -20,14 +39,60 @@ public class Main {
 			return;
 		}
 		
+		// In batch mode the second argument names the programs to run
+		boolean batch = args[0].equals("--batch");
+		// In decode mode the second argument names the binary trace to decode
+		boolean decode = args[0].equals("--decode");
+		// In coverage mode the second argument names the coverage files to report
+		boolean coverageReport = args[0].equals("--coverage");
+		if ((batch || decode || coverageReport) && args.length < 2) {
+			Main.printUsageInformation();
+			return;
+		}
+		
 		// Default run mode: quiet
 		ExecutionMode mode = ExecutionMode.QUIET;
 		
+		// Default engine: reference
+		ExecutionEngine engine = ExecutionEngine.REFERENCE;
+		
+		// Default limits: none
+		long instructionLimit = 0;
+		long timeLimit = 0;
+		
+		// Binary trace file to record to, if any
+		String traceFile = null;
+		
+		// Default trace display: every page and register before each instruction
+		boolean deltaTrace = false;
+		
+		// Default breakpoints and watchpoints: none
+		Breakpoints breakpoints = new Breakpoints();
+		
+		// Journal file to record inputs to or replay them from, if any
+		String journalFile = null;
+		boolean replay = false;
+		
+		// Number of instructions to run quietly before switching to the selected mode, if any
+		long switchCount = 0;
+		
+		// Port to serve a remote debugger on, if any
+		int debugPort = -1;
+		
+		// Source file whose labels the step mode debugger accepts, if any
+		String symbolFile = null;
+		
+		// Coverage file to merge the executed addresses into, if any
+		String coverageFile = null;
+		
+		// Source files to report coverage against, in coverage mode
+		List<String> sources = new LinkedList<String>();
+		
 		// IO stream for all program and trace output
 		PrintStream printStream = System.out;
 		
 		try {
-			for (int i = 1; i < args.length; i++) {
+			for (int i = batch || decode || coverageReport ? 2 : 1; i < args.length; i++) {
 				if (args[i].equals("-o")) {
 					// Set up an output file
 					i++;
@@ -58,6 +123,156 @@ public class Main {
 						else if (modeString.equals("step")) {
 							mode = ExecutionMode.STEP;
 						}
+						else if (modeString.equals("profile")) {
+							mode = ExecutionMode.PROFILE;
+						}
+						else {
+							Main.printUsageInformation();
+							return;
+						}
+					}
+					else {
+						Main.printUsageInformation();
+						return;
+					}
+				}
+				else if (args[i].equals("-d")) {
+					// Display only what each instruction changes
+					deltaTrace = true;
+				}
+				else if (args[i].equals("-k") || args[i].equals("-wr") || args[i].equals("-ww")) {
+					// Set a breakpoint, or watch reads or writes of an address range
+					String option = args[i];
+					i++;
+					int first = -1;
+					int last = -1;
+					if (i < args.length) {
+						String[] range = args[i].split(":", 2);
+						first = Main.parseAddress(range[0]);
+						last = range.length > 1 ? Main.parseAddress(range[1]) : first;
+					}
+					if (first < 0 || last < first || (option.equals("-k") && last != first)) {
+						Main.printUsageInformation();
+						return;
+					}
+					if (option.equals("-k")) {
+						breakpoints.addBreakpoint(first);
+					}
+					else if (option.equals("-wr")) {
+						breakpoints.watchReads(first, last);
+					}
+					else {
+						breakpoints.watchWrites(first, last);
+					}
+				}
+				else if (args[i].equals("-b")) {
+					// Record trace mode to a binary trace file
+					i++;
+					if (i < args.length) {
+						traceFile = args[i];
+					}
+					else {
+						Main.printUsageInformation();
+						return;
+					}
+				}
+				else if (args[i].equals("-g")) {
+					// Serve a remote debugger
+					i++;
+					debugPort = -1;
+					if (i < args.length) {
+						try {
+							debugPort = Integer.parseInt(args[i]);
+						} catch (NumberFormatException e) {
+							debugPort = -1;
+						}
+					}
+					if (debugPort < 0 || debugPort > 0xFFFF) {
+						Main.printUsageInformation();
+						return;
+					}
+				}
+				else if (args[i].equals("-y")) {
+					// Read labels for the debugger from the program's source
+					i++;
+					if (i < args.length) {
+						symbolFile = args[i];
+					}
+					else {
+						Main.printUsageInformation();
+						return;
+					}
+				}
+				else if (args[i].equals("-c")) {
+					// Merge the executed addresses into a coverage file
+					i++;
+					if (i < args.length) {
+						coverageFile = args[i];
+					}
+					else {
+						Main.printUsageInformation();
+						return;
+					}
+				}
+				else if (coverageReport && !args[i].startsWith("-")) {
+					// A source file to report coverage against
+					sources.add(args[i]);
+				}
+				else if (args[i].equals("-jr") || args[i].equals("-jp")) {
+					// Record inputs to a journal, or replay them from one
+					replay = args[i].equals("-jp");
+					i++;
+					if (i < args.length) {
+						journalFile = args[i];
+					}
+					else {
+						Main.printUsageInformation();
+						return;
+					}
+				}
+				else if (args[i].equals("-i") || args[i].equals("-t") || args[i].equals("-s")) {
+					// Set the instruction or time limit, or when to switch modes
+					String option = args[i];
+					i++;
+					long limit = -1;
+					if (i < args.length) {
+						try {
+							limit = Long.parseLong(args[i]);
+						} catch (NumberFormatException e) {
+							limit = -1;
+						}
+					}
+					if (limit <= 0) {
+						Main.printUsageInformation();
+						return;
+					}
+					if (option.equals("-i")) {
+						instructionLimit = limit;
+					}
+					else if (option.equals("-t")) {
+						timeLimit = limit;
+					}
+					else {
+						switchCount = limit;
+					}
+				}
+				else if (args[i].equals("-e")) {
+					// Set the execution engine
+					i++;
+					if (i < args.length) {
+						String engineString = args[i].toLowerCase();
+						if (engineString.equals("reference")) {
+							engine = ExecutionEngine.REFERENCE;
+						}
+						else if (engineString.equals("fast")) {
+							engine = ExecutionEngine.FAST;
+						}
+						else if (engineString.equals("jit")) {
+							engine = ExecutionEngine.JIT;
+						}
+						else if (engineString.equals("fused")) {
+							engine = ExecutionEngine.FUSED;
+						}
 						else {
 							Main.printUsageInformation();
 							return;
@@ -80,6 +295,78 @@ public class Main {
 				System.out.println("Executing in step mode with an output file is not allowed.");
 				return;
 			}
+			// Breakpoints wait for a key press in the same way.
+			if ((printStream != System.out || batch) && breakpoints.isArmed()) {
+				System.out.println("Breakpoints and watchpoints with an output file or in batch mode are not allowed.");
+				return;
+			}
+			
+			if (decode) {
+				try (FileChannel channel = FileChannel.open(Paths.get(args[1]), StandardOpenOption.READ)) {
+					TraceDecoder.decode(channel, printStream);
+				}
+				catch (IOException e) {
+					System.out.println("Failed to open file \"" + args[1] + "\" for reading.");
+				}
+				catch (Exception e) {
+					printStream.println(e.getMessage());
+				}
+				return;
+			}
+			
+			if (coverageReport) {
+				if (sources.isEmpty()) {
+					Main.printUsageInformation();
+					return;
+				}
+				Main.reportCoverage(args[1], sources, printStream);
+				return;
+			}
+			
+			if ((journalFile != null || switchCount > 0) && batch) {
+				System.out.println("Journals and switching modes in batch mode are not allowed.");
+				return;
+			}
+			
+			if (debugPort >= 0 && (batch || mode == ExecutionMode.STEP || traceFile != null)) {
+				System.out.println("A remote debugger can only debug a single program in quiet or trace mode.");
+				return;
+			}
+			
+			if (symbolFile != null && (batch || mode != ExecutionMode.STEP)) {
+				System.out.println("Labels can only be read for a single program in step mode.");
+				return;
+			}
+			
+			if (coverageFile != null && (batch || mode == ExecutionMode.PROFILE || traceFile != null)) {
+				System.out.println("Coverage can only be recorded for a single program, and not in profile mode or to a binary trace.");
+				return;
+			}
+			
+			if (traceFile != null && (batch || mode != ExecutionMode.TRACE)) {
+				System.out.println("A binary trace can only be recorded for a single program in trace mode.");
+				return;
+			}
+			
+			if (batch) {
+				if (mode == ExecutionMode.STEP) {
+					System.out.println("Executing in step mode in batch mode is not allowed.");
+					return;
+				}
+				try {
+					BatchRunner runner = new BatchRunner(printStream, mode, engine);
+					runner.setLimits(instructionLimit, timeLimit);
+					runner.setDeltaTrace(deltaTrace);
+					runner.run(BatchRunner.listPrograms(args[1]));
+				}
+				catch (IOException e) {
+					System.out.println("Failed to read the batch \"" + args[1] + "\".");
+				}
+				catch (Exception e) {
+					printStream.println(e.getMessage());
+				}
+				return;
+			}
 			
 			// Path to the object file to load
 			String filename = args[0];
@@ -87,7 +374,7 @@ public class Main {
 			// Load all the file data into a string
 			String fileData = "";
 			try {
-				fileData = Main.readAllText(filename);
+				fileData = Loader.readAllText(filename);
 			}
 			catch (IOException e) {
 				System.out.println("Failed to open file \"" + filename + "\" for reading.");
@@ -96,19 +383,78 @@ public class Main {
 			
 			
 			int startAddress = 0;
+			Coverage coverage = coverageFile != null ? new Coverage() : null;
+			Journal journal = null;
 			try {
 				// Load the file data into the memory bank
 				MemoryBank memory = new MemoryBank();
 				startAddress = Loader.load(fileData, memory);
 				
 				// Run it!
-				Machine machine = new Machine(printStream, memory);
-				machine.run(startAddress, mode);
+				Machine machine = new Machine(printStream, memory, engine);
+				machine.setLimits(instructionLimit, timeLimit);
+				machine.setDeltaTrace(deltaTrace);
+				machine.setBreakpoints(breakpoints);
+				machine.setCoverage(coverage);
+				if (journalFile != null) {
+					try {
+						journal = replay ? Journal.replay(new FileInputStream(journalFile)) : Journal.record(new FileOutputStream(journalFile));
+					}
+					catch (IOException e) {
+						System.out.println("Failed to open journal \"" + journalFile + "\": " + e.getMessage());
+						return;
+					}
+					machine.setJournal(journal);
+				}
+				if (switchCount > 0) {
+					// Run quietly up to the switch, then continue in the selected mode within the same limits
+					machine.runQuietly(startAddress, switchCount);
+					startAddress = machine.getState().programCounter;
+				}
+				// A program which halted before the switch has nothing left to run
+				if (machine.getState().executing) {
+					if (debugPort >= 0) {
+						DebugServer server = new DebugServer(machine, debugPort);
+						System.out.println("Waiting for a debugger on port " + server.getPort() + ".");
+						server.debug(startAddress, mode);
+					}
+					else if (mode == ExecutionMode.STEP) {
+						DebugConsole debugger = new DebugConsole(machine, memory, printStream);
+						if (symbolFile != null) {
+							Main.defineSymbols(debugger, symbolFile, memory.getFirstAddress());
+						}
+						debugger.debug(startAddress);
+					}
+					else if (traceFile == null) {
+						machine.run(startAddress, mode);
+					}
+					else {
+						try (FileChannel channel = FileChannel.open(Paths.get(traceFile), StandardOpenOption.CREATE,
+								StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+							machine.setTraceWriter(new TraceWriter(channel));
+							machine.run(startAddress, mode);
+						}
+					}
+				}
 			}
 			catch (Exception e) {
 				printStream.println(e.getMessage());
 				return;
 			}
+			finally {
+				// Keep the coverage and journal of a run which failed or reached a limit
+				if (coverage != null) {
+					Main.saveCoverage(coverage, coverageFile);
+				}
+				if (journal != null) {
+					try {
+						journal.close();
+					}
+					catch (IOException e) {
+						System.out.println("Failed to write journal \"" + journalFile + "\": " + e.getMessage());
+					}
+				}
+			}
 		}
 		finally {
 			// No matter what happens, close our output stream if it's open.
@@ -123,27 +469,139 @@ public class Main {
 	 */
 	private static void printUsageInformation() {
 		System.out.println("Usage:\tjava Simulator.Main inputfile [options]");
+		System.out.println("\tjava Simulator.Main --batch directory|listfile [options]");
+		System.out.println("\tjava Simulator.Main --decode tracefile [-o outputfile]");
+		System.out.println("\tjava Simulator.Main --coverage coveragefile[,coveragefile...] sourcefile[@loadaddress]... [-o outputfile]");
 		System.out.println("\t-o outputfile\tRedirect output to specified file.");
 		System.out.println("\t-r quiet\tRun the program in quiet mode.");
 		System.out.println("\t-r trace\tRun the program in trace mode.");
-		System.out.println("\t-r step\tRun the program in step mode.");
+		System.out.println("\t-r step\tDebug the program interactively; type help for the commands.");
+		System.out.println("\t-r profile\tRun the program in profile mode.");
+		System.out.println("\t-d\tIn trace and step mode, display only what each instruction changes.");
+		System.out.println("\t-b tracefile\tRecord the last instructions of trace mode to a binary trace file.");
+		System.out.println("\t-k address\tPause before executing the instruction at address.");
+		System.out.println("\t-wr first[:last]\tPause before reading an address in the range.");
+		System.out.println("\t-ww first[:last]\tPause after writing an address in the range.");
+		System.out.println("\t-c coveragefile\tMerge the addresses of the instructions executed into a coverage file.");
+		System.out.println("\t-y sourcefile\tIn step mode, accept the labels of the program's source as locations.");
+		System.out.println("\t-g port\tWait for a remote debugger on the local TCP port.");
+		System.out.println("\t-jr journalfile\tRecord console input and random numbers to a journal.");
+		System.out.println("\t-jp journalfile\tReplay console input and random numbers from a journal.");
+		System.out.println("\t-s count\tRun quietly for count instructions before switching to the selected mode.");
+		System.out.println("\t-i count\tStop after executing count instructions.");
+		System.out.println("\t-t millis\tStop after running for millis milliseconds.");
+		System.out.println("\t\tIn batch mode without -i or -t, each program stops after " + BatchRunner.DEFAULT_TIME_LIMIT + " milliseconds.");
+		System.out.println("\t-e reference\tExecute with the instruction handlers (default).");
+		System.out.println("\t-e fast\tExecute quiet mode with the fast interpreter.");
+		System.out.println("\t-e jit\tExecute quiet mode compiling hot blocks to bytecode.");
+		System.out.println("\t-e fused\tExecute quiet mode fusing common sequences.");
 	}
 	
 	/**
-	 * Reads all text in the file existing at the given path location into a string.
-	 * @param filename Path to the desired file.
-	 * @return A string containing all the data existing in the desired file.
+	 * Assembles the given source file and defines its labels for the debugger.
+	 * Relocatable labels are taken relative to the lowest loaded address.
+	 * @param debugger The debugger to define the labels for.
+	 * @param filename Path to the source file.
+	 * @param loadAddress The lowest address the program was loaded at.
+	 * @throws Exception If the source cannot be read or assembled.
 	 */
-	private static String readAllText(String filename) throws IOException {
-        StringBuffer fileData = new StringBuffer();
-        BufferedReader reader = new BufferedReader(new FileReader(filename));
-		int numRead = 0;
-		String line = null;
-		while ((line = reader.readLine()) != null) {
-			fileData.append(line);
-			fileData.append("\n");
+	private static void defineSymbols(DebugConsole debugger, String filename, int loadAddress) throws Exception {
+		String source;
+		try {
+			source = Loader.readAllText(filename);
+		}
+		catch (IOException e) {
+			throw new Exception("Failed to open file \"" + filename + "\" for reading.");
+		}
+		Program program = new Assembler().assemble(filename, source);
+		for (Symbol symbol : program.getSymbols().getSymbols()) {
+			if (!symbol.isImport()) {
+				debugger.defineSymbol(symbol.getName(), symbol.isRelocatable() ? symbol.getValue() + loadAddress : symbol.getValue());
+			}
 		}
-        reader.close();
-        return fileData.toString();
-    }
+	}
+	
+	/**
+	 * Merges the given coverage into a coverage file, creating the file if it
+	 * does not exist.
+	 * @param coverage The coverage of this run.
+	 * @param filename Path to the coverage file.
+	 */
+	private static void saveCoverage(Coverage coverage, String filename) {
+		try {
+			if (new File(filename).exists()) {
+				try (FileInputStream input = new FileInputStream(filename)) {
+					coverage.merge(Coverage.read(input));
+				}
+			}
+			try (FileOutputStream output = new FileOutputStream(filename)) {
+				coverage.write(output);
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Failed to update coverage \"" + filename + "\": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Reports the merged coverage of the given files against the given sources.
+	 * @param coverageFiles Paths to the coverage files, separated by commas.
+	 * @param sources Paths to the source files, each optionally followed by @ and the load address of a relocatable program.
+	 * @param output The IO stream to print the report to.
+	 */
+	private static void reportCoverage(String coverageFiles, List<String> sources, PrintStream output) {
+		Coverage coverage = new Coverage();
+		for (String coverageFile : coverageFiles.split(",")) {
+			try (FileInputStream input = new FileInputStream(coverageFile)) {
+				coverage.merge(Coverage.read(input));
+			}
+			catch (IOException e) {
+				System.out.println("Failed to read coverage \"" + coverageFile + "\": " + e.getMessage());
+				return;
+			}
+		}
+		CoverageReport report = new CoverageReport(coverage, output);
+		for (String source : sources) {
+			String[] parts = source.split("@", 2);
+			int loadAddress = parts.length > 1 ? Main.parseAddress(parts[1]) : 0;
+			if (loadAddress < 0) {
+				Main.printUsageInformation();
+				return;
+			}
+			Program program;
+			try {
+				program = new Assembler().assemble(parts[0], Loader.readAllText(parts[0]));
+			}
+			catch (IOException e) {
+				System.out.println("Failed to open file \"" + parts[0] + "\" for reading.");
+				return;
+			}
+			catch (Exception e) {
+				output.println(e.getMessage());
+				return;
+			}
+			report.addFile(parts[0], program.getSourceLines(), program.isRelocatable() ? loadAddress : 0);
+		}
+		report.finish();
+	}
+	
+	/**
+	 * Parses a 16-bit address written in hexadecimal, with an optional x or 0x prefix.
+	 * @param text The address to parse.
+	 * @return The address, or -1 if the text is not a valid address.
+	 */
+	private static int parseAddress(String text) {
+		String digits = text.toLowerCase();
+		if (digits.startsWith("0x"))
+			digits = digits.substring(2);
+		else if (digits.startsWith("x"))
+			digits = digits.substring(1);
+		try {
+			int address = Integer.parseInt(digits, 16);
+			return address <= 0xFFFF ? address : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package Simulator.benchmark;
+
+/**
+ * A single benchmark run by the BenchmarkRunner. The runner calls setUp
+ * once, then calls prepare and invoke repeatedly while it measures how many
+ * operations complete per second of invoke and how many bytes each operation
+ * allocates. The time and allocation of prepare are not measured.
+ */
+public abstract class Benchmark {
+	/**
+	 * Name of this benchmark, as reported by the runner.
+	 */
+	private String name;
+	
+	/**
+	 * Name of the operations counted by this benchmark, such as "ops" or
+	 * "instructions".
+	 */
+	private String unit;
+	
+	/**
+	 * Creates a new Benchmark.
+	 * @param _name Name of the benchmark.
+	 * @param _unit Name of the operations counted by the benchmark.
+	 */
+	public Benchmark(String _name, String _unit) {
+		this.name = _name;
+		this.unit = _unit;
+	}
+	
+	/**
+	 * Prepares the benchmark before it is measured.
+	 */
+	public void setUp() throws Exception {
+	}
+	
+	/**
+	 * Prepares the next invocation, outside the measured time, like a JMH
+	 * setup at the invocation level.
+	 */
+	public void prepare() throws Exception {
+	}
+	
+	/**
+	 * Performs one batch of the operations being measured.
+	 * @return The number of operations performed.
+	 */
+	public abstract long invoke() throws Exception;
+	
+	/**
+	 * Gets the name of this benchmark.
+	 * @return The name of this benchmark.
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Gets the name of the operations counted by this benchmark.
+	 * @return The name of the operations counted by this benchmark.
+	 */
+	public String getUnit() {
+		return this.unit;
+	}
+}
@@ -0,0 +1,179 @@
+package Simulator.benchmark;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Measures Benchmarks in the style of JMH: a number of timed warmup
+ * iterations, whose results are discarded, followed by timed measurement
+ * iterations. For each benchmark it reports the mean throughput with its
+ * 99.9% confidence error, and, like the JMH GC profiler, the bytes allocated
+ * per operation and the number and duration of garbage collections.
+ */
+public class BenchmarkRunner {
+	/**
+	 * Student's t value for a 99.9% confidence interval with many samples.
+	 */
+	private static final double CONFIDENCE_T = 3.29;
+	
+	/**
+	 * Number of nanoseconds in a millisecond.
+	 */
+	private static final long NANOS_PER_MILLI = 1000000L;
+	
+	/**
+	 * IO stream the results are reported to.
+	 */
+	private PrintStream output;
+	
+	/**
+	 * Number of warmup iterations per benchmark.
+	 */
+	private int warmupIterations;
+	
+	/**
+	 * Number of measurement iterations per benchmark.
+	 */
+	private int measurementIterations;
+	
+	/**
+	 * Length of each iteration in milliseconds.
+	 */
+	private long iterationTime;
+	
+	/**
+	 * Sum of all operation counts, so invocations are never optimized away.
+	 */
+	private long sink = 0;
+	
+	/**
+	 * Creates a new BenchmarkRunner.
+	 * @param _output The IO stream to report results to.
+	 * @param _warmupIterations Number of warmup iterations per benchmark.
+	 * @param _measurementIterations Number of measurement iterations per benchmark.
+	 * @param _iterationTime Length of each iteration in milliseconds.
+	 */
+	public BenchmarkRunner(PrintStream _output, int _warmupIterations, int _measurementIterations, long _iterationTime) {
+		this.output = _output;
+		this.warmupIterations = _warmupIterations;
+		this.measurementIterations = _measurementIterations;
+		this.iterationTime = _iterationTime;
+	}
+	
+	/**
+	 * Measures every given benchmark and reports the results.
+	 * @param benchmarks The benchmarks to measure.
+	 */
+	public void run(List<Benchmark> benchmarks) throws Exception {
+		this.output.println(String.format("%-40s %16s %12s %-14s %12s %8s %8s",
+			"Benchmark", "Score", "Error", "Units", "Alloc B/op", "GC count", "GC ms"));
+		for (Benchmark benchmark : benchmarks) {
+			this.run(benchmark);
+		}
+	}
+	
+	/**
+	 * Measures a single benchmark and reports the result.
+	 */
+	private void run(Benchmark benchmark) throws Exception {
+		benchmark.setUp();
+		for (int i = 0; i < this.warmupIterations; i++) {
+			this.iterate(benchmark, null);
+		}
+		
+		double[] scores = new double[this.measurementIterations];
+		long[] allocation = new long[2];
+		long gcCount = -BenchmarkRunner.getGcCount();
+		long gcTime = -BenchmarkRunner.getGcTime();
+		for (int i = 0; i < this.measurementIterations; i++) {
+			scores[i] = this.iterate(benchmark, allocation);
+		}
+		gcCount += BenchmarkRunner.getGcCount();
+		gcTime += BenchmarkRunner.getGcTime();
+		
+		double mean = 0;
+		for (double score : scores) {
+			mean += score;
+		}
+		mean /= scores.length;
+		double variance = 0;
+		for (double score : scores) {
+			variance += (score - mean) * (score - mean);
+		}
+		double error = 0;
+		if (scores.length > 1) {
+			error = BenchmarkRunner.CONFIDENCE_T * Math.sqrt(variance / (scores.length - 1) / scores.length);
+		}
+		double bytesPerOperation = allocation[1] == 0 ? 0 : (double) allocation[0] / allocation[1];
+		this.output.println(String.format("%-40s %16.1f %12.1f %-14s %12.1f %8d %8d",
+			benchmark.getName(), mean, error, benchmark.getUnit() + "/s", bytesPerOperation, gcCount, gcTime));
+	}
+	
+	/**
+	 * Prepares and invokes the benchmark repeatedly for one iteration,
+	 * measuring only the invocations.
+	 * @param allocation If not null, the bytes allocated and operations
+	 * performed are added to its first and second elements.
+	 * @return The number of operations per second.
+	 */
+	private double iterate(Benchmark benchmark, long[] allocation) throws Exception {
+		long bytes = 0;
+		long operations = 0;
+		long measured = 0;
+		long end = System.nanoTime() + this.iterationTime * BenchmarkRunner.NANOS_PER_MILLI;
+		long now;
+		do {
+			benchmark.prepare();
+			bytes -= BenchmarkRunner.getAllocatedBytes();
+			long start = System.nanoTime();
+			operations += benchmark.invoke();
+			now = System.nanoTime();
+			bytes += BenchmarkRunner.getAllocatedBytes();
+			measured += now - start;
+		} while (now < end);
+		this.sink += operations;
+		if (allocation != null) {
+			allocation[0] += bytes;
+			allocation[1] += operations;
+		}
+		return operations * 1e9 / measured;
+	}
+	
+	/**
+	 * Gets the number of bytes allocated by the current thread, or zero if
+	 * the JVM cannot measure it.
+	 */
+	private static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+			if (sunThreads.isThreadAllocatedMemorySupported()) {
+				return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Gets the total number of garbage collections so far.
+	 */
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the total time spent in garbage collection so far, in milliseconds.
+	 */
+	private static long getGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+}
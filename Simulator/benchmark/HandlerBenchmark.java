@@ -0,0 +1,95 @@
+package Simulator.benchmark;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.instructions.InstructionMappings;
+import Simulator.state.Console;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+
+/**
+ * Measures a single InstructionHandler executing an already decoded
+ * instruction, as the Machine does for every instruction it runs. Output is
+ * discarded and input is never requested.
+ */
+public class HandlerBenchmark extends Benchmark {
+	/**
+	 * Number of times the instruction is executed per invocation.
+	 */
+	private static final int OPERATIONS_PER_INVOCATION = 1024;
+	
+	/**
+	 * Address the instruction is executed from.
+	 */
+	private static final int ADDRESS = 0x3000;
+	
+	/**
+	 * Output stream which discards everything.
+	 */
+	private static final PrintStream nullOutStream = new PrintStream(new OutputStream() {
+		public void write(byte[] b, int off, int len) {}
+		public void write(int b) {}
+	});
+	
+	/**
+	 * Input stream which is always at its end.
+	 */
+	private static final InputStream nullInStream = new InputStream() {
+		public int read() { return -1; }
+	};
+	
+	/**
+	 * The instruction code to execute.
+	 */
+	private int instruction;
+	
+	/**
+	 * The decoded instruction to execute.
+	 */
+	private DecodedInstruction decoded;
+	
+	/**
+	 * The state the instruction executes against.
+	 */
+	private MachineState state;
+	
+	/**
+	 * The memory the instruction executes against.
+	 */
+	private MemoryBank memory;
+	
+	/**
+	 * Creates a benchmark of the handler of the given instruction.
+	 * @param _name Name of the benchmark.
+	 * @param _instruction The 16-bit instruction code to execute.
+	 */
+	public HandlerBenchmark(String _name, int _instruction) {
+		super(_name, "ops");
+		this.instruction = _instruction;
+	}
+	
+	@Override
+	public void setUp() throws Exception {
+		this.decoded = InstructionMappings.decode(this.instruction, HandlerBenchmark.ADDRESS + 1);
+		this.state = new MachineState();
+		this.state.console = new Console(HandlerBenchmark.nullOutStream, HandlerBenchmark.nullInStream);
+		this.memory = new MemoryBank();
+		// Give loads, stores and PUTS something to work with
+		for (int i = 0; i < 0x40; i++) {
+			this.memory.write(HandlerBenchmark.ADDRESS + i, (short) (i == 0x3F ? 0 : 'a' + i % 26));
+		}
+	}
+	
+	@Override
+	public long invoke() {
+		for (int i = 0; i < HandlerBenchmark.OPERATIONS_PER_INVOCATION; i++) {
+			this.state.programCounter = HandlerBenchmark.ADDRESS + 1;
+			this.state.registers[0] = (short) HandlerBenchmark.ADDRESS;
+			this.state.registers[1] = (short) HandlerBenchmark.ADDRESS;
+			this.decoded.handler.execute(HandlerBenchmark.nullOutStream, HandlerBenchmark.nullInStream, this.decoded, this.state, this.memory);
+		}
+		this.state.console.flush();
+		return HandlerBenchmark.OPERATIONS_PER_INVOCATION;
+	}
+}
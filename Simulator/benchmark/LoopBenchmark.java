@@ -0,0 +1,139 @@
+package Simulator.benchmark;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import Common.MemoryBank;
+import Simulator.program.ExecutionEngine;
+import Simulator.program.ExecutionMode;
+import Simulator.program.Machine;
+import Simulator.program.TraceWriter;
+
+/**
+ * Measures a long-running loop on a new Machine in quiet mode, in guest
+ * instructions per second. Unlike the integration test programs, the loops
+ * spend nearly all their time in a few instructions, so they show what each
+ * engine does to the inner loop itself. The Machine for each run is made in
+ * prepare, so only the run itself is measured.
+ * 
+ * A recorded loop runs in trace mode with a TraceWriter instead, saving to
+ * a channel which discards the trace, so comparing it with the reference
+ * engine in quiet mode gives the cost of recording a binary trace.
+ */
+public class LoopBenchmark extends Benchmark {
+	/**
+	 * Two nested loops counting down, 512 times each: ADD / BR pairs.
+	 */
+	public static final short[] COUNTDOWN = new short[] {
+		(short) 0x2408, // LD R2, x3008
+		(short) 0x2208, // LD R1, x3008
+		(short) 0x127F, // ADD R1, R1, #-1
+		(short) 0x0202, // BRP x3002
+		(short) 0x14BF, // ADD R2, R2, #-1
+		(short) 0x0201, // BRP x3001
+		(short) 0xF025, // TRAP x25
+		(short) 0x0000,
+		(short) 0x0200,
+	};
+	
+	/**
+	 * Two nested loops, 512 times each, incrementing a variable in memory:
+	 * LD / ADD / ST sequences followed by ADD / BR pairs.
+	 */
+	public static final short[] COUNTER = new short[] {
+		(short) 0x280A, // LD R4, x300A
+		(short) 0x220A, // LD R1, x300A
+		(short) 0x240B, // LD R2, x300B
+		(short) 0x14A1, // ADD R2, R2, #1
+		(short) 0x340B, // ST R2, x300B
+		(short) 0x127F, // ADD R1, R1, #-1
+		(short) 0x0202, // BRP x3002
+		(short) 0x193F, // ADD R4, R4, #-1
+		(short) 0x0201, // BRP x3001
+		(short) 0xF025, // TRAP x25
+		(short) 0x0200,
+		(short) 0x0000,
+	};
+	
+	/**
+	 * Address the loops are loaded at and start from.
+	 */
+	private static final int ORIGIN = 0x3000;
+	
+	/**
+	 * Output stream which discards everything.
+	 */
+	private static final PrintStream nullOutStream = new PrintStream(new OutputStream() {
+		public void write(byte[] b, int off, int len) {}
+		public void write(int b) {}
+	});
+	
+	/**
+	 * The engine the loop runs with.
+	 */
+	private ExecutionEngine engine;
+	
+	/**
+	 * Instructions and data of the loop, loaded at ORIGIN.
+	 */
+	private short[] program;
+	
+	/**
+	 * Records each run in trace mode; null to run in quiet mode.
+	 */
+	private TraceWriter trace;
+	
+	/**
+	 * The Machine the next run executes on, with a fresh copy of the loop.
+	 */
+	private Machine machine;
+	
+	/**
+	 * Creates a benchmark of the given loop.
+	 * @param _name Name of the benchmark.
+	 * @param _engine The engine to run the loop with.
+	 * @param _program Instructions and data of the loop, loaded at x3000.
+	 */
+	public LoopBenchmark(String _name, ExecutionEngine _engine, short[] _program) {
+		super(_name, "instructions");
+		this.engine = _engine;
+		this.program = _program;
+	}
+	
+	/**
+	 * Creates a benchmark of the given loop recorded to a binary trace with
+	 * the reference engine.
+	 * @param _name Name of the benchmark.
+	 * @param _program Instructions and data of the loop, loaded at x3000.
+	 */
+	public LoopBenchmark(String _name, short[] _program) {
+		this(_name, ExecutionEngine.REFERENCE, _program);
+		this.trace = new TraceWriter(new WritableByteChannel() {
+			public int write(ByteBuffer source) {
+				int length = source.remaining();
+				source.position(source.limit());
+				return length;
+			}
+			public boolean isOpen() {
+				return true;
+			}
+			public void close() {}
+		});
+	}
+	
+	@Override
+	public void prepare() {
+		MemoryBank memory = new MemoryBank();
+		for (int i = 0; i < this.program.length; i++) {
+			memory.write(LoopBenchmark.ORIGIN + i, this.program[i]);
+		}
+		this.machine = new Machine(LoopBenchmark.nullOutStream, memory, this.engine);
+		this.machine.setTraceWriter(this.trace);
+	}
+	
+	@Override
+	public long invoke() throws Exception {
+		this.machine.run(LoopBenchmark.ORIGIN, this.trace != null ? ExecutionMode.TRACE : ExecutionMode.QUIET);
+		return this.machine.getState().instructionsExecuted;
+	}
+}
@@ -0,0 +1,151 @@
+package Simulator.benchmark;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.List;
+import Assembler.Assembler;
+import Common.MemoryBank;
+import Common.SymbolTable;
+import Loader.Loader;
+import Loader.ObjectFile;
+import Simulator.program.ExecutionEngine;
+import Simulator.program.ExecutionLimitException;
+import Simulator.program.ExecutionMode;
+import Simulator.program.Machine;
+
+/**
+ * Measures complete runs of a program on a new Machine in quiet mode, in
+ * guest instructions per second. The program is assembled and linked from
+ * its source files once, during setUp. The Machine for each run is made in
+ * prepare, so only the run itself is measured. Programs which never halt
+ * are stopped at INSTRUCTION_LIMIT instructions.
+ */
+public class MachineBenchmark extends Benchmark {
+	/**
+	 * Number of instructions after which a run is stopped.
+	 */
+	public static final long INSTRUCTION_LIMIT = 1000000;
+	
+	/**
+	 * Input given to programs which read from the console.
+	 */
+	private static final String INPUT = "a\n12\n";
+	
+	/**
+	 * Number of times the input is repeated.
+	 */
+	private static final int INPUT_REPEAT = 64;
+	
+	/**
+	 * Output stream which discards everything.
+	 */
+	private static final PrintStream nullOutStream = new PrintStream(new OutputStream() {
+		public void write(byte[] b, int off, int len) {}
+		public void write(int b) {}
+	});
+	
+	/**
+	 * The engine the program runs with.
+	 */
+	private ExecutionEngine engine;
+	
+	/**
+	 * Paths of the assembly source files of the program, in link order.
+	 */
+	private String[] sources;
+	
+	/**
+	 * The linked program, copied into a new MemoryBank for every run.
+	 */
+	private MemoryBank image;
+	
+	/**
+	 * Address execution of the program starts at.
+	 */
+	private int startAddress;
+	
+	/**
+	 * Bytes of the console input given to every run.
+	 */
+	private byte[] input;
+	
+	/**
+	 * The Machine the next run executes on, with a fresh copy of the program.
+	 */
+	private Machine machine;
+	
+	/**
+	 * Creates a benchmark of the program assembled from the given sources.
+	 * @param _name Name of the benchmark.
+	 * @param _engine The engine to run the program with.
+	 * @param _sources Paths of the assembly source files of the program, in link order.
+	 */
+	public MachineBenchmark(String _name, ExecutionEngine _engine, String... _sources) {
+		super(_name, "instructions");
+		this.engine = _engine;
+		this.sources = _sources;
+	}
+	
+	@Override
+	public void setUp() throws Exception {
+		// Assemble and link the same way Assembler.Main and Loader.Main do
+		List<ObjectFile> objectFiles = new LinkedList<ObjectFile>();
+		List<SymbolTable> symbolTables = new LinkedList<SymbolTable>();
+		int address = 0;
+		for (String source : this.sources) {
+			String code = new Assembler().assemble(source, Simulator.program.Loader.readAllText(source)).getCode(false);
+			ObjectFile objectFile = Loader.load(code);
+			if (address != 0) {
+				objectFile.relocate(0, address);
+			} else {
+				this.startAddress = objectFile.getStartAddress();
+			}
+			address = objectFile.getMemoryBank().getLastAddress() + 1;
+			objectFiles.add(objectFile);
+			symbolTables.add(objectFile.getSymbols());
+		}
+		this.image = new MemoryBank();
+		for (ObjectFile file : objectFiles) {
+			file.getMemoryBank().resolveSymbols(symbolTables, file.getSymbolEntries());
+			file.getMemoryBank().insertInto(this.image);
+		}
+		StringBuffer input = new StringBuffer();
+		for (int i = 0; i < MachineBenchmark.INPUT_REPEAT; i++) {
+			input.append(MachineBenchmark.INPUT);
+		}
+		this.input = input.toString().getBytes();
+	}
+	
+	@Override
+	public void prepare() {
+		MemoryBank memory = new MemoryBank();
+		this.image.insertInto(memory);
+		this.machine = new Machine(MachineBenchmark.nullOutStream, new ByteArrayInputStream(this.input), memory, this.engine);
+		this.machine.setLimits(MachineBenchmark.INSTRUCTION_LIMIT, 0);
+	}
+	
+	@Override
+	public long invoke() throws Exception {
+		try {
+			this.machine.run(this.startAddress, ExecutionMode.QUIET);
+		} catch (ExecutionLimitException e) {
+			return e.getState().instructionsExecuted;
+		}
+		return this.machine.getState().instructionsExecuted;
+	}
+	
+	/**
+	 * Determines whether every source file of the program exists.
+	 * @return True if and only if the program can be assembled.
+	 */
+	public boolean isAvailable() {
+		for (String source : this.sources) {
+			if (!new File(source).isFile())
+				return false;
+		}
+		return true;
+	}
+	
+}
@@ -0,0 +1,150 @@
+package Simulator.benchmark;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import Simulator.instructions.InstructionMappings;
+import Simulator.program.ExecutionEngine;
+
+/**
+ * Runs the simulator benchmark suite: every InstructionHandler, the
+ * MemoryBank operations, two long-running loops and complete runs of the
+ * integration test programs with every execution engine.
+ */
+public class Main {
+	/**
+	 * Instructions measured by the handler benchmarks, one or more per op code.
+	 */
+	private static final int[] HANDLER_INSTRUCTIONS = new int[] {
+		0x0E05, // BRNZP
+		0x1042, // ADD R0, R1, R2
+		0x1063, // ADD R0, R1, #3
+		0x2005, // LD R0
+		0x3005, // ST R0
+		0x4805, // JSR
+		0x5042, // AND R0, R1, R2
+		0x507F, // AND R0, R1, #-1
+		0x6045, // LDR R0, R1, #5
+		0x7045, // STR R0, R1, #5
+		0x8000, // DBUG
+		0x9040, // NOT R0, R1
+		0xA005, // LDI R0
+		0xB005, // STI R0
+		0xC845, // JSRR R1, #5
+		0xD000, // RET
+		0xE005, // LEA R0
+		0xF021, // TRAP OUT
+		0xF022, // TRAP PUTS
+		0xF025, // TRAP HALT
+		0xF031, // TRAP OUTN
+		0xF043, // TRAP RND
+	};
+	
+	/**
+	 * Integration test programs, each listed as the source files to link.
+	 */
+	private static final String[][] PROGRAMS = new String[][] {
+		{ "test1.asm" },
+		{ "test2.asm" },
+		{ "test3part0.asm", "test3part1.asm" },
+		{ "test4.asm" },
+		{ "test5part0.asm", "test5part1.asm", "test5part2.asm" },
+		{ "test7.asm" },
+		{ "test8.asm" },
+	};
+	
+	/**
+	 * Program entry point.
+	 * @param args Command line arguments.
+	 */
+	public static void main(String[] args) {
+		String filter = null;
+		String directory = "Integration" + File.separator + "Testing";
+		int warmupIterations = 3;
+		int measurementIterations = 5;
+		long iterationTime = 500;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-w") && i + 1 < args.length) {
+					warmupIterations = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-i") && i + 1 < args.length) {
+					measurementIterations = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-t") && i + 1 < args.length) {
+					iterationTime = Long.parseLong(args[++i]);
+				}
+				else if (args[i].equals("-d") && i + 1 < args.length) {
+					directory = args[++i];
+				}
+				else if (!args[i].startsWith("-") && filter == null) {
+					filter = args[i];
+				}
+				else {
+					Main.printUsageInformation();
+					return;
+				}
+			}
+		}
+		catch (NumberFormatException e) {
+			Main.printUsageInformation();
+			return;
+		}
+		if (measurementIterations < 1 || iterationTime < 1) {
+			Main.printUsageInformation();
+			return;
+		}
+		
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int instruction : Main.HANDLER_INSTRUCTIONS) {
+			String name = InstructionMappings.getHandler(InstructionMappings.getOpCode(instruction)).getName().replace(" ", "");
+			benchmarks.add(new HandlerBenchmark("handler." + name + ".x" + Integer.toHexString(instruction).toUpperCase(), instruction));
+		}
+		benchmarks.add(new MemoryBankBenchmark("memory.read", MemoryBankBenchmark.READ));
+		benchmarks.add(new MemoryBankBenchmark("memory.write", MemoryBankBenchmark.WRITE));
+		benchmarks.add(new MemoryBankBenchmark("memory.relocate", MemoryBankBenchmark.RELOCATE));
+		for (ExecutionEngine engine : ExecutionEngine.values()) {
+			benchmarks.add(new LoopBenchmark("loop.countdown." + engine.name().toLowerCase(), engine, LoopBenchmark.COUNTDOWN));
+			benchmarks.add(new LoopBenchmark("loop.counter." + engine.name().toLowerCase(), engine, LoopBenchmark.COUNTER));
+		}
+		benchmarks.add(new LoopBenchmark("loop.countdown.recorded", LoopBenchmark.COUNTDOWN));
+		benchmarks.add(new LoopBenchmark("loop.counter.recorded", LoopBenchmark.COUNTER));
+		for (String[] program : Main.PROGRAMS) {
+			String[] sources = new String[program.length];
+			for (int i = 0; i < program.length; i++) {
+				sources[i] = directory + File.separator + program[i];
+			}
+			String name = program[0].substring(0, program[0].indexOf('.')).replace("part0", "");
+			for (ExecutionEngine engine : ExecutionEngine.values()) {
+				MachineBenchmark benchmark = new MachineBenchmark("machine." + name + "." + engine.name().toLowerCase(), engine, sources);
+				if (benchmark.isAvailable()) {
+					benchmarks.add(benchmark);
+				}
+			}
+		}
+		
+		List<Benchmark> selected = new ArrayList<Benchmark>();
+		for (Benchmark benchmark : benchmarks) {
+			if (filter == null || benchmark.getName().contains(filter)) {
+				selected.add(benchmark);
+			}
+		}
+		try {
+			new BenchmarkRunner(System.out, warmupIterations, measurementIterations, iterationTime).run(selected);
+		}
+		catch (Exception e) {
+			System.out.println(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Prints usage information for users of this program.
+	 */
+	private static void printUsageInformation() {
+		System.out.println("Usage:\tjava Simulator.benchmark.Main [filter] [options]");
+		System.out.println("\tfilter\tOnly run benchmarks whose name contains filter.");
+		System.out.println("\t-w count\tNumber of warmup iterations (default 3).");
+		System.out.println("\t-i count\tNumber of measurement iterations (default 5).");
+		System.out.println("\t-t millis\tLength of each iteration (default 500).");
+		System.out.println("\t-d directory\tDirectory of the integration test programs (default Integration/Testing).");
+	}
+}
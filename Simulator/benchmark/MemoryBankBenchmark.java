@@ -0,0 +1,94 @@
+package Simulator.benchmark;
+import java.util.LinkedList;
+import java.util.List;
+import Common.MemoryBank;
+import Common.SymbolEntry;
+
+/**
+ * Measures reading, writing and relocating a MemoryBank.
+ */
+public class MemoryBankBenchmark extends Benchmark {
+	/**
+	 * Reads every word of a page.
+	 */
+	public static final int READ = 0;
+	
+	/**
+	 * Writes every word of a page.
+	 */
+	public static final int WRITE = 1;
+	
+	/**
+	 * Copies a page-sized program into a new MemoryBank and relocates it,
+	 * with a 9-bit relocation record for every word.
+	 */
+	public static final int RELOCATE = 2;
+	
+	/**
+	 * Number of words in the page which is read, written or relocated.
+	 */
+	private static final int PAGE_SIZE = 512;
+	
+	/**
+	 * Which operation is measured.
+	 */
+	private int kind;
+	
+	/**
+	 * The MemoryBank read, written or copied.
+	 */
+	private MemoryBank memory;
+	
+	/**
+	 * Relocation records naming every word of the page.
+	 */
+	private List<SymbolEntry> records;
+	
+	/**
+	 * Sum of the words read, kept so the reads are not optimized away.
+	 */
+	private long checksum = 0;
+	
+	/**
+	 * Creates a benchmark of the given MemoryBank operation.
+	 * @param _name Name of the benchmark.
+	 * @param _kind READ, WRITE or RELOCATE.
+	 */
+	public MemoryBankBenchmark(String _name, int _kind) {
+		super(_name, _kind == MemoryBankBenchmark.RELOCATE ? "relocations" : "words");
+		this.kind = _kind;
+	}
+	
+	@Override
+	public void setUp() {
+		this.memory = new MemoryBank();
+		this.records = new LinkedList<SymbolEntry>();
+		for (int i = 0; i < MemoryBankBenchmark.PAGE_SIZE; i++) {
+			this.memory.write(i, (short) (0x2000 | i));
+			this.records.add(new SymbolEntry(i, 9, 0));
+		}
+	}
+	
+	@Override
+	public long invoke() {
+		switch (this.kind) {
+			case MemoryBankBenchmark.READ:
+				int sum = 0;
+				for (int i = 0; i < MemoryBankBenchmark.PAGE_SIZE; i++) {
+					sum += this.memory.read(i);
+				}
+				this.checksum += sum;
+				return MemoryBankBenchmark.PAGE_SIZE;
+			case MemoryBankBenchmark.WRITE:
+				for (int i = 0; i < MemoryBankBenchmark.PAGE_SIZE; i++) {
+					this.memory.write(i, (short) i);
+				}
+				return MemoryBankBenchmark.PAGE_SIZE;
+			default:
+				MemoryBank copy = new MemoryBank();
+				this.memory.insertInto(copy);
+				copy.relocate(0, 0x3000, this.records);
+				return 1;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package Simulator.instructions;
+
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import java.io.PrintStream;
+import java.io.InputStream;
+
+/**
+ * Handles the ADD / BR superinstruction, which updates a loop counter and
+ * branches on the result.
+ */
+public class AddBranchHandler extends InstructionHandler {
+	/**
+	 * Performs the addition, updates the CCR and then takes the branch if
+	 * the new CCR matches its condition.
+	 */
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		DecodedInstruction add = decoded.sequence[0];
+		DecodedInstruction branch = decoded.sequence[1];
+		short value;
+		if (add.immediateMode) {
+			value = (short) (state.registers[add.register2] + add.immediate);
+		} else {
+			value = (short) (state.registers[add.register2] + state.registers[add.register3]);
+		}
+		state.registers[add.register1] = value;
+		state.updateCcr(value);
+		if (BranchHandler.isTaken(branch.condition, state)) {
+			state.programCounter = branch.target;
+		} else {
+			state.programCounter++;
+		}
+	}
+	
+	@Override
+	public String getName() {
+		return "Add+Branch";
+	}
+}
@@ -72,20 +72,20 @@ public class AddHandler extends InstructionHandler {
 	private static final int SIGN_EXTEND = 0xFFF0;
 
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void decode(DecodedInstruction decoded, int programCounter) {
+		int instruction = decoded.instruction;
 		//extract destination register
-		int destRegister = ByteOperations.extractValue(instruction,
+		decoded.register1 = ByteOperations.extractValue(instruction,
 				DEST_LOW_BIT, DEST_HI_BIT);
 		//extract the 1st source register
-		int src1Register = ByteOperations.extractValue(instruction,
+		decoded.register2 = ByteOperations.extractValue(instruction,
 				SRC1_LOW_BIT, SRC1_HI_BIT);
 		//check to see if add is one source register or two source registers
-		if ((instruction & FLAG_BIT) == 0) {
+		decoded.immediateMode = (instruction & FLAG_BIT) != 0;
+		if (!decoded.immediateMode) {
 			//extract 2nd source register
-			int src2Register = ByteOperations.extractValue(instruction,
+			decoded.register3 = ByteOperations.extractValue(instruction,
 					SRC2_LOW_BIT, SRC2_HI_BIT);
-			//add 1st and 2nd source registers and store in destination register
-			state.registers[destRegister] = (short) (state.registers[src1Register] + state.registers[src2Register]);
 		} else {
 			//extract immediate value
 			short immediateValue = (short) ByteOperations.extractValue(
@@ -94,8 +94,19 @@ public class AddHandler extends InstructionHandler {
 			if ((immediateValue & SIGN_MASK) == SIGN_FLAG) {
 				immediateValue = (short) (immediateValue | SIGN_EXTEND);
 			}
+			decoded.immediate = immediateValue;
+		}
+	}
+
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		int destRegister = decoded.register1;
+		if (!decoded.immediateMode) {
+			//add 1st and 2nd source registers and store in destination register
+			state.registers[destRegister] = (short) (state.registers[decoded.register2] + state.registers[decoded.register3]);
+		} else {
 			//add the source register with the immediate value and store in in destination register
-			state.registers[destRegister] = (short) (state.registers[src1Register] + immediateValue);
+			state.registers[destRegister] = (short) (state.registers[decoded.register2] + decoded.immediate);
 
 		}
 		//update the CCR base on the contents of the destination register
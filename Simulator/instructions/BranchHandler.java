@@ -71,80 +71,68 @@ public class BranchHandler extends InstructionHandler {
 	 */
 	private static final int BR_ALWAYS = 7;
 	
-	/**
-	 * This method extracts the branch code from the instruction and then compares it
-	 * to one of seven possible branch codes (the eight being a nop) and then modifes
-	 * the program counter by concatenating the upper 7 bits of the program counter
-	 * with the page offset specified by the instruction. 
-	 */
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
-		int pc = state.programCounter;
-		int branchCode = ByteOperations.extractValue(instruction, CCR_LOW_BIT,
+	public void decode(DecodedInstruction decoded, int programCounter) {
+		int pc = programCounter;
+		decoded.condition = ByteOperations.extractValue(decoded.instruction, CCR_LOW_BIT,
 				CCR_HI_BIT);
 
-		int pgOffset = ByteOperations.extractValue(instruction, PG_LOW_BIT,
+		int pgOffset = ByteOperations.extractValue(decoded.instruction, PG_LOW_BIT,
 				PG_HI_BIT);
-		switch (branchCode) {
+		pc = pc >> SHIFT;
+		pc = pc << SHIFT;
+		pc = pc + pgOffset;
+		decoded.target = pc;
+	}
+
+	/**
+	 * This method compares the branch code of the instruction to one of seven
+	 * possible branch codes (the eight being a nop) and then sets the program
+	 * counter to the target formed by concatenating the upper 7 bits of the
+	 * program counter with the page offset specified by the instruction. 
+	 */
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		if (BranchHandler.isTaken(decoded.condition, state)) {
+			state.programCounter = decoded.target;
+		}
+	}
+	
+	/**
+	 * Determines whether a branch with the given branch code is taken under
+	 * the current CCR of the given MachineState.
+	 * @param condition The N, Z and P bits of the branch instruction.
+	 * @param state The MachineState holding the CCR.
+	 * @return True if and only if the branch is taken.
+	 */
+	public static boolean isTaken(int condition, MachineState state) {
+		boolean taken = false;
+		switch (condition) {
 			case 0:
 				break;
 			case BR_POS:
-				if (state.ccrPositive == true) {
-					pc = pc >> SHIFT;
-					pc = pc << SHIFT;
-					pc = pc + pgOffset;
-					state.programCounter = pc;
-				}
+				taken = state.ccrPositive;
 				break;
 			case BR_ZERO:
-				if (state.ccrZero == true) {
-					pc = pc >> SHIFT;
-					pc = pc << SHIFT;
-					pc = pc + pgOffset;
-					state.programCounter = pc;
-				}
+				taken = state.ccrZero;
 				break;
 			case BR_NOT_NEG:
-				if (state.ccrPositive == true || state.ccrZero == true) {
-					pc = pc >> SHIFT;
-					pc = pc << SHIFT;
-					pc = pc + pgOffset;
-					state.programCounter = pc;
-				}
+				taken = state.ccrPositive || state.ccrZero;
 				break;
 			case BR_NEG:
-				if (state.ccrNegative == true) {
-					pc = pc >> SHIFT;
-					pc = pc << SHIFT;
-					pc = pc + pgOffset;
-					state.programCounter = pc;
-				}
+				taken = state.ccrNegative;
 				break;
 			case BR_NOT_ZERO:
-				if (state.ccrPositive == true || state.ccrNegative == true) {
-					pc = pc >> SHIFT;
-					pc = pc << SHIFT;
-					pc = pc + pgOffset;
-					state.programCounter = pc;
-				}
+				taken = state.ccrPositive || state.ccrNegative;
 				break;
 			case BR_NOT_POS:
-				if (state.ccrNegative == true || state.ccrZero == true) {
-					pc = pc >> SHIFT;
-					pc = pc << SHIFT;
-					pc = pc + pgOffset;
-					state.programCounter = pc;
-				}
+				taken = state.ccrNegative || state.ccrZero;
 				break;
 			case BR_ALWAYS:
-				if (state.ccrPositive == true || state.ccrNegative == true || state.ccrZero == true) {
-					pc = pc >> SHIFT;
-					pc = pc << SHIFT;
-					pc = pc + pgOffset;
-					state.programCounter = pc;
-				}
+				taken = state.ccrPositive || state.ccrNegative || state.ccrZero;
 				break;
 		}
+		return taken;
 	}
 	
 	@Override
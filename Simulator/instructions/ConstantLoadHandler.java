@@ -0,0 +1,29 @@
+package Simulator.instructions;
+
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import java.io.PrintStream;
+import java.io.InputStream;
+
+/**
+ * Handles the AND R, R, #0 / ADD R, R, #n superinstruction, which loads a
+ * small constant into a register.
+ */
+public class ConstantLoadHandler extends InstructionHandler {
+	/**
+	 * Stores the constant of the ADD instruction in the destination register,
+	 * exactly as clearing the register and then adding the constant would.
+	 */
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		DecodedInstruction add = decoded.sequence[1];
+		state.registers[add.register1] = (short) add.immediate;
+		state.updateCcr(state.registers[add.register1]);
+		state.programCounter++;
+	}
+	
+	@Override
+	public String getName() {
+		return "And+Add";
+	}
+}
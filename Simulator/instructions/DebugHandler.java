@@ -21,7 +21,10 @@ public class DebugHandler extends InstructionHandler {
 	 * This method displays the contents of the program counter, registers and the ccr.
 	 */
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		if (state.console != null) {
+			state.console.flush();
+		}
 		StringBuffer registers = new StringBuffer();
 		StringBuffer registerLabels = new StringBuffer();
 		output.println("Registers:");
@@ -0,0 +1,89 @@
+package Simulator.instructions;
+
+/**
+ * A DecodedInstruction holds the fields of a 16-bit instruction after they
+ * have been extracted by its InstructionHandler, so the instruction can be
+ * executed repeatedly without decoding it again. Which fields are meaningful
+ * depends on the instruction; the others are left at zero.
+ */
+public class DecodedInstruction {
+	/**
+	 * The 16-bit instruction code this DecodedInstruction was decoded from.
+	 */
+	public int instruction;
+	
+	/**
+	 * The op code extracted from the four most significant bits of the instruction.
+	 */
+	public int opCode;
+	
+	/**
+	 * The InstructionHandler which decoded and executes this instruction.
+	 */
+	public InstructionHandler handler;
+	
+	/**
+	 * Register field in bits 11-9: the destination register, or the source
+	 * register of a store instruction.
+	 */
+	public int register1;
+	
+	/**
+	 * Register field in bits 8-6: the first source register or the base register.
+	 */
+	public int register2;
+	
+	/**
+	 * Register field in bits 2-0: the second source register.
+	 */
+	public int register3;
+	
+	/**
+	 * True if and only if the ADD or AND instruction uses its immediate operand.
+	 */
+	public boolean immediateMode;
+	
+	/**
+	 * True if and only if the link bit of a JSR or JSRR instruction is set.
+	 */
+	public boolean link;
+	
+	/**
+	 * The N, Z and P bits of a BR instruction.
+	 */
+	public int condition;
+	
+	/**
+	 * The sign-extended immediate value, zero-extended index, or trap vector
+	 * of the instruction.
+	 */
+	public int immediate;
+	
+	/**
+	 * The address formed by concatenating the page of the program counter
+	 * with the page offset of the instruction.
+	 */
+	public int target;
+	
+	/**
+	 * For a superinstruction, the decoded instructions it executes as one;
+	 * null for an ordinary instruction.
+	 */
+	public DecodedInstruction[] sequence;
+	
+	/**
+	 * Number of instructions executed by this instruction: the length of the
+	 * sequence for a superinstruction, otherwise one.
+	 */
+	public int length = 1;
+	
+	/**
+	 * Creates a new DecodedInstruction for the given instruction code. The
+	 * fields are filled in by InstructionHandler.decode.
+	 * @param instruction The 16-bit instruction code.
+	 */
+	public DecodedInstruction(int instruction) {
+		this.instruction = instruction;
+		this.opCode = InstructionMappings.getOpCode(instruction);
+	}
+}
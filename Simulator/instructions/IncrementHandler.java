@@ -0,0 +1,32 @@
+package Simulator.instructions;
+
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import java.io.PrintStream;
+import java.io.InputStream;
+
+/**
+ * Handles the LD R, x / ADD R, R, #n / ST R, x superinstruction, which
+ * increments a variable in memory.
+ */
+public class IncrementHandler extends InstructionHandler {
+	/**
+	 * Loads the variable, adds the constant, and stores the sum both in the
+	 * register and back into the variable.
+	 */
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		DecodedInstruction load = decoded.sequence[0];
+		DecodedInstruction add = decoded.sequence[1];
+		short value = (short) (memory.read(load.target) + add.immediate);
+		state.registers[load.register1] = value;
+		state.updateCcr(value);
+		memory.write(load.target, value);
+		state.programCounter += 2;
+	}
+	
+	@Override
+	public String getName() {
+		return "Load+Add+Store";
+	}
+}
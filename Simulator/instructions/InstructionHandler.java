@@ -33,8 +33,29 @@ public class InstructionHandler {
 		public int read() { return 0; }
 	};
 	
+	/**
+	 * Extracts the fields of the given instruction into the given DecodedInstruction.
+	 * @param decoded The DecodedInstruction to fill in; its instruction field holds the code to decode.
+	 * @param programCounter The value the program counter will hold when the instruction
+	 * executes, used to resolve page offsets.
+	 */
+	public void decode(DecodedInstruction decoded, int programCounter) {
+	}
+	
+	/**
+	 * Executes the given decoded instruction, manipulating the given MachineState accordingly.
+	 * @param output The IO stream to print any output to.
+	 * @param input The IO stream to retrieve user input from.
+	 * @param decoded The instruction to execute, previously decoded by this InstructionHandler.
+	 * @param state The MachineState to use and modify when executing.
+	 * @param memory The MemoryBank to use and modify when executing.
+	 */
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+	}
+	
 	/**
 	 * Executes the given instruction, manipulating the given MachineState accordingly.
+	 * The instruction is decoded against the current program counter first.
 	 * @param output The IO stream to print any output to.
 	 * @param input The IO stream to retrieve user input from.
 	 * @param instruction The integer value of the instruction to execute, including the four op-code bits.
@@ -42,6 +63,10 @@ public class InstructionHandler {
 	 * @param memory The MemoryBank to use and modify when executing.
 	 */
 	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+		DecodedInstruction decoded = new DecodedInstruction(instruction);
+		decoded.handler = this;
+		this.decode(decoded, state.programCounter);
+		this.execute(output, input, decoded, state, memory);
 	}
 	
 	/**
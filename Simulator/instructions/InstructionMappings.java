@@ -110,6 +110,21 @@ public class InstructionMappings {
 			return null;
 	}
 	
+	/**
+	 * Decodes the given instruction using the InstructionHandler for its op code.
+	 * @param instruction The 16-bit instruction code to decode.
+	 * @param programCounter The value the program counter will hold when the instruction executes.
+	 * @return A DecodedInstruction which can be executed by its handler.
+	 */
+	public static DecodedInstruction decode(int instruction, int programCounter) throws Exception {
+		DecodedInstruction decoded = new DecodedInstruction(instruction);
+		decoded.handler = InstructionMappings.getHandler(decoded.opCode);
+		if (decoded.handler == null)
+			throw new Exception("Execution error: invalid op code 0x" + ByteOperations.getHex(decoded.opCode, 1) + ".");
+		decoded.handler.decode(decoded, programCounter);
+		return decoded;
+	}
+	
 	/**
 	 * Executes the given instruction, using and modifying the given MachineState and MemoryBank.
 	 * @param instruction The 16-bit instruction code to execute.
@@ -40,26 +40,28 @@ public class JumpSubroutineImmediateHandler extends InstructionHandler {
 	 */
 	private static final int REG = 7;
 	@Override
-	/**
-	 * Execute will extract the page offset from the instruction,
-	 * store the current program counter in register seven, then
-	 * set the program counter to the page offset.
-	 */
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
-		int pc = state.programCounter;
-		int pgOffset = ByteOperations.extractValue(instruction, PG_LOW_BIT, PG_HI_BIT);
-		int linkBit = ByteOperations.extractValue(instruction, L_LOW_BIT, L_HI_BIT);
-		// Set register seven equal to the incoming program counter if link bit is set
-		if (linkBit == 1) {
-			state.registers[REG] = (short) pc;
-		}
+	public void decode(DecodedInstruction decoded, int programCounter) {
+		int pc = programCounter;
+		int pgOffset = ByteOperations.extractValue(decoded.instruction, PG_LOW_BIT, PG_HI_BIT);
+		int linkBit = ByteOperations.extractValue(decoded.instruction, L_LOW_BIT, L_HI_BIT);
+		decoded.link = linkBit == 1;
 		
-		
-		// Set program counter equal to page offset
+		// Target is the page of the program counter plus the page offset
 		pc = pc >> SHIFT;
 		pc = pc << SHIFT;
 		pc = pc + pgOffset;
-		state.programCounter = pc;		
+		decoded.target = pc;
+	}
+	
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		// Set register seven equal to the incoming program counter if link bit is set
+		if (decoded.link) {
+			state.registers[REG] = (short) state.programCounter;
+		}
+		
+		// Set program counter equal to page offset
+		state.programCounter = decoded.target;		
 	}
 	
 	@Override
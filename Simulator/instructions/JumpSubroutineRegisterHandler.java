@@ -50,23 +50,27 @@ public class JumpSubroutineRegisterHandler extends InstructionHandler {
 	 */
 	private static final int REG = 7;
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
-		int pc = state.programCounter;
+	public void decode(DecodedInstruction decoded, int programCounter) {
 		// extract the base register.
-		int baseRegister = ByteOperations.extractValue(instruction,
+		decoded.register2 = ByteOperations.extractValue(decoded.instruction,
 				BASE_LOW_BIT, BASE_HI_BIT);
 		// extract the page offset
-		int index = ByteOperations.extractValue(instruction, INDEX_LOW_BIT,
+		int index = ByteOperations.extractValue(decoded.instruction, INDEX_LOW_BIT,
 				INDEX_HI_BIT);
-		int linkBit = ByteOperations.extractValue(instruction, L_LOW_BIT,
+		int linkBit = ByteOperations.extractValue(decoded.instruction, L_LOW_BIT,
 				L_HI_BIT);
+		decoded.link = linkBit == 1;
+		decoded.immediate = index & ZERO_MASK;
+	}
+	
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
 		// Set register seven equal to the incoming program counter if link bit
 		// is set
-		if (linkBit == 1) {
-			state.registers[REG] = (short) pc;
+		if (decoded.link) {
+			state.registers[REG] = (short) state.programCounter;
 		}
-		index = index & ZERO_MASK;
-		state.programCounter = (state.registers[baseRegister] + index);
+		state.programCounter = (state.registers[decoded.register2] + decoded.immediate);
 	}
 	
 	@Override
@@ -33,22 +33,27 @@ public class LoadImmediateHandler extends InstructionHandler {
 	private static final int SHIFT = 9;
 
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void decode(DecodedInstruction decoded, int programCounter) {
 		//get the value in the pc
-		int pc = state.programCounter;
+		int pc = programCounter;
 		// extract destination register
-		int destRegister = ByteOperations.extractValue(instruction,
+		decoded.register1 = ByteOperations.extractValue(decoded.instruction,
 				DEST_LOW_BIT, DEST_HI_BIT);
 		//extract the page offset
-		int pgOffset = ByteOperations.extractValue(instruction, PG_LOW_BIT,
+		int pgOffset = ByteOperations.extractValue(decoded.instruction, PG_LOW_BIT,
 				PG_HI_BIT);
 		
 		pc = pc >> SHIFT;
 		pc = pc << SHIFT;
 		pc = pc + pgOffset;
-		state.registers[destRegister] = memory.read(memory.read(pc));
+		decoded.target = pc;
+	}
+
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		state.registers[decoded.register1] = memory.read(memory.read(decoded.target));
 		//update the CCR base on the contents of the destination register
-		state.updateCcr(state.registers[destRegister]);
+		state.updateCcr(state.registers[decoded.register1]);
 	}
 	
 	@Override
@@ -43,21 +43,25 @@ public class LoadRegisterHandler extends InstructionHandler {
 	 */
 	private static final int ZERO_MASK = 0x003F;
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void decode(DecodedInstruction decoded, int programCounter) {
 		// extract destination register
-		int destRegister = ByteOperations.extractValue(instruction,
+		decoded.register1 = ByteOperations.extractValue(decoded.instruction,
 				DEST_LOW_BIT, DEST_HI_BIT);
 		//extract the base register.
-		int baseRegister = ByteOperations.extractValue(instruction,
+		decoded.register2 = ByteOperations.extractValue(decoded.instruction,
 				BASE_LOW_BIT, BASE_HI_BIT);
 		//extract the page offset
-		int index = ByteOperations.extractValue(instruction, INDEX_LOW_BIT,
+		int index = ByteOperations.extractValue(decoded.instruction, INDEX_LOW_BIT,
 				INDEX_HI_BIT);
-		index = index & ZERO_MASK;
-		state.registers[destRegister] = memory.read(state.registers[baseRegister] + index);
+		decoded.immediate = index & ZERO_MASK;
+	}
+	
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		state.registers[decoded.register1] = memory.read(state.registers[decoded.register2] + decoded.immediate);
 		
 		//update the CCR base on the contents of the destination register
-		state.updateCcr(state.registers[destRegister]);
+		state.updateCcr(state.registers[decoded.register1]);
 	}
 	
 	@Override
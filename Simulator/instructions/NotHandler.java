@@ -33,17 +33,21 @@ public class NotHandler extends InstructionHandler {
 	
 
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void decode(DecodedInstruction decoded, int programCounter) {
 		//extract destination register
-		int destRegister = ByteOperations.extractValue(instruction,
+		decoded.register1 = ByteOperations.extractValue(decoded.instruction,
 				DEST_LOW_BIT, DEST_HI_BIT);
 		//extract the  source register
-		int src1Register = ByteOperations.extractValue(instruction,
+		decoded.register2 = ByteOperations.extractValue(decoded.instruction,
 				SRC1_LOW_BIT, SRC1_HI_BIT);
+	}
+	
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
 		//perform the logical not operation
-		state.registers[destRegister] = (short) (~state.registers[src1Register]);
+		state.registers[decoded.register1] = (short) (~state.registers[decoded.register2]);
 		//update the CCR base on the contents of the destination register
-		state.updateCcr(state.registers[destRegister]);
+		state.updateCcr(state.registers[decoded.register1]);
 	}
 	
 	@Override
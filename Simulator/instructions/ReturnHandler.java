@@ -18,7 +18,7 @@ public class ReturnHandler extends InstructionHandler {
 	 */
 	private static final int REG = 7;
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
 		state.programCounter = state.registers[REG];
 	}
 	
@@ -36,23 +36,27 @@ public class StoreImmediateHandler extends InstructionHandler {
 	private static final int SHIFT = 9;
 	
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void decode(DecodedInstruction decoded, int programCounter) {
 		// Get current program counter value
-		int pc = state.programCounter;
+		int pc = programCounter;
 		
 		// Get source register
-		int srcRegister = ByteOperations.extractValue(instruction, SRC_LOW_BIT, SRC_HI_BIT);
+		decoded.register1 = ByteOperations.extractValue(decoded.instruction, SRC_LOW_BIT, SRC_HI_BIT);
 		
 		// Extract page offset
-		int pgOffset = ByteOperations.extractValue(instruction, PG_LOW_BIT, PG_HI_BIT);
+		int pgOffset = ByteOperations.extractValue(decoded.instruction, PG_LOW_BIT, PG_HI_BIT);
 		
 		// Use pc and offset to form address
 		pc = pc >> SHIFT;
 		pc = pc << SHIFT;
 		pc = pc + pgOffset;
-		
+		decoded.target = pc;
+	}
+	
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
 		// Write value in source register to address formed above
-		memory.write(memory.read(pc), state.registers[srcRegister]);
+		memory.write(memory.read(decoded.target), state.registers[decoded.register1]);
 	}
 	
 	@Override
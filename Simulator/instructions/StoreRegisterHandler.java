@@ -43,21 +43,25 @@ public class StoreRegisterHandler extends InstructionHandler {
 	private static final int ZERO_MASK = 0x003F;
 	
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void decode(DecodedInstruction decoded, int programCounter) {
 		// extract source register
-		int srcRegister = ByteOperations.extractValue(instruction,
+		decoded.register1 = ByteOperations.extractValue(decoded.instruction,
 				SRC_LOW_BIT, SRC_HI_BIT);
 		//extract the base register.
-		int baseRegister = ByteOperations.extractValue(instruction,
+		decoded.register2 = ByteOperations.extractValue(decoded.instruction,
 				BASE_LOW_BIT, BASE_HI_BIT);
 		//extract the page offset
-		int index = ByteOperations.extractValue(instruction, INDEX_LOW_BIT,
+		int index = ByteOperations.extractValue(decoded.instruction, INDEX_LOW_BIT,
 				INDEX_HI_BIT);
 		//zero extend the index
-		index = index & ZERO_MASK;
+		decoded.immediate = index & ZERO_MASK;
+	}
+	
+	@Override
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
 		//write the value in the source register to the address in the base register
 		//plus the index
-		memory.write((state.registers[baseRegister] + index), state.registers[srcRegister]);
+		memory.write((state.registers[decoded.register2] + decoded.immediate), state.registers[decoded.register1]);
 	}
 	
 	@Override
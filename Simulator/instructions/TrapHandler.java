@@ -1,11 +1,10 @@
 package Simulator.instructions;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.InputStream;
-import java.util.Random;
+import Simulator.state.Console;
+import Simulator.state.Journal;
 import Simulator.state.MachineState;
 import Common.MemoryBank;
 import Common.ByteOperations;
@@ -14,80 +13,150 @@ import Common.ByteOperations;
  * Handles the Trap instruction.
  */
 public class TrapHandler extends InstructionHandler {
+	/**
+	 * Extracts the trap vector of the given instruction.
+	 * 
+	 * @param decoded
+	 *            The DecodedInstruction to fill in; its immediate field is set
+	 *            to the trap vector.
+	 * @param programCounter
+	 *            Not used, since a trap vector is not a page offset.
+	 */
+	@Override
+	public void decode(DecodedInstruction decoded, int programCounter) {
+		decoded.immediate = ByteOperations.extractValue(decoded.instruction, 0, 8);
+	}
+	
 	/**
 	 * Executes the given instruction, manipulating the given MachineState
 	 * accordingly.
 	 * 
-	 * @param instruction
-	 *            The integer value of the instruction to execute, including the
-	 *            four op-code bits.
+	 * @param decoded
+	 *            The instruction to execute, with the trap vector extracted by
+	 *            decode.
 	 * @param state
 	 *            The MachineState to use and modify.
 	 */
 	@Override
-	public void execute(PrintStream output, InputStream input, int instruction, MachineState state, MemoryBank memory) {
+	public void execute(PrintStream output, InputStream input, DecodedInstruction decoded, MachineState state, MemoryBank memory) {
 		int pc = state.programCounter;
-		int trapVector = ByteOperations.extractValue(instruction, 0, 8);
+		int trapVector = decoded.immediate;
 		int inputValue = 0;
+		// Without a machine console, output must be flushed before returning
+		Console console = state.console;
+		boolean ownConsole = console == null;
+		if (ownConsole) {
+			console = new Console(output, input);
+		}
 		switch (trapVector) {
 		case 0x25:
 			state.executing = false;
+			console.flush();
 			break;
 		case 0x31:
-			output.print(state.registers[0]);
+			console.print(state.registers[0]);
 			break;
 		case 0x21:
-			output.print((char) state.registers[0]);
+			console.print((char) state.registers[0]);
 			break;
 		case 0x43:
-			Random RND = new Random();
-			state.registers[0] = (short) RND.nextInt();
+			if (state.journal != null && state.journal.isReplaying()) {
+				state.registers[0] = (short) this.replay(trapVector, state, console);
+			}
+			else {
+				state.registers[0] = console.nextRandom();
+				this.record(trapVector, state.registers[0], state, output);
+			}
 			state.updateCcr(state.registers[0]);
 			break;
 		case 0x22:
 			int memLocation = state.registers[0];
 			while (memory.read(memLocation) != 0) {
-				output.print((char) memory.read(memLocation));
+				console.print((char) memory.read(memLocation));
 				memLocation++;
 			}
-			output.println();
+			console.println();
 			break;
 		case 0x23:
-			InputStreamReader reader = new InputStreamReader(input);
-
-			output.print("? ");
-			try {
-				inputValue = reader.read();
-			} catch (IOException e) {
-				e.printStackTrace(output);
+			console.print("? ");
+			if (state.journal != null && state.journal.isReplaying()) {
+				inputValue = this.replay(trapVector, state, console);
+			}
+			else {
+				try {
+					inputValue = console.read();
+				} catch (IOException e) {
+					e.printStackTrace(output);
+				}
+				inputValue = ByteOperations.extractValue(inputValue, 0, 8);
+				this.record(trapVector, inputValue, state, output);
 			}
-			inputValue = ByteOperations.extractValue(inputValue, 0, 8);
 			state.registers[0] = (short) inputValue;
 			state.updateCcr(state.registers[0]);
 			break;
 		case 0x33:
-			output.print("d? ");
+			console.print("d? ");
 			int number = 0;
-			try {
-				BufferedReader reader1 = new BufferedReader(new InputStreamReader(input));
-				number = Integer.parseInt(reader1.readLine());
-		
+			if (state.journal != null && state.journal.isReplaying()) {
+				number = this.replay(trapVector, state, console);
 			}
-			catch (IOException e) {
-				e.printStackTrace(output);
-				e.printStackTrace();
+			else {
+				try {
+					number = (short) console.readNumber();
+				}
+				catch (IOException e) {
+					e.printStackTrace(output);
+					e.printStackTrace();
+				}
+				catch (NumberFormatException e) {
+					number = Journal.NOT_A_NUMBER;
+				}
+				this.record(trapVector, number, state, output);
 			}
-			catch (NumberFormatException e) {
-				output.println("Input by user was not a number.");
+			if (number == Journal.NOT_A_NUMBER) {
+				console.print("Input by user was not a number.");
+				console.println();
+				number = 0;
 			}
 
 			state.registers[0] = (short) number;
 			state.updateCcr(state.registers[0]);
 			break;
 		}
+		if (ownConsole) {
+			console.flush();
+		}
 		state.programCounter = pc;
 	}
 	
+	/**
+	 * Records the value an input or random TRAP placed in R0, if the machine has a recording journal.
+	 */
+	private void record(int trapVector, int value, MachineState state, PrintStream output) {
+		if (state.journal != null) {
+			try {
+				state.journal.record(trapVector, value);
+			} catch (IOException e) {
+				e.printStackTrace(output);
+			}
+		}
+	}
+	
+	/**
+	 * Replays the value an input or random TRAP placed in R0. If the journal
+	 * does not match the program, the machine reports it and halts.
+	 */
+	private int replay(int trapVector, MachineState state, Console console) {
+		try {
+			return state.journal.replay(trapVector);
+		} catch (IOException e) {
+			console.print(e.getMessage());
+			console.println();
+			state.executing = false;
+			return 0;
+		}
+	}
+	
 	@Override
 	public String getName() {
 		return "Trap";
@@ -0,0 +1,52 @@
+package Simulator.program;
+
+/**
+ * The outcome of running one program of a batch.
+ */
+public class BatchResult {
+	/**
+	 * Path of the object file which was run.
+	 */
+	public String program;
+	
+	/**
+	 * Position of the program in its batch.
+	 */
+	public int index;
+	
+	/**
+	 * True if and only if the program was loaded and ran until it halted.
+	 */
+	public boolean halted;
+	
+	/**
+	 * Short description of the outcome: "halted", "stopped" when a limit was
+	 * reached, or "failed".
+	 */
+	public String status;
+	
+	/**
+	 * Message of the error which stopped the program, or null if it halted.
+	 */
+	public String error;
+	
+	/**
+	 * Number of instructions the program executed.
+	 */
+	public long instructions;
+	
+	/**
+	 * Wall time spent loading and running the program, in nanoseconds.
+	 */
+	public long wallTime;
+	
+	/**
+	 * Everything the program printed, up to BatchRunner.MAX_CAPTURED_OUTPUT bytes.
+	 */
+	public String output;
+	
+	/**
+	 * True if and only if the captured output was cut short.
+	 */
+	public boolean truncated;
+}
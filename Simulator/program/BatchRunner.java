@@ -0,0 +1,300 @@
+package Simulator.program;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import Common.MemoryBank;
+
+/**
+ * Runs many object files, each on its own Machine, in a work-stealing pool
+ * with one thread per processor. Each program's output is captured
+ * separately and reported, in input order, together with its status,
+ * instruction count and wall time, followed by totals for the whole batch.
+ * 
+ * Results are collected as programs finish, so a slow program holds up
+ * only its own thread, and are held until every program before them has
+ * been reported. Only a few programs per thread are in flight at any time,
+ * a bounded number of results wait to be reported and captured output is
+ * limited, so memory use does not grow with the size of the batch. Unless
+ * limits are set, each program stops after DEFAULT_TIME_LIMIT, so a
+ * program which never halts is reported as stopped instead of stalling
+ * the batch.
+ */
+public class BatchRunner {
+	/**
+	 * Maximum number of bytes of output captured per program.
+	 */
+	public static final int MAX_CAPTURED_OUTPUT = 64 * 1024;
+	
+	/**
+	 * Number of programs in flight per thread of the pool.
+	 */
+	private static final int PROGRAMS_PER_THREAD = 2;
+	
+	/**
+	 * Number of finished programs which may wait for an earlier one to be
+	 * reported before no more programs are started.
+	 */
+	private static final int MAX_WAITING_RESULTS = 256;
+	
+	/**
+	 * Number of milliseconds each program may run for when no limit is set.
+	 */
+	public static final long DEFAULT_TIME_LIMIT = 10000;
+	
+	/**
+	 * Number of nanoseconds in a millisecond.
+	 */
+	private static final double NANOS_PER_MILLI = 1000000.0;
+	
+	/**
+	 * IO stream the results are reported to.
+	 */
+	private PrintStream summary;
+	
+	/**
+	 * The mode to run every program in.
+	 */
+	private ExecutionMode mode;
+	
+	/**
+	 * The engine to run every program with.
+	 */
+	private ExecutionEngine engine;
+	
+	/**
+	 * Number of instructions each program may execute, or zero for no limit.
+	 */
+	private long instructionLimit = 0;
+	
+	/**
+	 * Number of milliseconds each program may run for, or zero for no limit.
+	 */
+	private long timeLimit = BatchRunner.DEFAULT_TIME_LIMIT;
+	
+	/**
+	 * True if and only if trace mode displays only what each instruction changed.
+	 */
+	private boolean deltaTrace = false;
+	
+	/**
+	 * Creates a new BatchRunner.
+	 * @param _summary The IO stream to report results to.
+	 * @param _mode The mode to run every program in.
+	 * @param _engine The engine to run every program with.
+	 */
+	public BatchRunner(PrintStream _summary, ExecutionMode _mode, ExecutionEngine _engine) {
+		this.summary = _summary;
+		this.mode = _mode;
+		this.engine = _engine;
+	}
+	
+	/**
+	 * Limits the number of instructions each program may execute and the
+	 * time it may run for. Programs reaching a limit are reported as stopped.
+	 * If neither limit is set, the time limit is DEFAULT_TIME_LIMIT.
+	 * @param _instructionLimit Number of instructions, or zero for no limit.
+	 * @param _timeLimit Number of milliseconds, or zero for no limit.
+	 */
+	public void setLimits(long _instructionLimit, long _timeLimit) {
+		this.instructionLimit = _instructionLimit;
+		this.timeLimit = _instructionLimit == 0 && _timeLimit == 0 ? BatchRunner.DEFAULT_TIME_LIMIT : _timeLimit;
+	}
+	
+	/**
+	 * Selects whether trace mode displays only what each instruction changed.
+	 * @param _deltaTrace True to display only the changes.
+	 */
+	public void setDeltaTrace(boolean _deltaTrace) {
+		this.deltaTrace = _deltaTrace;
+	}
+	
+	/**
+	 * Lists the programs of a batch. If the given path is a directory, every
+	 * file in it is a program, in order of name. Otherwise the path is a list
+	 * file naming one program per line; blank lines are ignored.
+	 * @param path Path of a directory or list file.
+	 * @return Paths of the programs in the batch.
+	 */
+	public static List<String> listPrograms(String path) throws IOException {
+		List<String> programs = new ArrayList<String>();
+		File file = new File(path);
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			Arrays.sort(files);
+			for (File program : files) {
+				if (program.isFile() && !program.isHidden())
+					programs.add(program.getPath());
+			}
+		} else {
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0)
+						programs.add(line);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return programs;
+	}
+	
+	/**
+	 * Runs every given program and reports the results.
+	 * @param programs Paths of the object files to run.
+	 * @return The number of programs which did not halt normally.
+	 */
+	public int run(List<String> programs) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newWorkStealingPool(threads);
+		CompletionService<BatchResult> completion = new ExecutorCompletionService<BatchResult>(pool);
+		// Finished results, by index, waiting for the programs before them
+		Map<Integer, BatchResult> waiting = new HashMap<Integer, BatchResult>();
+		int submitted = 0;
+		int running = 0;
+		int reported = 0;
+		int failures = 0;
+		long instructions = 0;
+		long start = System.nanoTime();
+		try {
+			while (reported < programs.size()) {
+				while (submitted < programs.size() && running < threads * BatchRunner.PROGRAMS_PER_THREAD
+						&& waiting.size() < BatchRunner.MAX_WAITING_RESULTS) {
+					completion.submit(this.newTask(programs.get(submitted), submitted));
+					submitted++;
+					running++;
+				}
+				BatchResult finished = completion.take().get();
+				running--;
+				waiting.put(finished.index, finished);
+				BatchResult result;
+				while ((result = waiting.remove(reported)) != null) {
+					failures += this.report(result);
+					instructions += result.instructions;
+					reported++;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		long wallTime = System.nanoTime() - start;
+		this.summary.println("Batch: " + programs.size() + " programs, " + failures + " failed, "
+			+ instructions + " instructions, " + BatchRunner.formatTime(wallTime) + ".");
+		return failures;
+	}
+	
+	/**
+	 * Makes the task which runs the given program of the batch.
+	 * @param program Path of the object file to run.
+	 * @param index Position of the program in the batch.
+	 */
+	private Callable<BatchResult> newTask(final String program, final int index) {
+		return new Callable<BatchResult>() {
+			public BatchResult call() {
+				BatchResult result;
+				// An error in one program must not abort the batch
+				try {
+					result = BatchRunner.this.runProgram(program);
+				} catch (Throwable e) {
+					result = new BatchResult();
+					result.program = program;
+					result.status = "failed";
+					result.error = BatchRunner.describe(e);
+					result.output = "";
+				}
+				result.index = index;
+				return result;
+			}
+		};
+	}
+	
+	/**
+	 * Loads and runs a single program, capturing its output.
+	 * @param program Path of the object file to run.
+	 * @return The outcome of the run.
+	 */
+	public BatchResult runProgram(String program) {
+		BatchResult result = new BatchResult();
+		result.program = program;
+		CapturedOutput captured = new CapturedOutput(BatchRunner.MAX_CAPTURED_OUTPUT);
+		PrintStream output = new PrintStream(captured);
+		long start = System.nanoTime();
+		Machine machine = null;
+		try {
+			MemoryBank memory = new MemoryBank();
+			int startAddress = Loader.load(Loader.readAllText(program), memory);
+			machine = new Machine(output, new ByteArrayInputStream(new byte[0]), memory, this.engine);
+			machine.setLimits(this.instructionLimit, this.timeLimit);
+			machine.setDeltaTrace(this.deltaTrace);
+			machine.run(startAddress, this.mode);
+			result.halted = true;
+			result.status = "halted";
+		} catch (ExecutionLimitException e) {
+			result.status = "stopped";
+			result.error = e.getMessage();
+		} catch (Throwable e) {
+			// Errors such as StackOverflowError fail only this program
+			result.status = "failed";
+			result.error = BatchRunner.describe(e);
+		}
+		result.wallTime = System.nanoTime() - start;
+		if (machine != null) {
+			result.instructions = machine.getState().instructionsExecuted;
+		}
+		output.flush();
+		result.output = captured.toString();
+		result.truncated = captured.isTruncated();
+		return result;
+	}
+	
+	/**
+	 * Reports a single result.
+	 * @return One if the program failed, otherwise zero.
+	 */
+	private int report(BatchResult result) {
+		this.summary.println("== " + result.program + ": " + result.status + ", "
+			+ result.instructions + " instructions, " + BatchRunner.formatTime(result.wallTime));
+		if (result.error != null) {
+			this.summary.print(result.error);
+			if (!result.error.endsWith("\n"))
+				this.summary.println();
+		}
+		this.summary.print(result.output);
+		if (result.output.length() > 0 && !result.output.endsWith("\n"))
+			this.summary.println();
+		if (result.truncated)
+			this.summary.println("(output truncated after " + BatchRunner.MAX_CAPTURED_OUTPUT + " bytes)");
+		return result.halted ? 0 : 1;
+	}
+	
+	/**
+	 * Describes why a program failed: the message of what was thrown, or its
+	 * class if it has none.
+	 */
+	private static String describe(Throwable e) {
+		return e.getMessage() != null ? e.getMessage() : e.toString();
+	}
+	
+	/**
+	 * Formats a duration in nanoseconds as milliseconds.
+	 */
+	private static String formatTime(long nanos) {
+		return String.format("%.3f ms", nanos / BatchRunner.NANOS_PER_MILLI);
+	}
+	
+}
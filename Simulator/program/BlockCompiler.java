@@ -0,0 +1,457 @@
+package Simulator.program;
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import Common.MemoryBank;
+
+/**
+ * Translates a basic block of guest instructions into the bytecode of a
+ * CompiledBlock subclass, which is loaded as a hidden class so it can be
+ * unloaded once it is no longer referenced.
+ * 
+ * Registers are held in JVM locals for the whole block and only the ones the
+ * block writes are stored back. The CCR is only computed once, from the last
+ * value which set it. A block ends after any BR, JSR, JSRR or RET, before any
+ * TRAP or DBUG (which are left to the interpreter), and after any store which
+ * may modify the block itself.
+ */
+public class BlockCompiler {
+	/**
+	 * Maximum number of guest instructions in a single block.
+	 */
+	public static final int MAX_BLOCK_LENGTH = 256;
+	
+	/**
+	 * Internal names and descriptors used by the generated code.
+	 */
+	private static final String BLOCK_CLASS = "Simulator/program/GeneratedBlock";
+	private static final String SUPER_CLASS = "Simulator/program/CompiledBlock";
+	private static final String STATE_CLASS = "Simulator/state/MachineState";
+	private static final String MEMORY_CLASS = "Common/MemoryBank";
+	private static final String EXECUTE_DESCRIPTOR = "(LSimulator/state/MachineState;LCommon/MemoryBank;)I";
+	
+	/**
+	 * Local variable slots of the generated execute method.
+	 */
+	private static final int LOCAL_STATE = 1;
+	private static final int LOCAL_MEMORY = 2;
+	private static final int LOCAL_REGISTERS = 3;
+	private static final int LOCAL_R0 = 4;
+	private static final int LOCAL_CCR = 12;
+	private static final int LOCAL_TEMP = 13;
+	private static final int MAX_LOCALS = 14;
+	private static final int MAX_STACK = 6;
+	
+	/**
+	 * JVM op codes used by the generated code.
+	 */
+	private static final int ICONST_0 = 0x03;
+	private static final int ICONST_M1 = 0x02;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC = 0x12;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int SALOAD = 0x35;
+	private static final int ISTORE = 0x36;
+	private static final int ASTORE = 0x3a;
+	private static final int SASTORE = 0x56;
+	private static final int IADD = 0x60;
+	private static final int IAND = 0x7e;
+	private static final int IXOR = 0x82;
+	private static final int I2S = 0x93;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int IFLT = 0x9b;
+	private static final int IFGT = 0x9d;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	
+	/**
+	 * Access flag of public methods.
+	 */
+	private static final int ACC_PUBLIC = 0x0001;
+	
+	/**
+	 * Lookup in this package which hidden classes are defined with.
+	 */
+	private MethodHandles.Lookup lookup = MethodHandles.lookup();
+	
+	/**
+	 * Class file of the block currently being compiled.
+	 */
+	private ClassFileWriter writer;
+	
+	/**
+	 * Bytecode of the execute method currently being compiled.
+	 */
+	private ByteArrayOutputStream code;
+	
+	/**
+	 * Which registers the current block has written.
+	 */
+	private boolean[] written;
+	
+	/**
+	 * Whether the current block has set the CCR.
+	 */
+	private boolean ccrSet;
+	
+	/**
+	 * Determines whether the given op code ends a basic block.
+	 * @param opCode The op code of an instruction.
+	 * @return True for BR, JSR, JSRR, RET, DBUG and TRAP.
+	 */
+	public static boolean endsBlock(int opCode) {
+		switch (opCode) {
+			case 0x0: case 0x4: case 0x8: case 0xc: case 0xd: case 0xf:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Compiles the basic block starting at the given address.
+	 * @param memory The MemoryBank holding the instructions.
+	 * @param start The address of the first instruction of the block.
+	 * @return The compiled block, or null if there is nothing to compile
+	 * because the block starts with a TRAP or DBUG.
+	 */
+	public CompiledBlock compile(MemoryBank memory, int start) throws Exception {
+		this.writer = new ClassFileWriter(BlockCompiler.BLOCK_CLASS, BlockCompiler.SUPER_CLASS);
+		this.code = new ByteArrayOutputStream();
+		this.written = new boolean[8];
+		this.ccrSet = false;
+		
+		// Load every register into its local
+		this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_STATE);
+		this.emitField(BlockCompiler.STATE_CLASS, "registers", "[S");
+		this.emit(BlockCompiler.ASTORE, BlockCompiler.LOCAL_REGISTERS);
+		for (int i = 0; i < 8; i++) {
+			this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_REGISTERS);
+			this.push(i);
+			this.emit(BlockCompiler.SALOAD);
+			this.emit(BlockCompiler.ISTORE, BlockCompiler.LOCAL_R0 + i);
+		}
+		
+		int address = start;
+		int length = 0;
+		int lastOpCode = -1;
+		boolean open = true;
+		while (open && length < BlockCompiler.MAX_BLOCK_LENGTH && address <= 0xFFFF) {
+			int instruction = memory.read(address) & 0xFFFF;
+			int opCode = instruction >> 12;
+			if (opCode == 0x8 || opCode == 0xf)
+				break; // Left to the interpreter
+			open = this.emitInstruction(instruction, address + 1, start);
+			lastOpCode = opCode;
+			address++;
+			length++;
+		}
+		if (length == 0)
+			return null;
+		if (!BlockCompiler.endsBlock(lastOpCode)) {
+			// The block falls through to the next instruction
+			this.emitExit(address);
+		}
+		
+		this.writer.addMethod(BlockCompiler.ACC_PUBLIC, "execute", BlockCompiler.EXECUTE_DESCRIPTOR,
+			BlockCompiler.MAX_STACK, BlockCompiler.MAX_LOCALS, this.code.toByteArray());
+		this.code = new ByteArrayOutputStream();
+		this.emit(BlockCompiler.ALOAD_0);
+		this.emit(BlockCompiler.INVOKESPECIAL);
+		this.emitShort(this.writer.methodRef(BlockCompiler.SUPER_CLASS, "<init>", "()V"));
+		this.emit(BlockCompiler.RETURN);
+		this.writer.addMethod(BlockCompiler.ACC_PUBLIC, "<init>", "()V", 1, 1, this.code.toByteArray());
+		
+		Class<?> blockClass = this.lookup.defineHiddenClass(this.writer.toByteArray(), true).lookupClass();
+		CompiledBlock block = (CompiledBlock) blockClass.getDeclaredConstructor().newInstance();
+		block.start = start;
+		block.end = address - 1;
+		block.length = length;
+		this.writer = null;
+		this.code = null;
+		return block;
+	}
+	
+	/**
+	 * Emits the bytecode of a single instruction.
+	 * @return True if the block continues after this instruction.
+	 */
+	private boolean emitInstruction(int instruction, int pc, int start) throws Exception {
+		int dest = BlockCompiler.LOCAL_R0 + ((instruction >> 9) & 0x7);
+		int src = BlockCompiler.LOCAL_R0 + ((instruction >> 6) & 0x7);
+		int src2 = BlockCompiler.LOCAL_R0 + (instruction & 0x7);
+		int index = instruction & 0x3F;
+		int target = (pc & 0xFE00) | (instruction & 0x1FF);
+		int immediate = (instruction << 27) >> 27;
+		switch (instruction >> 12) {
+			case 0x0: // BR
+				this.emitBranch(instruction, pc, target);
+				return false;
+			case 0x1: // ADD
+			case 0x5: // AND
+				this.emit(BlockCompiler.ILOAD, src);
+				if ((instruction & 0x20) != 0)
+					this.push(immediate);
+				else
+					this.emit(BlockCompiler.ILOAD, src2);
+				this.emit((instruction >> 12) == 0x1 ? BlockCompiler.IADD : BlockCompiler.IAND);
+				this.emit(BlockCompiler.I2S);
+				this.storeRegister(dest, true);
+				return true;
+			case 0x2: // LD
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.push(target);
+				this.emitRead();
+				this.storeRegister(dest, true);
+				return true;
+			case 0x3: // ST
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.push(target);
+				this.emit(BlockCompiler.ILOAD, dest);
+				this.emitWrite();
+				// Stop if this may have rewritten the rest of the block
+				return target < start || target >= start + BlockCompiler.MAX_BLOCK_LENGTH;
+			case 0x4: // JSR
+				if ((instruction & 0x800) != 0) {
+					this.push((short) pc);
+					this.storeRegister(BlockCompiler.LOCAL_R0 + 7, false);
+				}
+				this.emitExit(target);
+				return false;
+			case 0x6: // LDR
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.emit(BlockCompiler.ILOAD, src);
+				this.push(index);
+				this.emit(BlockCompiler.IADD);
+				this.emitRead();
+				this.storeRegister(dest, true);
+				return true;
+			case 0x7: // STR
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.emit(BlockCompiler.ILOAD, src);
+				this.push(index);
+				this.emit(BlockCompiler.IADD);
+				this.emit(BlockCompiler.ILOAD, dest);
+				this.emitWrite();
+				return false;
+			case 0x9: // NOT
+				this.emit(BlockCompiler.ILOAD, src);
+				this.emit(BlockCompiler.ICONST_M1);
+				this.emit(BlockCompiler.IXOR);
+				this.storeRegister(dest, true);
+				return true;
+			case 0xa: // LDI
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.push(target);
+				this.emitRead();
+				this.emitRead();
+				this.storeRegister(dest, true);
+				return true;
+			case 0xb: // STI
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_MEMORY);
+				this.push(target);
+				this.emitRead();
+				this.emit(BlockCompiler.ILOAD, dest);
+				this.emitWrite();
+				return false;
+			case 0xc: // JSRR
+				// The base register is read before the link register is written
+				this.emit(BlockCompiler.ILOAD, src);
+				this.push(index);
+				this.emit(BlockCompiler.IADD);
+				this.emit(BlockCompiler.ISTORE, BlockCompiler.LOCAL_TEMP);
+				if ((instruction & 0x800) != 0) {
+					this.push((short) pc);
+					this.storeRegister(BlockCompiler.LOCAL_R0 + 7, false);
+				}
+				this.emitDynamicExit();
+				return false;
+			case 0xd: // RET
+				this.emit(BlockCompiler.ILOAD, BlockCompiler.LOCAL_R0 + 7);
+				this.emit(BlockCompiler.ISTORE, BlockCompiler.LOCAL_TEMP);
+				this.emitDynamicExit();
+				return false;
+			case 0xe: // LEA
+				this.push((short) target);
+				this.storeRegister(dest, true);
+				return true;
+			default:
+				throw new Exception("Cannot compile instruction " + Integer.toHexString(instruction));
+		}
+	}
+	
+	/**
+	 * Emits a conditional branch which leaves the block either at the target
+	 * or at the next instruction.
+	 */
+	private void emitBranch(int instruction, int pc, int target) throws Exception {
+		List<Integer> jumps = new ArrayList<Integer>();
+		int[] bits = { 0x800, 0x400, 0x200 };
+		String[] flags = { "ccrNegative", "ccrZero", "ccrPositive" };
+		int[] tests = { BlockCompiler.IFLT, BlockCompiler.IFEQ, BlockCompiler.IFGT };
+		for (int i = 0; i < bits.length; i++) {
+			if ((instruction & bits[i]) == 0)
+				continue;
+			if (this.ccrSet) {
+				// The CCR is still pending in its local, so test the value itself
+				this.emit(BlockCompiler.ILOAD, BlockCompiler.LOCAL_CCR);
+				jumps.add(this.code.size());
+				this.emit(tests[i]);
+			} else {
+				this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_STATE);
+				this.emitField(BlockCompiler.STATE_CLASS, flags[i], "Z");
+				jumps.add(this.code.size());
+				this.emit(BlockCompiler.IFNE);
+			}
+			this.emitShort(0);
+		}
+		this.emitExit(pc & 0xFFFF);
+		if (jumps.isEmpty())
+			return;
+		int taken = this.code.size();
+		byte[] body = this.code.toByteArray();
+		for (int jump : jumps) {
+			int offset = taken - jump;
+			body[jump + 1] = (byte) (offset >> 8);
+			body[jump + 2] = (byte) offset;
+		}
+		this.code.reset();
+		this.code.write(body, 0, body.length);
+		this.emitExit(target);
+	}
+	
+	/**
+	 * Stores the int on top of the stack into the given register local.
+	 * @param local The local holding the register.
+	 * @param setsCcr Whether the instruction also sets the CCR from the value.
+	 */
+	private void storeRegister(int local, boolean setsCcr) {
+		this.emit(BlockCompiler.ISTORE, local);
+		this.written[local - BlockCompiler.LOCAL_R0] = true;
+		if (setsCcr) {
+			this.emit(BlockCompiler.ILOAD, local);
+			this.emit(BlockCompiler.ISTORE, BlockCompiler.LOCAL_CCR);
+			this.ccrSet = true;
+		}
+	}
+	
+	/**
+	 * Emits the code leaving the block for a known address.
+	 */
+	private void emitExit(int address) throws Exception {
+		this.emitWriteBack();
+		this.push(address & 0xFFFF);
+		this.emit(BlockCompiler.IRETURN);
+	}
+	
+	/**
+	 * Emits the code leaving the block for the address held in the temp local.
+	 */
+	private void emitDynamicExit() throws Exception {
+		this.emitWriteBack();
+		this.emit(BlockCompiler.ILOAD, BlockCompiler.LOCAL_TEMP);
+		this.push(0xFFFF);
+		this.emit(BlockCompiler.IAND);
+		this.emit(BlockCompiler.IRETURN);
+	}
+	
+	/**
+	 * Emits the code storing the written registers and the CCR in the state.
+	 */
+	private void emitWriteBack() throws Exception {
+		for (int i = 0; i < 8; i++) {
+			if (!this.written[i])
+				continue;
+			this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_REGISTERS);
+			this.push(i);
+			this.emit(BlockCompiler.ILOAD, BlockCompiler.LOCAL_R0 + i);
+			this.emit(BlockCompiler.SASTORE);
+		}
+		if (this.ccrSet) {
+			this.emit(BlockCompiler.ALOAD, BlockCompiler.LOCAL_STATE);
+			this.emit(BlockCompiler.ILOAD, BlockCompiler.LOCAL_CCR);
+			this.emit(BlockCompiler.INVOKEVIRTUAL);
+			this.emitShort(this.writer.methodRef(BlockCompiler.STATE_CLASS, "updateCcr", "(S)V"));
+		}
+	}
+	
+	/**
+	 * Emits a call to MemoryBank.read.
+	 */
+	private void emitRead() throws Exception {
+		this.emit(BlockCompiler.INVOKEVIRTUAL);
+		this.emitShort(this.writer.methodRef(BlockCompiler.MEMORY_CLASS, "read", "(I)S"));
+	}
+	
+	/**
+	 * Emits a call to MemoryBank.write.
+	 */
+	private void emitWrite() throws Exception {
+		this.emit(BlockCompiler.INVOKEVIRTUAL);
+		this.emitShort(this.writer.methodRef(BlockCompiler.MEMORY_CLASS, "write", "(IS)V"));
+	}
+	
+	/**
+	 * Emits a getfield of the given field.
+	 */
+	private void emitField(String owner, String name, String descriptor) throws Exception {
+		this.emit(BlockCompiler.GETFIELD);
+		this.emitShort(this.writer.fieldRef(owner, name, descriptor));
+	}
+	
+	/**
+	 * Emits the shortest instruction pushing the given int constant.
+	 */
+	private void push(int value) throws Exception {
+		if (value >= -1 && value <= 5) {
+			this.emit(BlockCompiler.ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			this.emit(BlockCompiler.BIPUSH, value & 0xFF);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			this.emit(BlockCompiler.SIPUSH);
+			this.emitShort(value);
+		} else {
+			int constant = this.writer.integer(value);
+			if (constant <= 0xFF) {
+				this.emit(BlockCompiler.LDC, constant);
+			} else {
+				this.emit(BlockCompiler.LDC_W);
+				this.emitShort(constant);
+			}
+		}
+	}
+	
+	/**
+	 * Emits a single byte.
+	 */
+	private void emit(int value) {
+		this.code.write(value);
+	}
+	
+	/**
+	 * Emits an op code with a one byte operand.
+	 */
+	private void emit(int opCode, int operand) {
+		this.code.write(opCode);
+		this.code.write(operand);
+	}
+	
+	/**
+	 * Emits a two byte operand.
+	 */
+	private void emitShort(int value) {
+		this.code.write(value >> 8);
+		this.code.write(value);
+	}
+}
@@ -0,0 +1,16 @@
+package Simulator.program;
+/**
+ * This enumeration defines why a Machine paused at a breakpoint.
+ * 
+ * Breakpoint means the next instruction is at an address with a breakpoint.
+ * 
+ * Read means the next instruction reads a watched memory cell.
+ * 
+ * Write means the last instruction wrote a watched memory cell.
+ * 
+ * Pause means a pause was requested, for instance to single-step or to
+ * interrupt a running program from another thread.
+ */
+public enum BreakpointKind {
+	BREAKPOINT, READ, WRITE, PAUSE
+}
@@ -0,0 +1,20 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+
+/**
+ * A BreakpointListener is given control whenever a Machine it is attached
+ * to reaches an armed breakpoint or watchpoint. The Machine is paused until
+ * the listener returns; clearing MachineState.executing stops the run.
+ */
+public interface BreakpointListener {
+	/**
+	 * Called when a breakpoint or watchpoint is hit.
+	 * @param kind Whether a breakpoint, read watchpoint or write watchpoint was hit.
+	 * @param address The address of the breakpoint, or of the watched cell.
+	 * @param state The live state of the paused machine.
+	 * @param memory The live memory of the paused machine.
+	 * @throws Exception To abort the run.
+	 */
+	void breakpointHit(BreakpointKind kind, int address, MachineState state, MemoryBank memory) throws Exception;
+}
@@ -0,0 +1,226 @@
+package Simulator.program;
+import java.util.BitSet;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import Common.MemoryListener;
+
+/**
+ * The breakpoints and watchpoints of a Machine, kept as bitsets over the
+ * address space. A Machine only checks them while at least one is armed,
+ * so an unarmed set costs nothing.
+ */
+public class Breakpoints implements MemoryListener {
+	/**
+	 * Op code of the LD instruction.
+	 */
+	private static final int LD_OP_CODE = 0x2;
+	
+	/**
+	 * Op code of the LDI instruction.
+	 */
+	private static final int LDI_OP_CODE = 0xa;
+	
+	/**
+	 * Op code of the LDR instruction.
+	 */
+	private static final int LDR_OP_CODE = 0x6;
+	
+	/**
+	 * Op code of the STI instruction.
+	 */
+	private static final int STI_OP_CODE = 0xb;
+	
+	/**
+	 * Mask of a 16-bit address.
+	 */
+	private static final int ADDRESS_MASK = 0xFFFF;
+	
+	/**
+	 * Addresses with a breakpoint.
+	 */
+	private BitSet breakpoints = new BitSet(MemoryBank.MEMORY_SIZE);
+	
+	/**
+	 * Addresses whose reads are watched.
+	 */
+	private BitSet reads = new BitSet(MemoryBank.MEMORY_SIZE);
+	
+	/**
+	 * Addresses whose writes are watched.
+	 */
+	private BitSet writes = new BitSet(MemoryBank.MEMORY_SIZE);
+	
+	/**
+	 * First watched address written since the last call to takeWrite, or -1.
+	 */
+	private int written = -1;
+	
+	/**
+	 * Number of instructions the machine will have executed when it should
+	 * pause, or Long.MAX_VALUE if no pause is pending. Set from any thread.
+	 */
+	private volatile long pauseAt = Long.MAX_VALUE;
+	
+	/**
+	 * Sets a breakpoint at the given address.
+	 * @param address The address of the instruction to pause before.
+	 */
+	public void addBreakpoint(int address) {
+		this.breakpoints.set(address & Breakpoints.ADDRESS_MASK);
+	}
+	
+	/**
+	 * Clears the breakpoint at the given address.
+	 * @param address The address of the breakpoint.
+	 */
+	public void removeBreakpoint(int address) {
+		this.breakpoints.clear(address & Breakpoints.ADDRESS_MASK);
+	}
+	
+	/**
+	 * Watches reads of the given range of addresses.
+	 * @param from The first address to watch.
+	 * @param to The last address to watch, inclusive.
+	 */
+	public void watchReads(int from, int to) {
+		this.reads.set(from & Breakpoints.ADDRESS_MASK, (to & Breakpoints.ADDRESS_MASK) + 1);
+	}
+	
+	/**
+	 * Watches writes to the given range of addresses.
+	 * @param from The first address to watch.
+	 * @param to The last address to watch, inclusive.
+	 */
+	public void watchWrites(int from, int to) {
+		this.writes.set(from & Breakpoints.ADDRESS_MASK, (to & Breakpoints.ADDRESS_MASK) + 1);
+	}
+	
+	/**
+	 * Stops watching reads and writes of the given range of addresses.
+	 * @param from The first address to stop watching.
+	 * @param to The last address to stop watching, inclusive.
+	 */
+	public void unwatch(int from, int to) {
+		this.reads.clear(from & Breakpoints.ADDRESS_MASK, (to & Breakpoints.ADDRESS_MASK) + 1);
+		this.writes.clear(from & Breakpoints.ADDRESS_MASK, (to & Breakpoints.ADDRESS_MASK) + 1);
+	}
+	
+	/**
+	 * Clears every breakpoint and watchpoint.
+	 */
+	public void clear() {
+		this.breakpoints.clear();
+		this.reads.clear();
+		this.writes.clear();
+	}
+	
+	/**
+	 * Pauses the machine before its next instruction. May be called from
+	 * any thread, but only takes effect in a run which started armed.
+	 */
+	public void requestPause() {
+		this.pauseAt = 0;
+	}
+	
+	/**
+	 * Pauses the machine once it has executed the given number of
+	 * instructions in total, or at an earlier breakpoint.
+	 * @param instructionsExecuted The instruction count to pause at.
+	 */
+	public void pauseAfter(long instructionsExecuted) {
+		this.pauseAt = instructionsExecuted;
+	}
+	
+	/**
+	 * Determines whether any breakpoint or watchpoint is armed.
+	 * @return True if and only if at least one breakpoint or watchpoint is set, or a pause is requested.
+	 */
+	public boolean isArmed() {
+		return this.pauseAt != Long.MAX_VALUE || !this.breakpoints.isEmpty() || !this.reads.isEmpty() || !this.writes.isEmpty();
+	}
+	
+	/**
+	 * Determines whether the machine should pause before the instruction at
+	 * the given address. A requested pause is taken, so it pauses only once.
+	 * @param address The address of the next instruction.
+	 * @param instructionsExecuted Number of instructions the machine has executed.
+	 * @return PAUSE if a pause is due, BREAKPOINT if the address has a breakpoint, or null.
+	 */
+	public BreakpointKind check(int address, long instructionsExecuted) {
+		if (instructionsExecuted >= this.pauseAt) {
+			this.pauseAt = Long.MAX_VALUE;
+			return BreakpointKind.PAUSE;
+		}
+		return this.breakpoints.get(address & Breakpoints.ADDRESS_MASK) ? BreakpointKind.BREAKPOINT : null;
+	}
+	
+	/**
+	 * Determines whether the given address has a breakpoint.
+	 * @param address The address of the next instruction.
+	 * @return True if and only if a breakpoint is set at the address.
+	 */
+	public boolean isBreakpoint(int address) {
+		return this.breakpoints.get(address & Breakpoints.ADDRESS_MASK);
+	}
+	
+	/**
+	 * Determines whether writes to the given address are watched.
+	 * @param address The address of a memory cell.
+	 * @return True if and only if writes to the cell are watched.
+	 */
+	public boolean isWriteWatched(int address) {
+		return this.writes.get(address & Breakpoints.ADDRESS_MASK);
+	}
+	
+	/**
+	 * Finds a watched cell read by the given instruction. The pointer cell of
+	 * LDI and STI is checked before the cell LDI loads.
+	 * @param decoded The next instruction.
+	 * @param state The state before the instruction.
+	 * @param memory The memory before the instruction.
+	 * @return The address of the watched cell, or -1 if no watched cell is read.
+	 */
+	public int findRead(DecodedInstruction decoded, MachineState state, MemoryBank memory) {
+		if (this.reads.isEmpty())
+			return -1;
+		int address;
+		switch (decoded.opCode) {
+		case Breakpoints.LD_OP_CODE:
+			address = decoded.target;
+			break;
+		case Breakpoints.LDR_OP_CODE:
+			address = state.registers[decoded.register2] + decoded.immediate;
+			break;
+		case Breakpoints.LDI_OP_CODE:
+			if (this.reads.get(decoded.target & Breakpoints.ADDRESS_MASK))
+				return decoded.target & Breakpoints.ADDRESS_MASK;
+			address = memory.read(decoded.target);
+			break;
+		case Breakpoints.STI_OP_CODE:
+			address = decoded.target;
+			break;
+		default:
+			return -1;
+		}
+		address &= Breakpoints.ADDRESS_MASK;
+		return this.reads.get(address) ? address : -1;
+	}
+	
+	@Override
+	public void memoryWritten(int address, short previousValue, short value) {
+		if (this.written < 0 && this.writes.get(address)) {
+			this.written = address;
+		}
+	}
+	
+	/**
+	 * Gets the first watched cell written since the last call, and forgets it.
+	 * @return The address of the watched cell, or -1 if none was written.
+	 */
+	public int takeWrite() {
+		int address = this.written;
+		this.written = -1;
+		return address;
+	}
+}
@@ -0,0 +1,54 @@
+package Simulator.program;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Captures the output of a program in memory, keeping at most a fixed number
+ * of bytes so a program which prints forever cannot exhaust memory.
+ */
+public class CapturedOutput extends ByteArrayOutputStream {
+	/**
+	 * Maximum number of bytes kept.
+	 */
+	private int limit;
+	
+	/**
+	 * True if and only if output was discarded because the limit was reached.
+	 */
+	private boolean truncated = false;
+	
+	/**
+	 * Creates a new CapturedOutput keeping at most the given number of bytes.
+	 * @param _limit Maximum number of bytes kept.
+	 */
+	public CapturedOutput(int _limit) {
+		this.limit = _limit;
+	}
+	
+	@Override
+	public synchronized void write(int b) {
+		if (this.count < this.limit) {
+			super.write(b);
+		} else {
+			this.truncated = true;
+		}
+	}
+	
+	@Override
+	public synchronized void write(byte[] b, int off, int len) {
+		int kept = Math.min(len, this.limit - this.count);
+		if (kept > 0) {
+			super.write(b, off, kept);
+		}
+		if (kept < len) {
+			this.truncated = true;
+		}
+	}
+	
+	/**
+	 * Determines whether output was discarded because the limit was reached.
+	 * @return True if and only if output was discarded.
+	 */
+	public boolean isTruncated() {
+		return this.truncated;
+	}
+}
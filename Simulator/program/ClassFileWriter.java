@@ -0,0 +1,241 @@
+package Simulator.program;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Builds the bytes of a minimal JVM class file: a constant pool, a super
+ * class and a list of methods with Code attributes. No interfaces, fields or
+ * other attributes are supported. Class file version 49 is written, so
+ * methods do not need stack map frames.
+ */
+public class ClassFileWriter {
+	/**
+	 * Class file major version (Java 5).
+	 */
+	private static final int MAJOR_VERSION = 49;
+	
+	/**
+	 * Access flags of the generated class: public, final, super.
+	 */
+	private static final int CLASS_ACCESS = 0x0031;
+	
+	/**
+	 * Constant pool tags.
+	 */
+	private static final int TAG_UTF8 = 1;
+	private static final int TAG_INTEGER = 3;
+	private static final int TAG_CLASS = 7;
+	private static final int TAG_FIELDREF = 9;
+	private static final int TAG_METHODREF = 10;
+	private static final int TAG_NAME_AND_TYPE = 12;
+	
+	/**
+	 * Serialized constant pool entries.
+	 */
+	private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	
+	/**
+	 * Output stream over the constant pool entries.
+	 */
+	private DataOutputStream poolOutput = new DataOutputStream(this.pool);
+	
+	/**
+	 * Maps a description of each constant to its index, so constants are shared.
+	 */
+	private Map<String, Integer> constants = new HashMap<String, Integer>();
+	
+	/**
+	 * Index the next constant will be given.
+	 */
+	private int nextConstant = 1;
+	
+	/**
+	 * Serialized methods.
+	 */
+	private ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	
+	/**
+	 * Output stream over the serialized methods.
+	 */
+	private DataOutputStream methodOutput = new DataOutputStream(this.methods);
+	
+	/**
+	 * Number of methods added so far.
+	 */
+	private int methodCount = 0;
+	
+	/**
+	 * Constant pool index of this class.
+	 */
+	private int thisClass;
+	
+	/**
+	 * Constant pool index of the super class.
+	 */
+	private int superClass;
+	
+	/**
+	 * Creates a new class with the given internal names (using '/' as separator).
+	 * @param className Internal name of the class to write.
+	 * @param superName Internal name of its super class.
+	 */
+	public ClassFileWriter(String className, String superName) throws IOException {
+		this.thisClass = this.classRef(className);
+		this.superClass = this.classRef(superName);
+	}
+	
+	/**
+	 * Gets the constant pool index of a UTF8 constant.
+	 * @param value The string value.
+	 * @return The constant pool index.
+	 */
+	public int utf8(String value) throws IOException {
+		String key = "U" + value;
+		if (this.constants.containsKey(key))
+			return this.constants.get(key);
+		this.poolOutput.writeByte(ClassFileWriter.TAG_UTF8);
+		this.poolOutput.writeUTF(value);
+		return this.define(key);
+	}
+	
+	/**
+	 * Gets the constant pool index of an integer constant.
+	 * @param value The integer value.
+	 * @return The constant pool index.
+	 */
+	public int integer(int value) throws IOException {
+		String key = "I" + value;
+		if (this.constants.containsKey(key))
+			return this.constants.get(key);
+		this.poolOutput.writeByte(ClassFileWriter.TAG_INTEGER);
+		this.poolOutput.writeInt(value);
+		return this.define(key);
+	}
+	
+	/**
+	 * Gets the constant pool index of a class reference.
+	 * @param name Internal name of the class.
+	 * @return The constant pool index.
+	 */
+	public int classRef(String name) throws IOException {
+		String key = "C" + name;
+		if (this.constants.containsKey(key))
+			return this.constants.get(key);
+		int nameIndex = this.utf8(name);
+		this.poolOutput.writeByte(ClassFileWriter.TAG_CLASS);
+		this.poolOutput.writeShort(nameIndex);
+		return this.define(key);
+	}
+	
+	/**
+	 * Gets the constant pool index of a field reference.
+	 * @param owner Internal name of the class declaring the field.
+	 * @param name Name of the field.
+	 * @param descriptor Type descriptor of the field.
+	 * @return The constant pool index.
+	 */
+	public int fieldRef(String owner, String name, String descriptor) throws IOException {
+		return this.memberRef(ClassFileWriter.TAG_FIELDREF, owner, name, descriptor);
+	}
+	
+	/**
+	 * Gets the constant pool index of a method reference.
+	 * @param owner Internal name of the class declaring the method.
+	 * @param name Name of the method.
+	 * @param descriptor Type descriptor of the method.
+	 * @return The constant pool index.
+	 */
+	public int methodRef(String owner, String name, String descriptor) throws IOException {
+		return this.memberRef(ClassFileWriter.TAG_METHODREF, owner, name, descriptor);
+	}
+	
+	/**
+	 * Adds a method with the given bytecode to the class.
+	 * @param access Access flags of the method.
+	 * @param name Name of the method.
+	 * @param descriptor Type descriptor of the method.
+	 * @param maxStack Maximum operand stack depth of the code.
+	 * @param maxLocals Number of local variable slots used by the code.
+	 * @param code The bytecode of the method.
+	 */
+	public void addMethod(int access, String name, String descriptor, int maxStack, int maxLocals, byte[] code) throws IOException {
+		int nameIndex = this.utf8(name);
+		int descriptorIndex = this.utf8(descriptor);
+		int codeIndex = this.utf8("Code");
+		this.methodOutput.writeShort(access);
+		this.methodOutput.writeShort(nameIndex);
+		this.methodOutput.writeShort(descriptorIndex);
+		this.methodOutput.writeShort(1); // One attribute: Code
+		this.methodOutput.writeShort(codeIndex);
+		this.methodOutput.writeInt(12 + code.length);
+		this.methodOutput.writeShort(maxStack);
+		this.methodOutput.writeShort(maxLocals);
+		this.methodOutput.writeInt(code.length);
+		this.methodOutput.write(code);
+		this.methodOutput.writeShort(0); // No exception handlers
+		this.methodOutput.writeShort(0); // No attributes
+		this.methodCount++;
+	}
+	
+	/**
+	 * Gets the bytes of the complete class file.
+	 * @return The bytes of the class file.
+	 */
+	public byte[] toByteArray() throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(result);
+		output.writeInt(0xCAFEBABE);
+		output.writeShort(0);
+		output.writeShort(ClassFileWriter.MAJOR_VERSION);
+		output.writeShort(this.nextConstant);
+		output.write(this.pool.toByteArray());
+		output.writeShort(ClassFileWriter.CLASS_ACCESS);
+		output.writeShort(this.thisClass);
+		output.writeShort(this.superClass);
+		output.writeShort(0); // No interfaces
+		output.writeShort(0); // No fields
+		output.writeShort(this.methodCount);
+		output.write(this.methods.toByteArray());
+		output.writeShort(0); // No attributes
+		output.flush();
+		return result.toByteArray();
+	}
+	
+	/**
+	 * Gets the constant pool index of a field or method reference.
+	 */
+	private int memberRef(int tag, String owner, String name, String descriptor) throws IOException {
+		String key = tag + owner + "." + name + descriptor;
+		if (this.constants.containsKey(key))
+			return this.constants.get(key);
+		int ownerIndex = this.classRef(owner);
+		int nameIndex = this.utf8(name);
+		int descriptorIndex = this.utf8(descriptor);
+		String nameAndTypeKey = "N" + name + descriptor;
+		int nameAndTypeIndex;
+		if (this.constants.containsKey(nameAndTypeKey)) {
+			nameAndTypeIndex = this.constants.get(nameAndTypeKey);
+		} else {
+			this.poolOutput.writeByte(ClassFileWriter.TAG_NAME_AND_TYPE);
+			this.poolOutput.writeShort(nameIndex);
+			this.poolOutput.writeShort(descriptorIndex);
+			nameAndTypeIndex = this.define(nameAndTypeKey);
+		}
+		this.poolOutput.writeByte(tag);
+		this.poolOutput.writeShort(ownerIndex);
+		this.poolOutput.writeShort(nameAndTypeIndex);
+		return this.define(key);
+	}
+	
+	/**
+	 * Assigns the next constant pool index to the constant just written.
+	 */
+	private int define(String key) {
+		int index = this.nextConstant++;
+		this.constants.put(key, index);
+		return index;
+	}
+}
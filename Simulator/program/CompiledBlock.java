@@ -0,0 +1,58 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+
+/**
+ * A CompiledBlock is a basic block of guest instructions which has been
+ * translated into JVM bytecode by the BlockCompiler. Concrete subclasses are
+ * generated at run time and loaded as hidden classes.
+ */
+public abstract class CompiledBlock {
+	/**
+	 * Address of the first instruction in this block.
+	 */
+	int start;
+	
+	/**
+	 * Address of the last instruction in this block.
+	 */
+	int end;
+	
+	/**
+	 * Number of guest instructions executed each time this block runs.
+	 */
+	int length;
+	
+	/**
+	 * Executes every instruction in this block, updating the registers and
+	 * CCR of the given MachineState and the given MemoryBank.
+	 * @param state The MachineState to use and modify.
+	 * @param memory The MemoryBank to use and modify.
+	 * @return The address of the next instruction to execute.
+	 */
+	public abstract int execute(MachineState state, MemoryBank memory);
+	
+	/**
+	 * Gets the address of the first instruction in this block.
+	 * @return The address of the first instruction in this block.
+	 */
+	public int getStart() {
+		return this.start;
+	}
+	
+	/**
+	 * Gets the address of the last instruction in this block.
+	 * @return The address of the last instruction in this block.
+	 */
+	public int getEnd() {
+		return this.end;
+	}
+	
+	/**
+	 * Gets the number of guest instructions executed each time this block runs.
+	 * @return The number of guest instructions in this block.
+	 */
+	public int getLength() {
+		return this.length;
+	}
+}
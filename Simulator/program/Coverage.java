@@ -0,0 +1,119 @@
+package Simulator.program;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import Common.MemoryBank;
+
+/**
+ * The set of addresses a Machine has executed an instruction at, kept as
+ * one bit per word of memory. Coverage of many runs is merged with a
+ * bitwise OR, and a coverage file is always the same 8K, however many runs
+ * it holds.
+ */
+public class Coverage {
+	/**
+	 * Identifies a coverage file: "W8CV".
+	 */
+	private static final int MAGIC = 0x57384356;
+	
+	/**
+	 * Number of addresses in each word of the bitset.
+	 */
+	private static final int BITS_PER_WORD = 64;
+	
+	/**
+	 * Shift from an address to the index of its word in the bitset.
+	 */
+	private static final int WORD_SHIFT = 6;
+	
+	/**
+	 * Mask of a 16-bit address.
+	 */
+	private static final int ADDRESS_MASK = 0xFFFF;
+	
+	/**
+	 * One bit for each address, set once an instruction there is executed.
+	 */
+	private long[] words = new long[MemoryBank.MEMORY_SIZE / Coverage.BITS_PER_WORD];
+	
+	/**
+	 * Records that the instruction at the given address was executed.
+	 * @param address The address of the instruction.
+	 */
+	public void mark(int address) {
+		// The shift count of a long is taken modulo 64
+		this.words[(address & Coverage.ADDRESS_MASK) >>> Coverage.WORD_SHIFT] |= 1L << address;
+	}
+	
+	/**
+	 * Determines whether an instruction at the given address was executed.
+	 * @param address The address of the instruction.
+	 * @return True if and only if the address was marked.
+	 */
+	public boolean isCovered(int address) {
+		return (this.words[(address & Coverage.ADDRESS_MASK) >>> Coverage.WORD_SHIFT] & (1L << address)) != 0;
+	}
+	
+	/**
+	 * Counts the addresses marked.
+	 * @return The number of distinct addresses executed.
+	 */
+	public int count() {
+		int count = 0;
+		for (long word : this.words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+	
+	/**
+	 * Adds the addresses of the given coverage to this one.
+	 * @param other The coverage to merge.
+	 */
+	public void merge(Coverage other) {
+		for (int i = 0; i < this.words.length; i++) {
+			this.words[i] |= other.words[i];
+		}
+	}
+	
+	/**
+	 * Writes this coverage to the given stream.
+	 * @param output The stream to write to, which is flushed but not closed.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public void write(OutputStream output) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+		data.writeInt(Coverage.MAGIC);
+		for (long word : this.words) {
+			data.writeLong(word);
+		}
+		data.flush();
+	}
+	
+	/**
+	 * Reads coverage written by write.
+	 * @param input The stream to read from.
+	 * @return The coverage read.
+	 * @throws IOException If the stream does not hold coverage.
+	 */
+	public static Coverage read(InputStream input) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+		Coverage coverage = new Coverage();
+		try {
+			if (data.readInt() == Coverage.MAGIC) {
+				for (int i = 0; i < coverage.words.length; i++) {
+					coverage.words[i] = data.readLong();
+				}
+				return coverage;
+			}
+		} catch (EOFException e) {
+			// Reported below
+		}
+		throw new IOException("The file is not a coverage file.");
+	}
+}
@@ -0,0 +1,101 @@
+package Simulator.program;
+import java.io.PrintStream;
+import java.util.List;
+import Common.ByteOperations;
+import Common.SourceLine;
+
+/**
+ * Reports coverage against the source of the programs that ran. Each source
+ * line is listed with its line number, a mark and its address: + if its
+ * instruction was executed, - if it never was, and none for pseudo-ops. Each
+ * file ends with the share of its instructions executed, and finish adds the
+ * total over every file.
+ */
+public class CoverageReport {
+	/**
+	 * The coverage being reported.
+	 */
+	private Coverage coverage;
+	
+	/**
+	 * IO stream the report is printed to.
+	 */
+	private PrintStream output;
+	
+	/**
+	 * Number of instructions executed in the files reported so far.
+	 */
+	private int executed = 0;
+	
+	/**
+	 * Number of instructions in the files reported so far.
+	 */
+	private int total = 0;
+	
+	/**
+	 * Number of files reported so far.
+	 */
+	private int files = 0;
+	
+	/**
+	 * Creates a new CoverageReport.
+	 * @param _coverage The coverage to report.
+	 * @param _output The IO stream to print the report to.
+	 */
+	public CoverageReport(Coverage _coverage, PrintStream _output) {
+		this.coverage = _coverage;
+		this.output = _output;
+	}
+	
+	/**
+	 * Reports the coverage of one source file.
+	 * @param filename The name of the source file.
+	 * @param lines The lines of the file, as assembled.
+	 * @param loadAddress Address added to the addresses of the lines, for relocatable programs.
+	 */
+	public void addFile(String filename, List<SourceLine> lines, int loadAddress) {
+		int executed = 0;
+		int total = 0;
+		this.output.println("Coverage of " + filename + ":");
+		for (SourceLine line : lines) {
+			int address = line.getAddress() + loadAddress;
+			String mark = " ";
+			String location = "    ";
+			if (line.getSize() > 0) {
+				location = ByteOperations.getHex(address, 4);
+			}
+			if (line.isExecutable() && line.getSize() > 0) {
+				total++;
+				if (this.coverage.isCovered(address)) {
+					executed++;
+					mark = "+";
+				}
+				else {
+					mark = "-";
+				}
+			}
+			this.output.println(String.format("%5d %s %s  %s", line.getLineNumber(), mark, location, line.getSource()));
+		}
+		this.output.println(filename + ": " + CoverageReport.summarize(executed, total));
+		this.executed += executed;
+		this.total += total;
+		this.files++;
+	}
+	
+	/**
+	 * Prints the total over every file, if more than one was reported.
+	 */
+	public void finish() {
+		if (this.files > 1) {
+			this.output.println("Total: " + CoverageReport.summarize(this.executed, this.total));
+		}
+	}
+	
+	/**
+	 * Describes how many of the given instructions were executed.
+	 */
+	private static String summarize(int executed, int total) {
+		int percent = total == 0 ? 100 : (int) (100L * executed / total);
+		return executed + " of " + total + " instructions executed (" + percent + "%).";
+	}
+}
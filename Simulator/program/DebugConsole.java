@@ -0,0 +1,460 @@
+package Simulator.program;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import Simulator.state.Console;
+import Simulator.state.MachineState;
+import Common.ByteOperations;
+import Common.MemoryBank;
+
+/**
+ * An interactive debugger reading commands from the console of a Machine.
+ * Between stops the machine runs in quiet mode, pausing only through its
+ * breakpoints, so stepping over a call or running to a label costs no more
+ * than running the program. Locations are hexadecimal addresses, with an
+ * optional x or 0x prefix, or labels defined with defineSymbol.
+ *
+ * The commands are:
+ * step [count] (execute count instructions, default 1),
+ * next (step, stepping over a JSR or JSRR subroutine call),
+ * finish (run to the return address in R7),
+ * run until location (run to the location),
+ * continue (run to the next breakpoint or watchpoint),
+ * break location and delete location (set and clear a breakpoint),
+ * watch first[:last], rwatch first[:last] and unwatch first[:last] (watch writes and reads),
+ * x/count location (display count words of memory),
+ * info regs (display the registers),
+ * back [count] and reverse-continue (undo instructions),
+ * quit and help.
+ */
+public class DebugConsole implements BreakpointListener {
+	/**
+	 * Number of bytes of undo records kept for back and reverse-continue.
+	 */
+	public static final long UNDO_BUDGET = 1 << 20;
+
+	/**
+	 * Text printed before reading each command.
+	 */
+	private static final String PROMPT = "(debug) ";
+
+	/**
+	 * Number of words displayed on each line by the x command.
+	 */
+	private static final int WORDS_PER_LINE = 8;
+
+	/**
+	 * Op code of the JSR instruction.
+	 */
+	private static final int JSR_OP_CODE = 0x4;
+
+	/**
+	 * Op code of the JSRR instruction.
+	 */
+	private static final int JSRR_OP_CODE = 0xc;
+
+	/**
+	 * Bit of JSR and JSRR which saves the return address in R7.
+	 */
+	private static final int LINK_BIT = 11;
+
+	/**
+	 * Register a subroutine call saves its return address in.
+	 */
+	private static final int LINK_REGISTER = 7;
+
+	/**
+	 * Mask of a 16-bit address or word.
+	 */
+	private static final int WORD_MASK = 0xFFFF;
+
+	/**
+	 * The machine being debugged.
+	 */
+	private Machine machine;
+
+	/**
+	 * The memory of the machine.
+	 */
+	private MemoryBank memory;
+
+	/**
+	 * IO stream the debugger prints to.
+	 */
+	private PrintStream output;
+
+	/**
+	 * Console commands are read from, shared with the TRAP instructions of the program.
+	 */
+	private Console console;
+
+	/**
+	 * Addresses of the labels which may name locations.
+	 */
+	private Map<String, Integer> symbols = new HashMap<String, Integer>();
+
+	/**
+	 * The first label defined at each address, used to describe locations.
+	 */
+	private Map<Integer, String> labels = new HashMap<Integer, String>();
+
+	/**
+	 * Address of the breakpoint set by next, finish or run until, or -1 if none is set.
+	 */
+	private int temporary = -1;
+
+	/**
+	 * Number of instructions executed when the machine was resumed from the
+	 * halted prompt, or -1. The breakpoint it resumed at is not reported again.
+	 */
+	private long resumedAt = -1;
+	
+	/**
+	 * True if and only if the user has asked to quit.
+	 */
+	private boolean quit = false;
+
+	/**
+	 * Creates a new DebugConsole for the given machine.
+	 * @param _machine The machine to debug.
+	 * @param _memory The memory of the machine.
+	 * @param _output The IO stream to print to.
+	 */
+	public DebugConsole(Machine _machine, MemoryBank _memory, PrintStream _output) {
+		this.machine = _machine;
+		this.memory = _memory;
+		this.output = _output;
+		this.console = _machine.getConsole();
+	}
+
+	/**
+	 * Defines a label which may name a location in commands.
+	 * @param name The label.
+	 * @param address The address it names.
+	 */
+	public void defineSymbol(String name, int address) {
+		this.symbols.put(name, address & DebugConsole.WORD_MASK);
+		if (!this.labels.containsKey(address & DebugConsole.WORD_MASK)) {
+			this.labels.put(address & DebugConsole.WORD_MASK, name);
+		}
+	}
+
+	/**
+	 * Runs the machine under the debugger, pausing before its first
+	 * instruction. Returns when the user quits, or when the program halts
+	 * and the user runs out of commands.
+	 * @param startAddress The memory address to begin execution at.
+	 * @throws Exception If the machine fails or reaches a limit.
+	 */
+	public void debug(int startAddress) throws Exception {
+		this.machine.setBreakpointListener(this);
+		this.machine.setUndoBudget(DebugConsole.UNDO_BUDGET);
+		this.machine.getBreakpoints().requestPause();
+		int address = startAddress;
+		while (true) {
+			this.machine.run(address, ExecutionMode.QUIET);
+			this.clearTemporary();
+			if (this.quit)
+				return;
+			MachineState state = this.machine.getState();
+			this.output.println("Program halted after " + state.instructionsExecuted + " instructions.");
+			// Only back or reverse-continue can bring the program back to life
+			if (!this.prompt() || !this.machine.getState().executing)
+				return;
+			state = this.machine.getState();
+			address = state.programCounter;
+			this.resumedAt = state.instructionsExecuted;
+		}
+	}
+
+	@Override
+	public void breakpointHit(BreakpointKind kind, int address, MachineState state, MemoryBank memory) throws Exception {
+		boolean resumed = this.resumedAt == state.instructionsExecuted;
+		this.resumedAt = -1;
+		if (resumed && kind == BreakpointKind.BREAKPOINT)
+			return;
+		state.console.flush();
+		if (this.clearTemporary() == state.programCounter && kind == BreakpointKind.BREAKPOINT) {
+			kind = BreakpointKind.PAUSE;
+		}
+		if (kind == BreakpointKind.BREAKPOINT)
+			this.output.println("Breakpoint at " + this.describe(address) + ".");
+		else if (kind == BreakpointKind.READ)
+			this.output.println("Watchpoint: read of " + this.describe(address) + ".");
+		else if (kind == BreakpointKind.WRITE)
+			this.output.println("Watchpoint: write to " + this.describe(address) + ".");
+		this.showLocation();
+		if (!this.prompt()) {
+			state.executing = false;
+		}
+	}
+
+	/**
+	 * Reads and carries out commands until one resumes the machine.
+	 * @return True to resume the machine, or false to quit.
+	 */
+	private boolean prompt() throws Exception {
+		while (!this.quit) {
+			this.output.print(DebugConsole.PROMPT);
+			this.output.flush();
+			String line = this.console.readLine();
+			if (line == null) {
+				this.quit = true;
+				break;
+			}
+			String[] words = line.trim().split("\\s+");
+			if (words[0].length() == 0)
+				continue;
+			try {
+				if (this.execute(words))
+					return true;
+			} catch (Exception e) {
+				this.output.println(e.getMessage());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Carries out a single command.
+	 * @param words The command and its arguments.
+	 * @return True if and only if the command resumes the machine.
+	 * @throws Exception If the command is not understood.
+	 */
+	private boolean execute(String[] words) throws Exception {
+		String command = words[0].toLowerCase();
+		Breakpoints breakpoints = this.machine.getBreakpoints();
+		MachineState state = this.machine.getState();
+		if (command.equals("quit") || command.equals("q")) {
+			this.quit = true;
+			return false;
+		}
+		else if (command.equals("help") || command.equals("h")) {
+			this.printHelp();
+			return false;
+		}
+		else if (command.equals("info") || command.equals("i")) {
+			if (words.length != 2 || !(words[1].startsWith("r")))
+				throw new Exception("Usage: info regs");
+			state.display(this.output);
+			return false;
+		}
+		else if (command.equals("x") || command.startsWith("x/")) {
+			int count = command.length() > 2 ? this.parseCount(command.substring(2)) : 1;
+			this.examine(this.parseLocation(words, 1), count);
+			return false;
+		}
+		else if (command.equals("break") || command.equals("b")) {
+			int address = this.parseLocation(words, 1);
+			if (address == this.temporary)
+				this.temporary = -1;
+			breakpoints.addBreakpoint(address);
+			this.output.println("Breakpoint set at " + this.describe(address) + ".");
+			return false;
+		}
+		else if (command.equals("delete") || command.equals("d")) {
+			int address = this.parseLocation(words, 1);
+			breakpoints.removeBreakpoint(address);
+			this.output.println("Breakpoint cleared at " + this.describe(address) + ".");
+			return false;
+		}
+		else if (command.equals("watch") || command.equals("rwatch") || command.equals("unwatch")) {
+			if (words.length != 2)
+				throw new Exception("Usage: " + command + " first[:last]");
+			String[] range = words[1].split(":", 2);
+			int first = this.parseLocation(range, 0);
+			int last = range.length > 1 ? this.parseLocation(range, 1) : first;
+			if (last < first)
+				throw new Exception("The last address of a range must not be before the first.");
+			if (command.equals("watch"))
+				breakpoints.watchWrites(first, last);
+			else if (command.equals("rwatch"))
+				breakpoints.watchReads(first, last);
+			else
+				breakpoints.unwatch(first, last);
+			return false;
+		}
+		else if (command.equals("back")) {
+			int count = words.length > 1 ? this.parseCount(words[1]) : 1;
+			int undone = this.machine.stepBack(count);
+			if (undone < count)
+				this.output.println("Went back " + undone + " instructions, to the oldest undo record.");
+			this.showLocation();
+			return false;
+		}
+		else if (command.equals("reverse-continue") || command.equals("rc")) {
+			BreakpointKind kind = this.machine.reverseContinue();
+			if (kind == null)
+				this.output.println("Reached the oldest undo record.");
+			else if (kind == BreakpointKind.BREAKPOINT)
+				this.output.println("Breakpoint at " + this.describe(this.machine.getState().programCounter) + ".");
+			else
+				this.output.println("Watchpoint: " + (kind == BreakpointKind.READ ? "read" : "write") + " before " + this.describe(this.machine.getState().programCounter) + ".");
+			this.showLocation();
+			return false;
+		}
+
+		// The remaining commands resume the machine
+		if (!state.executing) {
+			if (!command.equals("step") && !command.equals("s") && !command.equals("next") && !command.equals("n")
+					&& !command.equals("finish") && !command.equals("run") && !command.equals("until")
+					&& !command.equals("continue") && !command.equals("c"))
+				throw new Exception("Unknown command \"" + words[0] + "\". Type help for a list of commands.");
+			throw new Exception("The program is not running.");
+		}
+		if (command.equals("step") || command.equals("s")) {
+			int count = words.length > 1 ? this.parseCount(words[1]) : 1;
+			breakpoints.pauseAfter(state.instructionsExecuted + count);
+			return true;
+		}
+		else if (command.equals("next") || command.equals("n")) {
+			int instruction = this.memory.read(state.programCounter) & DebugConsole.WORD_MASK;
+			int opCode = ByteOperations.extractValue(instruction, 12, 16);
+			boolean link = ByteOperations.getBit(instruction, DebugConsole.LINK_BIT);
+			if (link && (opCode == DebugConsole.JSR_OP_CODE || opCode == DebugConsole.JSRR_OP_CODE))
+				this.setTemporary(state.programCounter + 1);
+			else
+				breakpoints.pauseAfter(state.instructionsExecuted + 1);
+			return true;
+		}
+		else if (command.equals("finish")) {
+			int address = state.registers[DebugConsole.LINK_REGISTER] & DebugConsole.WORD_MASK;
+			this.output.println("Run till exit to " + this.describe(address) + ".");
+			this.setTemporary(address);
+			return true;
+		}
+		else if (command.equals("run") || command.equals("until")) {
+			int index = command.equals("run") ? 2 : 1;
+			if (index == 2 && (words.length < 2 || !words[1].equalsIgnoreCase("until")))
+				throw new Exception("Usage: run until location");
+			this.setTemporary(this.parseLocation(words, index));
+			return true;
+		}
+		else if (command.equals("continue") || command.equals("c")) {
+			return true;
+		}
+		throw new Exception("Unknown command \"" + words[0] + "\". Type help for a list of commands.");
+	}
+
+	/**
+	 * Sets the breakpoint of next, finish or run until, unless the user has
+	 * a breakpoint at the same address.
+	 */
+	private void setTemporary(int address) {
+		address &= DebugConsole.WORD_MASK;
+		Breakpoints breakpoints = this.machine.getBreakpoints();
+		if (!breakpoints.isBreakpoint(address)) {
+			breakpoints.addBreakpoint(address);
+			this.temporary = address;
+		}
+	}
+
+	/**
+	 * Clears the breakpoint of next, finish or run until, if it is set.
+	 * @return The address it was set at, or -1.
+	 */
+	private int clearTemporary() {
+		int address = this.temporary;
+		if (address >= 0) {
+			this.machine.getBreakpoints().removeBreakpoint(address);
+			this.temporary = -1;
+		}
+		return address;
+	}
+
+	/**
+	 * Displays the given number of memory words, starting at the given address.
+	 */
+	private void examine(int address, int count) {
+		for (int i = 0; i < count; i++) {
+			int current = (address + i) & DebugConsole.WORD_MASK;
+			if (i % DebugConsole.WORDS_PER_LINE == 0) {
+				if (i > 0)
+					this.output.println();
+				this.output.print("0x" + ByteOperations.getHex(current, 4) + ":");
+			}
+			this.output.print(" " + ByteOperations.getHex(this.memory.read(current) & DebugConsole.WORD_MASK, 4));
+		}
+		this.output.println();
+	}
+
+	/**
+	 * Displays the address and contents of the next instruction.
+	 */
+	private void showLocation() {
+		int address = this.machine.getState().programCounter & DebugConsole.WORD_MASK;
+		this.output.println(this.describe(address) + ": " + ByteOperations.getHex(this.memory.read(address) & DebugConsole.WORD_MASK, 4));
+	}
+
+	/**
+	 * Describes an address, followed by its label if it has one.
+	 */
+	private String describe(int address) {
+		String label = this.labels.get(address);
+		return "0x" + ByteOperations.getHex(address, 4) + (label == null ? "" : " <" + label + ">");
+	}
+
+	/**
+	 * Parses the location given as an argument of a command.
+	 * @param words The command and its arguments.
+	 * @param index Index of the argument.
+	 * @return The address of the location.
+	 * @throws Exception If the argument is missing or names no location.
+	 */
+	private int parseLocation(String[] words, int index) throws Exception {
+		if (index >= words.length)
+			throw new Exception("Missing location.");
+		String text = words[index];
+		Integer symbol = this.symbols.get(text);
+		if (symbol != null)
+			return symbol;
+		String digits = text.toLowerCase();
+		if (digits.startsWith("0x"))
+			digits = digits.substring(2);
+		else if (digits.startsWith("x"))
+			digits = digits.substring(1);
+		try {
+			int address = Integer.parseInt(digits, 16);
+			if (address >= 0 && address <= DebugConsole.WORD_MASK)
+				return address;
+		} catch (NumberFormatException e) {
+		}
+		throw new Exception("\"" + text + "\" is neither an address nor a label.");
+	}
+
+	/**
+	 * Parses a positive decimal count.
+	 * @throws Exception If the text is not a positive number.
+	 */
+	private int parseCount(String text) throws Exception {
+		try {
+			int count = Integer.parseInt(text);
+			if (count > 0)
+				return count;
+		} catch (NumberFormatException e) {
+		}
+		throw new Exception("\"" + text + "\" is not a positive count.");
+	}
+
+	/**
+	 * Prints the list of commands.
+	 */
+	private void printHelp() {
+		this.output.println("step [count]\tExecute count instructions (default 1).");
+		this.output.println("next\tExecute one instruction, stepping over subroutine calls.");
+		this.output.println("finish\tRun until the subroutine returns to the address in R7.");
+		this.output.println("run until location\tRun until reaching the location.");
+		this.output.println("continue\tRun until a breakpoint, a watchpoint or the end of the program.");
+		this.output.println("break location\tSet a breakpoint.");
+		this.output.println("delete location\tClear a breakpoint.");
+		this.output.println("watch first[:last]\tPause after writing an address in the range.");
+		this.output.println("rwatch first[:last]\tPause before reading an address in the range.");
+		this.output.println("unwatch first[:last]\tStop watching the range.");
+		this.output.println("x/count location\tDisplay count words of memory.");
+		this.output.println("info regs\tDisplay the registers.");
+		this.output.println("back [count]\tUndo count instructions (default 1).");
+		this.output.println("reverse-continue\tUndo instructions until a breakpoint or watchpoint.");
+		this.output.println("quit\tStop the program.");
+		this.output.println("Locations are hexadecimal addresses or labels.");
+	}
+}
@@ -0,0 +1,396 @@
+package Simulator.program;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+
+/**
+ * Serves a Machine to an external debugger over a local TCP socket, using
+ * the packet format of the GDB remote protocol: $packet#checksum, each
+ * acknowledged with + or -. A byte 0x03 outside a packet interrupts the
+ * running program. Memory is word addressed, so addresses and lengths count
+ * 16-bit words and each word is sent as four hex digits. The registers are
+ * R0 to R7, the PC and the condition codes (4 for N, 2 for Z, 1 for P).
+ * 
+ * The supported packets are:
+ * ? (why the program stopped),
+ * g and G (read and write all registers),
+ * p n and P n=value (read and write one register),
+ * m addr,length and M addr,length:words (read and write memory),
+ * Z0/z0 (set and clear a breakpoint), Z2/z2 (watch writes), Z3/z3 (watch reads),
+ * c (continue), s (single-step), k (kill) and D (detach).
+ * When a continue or step stops, the reply is T05 with the reason, or W00
+ * once the program has halted.
+ * 
+ * A thread of its own accepts the debugger and reads its packets. The
+ * machine and its memory are only touched by the thread running the
+ * machine, while it is paused in breakpointHit, so the machine needs no
+ * locking.
+ */
+public class DebugServer implements BreakpointListener, Runnable {
+	/**
+	 * Largest packet the debugger may send, in bytes.
+	 */
+	public static final int PACKET_SIZE = 0x8000;
+	
+	/**
+	 * Largest number of words read or written by one packet.
+	 */
+	private static final int MAX_WORDS = (DebugServer.PACKET_SIZE - 64) / 4;
+	
+	/**
+	 * Number of registers sent by the g packet: R0 to R7, the PC and the condition codes.
+	 */
+	private static final int REGISTER_COUNT = MachineState.NUM_REGISTERS + 2;
+	
+	/**
+	 * Byte a debugger sends to interrupt the running program.
+	 */
+	private static final int INTERRUPT = 0x03;
+	
+	/**
+	 * Digits used to write hexadecimal numbers.
+	 */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * The machine being debugged.
+	 */
+	private Machine machine;
+	
+	/**
+	 * Socket waiting for the debugger to connect.
+	 */
+	private ServerSocket serverSocket;
+	
+	/**
+	 * Stream replies are sent on; null until the debugger connects.
+	 */
+	private OutputStream output;
+	
+	/**
+	 * Packets received from the debugger, waiting for the machine to pause.
+	 */
+	private BlockingQueue<String> packets = new LinkedBlockingQueue<String>();
+	
+	/**
+	 * True if and only if the debugger is waiting for a reply to continue or step.
+	 */
+	private boolean resumed = false;
+	
+	/**
+	 * Reply to the ? packet: why the machine last stopped.
+	 */
+	private String stopReason = "S05";
+	
+	/**
+	 * Creates a new DebugServer for the given machine, listening on the loopback interface.
+	 * @param _machine The machine to debug.
+	 * @param port The TCP port to listen on, or zero for any free port.
+	 * @throws IOException If the port cannot be opened.
+	 */
+	public DebugServer(Machine _machine, int port) throws IOException {
+		this.machine = _machine;
+		this.serverSocket = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+	}
+	
+	/**
+	 * Gets the port this server listens on.
+	 * @return The TCP port.
+	 */
+	public int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * Runs the machine under the debugger. The machine pauses before its
+	 * first instruction until a debugger connects and continues it.
+	 * @param startAddress The memory address to begin execution at.
+	 * @param mode The mode to execute in.
+	 * @throws Exception If the machine fails or reaches a limit.
+	 */
+	public void debug(int startAddress, ExecutionMode mode) throws Exception {
+		Thread reader = new Thread(this, "DebugServer");
+		reader.setDaemon(true);
+		reader.start();
+		this.machine.setBreakpointListener(this);
+		this.machine.getBreakpoints().requestPause();
+		try {
+			this.machine.run(startAddress, mode);
+			if (this.resumed) {
+				this.send("W00");
+			}
+		} finally {
+			this.serverSocket.close();
+			if (this.output != null) {
+				this.output.close();
+			}
+		}
+	}
+	
+	/**
+	 * Accepts the debugger and queues its packets until it disconnects, which
+	 * kills the program. A packet which is too long or whose checksum is
+	 * wrong or malformed is refused with -.
+	 */
+	@Override
+	public void run() {
+		try (Socket socket = this.serverSocket.accept()) {
+			socket.setTcpNoDelay(true);
+			synchronized (this) {
+				this.output = socket.getOutputStream();
+			}
+			InputStream input = new BufferedInputStream(socket.getInputStream());
+			StringBuilder packet = new StringBuilder();
+			int c;
+			while ((c = input.read()) != -1) {
+				if (c == DebugServer.INTERRUPT) {
+					this.machine.getBreakpoints().requestPause();
+				} else if (c == '$') {
+					packet.setLength(0);
+					int sum = 0;
+					boolean oversized = false;
+					while ((c = input.read()) != -1 && c != '#') {
+						// Read to the end of an oversized packet so the next one is found
+						if (packet.length() < DebugServer.PACKET_SIZE) {
+							packet.append((char) c);
+						} else {
+							oversized = true;
+						}
+						sum += c;
+					}
+					// A digit which is missing or not hexadecimal is -1
+					int high = Character.digit(input.read(), 16);
+					int low = Character.digit(input.read(), 16);
+					if (!oversized && high >= 0 && low >= 0 && (high << 4 | low) == (sum & 0xFF)) {
+						this.sendRaw("+");
+						this.packets.put(packet.toString());
+					} else {
+						this.sendRaw("-");
+					}
+				}
+			}
+		} catch (IOException e) {
+			// The debugger disconnected or the server was closed
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// Whatever ends the connection, the machine must not wait for it
+			this.packets.add("k");
+		}
+	}
+	
+	/**
+	 * Reports the stop to the debugger and serves its packets until it
+	 * continues, steps, detaches or kills the program.
+	 */
+	@Override
+	public void breakpointHit(BreakpointKind kind, int address, MachineState state, MemoryBank memory) throws Exception {
+		String hex = Integer.toHexString(address);
+		if (kind == BreakpointKind.BREAKPOINT)
+			this.stopReason = "T05swbreak:;";
+		else if (kind == BreakpointKind.WRITE)
+			this.stopReason = "T05watch:" + hex + ";";
+		else if (kind == BreakpointKind.READ)
+			this.stopReason = "T05rwatch:" + hex + ";";
+		else
+			this.stopReason = "S05";
+		if (this.resumed) {
+			this.send(this.stopReason);
+			this.resumed = false;
+		}
+		while (true) {
+			String packet = this.packets.take();
+			char command = packet.isEmpty() ? ' ' : packet.charAt(0);
+			switch (command) {
+			case 'c':
+				this.resumed = true;
+				return;
+			case 's':
+				this.resumed = true;
+				this.machine.getBreakpoints().requestPause();
+				return;
+			case 'k':
+				state.executing = false;
+				return;
+			case 'D':
+				this.machine.getBreakpoints().clear();
+				this.machine.setBreakpointListener(null);
+				this.send("OK");
+				return;
+			default:
+				this.send(this.reply(packet, state, memory));
+			}
+		}
+	}
+	
+	/**
+	 * Gets the reply to a packet which does not resume the program.
+	 */
+	private String reply(String packet, MachineState state, MemoryBank memory) {
+		try {
+			switch (packet.isEmpty() ? ' ' : packet.charAt(0)) {
+			case '?':
+				return this.stopReason;
+			case 'g': {
+				StringBuilder reply = new StringBuilder(DebugServer.REGISTER_COUNT * 4);
+				for (int i = 0; i < DebugServer.REGISTER_COUNT; i++) {
+					DebugServer.appendWord(reply, DebugServer.getRegister(state, i));
+				}
+				return reply.toString();
+			}
+			case 'G':
+				for (int i = 0; i < DebugServer.REGISTER_COUNT; i++) {
+					DebugServer.setRegister(state, i, DebugServer.parseHex(packet.substring(1 + 4 * i, 5 + 4 * i)));
+				}
+				return "OK";
+			case 'p': {
+				StringBuilder reply = new StringBuilder(4);
+				DebugServer.appendWord(reply, DebugServer.getRegister(state, DebugServer.parseHex(packet.substring(1))));
+				return reply.toString();
+			}
+			case 'P': {
+				int equals = packet.indexOf('=');
+				DebugServer.setRegister(state, DebugServer.parseHex(packet.substring(1, equals)), DebugServer.parseHex(packet.substring(equals + 1)));
+				return "OK";
+			}
+			case 'm': {
+				int comma = packet.indexOf(',');
+				int address = DebugServer.parseHex(packet.substring(1, comma));
+				int length = DebugServer.parseHex(packet.substring(comma + 1));
+				if (length > DebugServer.MAX_WORDS)
+					return "E01";
+				StringBuilder reply = new StringBuilder(length * 4);
+				for (int i = 0; i < length; i++) {
+					DebugServer.appendWord(reply, memory.read(address + i));
+				}
+				return reply.toString();
+			}
+			case 'M': {
+				int comma = packet.indexOf(',');
+				int colon = packet.indexOf(':');
+				int address = DebugServer.parseHex(packet.substring(1, comma));
+				int length = DebugServer.parseHex(packet.substring(comma + 1, colon));
+				for (int i = 0; i < length; i++) {
+					int start = colon + 1 + 4 * i;
+					memory.write(address + i, (short) DebugServer.parseHex(packet.substring(start, start + 4)));
+				}
+				return "OK";
+			}
+			case 'Z':
+			case 'z': {
+				String[] fields = packet.substring(1).split(",");
+				int type = DebugServer.parseHex(fields[0]);
+				int address = DebugServer.parseHex(fields[1]);
+				int last = fields.length > 2 ? address + Math.max(1, DebugServer.parseHex(fields[2])) - 1 : address;
+				Breakpoints breakpoints = this.machine.getBreakpoints();
+				boolean set = packet.charAt(0) == 'Z';
+				if (type == 0 || type == 1) {
+					if (set)
+						breakpoints.addBreakpoint(address);
+					else
+						breakpoints.removeBreakpoint(address);
+				} else if (type == 2 && set) {
+					breakpoints.watchWrites(address, last);
+				} else if (type == 3 && set) {
+					breakpoints.watchReads(address, last);
+				} else if ((type == 2 || type == 3) && !set) {
+					breakpoints.unwatch(address, last);
+				} else {
+					return "";
+				}
+				return "OK";
+			}
+			case 'q':
+				if (packet.startsWith("qSupported"))
+					return "PacketSize=" + Integer.toHexString(DebugServer.PACKET_SIZE);
+				if (packet.equals("qAttached"))
+					return "1";
+				return "";
+			case 'H':
+				return "OK";
+			default:
+				return "";
+			}
+		} catch (RuntimeException e) {
+			return "E01";
+		}
+	}
+	
+	/**
+	 * Gets register i as numbered by the g packet.
+	 */
+	private static int getRegister(MachineState state, int i) {
+		if (i < MachineState.NUM_REGISTERS)
+			return state.registers[i];
+		if (i == MachineState.NUM_REGISTERS)
+			return state.programCounter;
+		return (state.ccrNegative ? 4 : 0) | (state.ccrZero ? 2 : 0) | (state.ccrPositive ? 1 : 0);
+	}
+	
+	/**
+	 * Sets register i as numbered by the g packet.
+	 */
+	private static void setRegister(MachineState state, int i, int value) {
+		if (i < MachineState.NUM_REGISTERS) {
+			state.registers[i] = (short) value;
+		} else if (i == MachineState.NUM_REGISTERS) {
+			state.programCounter = value & 0xFFFF;
+		} else if (i == MachineState.NUM_REGISTERS + 1) {
+			state.ccrNegative = (value & 4) != 0;
+			state.ccrZero = (value & 2) != 0;
+			state.ccrPositive = (value & 1) != 0;
+		} else {
+			throw new IllegalArgumentException("No register " + i);
+		}
+	}
+	
+	/**
+	 * Appends the given word as four hex digits.
+	 */
+	private static void appendWord(StringBuilder builder, int value) {
+		builder.append(DebugServer.HEX_DIGITS[(value >> 12) & 0xF]);
+		builder.append(DebugServer.HEX_DIGITS[(value >> 8) & 0xF]);
+		builder.append(DebugServer.HEX_DIGITS[(value >> 4) & 0xF]);
+		builder.append(DebugServer.HEX_DIGITS[value & 0xF]);
+	}
+	
+	/**
+	 * Parses a hexadecimal number.
+	 */
+	private static int parseHex(String text) {
+		return Integer.parseInt(text, 16);
+	}
+	
+	/**
+	 * Sends a packet to the debugger.
+	 */
+	private void send(String packet) throws IOException {
+		int sum = 0;
+		for (int i = 0; i < packet.length(); i++) {
+			sum += packet.charAt(i);
+		}
+		StringBuilder framed = new StringBuilder(packet.length() + 4);
+		framed.append('$').append(packet).append('#');
+		framed.append(DebugServer.HEX_DIGITS[(sum >> 4) & 0xF]).append(DebugServer.HEX_DIGITS[sum & 0xF]);
+		this.sendRaw(framed.toString());
+	}
+	
+	/**
+	 * Sends bytes to the debugger, if it is connected.
+	 */
+	private synchronized void sendRaw(String text) throws IOException {
+		if (this.output != null) {
+			this.output.write(text.getBytes(StandardCharsets.US_ASCII));
+			this.output.flush();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package Simulator.program;
+import java.io.PrintStream;
+import Simulator.state.MachineState;
+import Common.ByteOperations;
+import Common.MemoryBank;
+import Common.MemoryListener;
+
+/**
+ * Displays trace and step mode as deltas. The memory page and registers
+ * are displayed in full only when execution enters a new page; after that,
+ * each instruction displays only the registers, condition codes and memory
+ * cells it changed, and the program counter when it jumped.
+ */
+public class DeltaTrace implements MemoryListener {
+	/**
+	 * Number of memory writes remembered per instruction before the list grows.
+	 */
+	private static final int INITIAL_WRITES = 4;
+	
+	/**
+	 * Page last displayed in full, or -1 if none has been.
+	 */
+	private int page = -1;
+	
+	/**
+	 * Registers before the current instruction.
+	 */
+	private short[] registers = new short[MachineState.NUM_REGISTERS];
+	
+	/**
+	 * Negative condition code before the current instruction.
+	 */
+	private boolean ccrNegative;
+	
+	/**
+	 * Zero condition code before the current instruction.
+	 */
+	private boolean ccrZero;
+	
+	/**
+	 * Positive condition code before the current instruction.
+	 */
+	private boolean ccrPositive;
+	
+	/**
+	 * Address of the current instruction.
+	 */
+	private int programCounter;
+	
+	/**
+	 * Addresses written by the current instruction.
+	 */
+	private int[] writes = new int[DeltaTrace.INITIAL_WRITES];
+	
+	/**
+	 * Number of addresses written by the current instruction.
+	 */
+	private int writeCount;
+	
+	/**
+	 * Records that execution is on the given page.
+	 * @param _page The page of the next instruction.
+	 * @return True if and only if the page should be displayed in full.
+	 */
+	public boolean enterPage(int _page) {
+		if (_page == this.page)
+			return false;
+		this.page = _page;
+		return true;
+	}
+	
+	/**
+	 * Remembers the given state, so the changes made by the next instruction can be displayed.
+	 * @param state The state before the next instruction.
+	 */
+	public void snapshot(MachineState state) {
+		System.arraycopy(state.registers, 0, this.registers, 0, MachineState.NUM_REGISTERS);
+		this.ccrNegative = state.ccrNegative;
+		this.ccrZero = state.ccrZero;
+		this.ccrPositive = state.ccrPositive;
+		this.programCounter = state.programCounter;
+		this.writeCount = 0;
+	}
+	
+	@Override
+	public void memoryWritten(int address, short previousValue, short value) {
+		if (this.writeCount == this.writes.length) {
+			int[] result = new int[this.writes.length * 2];
+			System.arraycopy(this.writes, 0, result, 0, this.writes.length);
+			this.writes = result;
+		}
+		this.writes[this.writeCount++] = address;
+	}
+	
+	/**
+	 * Displays the changes made to the given state and memory since the last snapshot.
+	 * @param output The IO stream to display the changes on.
+	 * @param state The state after the instruction.
+	 * @param memory The memory after the instruction.
+	 */
+	public void display(PrintStream output, MachineState state, MemoryBank memory) {
+		for (int i = 0; i < MachineState.NUM_REGISTERS; i++) {
+			if (state.registers[i] != this.registers[i]) {
+				output.println("r" + (i + 1) + " = 0x" + ByteOperations.getHex(state.registers[i], 4));
+			}
+		}
+		if (state.ccrNegative != this.ccrNegative || state.ccrZero != this.ccrZero || state.ccrPositive != this.ccrPositive) {
+			output.println("N Z P = " + (state.ccrNegative ? 1 : 0) + " " + (state.ccrZero ? 1 : 0) + " " + (state.ccrPositive ? 1 : 0));
+		}
+		if (state.programCounter != this.programCounter + 1) {
+			output.println("PC = 0x" + ByteOperations.getHex(state.programCounter, 4));
+		}
+		for (int i = 0; i < this.writeCount; i++) {
+			output.println("0x" + ByteOperations.getHex(this.writes[i], 4) + ": " + ByteOperations.getHex(memory.read(this.writes[i]), 4));
+		}
+	}
+}
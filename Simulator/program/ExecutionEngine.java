@@ -0,0 +1,23 @@
+package Simulator.program;
+/**
+ * This enumeration defines the engines a Machine can use to execute
+ * instructions.
+ * 
+ * The reference engine dispatches every instruction to its
+ * InstructionHandler. It is used for all execution modes.
+ * 
+ * The fast engine executes all sixteen instructions from a single switch
+ * statement, without allocating anything per instruction. It is only used
+ * in quiet mode; trace and step mode always use the reference engine.
+ * 
+ * The jit engine compiles frequently executed basic blocks to JVM bytecode
+ * and interprets the rest with the instruction handlers. It is also only
+ * used in quiet mode.
+ * 
+ * The fused engine works like the reference engine, but executes common
+ * instruction sequences as single superinstructions. It is also only used
+ * in quiet mode.
+ */
+public enum ExecutionEngine {
+	REFERENCE, FAST, JIT, FUSED
+}
@@ -0,0 +1,36 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+
+/**
+ * Thrown when a Machine stops running because it reached its instruction
+ * limit or its time limit, rather than because the program halted.
+ */
+public class ExecutionLimitException extends Exception {
+	/**
+	 * Serialization version.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The state of the machine when it was stopped.
+	 */
+	private MachineState state;
+	
+	/**
+	 * Creates a new ExecutionLimitException.
+	 * @param message Description of the limit which was reached.
+	 * @param _state The state of the machine when it was stopped.
+	 */
+	public ExecutionLimitException(String message, MachineState _state) {
+		super(message);
+		this.state = _state;
+	}
+	
+	/**
+	 * Gets the state of the machine when it was stopped.
+	 * @return A copy of the MachineState when the limit was reached.
+	 */
+	public MachineState getState() {
+		return this.state;
+	}
+}
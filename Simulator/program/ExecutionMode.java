@@ -11,7 +11,11 @@ package Simulator.program;
  * 
  * Step mode behaves like Trace mode, but waits for user input before
  * executing each instruction.
+ * 
+ * Profile mode runs the full program like Quiet mode, counting how often
+ * each address and op code is executed and timing each TRAP vector. When
+ * the program stops, it displays the hottest addresses sorted by count.
  */
 public enum ExecutionMode {
-	QUIET, TRACE, STEP
+	QUIET, TRACE, STEP, PROFILE
 }
\ No newline at end of file
@@ -0,0 +1,257 @@
+package Simulator.program;
+import java.io.InputStream;
+import java.io.PrintStream;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.instructions.InstructionHandler;
+import Simulator.instructions.InstructionMappings;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+
+/**
+ * Executes instructions with a single switch over the op code, extracting
+ * every field with constant shifts and masks. This produces the same results
+ * as dispatching each instruction to its InstructionHandler. DBUG and TRAP
+ * are rare and perform IO, so they are still executed by their handlers.
+ */
+public class FastInterpreter {
+	/**
+	 * Mask used to wrap addresses into the 16-bit unsigned address space.
+	 */
+	private static final int ADDRESS_MASK = 0xFFFF;
+	
+	/**
+	 * Mask which clears the page offset of an address, leaving the page.
+	 */
+	private static final int PAGE_MASK = 0xFE00;
+	
+	/**
+	 * Mask of the 9-bit page offset of an instruction.
+	 */
+	private static final int PAGE_OFFSET_MASK = 0x01FF;
+	
+	/**
+	 * Mask of the 6-bit index of an instruction.
+	 */
+	private static final int INDEX_MASK = 0x003F;
+	
+	/**
+	 * Mask of a 3-bit register field once shifted all the way to the right.
+	 */
+	private static final int REGISTER_MASK = 0x7;
+	
+	/**
+	 * Bit selecting the immediate form of ADD and AND.
+	 */
+	private static final int IMMEDIATE_FLAG = 0x0020;
+	
+	/**
+	 * Link bit of JSR and JSRR.
+	 */
+	private static final int LINK_FLAG = 0x0800;
+	
+	/**
+	 * Shift which moves the 5-bit immediate of ADD and AND to the top of an
+	 * int, so shifting it back sign-extends it.
+	 */
+	private static final int IMMEDIATE_SHIFT = 27;
+	
+	/**
+	 * Bit of a BR instruction which branches on a negative CCR.
+	 */
+	private static final int BRANCH_NEGATIVE = 0x0800;
+	
+	/**
+	 * Bit of a BR instruction which branches on a zero CCR.
+	 */
+	private static final int BRANCH_ZERO = 0x0400;
+	
+	/**
+	 * Bit of a BR instruction which branches on a positive CCR.
+	 */
+	private static final int BRANCH_POSITIVE = 0x0200;
+	
+	/**
+	 * Register which receives the return address of JSR and JSRR.
+	 */
+	private static final int LINK_REGISTER = 7;
+	
+	/**
+	 * Handler for the DBUG instruction.
+	 */
+	private InstructionHandler debugHandler = InstructionMappings.getHandler(0x8);
+	
+	/**
+	 * Handler for the TRAP instruction.
+	 */
+	private InstructionHandler trapHandler = InstructionMappings.getHandler(0xf);
+	
+	/**
+	 * Reused to hand DBUG and TRAP instructions to their handlers.
+	 */
+	private DecodedInstruction delegated = new DecodedInstruction(0);
+	
+	/**
+	 * Executes instructions starting at the program counter of the given
+	 * MachineState until the machine halts.
+	 * @param output The IO stream to print any output to.
+	 * @param input The IO stream to retrieve user input from.
+	 * @param state The MachineState to use and modify.
+	 * @param memory The MemoryBank to use and modify.
+	 * @param watchdog The Watchdog enforcing the limits of this run.
+	 * @throws ExecutionLimitException If a limit is reached before the machine halts.
+	 */
+	public void run(PrintStream output, InputStream input, MachineState state, MemoryBank memory, Watchdog watchdog) throws ExecutionLimitException {
+		short[] registers = state.registers;
+		int pc = state.programCounter & FastInterpreter.ADDRESS_MASK;
+		// The CCR is kept in a local as the BR bit it satisfies, and only
+		// synchronized with the state around the instructions executed by handlers.
+		int condition = FastInterpreter.getCondition(state);
+		boolean executing = state.executing;
+		long executed = state.instructionsExecuted;
+		long nextCheck = watchdog.nextCheck(executed);
+		while (executing) {
+			if (executed >= nextCheck) {
+				state.programCounter = pc;
+				FastInterpreter.setCondition(state, condition);
+				state.instructionsExecuted = executed;
+				watchdog.check(state);
+				nextCheck = watchdog.nextCheck(executed);
+			}
+			int instruction = memory.read(pc);
+			executed++;
+			pc = (pc + 1) & FastInterpreter.ADDRESS_MASK;
+			int dest = (instruction >> 9) & FastInterpreter.REGISTER_MASK;
+			int src = (instruction >> 6) & FastInterpreter.REGISTER_MASK;
+			int target = (pc & FastInterpreter.PAGE_MASK) | (instruction & FastInterpreter.PAGE_OFFSET_MASK);
+			short value;
+			switch ((instruction >> 12) & 0xF) {
+				case 0x0: // BR
+					if ((instruction & condition) != 0) {
+						pc = target;
+					}
+					break;
+				case 0x1: // ADD
+					if ((instruction & FastInterpreter.IMMEDIATE_FLAG) != 0) {
+						value = (short) (registers[src] + ((instruction << FastInterpreter.IMMEDIATE_SHIFT) >> FastInterpreter.IMMEDIATE_SHIFT));
+					} else {
+						value = (short) (registers[src] + registers[instruction & FastInterpreter.REGISTER_MASK]);
+					}
+					registers[dest] = value;
+					condition = FastInterpreter.getCondition(value);
+					break;
+				case 0x2: // LD
+					value = memory.read(target);
+					registers[dest] = value;
+					condition = FastInterpreter.getCondition(value);
+					break;
+				case 0x3: // ST
+					memory.write(target, registers[dest]);
+					break;
+				case 0x4: // JSR
+					if ((instruction & FastInterpreter.LINK_FLAG) != 0) {
+						registers[FastInterpreter.LINK_REGISTER] = (short) pc;
+					}
+					pc = target;
+					break;
+				case 0x5: // AND
+					if ((instruction & FastInterpreter.IMMEDIATE_FLAG) != 0) {
+						value = (short) (registers[src] & ((instruction << FastInterpreter.IMMEDIATE_SHIFT) >> FastInterpreter.IMMEDIATE_SHIFT));
+					} else {
+						value = (short) (registers[src] & registers[instruction & FastInterpreter.REGISTER_MASK]);
+					}
+					registers[dest] = value;
+					condition = FastInterpreter.getCondition(value);
+					break;
+				case 0x6: // LDR
+					value = memory.read(registers[src] + (instruction & FastInterpreter.INDEX_MASK));
+					registers[dest] = value;
+					condition = FastInterpreter.getCondition(value);
+					break;
+				case 0x7: // STR
+					memory.write(registers[src] + (instruction & FastInterpreter.INDEX_MASK), registers[dest]);
+					break;
+				case 0x8: // DBUG
+					state.programCounter = pc;
+					FastInterpreter.setCondition(state, condition);
+					this.delegate(this.debugHandler, instruction, output, input, state, memory);
+					condition = FastInterpreter.getCondition(state);
+					executing = state.executing;
+					break;
+				case 0x9: // NOT
+					value = (short) ~registers[src];
+					registers[dest] = value;
+					condition = FastInterpreter.getCondition(value);
+					break;
+				case 0xa: // LDI
+					value = memory.read(memory.read(target));
+					registers[dest] = value;
+					condition = FastInterpreter.getCondition(value);
+					break;
+				case 0xb: // STI
+					memory.write(memory.read(target), registers[dest]);
+					break;
+				case 0xc: // JSRR
+					if ((instruction & FastInterpreter.LINK_FLAG) != 0) {
+						registers[FastInterpreter.LINK_REGISTER] = (short) pc;
+					}
+					pc = (registers[src] + (instruction & FastInterpreter.INDEX_MASK)) & FastInterpreter.ADDRESS_MASK;
+					break;
+				case 0xd: // RET
+					pc = registers[FastInterpreter.LINK_REGISTER] & FastInterpreter.ADDRESS_MASK;
+					break;
+				case 0xe: // LEA
+					value = (short) target;
+					registers[dest] = value;
+					condition = FastInterpreter.getCondition(value);
+					break;
+				case 0xf: // TRAP
+					state.programCounter = pc;
+					FastInterpreter.setCondition(state, condition);
+					this.delegate(this.trapHandler, instruction, output, input, state, memory);
+					condition = FastInterpreter.getCondition(state);
+					executing = state.executing;
+					pc = state.programCounter & FastInterpreter.ADDRESS_MASK;
+					break;
+			}
+		}
+		state.programCounter = pc;
+		FastInterpreter.setCondition(state, condition);
+		state.instructionsExecuted = executed;
+	}
+	
+	/**
+	 * Gets the BR bit satisfied by the CCR after the given value is stored.
+	 */
+	private static int getCondition(short value) {
+		return value < 0 ? FastInterpreter.BRANCH_NEGATIVE : value == 0 ? FastInterpreter.BRANCH_ZERO : FastInterpreter.BRANCH_POSITIVE;
+	}
+	
+	/**
+	 * Gets the BR bits satisfied by the CCR of the given state.
+	 */
+	private static int getCondition(MachineState state) {
+		return (state.ccrNegative ? FastInterpreter.BRANCH_NEGATIVE : 0)
+			| (state.ccrZero ? FastInterpreter.BRANCH_ZERO : 0)
+			| (state.ccrPositive ? FastInterpreter.BRANCH_POSITIVE : 0);
+	}
+	
+	/**
+	 * Sets the CCR of the given state from the BR bits it satisfies.
+	 */
+	private static void setCondition(MachineState state, int condition) {
+		state.ccrNegative = (condition & FastInterpreter.BRANCH_NEGATIVE) != 0;
+		state.ccrZero = (condition & FastInterpreter.BRANCH_ZERO) != 0;
+		state.ccrPositive = (condition & FastInterpreter.BRANCH_POSITIVE) != 0;
+	}
+	
+	/**
+	 * Executes the given instruction with the given InstructionHandler,
+	 * reusing the same DecodedInstruction every time.
+	 */
+	private void delegate(InstructionHandler handler, int instruction, PrintStream output, InputStream input, MachineState state, MemoryBank memory) {
+		this.delegated.instruction = instruction;
+		this.delegated.handler = handler;
+		handler.decode(this.delegated, state.programCounter);
+		handler.execute(output, input, this.delegated, state, memory);
+	}
+}
@@ -0,0 +1,91 @@
+package Simulator.program;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.instructions.InstructionMappings;
+import Common.MemoryBank;
+import Common.MemoryListener;
+
+/**
+ * Caches the decoded form of the instruction at each address of a MemoryBank.
+ * An instruction is decoded the first time it is fetched; any write to its
+ * address discards the cached entry, so self-modifying programs still run
+ * correctly.
+ * 
+ * When fusion is enabled, common instruction sequences are replaced by a
+ * single superinstruction at the address of their first instruction. The
+ * other addresses keep their ordinary decoded instructions, so a branch into
+ * the middle of a sequence still executes it one instruction at a time.
+ */
+public class InstructionCache implements MemoryListener {
+	/**
+	 * Mask used to wrap addresses into the 16-bit unsigned address space.
+	 */
+	private static final int ADDRESS_MASK = 0xFFFF;
+	
+	/**
+	 * The MemoryBank instructions are fetched from.
+	 */
+	private MemoryBank memory;
+	
+	/**
+	 * Decoded instructions indexed by address. Null entries have not been
+	 * decoded yet, or have been written since they were decoded.
+	 */
+	private DecodedInstruction[] entries;
+	
+	/**
+	 * True if and only if instruction sequences are fused into superinstructions.
+	 */
+	private boolean fuse;
+	
+	/**
+	 * Creates a new, empty InstructionCache over the given MemoryBank.
+	 * @param _memory The MemoryBank to fetch instructions from.
+	 */
+	public InstructionCache(MemoryBank _memory) {
+		this(_memory, false);
+	}
+	
+	/**
+	 * Creates a new, empty InstructionCache over the given MemoryBank.
+	 * @param _memory The MemoryBank to fetch instructions from.
+	 * @param _fuse Whether to fuse instruction sequences into superinstructions.
+	 */
+	public InstructionCache(MemoryBank _memory, boolean _fuse) {
+		this.memory = _memory;
+		this.fuse = _fuse;
+		this.entries = new DecodedInstruction[MemoryBank.MEMORY_SIZE];
+		this.memory.addListener(this);
+	}
+	
+	/**
+	 * Gets the decoded instruction stored at the given address, decoding it
+	 * if it is not already cached.
+	 * @param address The 16-bit unsigned address of the instruction.
+	 * @return The decoded instruction stored at the given address.
+	 */
+	public DecodedInstruction get(int address) throws Exception {
+		address &= InstructionCache.ADDRESS_MASK;
+		DecodedInstruction decoded = this.entries[address];
+		if (decoded == null) {
+			decoded = InstructionMappings.decode(this.memory.read(address), address + 1);
+			if (this.fuse) {
+				decoded = InstructionFuser.fuse(this.memory, address, decoded);
+			}
+			this.entries[address] = decoded;
+		}
+		return decoded;
+	}
+	
+	/**
+	 * Discards the cached instruction at the written address, and any
+	 * superinstruction which covers it.
+	 */
+	public void memoryWritten(int address, short previousValue, short value) {
+		this.entries[address] = null;
+		if (this.fuse) {
+			for (int i = 1; i < InstructionFuser.MAX_SEQUENCE_LENGTH; i++) {
+				this.entries[(address - i) & InstructionCache.ADDRESS_MASK] = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package Simulator.program;
+import Simulator.instructions.AddBranchHandler;
+import Simulator.instructions.ConstantLoadHandler;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.instructions.IncrementHandler;
+import Simulator.instructions.InstructionHandler;
+import Simulator.instructions.InstructionMappings;
+import Common.MemoryBank;
+
+/**
+ * Recognizes common instruction sequences in memory and replaces them with a
+ * single superinstruction which produces the same registers, CCR and memory.
+ * The following sequences are fused:
+ * AND R, R, #0 / ADD R, R, #n (load a constant)
+ * ADD / BR (update a loop counter and branch on it)
+ * LD R, x / ADD R, R, #n / ST R, x (increment a variable)
+ */
+public class InstructionFuser {
+	/**
+	 * Number of instructions in the longest fused sequence.
+	 */
+	public static final int MAX_SEQUENCE_LENGTH = 3;
+	
+	/**
+	 * Op codes of the instructions which can be fused.
+	 */
+	private static final int OP_BR = 0x0;
+	private static final int OP_ADD = 0x1;
+	private static final int OP_LD = 0x2;
+	private static final int OP_ST = 0x3;
+	private static final int OP_AND = 0x5;
+	
+	/**
+	 * Handlers for the superinstructions.
+	 */
+	private static final InstructionHandler constantLoadHandler = new ConstantLoadHandler();
+	private static final InstructionHandler addBranchHandler = new AddBranchHandler();
+	private static final InstructionHandler incrementHandler = new IncrementHandler();
+	
+	/**
+	 * Gets the superinstruction starting at the given address, if any.
+	 * @param memory The MemoryBank holding the instructions.
+	 * @param address The address of the first instruction.
+	 * @param first The decoded instruction at the given address.
+	 * @return A superinstruction covering the sequence starting at the given
+	 * address, or the given instruction if no sequence starts there.
+	 */
+	public static DecodedInstruction fuse(MemoryBank memory, int address, DecodedInstruction first) throws Exception {
+		if (address + InstructionFuser.MAX_SEQUENCE_LENGTH > MemoryBank.MEMORY_SIZE)
+			return first;
+		DecodedInstruction second = InstructionMappings.decode(memory.read(address + 1), address + 2);
+		switch (first.opCode) {
+			case InstructionFuser.OP_AND:
+				if (first.immediateMode && first.immediate == 0
+						&& InstructionFuser.isAddImmediate(second, first.register1)) {
+					return InstructionFuser.create(first, InstructionFuser.constantLoadHandler, first, second);
+				}
+				break;
+			case InstructionFuser.OP_ADD:
+				if (second.opCode == InstructionFuser.OP_BR) {
+					return InstructionFuser.create(first, InstructionFuser.addBranchHandler, first, second);
+				}
+				break;
+			case InstructionFuser.OP_LD:
+				DecodedInstruction third = InstructionMappings.decode(memory.read(address + 2), address + 3);
+				if (InstructionFuser.isAddImmediate(second, first.register1)
+						&& third.opCode == InstructionFuser.OP_ST
+						&& third.register1 == first.register1
+						&& third.target == first.target) {
+					return InstructionFuser.create(first, InstructionFuser.incrementHandler, first, second, third);
+				}
+				break;
+		}
+		return first;
+	}
+	
+	/**
+	 * Determines whether the given instruction is ADD R, R, #n for the given register.
+	 */
+	private static boolean isAddImmediate(DecodedInstruction instruction, int register) {
+		return instruction.opCode == InstructionFuser.OP_ADD && instruction.immediateMode
+			&& instruction.register1 == register && instruction.register2 == register;
+	}
+	
+	/**
+	 * Creates a superinstruction executing the given sequence with the given handler.
+	 */
+	private static DecodedInstruction create(DecodedInstruction first, InstructionHandler handler, DecodedInstruction... sequence) {
+		DecodedInstruction fused = new DecodedInstruction(first.instruction);
+		fused.handler = handler;
+		fused.sequence = sequence;
+		fused.length = sequence.length;
+		return fused;
+	}
+}
@@ -0,0 +1,178 @@
+package Simulator.program;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.instructions.InstructionMappings;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import Common.MemoryListener;
+
+/**
+ * Executes instructions one basic block at a time. Blocks are interpreted
+ * with the instruction handlers until they have been entered often enough,
+ * then compiled to JVM bytecode by the BlockCompiler so the JVM can optimize
+ * them like any other method.
+ * 
+ * A write to memory holding a compiled block discards that block, so
+ * self-modifying programs behave exactly as they do when interpreted. The
+ * interpreter listens to the memory from its creation, so compiled blocks
+ * stay valid across runs whatever writes the memory in between.
+ */
+public class JitInterpreter implements MemoryListener {
+	/**
+	 * Number of times a block must be entered before it is compiled.
+	 */
+	public static final int COMPILE_THRESHOLD = 50;
+	
+	/**
+	 * Mask used to wrap addresses into the 16-bit unsigned address space.
+	 */
+	private static final int ADDRESS_MASK = 0xFFFF;
+	
+	/**
+	 * Marks a block start which cannot be compiled.
+	 */
+	private static final int NOT_COMPILABLE = Integer.MIN_VALUE;
+	
+	/**
+	 * Decoded instructions used to interpret blocks which are not compiled.
+	 */
+	private InstructionCache cache;
+	
+	/**
+	 * Translates hot blocks into bytecode.
+	 */
+	private BlockCompiler compiler = new BlockCompiler();
+	
+	/**
+	 * Compiled blocks, indexed by the address of their first instruction.
+	 */
+	private CompiledBlock[] blocks = new CompiledBlock[MemoryBank.MEMORY_SIZE];
+	
+	/**
+	 * Number of times each block has been entered while interpreted.
+	 */
+	private int[] counters = new int[MemoryBank.MEMORY_SIZE];
+	
+	/**
+	 * Number of compiled blocks containing each address.
+	 */
+	private int[] coverage = new int[MemoryBank.MEMORY_SIZE];
+	
+	/**
+	 * Every block which is currently compiled.
+	 */
+	private List<CompiledBlock> compiled = new ArrayList<CompiledBlock>();
+	
+	/**
+	 * Creates a JitInterpreter over the given MemoryBank which interprets
+	 * cold blocks with the given cache.
+	 * @param _cache The cache of decoded instructions of the memory to run.
+	 * @param memory The MemoryBank whose writes discard compiled blocks.
+	 */
+	public JitInterpreter(InstructionCache _cache, MemoryBank memory) {
+		this.cache = _cache;
+		memory.addListener(this);
+	}
+	
+	/**
+	 * Executes instructions starting at the program counter of the given
+	 * MachineState until the machine halts.
+	 * @param output The IO stream to print any output to.
+	 * @param input The IO stream to retrieve user input from.
+	 * @param state The MachineState to use and modify.
+	 * @param memory The MemoryBank to use and modify.
+	 * @param watchdog The Watchdog enforcing the limits of this run.
+	 * @throws ExecutionLimitException If a limit is reached before the machine halts.
+	 */
+	public void run(PrintStream output, InputStream input, MachineState state, MemoryBank memory, Watchdog watchdog) throws Exception {
+		// The instruction count is kept in a local while compiled blocks run
+		long executed = state.instructionsExecuted;
+		try {
+			long nextCheck = watchdog.nextCheck(executed);
+			while (state.executing) {
+				if (executed >= nextCheck) {
+					state.instructionsExecuted = executed;
+					watchdog.check(state);
+					nextCheck = watchdog.nextCheck(executed);
+				}
+				int pc = state.programCounter & JitInterpreter.ADDRESS_MASK;
+				CompiledBlock block = this.blocks[pc];
+				if (block == null && ++this.counters[pc] == JitInterpreter.COMPILE_THRESHOLD) {
+					// A block of a single instruction gains nothing from compiling
+					if (!BlockCompiler.endsBlock(InstructionMappings.getOpCode(memory.read(pc)))) {
+						block = this.compiler.compile(memory, pc);
+					}
+					if (block == null) {
+						this.counters[pc] = JitInterpreter.NOT_COMPILABLE;
+					} else {
+						this.install(block);
+					}
+				}
+				if (block != null) {
+					state.programCounter = block.execute(state, memory);
+					executed += block.length;
+				} else {
+					state.instructionsExecuted = executed;
+					this.interpret(output, input, state, memory);
+					executed = state.instructionsExecuted;
+				}
+			}
+		} finally {
+			state.instructionsExecuted = executed;
+		}
+	}
+	
+	/**
+	 * Gets the number of blocks which are currently compiled.
+	 * @return The number of compiled blocks.
+	 */
+	public int getCompiledCount() {
+		return this.compiled.size();
+	}
+	
+	/**
+	 * Discards every compiled block containing the written address.
+	 */
+	public void memoryWritten(int address, short previousValue, short value) {
+		if (this.coverage[address] == 0)
+			return;
+		for (int i = this.compiled.size() - 1; i >= 0; i--) {
+			CompiledBlock block = this.compiled.get(i);
+			if (address < block.start || address > block.end)
+				continue;
+			this.compiled.remove(i);
+			this.blocks[block.start] = null;
+			this.counters[block.start] = 0;
+			for (int a = block.start; a <= block.end; a++)
+				this.coverage[a]--;
+		}
+	}
+	
+	/**
+	 * Makes the given block available for execution.
+	 */
+	private void install(CompiledBlock block) {
+		this.blocks[block.start] = block;
+		this.compiled.add(block);
+		for (int a = block.start; a <= block.end; a++)
+			this.coverage[a]++;
+	}
+	
+	/**
+	 * Interprets instructions with their handlers until the end of the
+	 * current block.
+	 */
+	private void interpret(PrintStream output, InputStream input, MachineState state, MemoryBank memory) throws Exception {
+		while (state.executing) {
+			DecodedInstruction instruction = this.cache.get(state.programCounter);
+			state.programCounter++;
+			state.instructionsExecuted++;
+			instruction.handler.execute(output, input, instruction, state, memory);
+			if (BlockCompiler.endsBlock(instruction.opCode))
+				return;
+		}
+	}
+}
@@ -1,4 +1,7 @@
 package Simulator.program;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.LinkedList;
 import Common.ByteOperations;
@@ -30,6 +33,27 @@ public class Loader {
 	 */
 	private static final int MAX_ADDRESS = 65535;
 	
+	/**
+	 * Reads all text in the file existing at the given path location into a
+	 * string, ending each line with a line feed.
+	 * @param filename Path to the desired file.
+	 * @return A string containing all the data existing in the desired file.
+	 */
+	public static String readAllText(String filename) throws IOException {
+		StringBuffer fileData = new StringBuffer();
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				fileData.append(line);
+				fileData.append("\n");
+			}
+		} finally {
+			reader.close();
+		}
+		return fileData.toString();
+	}
+	
 	/**
 	 * Loads the given data into the memory bank. If syntax errors are
 	 * encountered, this method will collect them all into a single string
@@ -1,6 +1,9 @@
 package Simulator.program;
+import java.io.InputStream;
 import java.io.PrintStream;
-import Simulator.instructions.InstructionMappings;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.state.Console;
+import Simulator.state.Journal;
 import Simulator.state.MachineState;
 import Common.MemoryBank;
 import Common.ByteOperations;
@@ -41,6 +44,89 @@ public class Machine {
 	 */
 	private PrintStream output;
 	
+	/**
+	 * IO stream for user input.
+	 */
+	private InputStream input;
+	
+	/**
+	 * Decoded instructions, indexed by address.
+	 */
+	private InstructionCache cache;
+	
+	/**
+	 * Decoded instructions with common sequences fused into superinstructions,
+	 * used in quiet mode by the fused engine; null for the other engines.
+	 */
+	private InstructionCache fusedCache;
+	
+	/**
+	 * Compiles and runs hot blocks in quiet mode for the JIT engine; null for
+	 * the other engines. It lives as long as the machine, so blocks compiled
+	 * in one run are used by the next.
+	 */
+	private JitInterpreter jit;
+	
+	/**
+	 * Runs quiet mode for the FAST engine; null for the other engines.
+	 */
+	private FastInterpreter fast;
+	
+	/**
+	 * The engine used to execute instructions in quiet mode.
+	 */
+	private ExecutionEngine engine;
+	
+	/**
+	 * Enforces the instruction and time limits of each run.
+	 */
+	private Watchdog watchdog = new Watchdog(0, 0);
+	
+	/**
+	 * Counters of the last run in profile mode; null before the first one.
+	 */
+	private Profile profile;
+	
+	/**
+	 * Records trace mode runs as a binary trace; null to display them instead.
+	 */
+	private TraceWriter traceWriter;
+	
+	/**
+	 * True if and only if trace and step mode display only what each instruction changed.
+	 */
+	private boolean deltaTrace;
+	
+	/**
+	 * Breakpoints and watchpoints checked in quiet, trace and step mode.
+	 */
+	private Breakpoints breakpoints = new Breakpoints();
+	
+	/**
+	 * Given control when a breakpoint or watchpoint is hit; null to prompt as in step mode.
+	 */
+	private BreakpointListener breakpointListener;
+	
+	/**
+	 * Takes and restores snapshots; null until the first snapshot is taken.
+	 */
+	private SnapshotTracker snapshots;
+	
+	/**
+	 * Records each instruction so it can be undone; null while reverse execution is disabled.
+	 */
+	private UndoLog undoLog;
+	
+	/**
+	 * Addresses of the instructions executed; null while coverage is not recorded.
+	 */
+	private Coverage coverage;
+	
+	/**
+	 * Op code of the TRAP instruction.
+	 */
+	private static final int TRAP_OP_CODE = 0xf;
+	
 	/**
 	 * Offset of the low bit of the page in the instruction.
 	 */
@@ -55,48 +141,434 @@ public class Machine {
 	 * @param _memory The MemoryBank to use to represent the machine's memory.
 	 */
 	public Machine(PrintStream _output, MemoryBank _memory) {
+		this(_output, _memory, ExecutionEngine.REFERENCE);
+	}
+	
+	/**
+	 * Creates a new virtual machine using the given MemoryBank and ExecutionEngine.
+	 * @param _memory The MemoryBank to use to represent the machine's memory.
+	 * @param _engine The engine to execute instructions with in quiet mode.
+	 */
+	public Machine(PrintStream _output, MemoryBank _memory, ExecutionEngine _engine) {
+		this(_output, System.in, _memory, _engine);
+	}
+	
+	/**
+	 * Creates a new virtual machine using the given IO streams, MemoryBank and ExecutionEngine.
+	 * @param _output The IO stream to print output to.
+	 * @param _input The IO stream to retrieve user input from.
+	 * @param _memory The MemoryBank to use to represent the machine's memory.
+	 * @param _engine The engine to execute instructions with in quiet mode.
+	 */
+	public Machine(PrintStream _output, InputStream _input, MemoryBank _memory, ExecutionEngine _engine) {
 		this.memory = _memory;
 		this.output = _output;
+		this.input = _input;
+		this.engine = _engine;
 		this.state = new MachineState();
+		this.state.console = new Console(_output, _input);
+		this.cache = new InstructionCache(_memory);
+		if (_engine == ExecutionEngine.FUSED) {
+			this.fusedCache = new InstructionCache(_memory, true);
+		}
+		if (_engine == ExecutionEngine.FAST) {
+			this.fast = new FastInterpreter();
+		}
+		if (_engine == ExecutionEngine.JIT) {
+			this.jit = new JitInterpreter(this.cache, _memory);
+		}
+	}
+	
+	/**
+	 * Limits the number of instructions this machine may execute and the
+	 * time each run may take. When a limit is reached, run throws an
+	 * ExecutionLimitException carrying the MachineState at that point.
+	 * @param instructionLimit Total number of instructions to execute, or zero for no limit.
+	 * @param timeLimit Number of milliseconds each run may take, or zero for no limit.
+	 */
+	public void setLimits(long instructionLimit, long timeLimit) {
+		this.watchdog = new Watchdog(instructionLimit, timeLimit);
+	}
+	
+	/**
+	 * Records runs in trace mode to the given TraceWriter instead of
+	 * displaying the memory page and registers before each instruction.
+	 * The trace is saved when each run ends.
+	 * @param _traceWriter The TraceWriter to record to, or null to display the trace.
+	 */
+	public void setTraceWriter(TraceWriter _traceWriter) {
+		this.traceWriter = _traceWriter;
+	}
+	
+	/**
+	 * Selects whether trace and step mode display the memory page and
+	 * registers before every instruction, or only when execution enters a
+	 * new page and otherwise just what each instruction changed.
+	 * @param _deltaTrace True to display only the changes.
+	 */
+	public void setDeltaTrace(boolean _deltaTrace) {
+		this.deltaTrace = _deltaTrace;
+	}
+	
+	/**
+	 * Gets the breakpoints and watchpoints of this machine. While any is
+	 * armed, quiet, trace and step mode run in an instrumented loop with the
+	 * instruction handlers, whatever the engine.
+	 * @return The breakpoints and watchpoints of this machine.
+	 */
+	public Breakpoints getBreakpoints() {
+		return this.breakpoints;
+	}
+	
+	/**
+	 * Replaces the breakpoints and watchpoints of this machine.
+	 * @param _breakpoints The breakpoints and watchpoints to check.
+	 */
+	public void setBreakpoints(Breakpoints _breakpoints) {
+		this.breakpoints = _breakpoints;
+	}
+	
+	/**
+	 * Hands control to the given listener whenever a breakpoint or watchpoint
+	 * is hit. Without a listener, the machine displays the memory page and
+	 * registers and waits for user input, as in step mode.
+	 * @param _breakpointListener The listener, or null to prompt for input.
+	 */
+	public void setBreakpointListener(BreakpointListener _breakpointListener) {
+		this.breakpointListener = _breakpointListener;
+	}
+	
+	/**
+	 * Gets the console of this machine, which reads the input of TRAP
+	 * instructions. Anything else reading the same input stream should read
+	 * it through this console, so neither loses characters the other read ahead.
+	 * @return The console.
+	 */
+	public Console getConsole() {
+		return this.state.console;
+	}
+	
+	/**
+	 * Records the inputs of input and random TRAPs to the given journal, or
+	 * replays them from it without reading the console.
+	 * @param journal The journal to record to or replay from, or null for neither.
+	 */
+	public void setJournal(Journal journal) {
+		this.state.journal = journal;
+	}
+	
+	/**
+	 * Records the address of each instruction executed to the given coverage.
+	 * While recording, quiet, trace and step mode run with the instruction
+	 * handlers, whatever the engine. Profile mode and binary traces do not
+	 * record coverage.
+	 * @param _coverage The coverage to record to, or null to stop recording.
+	 */
+	public void setCoverage(Coverage _coverage) {
+		this.coverage = _coverage;
 	}
 	
 	/**
-	 * Begins quiet execution at the given address in memory.
+	 * Enables reverse execution, keeping undo records for the most recent
+	 * instructions within the given memory budget. While enabled, quiet,
+	 * trace and step mode run with the instruction handlers, whatever the
+	 * engine. Input consumed by TRAP instructions is not given back when
+	 * they are undone.
+	 * @param budget Number of bytes the undo records may take, or zero to disable reverse execution.
+	 */
+	public void setUndoBudget(long budget) {
+		this.undoLog = budget > 0 ? new UndoLog(budget) : null;
+	}
+	
+	/**
+	 * Undoes the given number of the most recently executed instructions.
+	 * @param count Number of instructions to undo.
+	 * @return Number of instructions undone, fewer than count if the undo records ran out.
+	 */
+	public int stepBack(int count) {
+		int undone = 0;
+		if (this.undoLog != null) {
+			while (undone < count && this.undoLog.undo(this.state, this.memory) != -2) {
+				undone++;
+			}
+		}
+		return undone;
+	}
+	
+	/**
+	 * Undoes instructions until reaching a breakpoint, an instruction which
+	 * reads a watched cell, or an instruction which wrote a watched cell. The
+	 * machine is left just before that instruction.
+	 * @return Why the machine stopped, or null if the undo records ran out first.
+	 * @throws Exception If an undone instruction cannot be decoded.
+	 */
+	public BreakpointKind reverseContinue() throws Exception {
+		if (this.undoLog == null)
+			return null;
+		while (true) {
+			int written = this.undoLog.undo(this.state, this.memory);
+			if (written == -2)
+				return null;
+			if (written >= 0 && this.breakpoints.isWriteWatched(written))
+				return BreakpointKind.WRITE;
+			if (this.breakpoints.isBreakpoint(this.state.programCounter))
+				return BreakpointKind.BREAKPOINT;
+			DecodedInstruction instruction = this.cache.get(this.state.programCounter);
+			if (this.breakpoints.findRead(instruction, this.state, this.memory) >= 0)
+				return BreakpointKind.READ;
+		}
+	}
+	
+	/**
+	 * Begins execution at the given address in memory.
 	 * @param startAddress The memory address to begin execution at.
+	 * @param mode The mode to execute in.
+	 * @throws ExecutionLimitException If a limit set by setLimits is reached before the program halts.
 	 */
 	public void run(int startAddress, ExecutionMode mode) throws Exception {
+		try {
+			this.runInMode(startAddress, mode);
+		} finally {
+			this.state.console.flush();
+			if (this.state.journal != null) {
+				this.state.journal.flush();
+			}
+			if (mode == ExecutionMode.PROFILE) {
+				this.profile.report(this.output, this.memory);
+			}
+		}
+	}
+	
+	/**
+	 * Runs in quiet mode from the given address until the program halts or
+	 * the machine has executed the given number of instructions in all. The
+	 * clock of the time limit keeps running into the next run, so a program
+	 * which continues in another mode shares one time limit across both.
+	 * @param startAddress The memory address to begin execution at.
+	 * @param count The instruction count to stop at.
+	 * @throws ExecutionLimitException If a limit set by setLimits is reached first.
+	 */
+	public void runQuietly(int startAddress, long count) throws Exception {
+		this.watchdog.pauseAt(count);
+		try {
+			this.run(startAddress, ExecutionMode.QUIET);
+		} catch (PauseException e) {
+			// Stopped at the count, ready to continue from the program counter
+		} finally {
+			this.watchdog.pauseAt(0);
+		}
+	}
+	
+	/**
+	 * Begins execution at the given address in memory, without flushing the console.
+	 */
+	private void runInMode(int startAddress, ExecutionMode mode) throws Exception {
 		this.state.programCounter = startAddress;
+		this.watchdog.start();
+		if (mode == ExecutionMode.PROFILE) {
+			this.runProfiled();
+			return;
+		}
+		if (mode == ExecutionMode.TRACE && this.traceWriter != null) {
+			this.runRecorded(this.traceWriter);
+			return;
+		}
+		boolean armed = this.breakpoints.isArmed();
+		UndoLog undo = this.undoLog;
+		Coverage coverage = this.coverage;
+		boolean instrumented = armed || undo != null || coverage != null;
+		if (mode == ExecutionMode.QUIET && this.fast != null && !instrumented) {
+			this.fast.run(this.output, this.input, this.state, this.memory, this.watchdog);
+			return;
+		}
+		if (mode == ExecutionMode.QUIET && this.jit != null && !instrumented) {
+			this.jit.run(this.output, this.input, this.state, this.memory, this.watchdog);
+			return;
+		}
+		boolean tracing = mode == ExecutionMode.TRACE || mode == ExecutionMode.STEP;
+		InstructionCache cache = this.cache;
+		if (mode == ExecutionMode.QUIET && this.fusedCache != null && !instrumented) {
+			cache = this.fusedCache;
+		}
+		DeltaTrace delta = null;
+		if (tracing && this.deltaTrace) {
+			delta = new DeltaTrace();
+			this.memory.addListener(delta);
+		}
+		if (armed) {
+			this.breakpoints.takeWrite();
+			this.memory.addListener(this.breakpoints);
+		}
+		if (undo != null) {
+			this.memory.addListener(undo);
+		}
 		int page = 0;
-		while (this.state.executing) {
-			page = ByteOperations.extractValue(this.state.programCounter, Machine.PG_LOW_BIT, Machine.PG_HI_BIT);
-			if (mode == ExecutionMode.TRACE || mode == ExecutionMode.STEP) {
-				this.memory.displayPage(this.output, page);
-				this.state.display(this.output);
-			}
+		try {
+			long nextCheck = this.watchdog.nextCheck(this.state.instructionsExecuted);
+			while (this.state.executing) {
+				if (this.state.instructionsExecuted >= nextCheck) {
+					this.watchdog.check(this.state);
+					nextCheck = this.watchdog.nextCheck(this.state.instructionsExecuted);
+				}
+				BreakpointKind stop = armed ? this.breakpoints.check(this.state.programCounter, this.state.instructionsExecuted) : null;
+				if (stop != null) {
+					this.breakpointHit(stop, this.state.programCounter);
+					if (!this.state.executing)
+						break;
+				}
+				if (tracing) {
+					page = ByteOperations.extractValue(this.state.programCounter, Machine.PG_LOW_BIT, Machine.PG_HI_BIT);
+					if (delta == null || delta.enterPage(page)) {
+						this.state.console.flush();
+						this.memory.displayPage(this.output, page);
+						this.state.display(this.output);
+					}
+				}
+				
+				if (mode == ExecutionMode.STEP) {
+					this.state.console.read();
+				}
 			
-			if (mode == ExecutionMode.STEP) {
-				System.in.read();
+				DecodedInstruction instruction = cache.get(this.state.programCounter);
+				if (armed) {
+					int read = this.breakpoints.findRead(instruction, this.state, this.memory);
+					if (read >= 0) {
+						this.breakpointHit(BreakpointKind.READ, read);
+						if (!this.state.executing)
+							break;
+						// The listener may have moved the machine
+						instruction = cache.get(this.state.programCounter);
+					}
+				}
+				if (tracing) {
+					output.println("Executing instruction: " + instruction.handler.getName());
+				}
+				if (undo != null) {
+					undo.before(this.state);
+				}
+				if (coverage != null) {
+					coverage.mark(this.state.programCounter);
+				}
+				if (delta != null) {
+					delta.snapshot(this.state);
+					this.execute(instruction);
+					this.state.console.flush();
+					delta.display(this.output, this.state, this.memory);
+				} else {
+					this.execute(instruction);
+				}
+				if (undo != null) {
+					undo.after(this.state);
+				}
+				if (armed) {
+					int written = this.breakpoints.takeWrite();
+					if (written >= 0) {
+						this.breakpointHit(BreakpointKind.WRITE, written);
+					}
+				}
 			}
-		
-			int instruction = this.memory.read(this.state.programCounter);
-			if (mode == ExecutionMode.TRACE || mode == ExecutionMode.STEP) {
-				output.println("Executing instruction: " + InstructionMappings.getInstructionName(InstructionMappings.getOpCode(instruction)));
+		} finally {
+			if (delta != null) {
+				this.memory.removeListener(delta);
+			}
+			if (armed) {
+				this.memory.removeListener(this.breakpoints);
+			}
+			if (undo != null) {
+				this.memory.removeListener(undo);
 			}
-			this.execute(instruction);
-			
 		}
-		if (mode == ExecutionMode.TRACE || mode == ExecutionMode.STEP) {
+		if (tracing) {
+			this.state.console.flush();
 			this.memory.displayPage(this.output, page);
 			this.state.display(this.output);
 		}
 	}
 	
 	/**
-	 * Executes the given instruction.
+	 * Pauses at a breakpoint or watchpoint, handing control to the listener
+	 * or, without one, displaying the page and registers and waiting for input.
+	 */
+	private void breakpointHit(BreakpointKind kind, int address) throws Exception {
+		if (this.breakpointListener != null) {
+			this.breakpointListener.breakpointHit(kind, address, this.state, this.memory);
+			return;
+		}
+		this.state.console.flush();
+		String location = "0x" + ByteOperations.getHex(address, 4);
+		if (kind == BreakpointKind.BREAKPOINT)
+			this.output.println("Breakpoint at " + location + ".");
+		else if (kind == BreakpointKind.PAUSE)
+			this.output.println("Paused at " + location + ".");
+		else if (kind == BreakpointKind.READ)
+			this.output.println("Watchpoint: read of " + location + ".");
+		else
+			this.output.println("Watchpoint: write to " + location + ".");
+		int page = ByteOperations.extractValue(this.state.programCounter, Machine.PG_LOW_BIT, Machine.PG_HI_BIT);
+		this.memory.displayPage(this.output, page);
+		this.state.display(this.output);
+		this.state.console.read();
+	}
+	
+	/**
+	 * Runs until the program halts, counting each instruction executed and
+	 * timing each TRAP. Always uses the reference handlers, so the counts
+	 * describe the program rather than the engine.
+	 */
+	private void runProfiled() throws Exception {
+		Profile profile = new Profile();
+		this.profile = profile;
+		long nextCheck = this.watchdog.nextCheck(this.state.instructionsExecuted);
+		while (this.state.executing) {
+			if (this.state.instructionsExecuted >= nextCheck) {
+				this.watchdog.check(this.state);
+				nextCheck = this.watchdog.nextCheck(this.state.instructionsExecuted);
+			}
+			int address = this.state.programCounter;
+			DecodedInstruction instruction = this.cache.get(address);
+			profile.count(address, instruction.opCode);
+			if (instruction.opCode == Machine.TRAP_OP_CODE) {
+				long start = System.nanoTime();
+				this.execute(instruction);
+				profile.countTrap(instruction.immediate, System.nanoTime() - start);
+			} else {
+				this.execute(instruction);
+			}
+		}
+	}
+	
+	/**
+	 * Runs until the program halts, recording each instruction executed to
+	 * the given TraceWriter, and saves the trace however the run ends.
 	 */
-	private void execute(int instruction) throws Exception {
+	private void runRecorded(TraceWriter trace) throws Exception {
+		trace.begin(this.state, this.memory);
+		this.memory.addListener(trace);
+		try {
+			long nextCheck = this.watchdog.nextCheck(this.state.instructionsExecuted);
+			while (this.state.executing) {
+				if (this.state.instructionsExecuted >= nextCheck) {
+					this.watchdog.check(this.state);
+					nextCheck = this.watchdog.nextCheck(this.state.instructionsExecuted);
+				}
+				int address = this.state.programCounter;
+				DecodedInstruction instruction = this.cache.get(address);
+				this.execute(instruction);
+				trace.record(address, instruction, this.state);
+			}
+		} finally {
+			this.memory.removeListener(trace);
+			trace.save();
+		}
+	}
+	
+	/**
+	 * Executes the given decoded instruction.
+	 */
+	private void execute(DecodedInstruction instruction) throws Exception {
 		this.state.programCounter++;
-		InstructionMappings.execute(this.output, instruction, this.state, this.memory);
+		this.state.instructionsExecuted += instruction.length;
+		instruction.handler.execute(this.output, this.input, instruction, this.state, this.memory);
 	}
 	
 	/**
@@ -106,4 +578,40 @@ public class Machine {
 	public MachineState getState() {
 		return this.state.clone();
 	}
+	
+	/**
+	 * Takes a snapshot of the state and memory of this machine. Pages of
+	 * memory not written since the previous snapshot are shared with it.
+	 * @return A snapshot to pass to restore.
+	 */
+	public Snapshot snapshot() {
+		if (this.snapshots == null) {
+			this.snapshots = new SnapshotTracker(this.memory);
+		}
+		return this.snapshots.take(this.state);
+	}
+	
+	/**
+	 * Returns the state and memory of this machine to the given snapshot.
+	 * Only the pages which differ from the snapshot are rewritten.
+	 * @param snapshot A snapshot taken by this machine.
+	 * @throws Exception If the snapshot was taken of another machine.
+	 */
+	public void restore(Snapshot snapshot) throws Exception {
+		if (this.snapshots == null) {
+			throw new Exception("The snapshot was taken of another machine.");
+		}
+		this.snapshots.restore(snapshot, this.state);
+		if (this.undoLog != null) {
+			this.undoLog.clear();
+		}
+	}
+	
+	/**
+	 * Gets the counters of the last run in profile mode.
+	 * @return The counters of the last run in profile mode, or null if this machine has not run in profile mode.
+	 */
+	public Profile getProfile() {
+		return this.profile;
+	}
 }
\ No newline at end of file
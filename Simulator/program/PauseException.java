@@ -0,0 +1,22 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+
+/**
+ * Thrown by a Watchdog when a Machine reaches the instruction count it was
+ * asked to pause at. It travels the same way as a limit through the engines,
+ * but Machine.runQuietly catches it, so it never escapes the machine.
+ */
+class PauseException extends ExecutionLimitException {
+	/**
+	 * Serialization version.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Creates a new PauseException.
+	 * @param _state The state of the machine when it paused.
+	 */
+	PauseException(MachineState _state) {
+		super("Execution paused after " + _state.instructionsExecuted + " instructions.", _state);
+	}
+}
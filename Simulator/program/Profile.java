@@ -0,0 +1,180 @@
+package Simulator.program;
+import java.io.PrintStream;
+import java.util.Arrays;
+import Simulator.instructions.InstructionMappings;
+import Common.ByteOperations;
+import Common.MemoryBank;
+
+/**
+ * Counts how often each address and each op code is executed while a
+ * Machine runs in profile mode, and how often and for how long each TRAP
+ * vector runs. All counters are allocated up front, so counting an
+ * instruction only increments two array elements.
+ */
+public class Profile {
+	/**
+	 * Number of hot spots listed in the report.
+	 */
+	public static final int HOT_SPOT_LIMIT = 20;
+	
+	/**
+	 * Number of distinct op codes.
+	 */
+	private static final int OP_CODES = 16;
+	
+	/**
+	 * Number of distinct TRAP vectors.
+	 */
+	private static final int TRAP_VECTORS = 256;
+	
+	/**
+	 * Mask of the address packed into the low bits of a hot spot sort key.
+	 */
+	private static final long ADDRESS_MASK = 0xFFFF;
+	
+	/**
+	 * Number of bits the count is shifted by in a hot spot sort key.
+	 */
+	private static final int COUNT_SHIFT = 16;
+	
+	/**
+	 * Number of times the instruction at each address was executed. The
+	 * counts are treated as unsigned, so each address can count past four
+	 * billion executions before wrapping.
+	 */
+	private int[] addressCounts = new int[MemoryBank.MEMORY_SIZE];
+	
+	/**
+	 * Number of times each op code was executed.
+	 */
+	private long[] opCodeCounts = new long[Profile.OP_CODES];
+	
+	/**
+	 * Number of times each TRAP vector was executed.
+	 */
+	private long[] trapCounts = new long[Profile.TRAP_VECTORS];
+	
+	/**
+	 * Total nanoseconds spent executing each TRAP vector.
+	 */
+	private long[] trapTimes = new long[Profile.TRAP_VECTORS];
+	
+	/**
+	 * Counts one execution of an instruction.
+	 * @param address The address of the instruction, which may be sign-extended past 16 bits.
+	 * @param opCode The op code of the instruction.
+	 */
+	public void count(int address, int opCode) {
+		this.addressCounts[(int) (address & Profile.ADDRESS_MASK)]++;
+		this.opCodeCounts[opCode]++;
+	}
+	
+	/**
+	 * Records one execution of a TRAP vector.
+	 * @param vector The TRAP vector.
+	 * @param nanos How long the TRAP took, in nanoseconds.
+	 */
+	public void countTrap(int vector, long nanos) {
+		this.trapCounts[vector]++;
+		this.trapTimes[vector] += nanos;
+	}
+	
+	/**
+	 * Gets the number of times the instruction at the given address was executed.
+	 * @param address The address of the instruction.
+	 * @return The number of times the instruction was executed.
+	 */
+	public long getAddressCount(int address) {
+		return this.addressCounts[(int) (address & Profile.ADDRESS_MASK)] & 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Gets the number of times instructions with the given op code were executed.
+	 * @param opCode The op code.
+	 * @return The number of times the op code was executed.
+	 */
+	public long getOpCodeCount(int opCode) {
+		return this.opCodeCounts[opCode];
+	}
+	
+	/**
+	 * Gets the number of times the given TRAP vector was executed.
+	 * @param vector The TRAP vector.
+	 * @return The number of times the vector was executed.
+	 */
+	public long getTrapCount(int vector) {
+		return this.trapCounts[vector];
+	}
+	
+	/**
+	 * Gets the total number of instructions counted.
+	 * @return The total number of instructions counted.
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (long count : this.opCodeCounts) {
+			total += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * Prints the hot spots, sorted by count, followed by the op code and
+	 * TRAP vector counts.
+	 * @param output The IO stream to print the report to.
+	 * @param memory The memory holding the profiled program, used to name
+	 * the instruction at each hot spot.
+	 */
+	public void report(PrintStream output, MemoryBank memory) {
+		long total = this.getTotal();
+		output.println("Profile: " + total + " instructions executed.");
+		
+		// Sort keys hold the count above the inverted address, so sorting them
+		// orders by count, then by ascending address among equal counts
+		long[] keys = new long[MemoryBank.MEMORY_SIZE];
+		int used = 0;
+		for (int address = 0; address < MemoryBank.MEMORY_SIZE; address++) {
+			long count = this.getAddressCount(address);
+			if (count > 0)
+				keys[used++] = (count << Profile.COUNT_SHIFT) | (Profile.ADDRESS_MASK - address);
+		}
+		Arrays.sort(keys, 0, used);
+		output.println("Hot spots:");
+		output.println(String.format("  %-8s %14s  %-28s %8s", "Address", "Count", "Instruction", "Share"));
+		for (int i = used - 1; i >= 0 && i >= used - Profile.HOT_SPOT_LIMIT; i--) {
+			int address = (int) (Profile.ADDRESS_MASK - (keys[i] & Profile.ADDRESS_MASK));
+			long count = keys[i] >>> Profile.COUNT_SHIFT;
+			String name = InstructionMappings.getInstructionName(InstructionMappings.getOpCode(memory.read(address)));
+			output.println(String.format("  0x%-6s %14d  %-28s %7.2f%%",
+				ByteOperations.getHex(address, 4), count, name, Profile.share(count, total)));
+		}
+		
+		output.println("Op codes:");
+		for (int opCode = 0; opCode < Profile.OP_CODES; opCode++) {
+			if (this.opCodeCounts[opCode] > 0) {
+				output.println(String.format("  %-28s %14d %7.2f%%", InstructionMappings.getInstructionName(opCode),
+					this.opCodeCounts[opCode], Profile.share(this.opCodeCounts[opCode], total)));
+			}
+		}
+		
+		boolean traps = false;
+		for (int vector = 0; vector < Profile.TRAP_VECTORS; vector++) {
+			if (this.trapCounts[vector] == 0)
+				continue;
+			if (!traps) {
+				output.println("Traps:");
+				output.println(String.format("  %-8s %14s %12s %12s", "Vector", "Count", "Total ms", "Mean us"));
+				traps = true;
+			}
+			output.println(String.format("  x%-7s %14d %12.3f %12.3f", ByteOperations.getHex(vector, 2), this.trapCounts[vector],
+				this.trapTimes[vector] / 1e6, this.trapTimes[vector] / 1e3 / this.trapCounts[vector]));
+		}
+	}
+	
+	/**
+	 * Gets the given count as a percentage of the total.
+	 */
+	private static double share(long count, long total) {
+		return total == 0 ? 0 : 100.0 * count / total;
+	}
+}
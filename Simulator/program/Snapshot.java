@@ -0,0 +1,45 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+
+/**
+ * A checkpoint of a Machine's state and memory, taken by Machine.snapshot
+ * and returned to with Machine.restore. Memory is held as pages which are
+ * shared with the other snapshots of the same Machine until written, so a
+ * snapshot costs one page for each page written since the previous one.
+ */
+public class Snapshot {
+	/**
+	 * The tracker which took this snapshot.
+	 */
+	SnapshotTracker owner;
+	
+	/**
+	 * The state of the machine.
+	 */
+	MachineState state;
+	
+	/**
+	 * The pages of memory, indexed by page number. Never modified once taken.
+	 */
+	short[][] pages;
+	
+	/**
+	 * Creates a new Snapshot.
+	 * @param _owner The tracker taking the snapshot.
+	 * @param _state A copy of the state of the machine.
+	 * @param _pages The pages of memory.
+	 */
+	Snapshot(SnapshotTracker _owner, MachineState _state, short[][] _pages) {
+		this.owner = _owner;
+		this.state = _state;
+		this.pages = _pages;
+	}
+	
+	/**
+	 * Gets a copy of the MachineState held by this snapshot.
+	 * @return A copy of the MachineState held by this snapshot.
+	 */
+	public MachineState getState() {
+		return this.state.clone();
+	}
+}
@@ -0,0 +1,98 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import Common.MemoryListener;
+
+/**
+ * Takes and restores the snapshots of one Machine. It tracks which pages
+ * were written since the memory last matched a snapshot, so a new snapshot
+ * copies only those pages and shares the rest, and a restore rewrites only
+ * the pages that differ.
+ */
+public class SnapshotTracker implements MemoryListener {
+	/**
+	 * Page of zeroes shared by every snapshot for pages that were never written.
+	 */
+	private static final short[] ZERO_PAGE = new short[MemoryBank.PAGE_SIZE];
+	
+	/**
+	 * The memory being tracked.
+	 */
+	private MemoryBank memory;
+	
+	/**
+	 * The snapshot memory matched, apart from the dirty pages; null before the first snapshot.
+	 */
+	private Snapshot base;
+	
+	/**
+	 * True for each page written since memory matched the base snapshot.
+	 */
+	private boolean[] dirty = new boolean[MemoryBank.PAGE_COUNT];
+	
+	/**
+	 * Creates a new SnapshotTracker and starts tracking writes to the given memory.
+	 * @param _memory The memory to track.
+	 */
+	public SnapshotTracker(MemoryBank _memory) {
+		this.memory = _memory;
+		this.memory.addListener(this);
+	}
+	
+	@Override
+	public void memoryWritten(int address, short previousValue, short value) {
+		this.dirty[address / MemoryBank.PAGE_SIZE] = true;
+	}
+	
+	/**
+	 * Takes a snapshot of the given state and the tracked memory.
+	 * @param state The state to copy into the snapshot.
+	 * @return The new snapshot.
+	 */
+	public Snapshot take(MachineState state) {
+		short[][] pages = new short[MemoryBank.PAGE_COUNT][];
+		for (int i = 0; i < MemoryBank.PAGE_COUNT; i++) {
+			if (this.base != null && !this.dirty[i]) {
+				pages[i] = this.base.pages[i];
+			} else {
+				pages[i] = this.copyPage(i);
+				this.dirty[i] = false;
+			}
+		}
+		this.base = new Snapshot(this, state.clone(), pages);
+		return this.base;
+	}
+	
+	/**
+	 * Returns the given state and the tracked memory to the given snapshot.
+	 * @param snapshot The snapshot to restore.
+	 * @param state The state to overwrite.
+	 * @throws Exception If the snapshot was taken by another tracker.
+	 */
+	public void restore(Snapshot snapshot, MachineState state) throws Exception {
+		if (snapshot.owner != this) {
+			throw new Exception("The snapshot was taken of another machine.");
+		}
+		for (int i = 0; i < MemoryBank.PAGE_COUNT; i++) {
+			if (this.dirty[i] || snapshot.pages[i] != this.base.pages[i]) {
+				this.memory.writePage(i, snapshot.pages[i]);
+				this.dirty[i] = false;
+			}
+		}
+		this.base = snapshot;
+		state.copyFrom(snapshot.state);
+	}
+	
+	/**
+	 * Copies the given page of memory, sharing the page of zeroes if it is empty.
+	 */
+	private short[] copyPage(int page) {
+		short[] copy = new short[MemoryBank.PAGE_SIZE];
+		this.memory.readPage(page, copy);
+		for (short value : copy) {
+			if (value != 0)
+				return copy;
+		}
+		return SnapshotTracker.ZERO_PAGE;
+	}
+}
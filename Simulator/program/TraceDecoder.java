@@ -0,0 +1,150 @@
+package Simulator.program;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import Simulator.instructions.InstructionMappings;
+import Simulator.state.MachineState;
+import Common.ByteOperations;
+import Common.MemoryBank;
+
+/**
+ * Turns a binary trace recorded by TraceWriter back into the text trace
+ * mode displays: the memory page and registers before each instruction,
+ * the name of the instruction, and the final page and registers. Program
+ * output is not part of the trace, so it does not appear in the text.
+ */
+public class TraceDecoder {
+	/**
+	 * Offset of the low bit of the page in an address.
+	 */
+	private static final int PG_LOW_BIT = 9;
+	
+	/**
+	 * Offset of the high bit of the page in an address.
+	 */
+	private static final int PG_HI_BIT = 16;
+	
+	/**
+	 * Number of records read from the channel at a time.
+	 */
+	private static final int CHUNK_RECORDS = 4096;
+	
+	/**
+	 * Decodes the trace read from the given channel. A trace holds one
+	 * saved run after another, and each is decoded as the trace of a run.
+	 * @param channel The channel to read the trace from, usually a FileChannel.
+	 * @param output The IO stream to print the text trace to.
+	 * @throws Exception If the channel does not hold a trace.
+	 */
+	public static void decode(ReadableByteChannel channel, PrintStream output) throws Exception {
+		ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_SIZE);
+		if (!TraceDecoder.fill(channel, header)) {
+			throw new Exception("The file is not a binary trace.");
+		}
+		do {
+			TraceDecoder.decodeRun(channel, header, output);
+			header.clear();
+		} while (TraceDecoder.fill(channel, header));
+		if (header.position() > 0) {
+			throw new Exception("The binary trace ends with a partial header.");
+		}
+	}
+	
+	/**
+	 * Decodes the records of one saved run, given the header already read.
+	 */
+	private static void decodeRun(ReadableByteChannel channel, ByteBuffer header, PrintStream output) throws Exception {
+		if (header.getInt() != TraceWriter.MAGIC) {
+			throw new Exception("The file is not a binary trace.");
+		}
+		if (header.getShort() != TraceWriter.VERSION) {
+			throw new Exception("The binary trace has an unsupported version.");
+		}
+		int remaining = header.getInt();
+		MachineState state = new MachineState();
+		MemoryBank memory = new MemoryBank();
+		state.programCounter = header.getShort() & 0xFFFF;
+		TraceDecoder.setFlags(state, header.get());
+		for (int i = 0; i < MachineState.NUM_REGISTERS; i++) {
+			state.registers[i] = header.getShort();
+		}
+		int pageCount = header.getShort();
+		ByteBuffer pageRecord = ByteBuffer.allocate(TraceWriter.PAGE_RECORD_SIZE);
+		for (int i = 0; i < pageCount; i++) {
+			pageRecord.clear();
+			if (!TraceDecoder.fill(channel, pageRecord)) {
+				throw new Exception("The binary trace ends with a partial header.");
+			}
+			int pageStart = (pageRecord.getShort() & 0xFFFF) * MemoryBank.PAGE_SIZE;
+			for (int j = 0; j < MemoryBank.PAGE_SIZE; j++) {
+				short value = pageRecord.getShort();
+				if (value != 0) {
+					memory.write(pageStart + j, value);
+				}
+			}
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(TraceDecoder.CHUNK_RECORDS * TraceWriter.RECORD_SIZE);
+		int page = 0;
+		while (remaining > 0) {
+			// Read no further than this run, since the next one may follow it
+			buffer.clear();
+			buffer.limit(Math.min(remaining, TraceDecoder.CHUNK_RECORDS) * TraceWriter.RECORD_SIZE);
+			if (!TraceDecoder.fill(channel, buffer)) {
+				throw new Exception("The binary trace ends with a partial record.");
+			}
+			while (buffer.hasRemaining()) {
+				int address = buffer.getShort() & 0xFFFF;
+				int instruction = buffer.getShort() & 0xFFFF;
+				int register = buffer.get();
+				int flags = buffer.get();
+				short registerValue = buffer.getShort();
+				int writeAddress = buffer.getShort() & 0xFFFF;
+				short writeValue = buffer.getShort();
+				int nextAddress = buffer.getShort() & 0xFFFF;
+				buffer.getShort();
+				remaining--;
+				
+				page = ByteOperations.extractValue(address, TraceDecoder.PG_LOW_BIT, TraceDecoder.PG_HI_BIT);
+				memory.displayPage(output, page);
+				state.display(output);
+				output.println("Executing instruction: " + InstructionMappings.getInstructionName(InstructionMappings.getOpCode(instruction)));
+				
+				state.programCounter = nextAddress;
+				TraceDecoder.setFlags(state, flags);
+				if (register >= 0) {
+					state.registers[register] = registerValue;
+				}
+				if ((flags & TraceWriter.FLAG_WRITE) != 0) {
+					memory.write(writeAddress, writeValue);
+				}
+			}
+		}
+		memory.displayPage(output, page);
+		state.display(output);
+	}
+	
+	/**
+	 * Reads from the channel until the buffer is full.
+	 * @return True if and only if the buffer was filled.
+	 */
+	private static boolean fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+	
+	/**
+	 * Sets the condition codes of the given state from the given record flags.
+	 */
+	private static void setFlags(MachineState state, int flags) {
+		state.ccrNegative = (flags & TraceWriter.FLAG_NEGATIVE) != 0;
+		state.ccrZero = (flags & TraceWriter.FLAG_ZERO) != 0;
+		state.ccrPositive = (flags & TraceWriter.FLAG_POSITIVE) != 0;
+	}
+}
@@ -0,0 +1,388 @@
+package Simulator.program;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import Simulator.instructions.DecodedInstruction;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import Common.MemoryListener;
+
+/**
+ * Records a binary trace of a Machine run. Records are kept in a bounded,
+ * preallocated ring of longs, two per record, so recording an instruction
+ * is one call which stores two longs: it neither allocates nor touches a
+ * buffer or the channel. Only the most recent instructions of a long run
+ * are retained. The ring is split into two halves, and the state
+ * of the machine is checkpointed each time recording enters a half. When
+ * save is called, the trace is written as a header holding the checkpoint
+ * the oldest retained record starts from, followed by the retained records.
+ * 
+ * The header holds the magic number, the version, the number of records,
+ * the program counter, the condition codes, the registers, the number of
+ * pages with data and then the index and cells of each of those pages.
+ * 
+ * Each record holds, in big-endian order:
+ * the address of the instruction (2 bytes),
+ * the instruction code (2 bytes),
+ * the register the instruction changed, or -1 for none (1 byte),
+ * the condition codes and a memory write flag (1 byte),
+ * the new value of the changed register (2 bytes),
+ * the address and new value of the memory cell written (2 bytes each),
+ * the program counter after the instruction (2 bytes),
+ * and 2 bytes of padding.
+ * 
+ * TraceDecoder turns a trace back into the text displayed by trace mode.
+ */
+public class TraceWriter implements MemoryListener {
+	/**
+	 * Identifies a trace file: "W8TR".
+	 */
+	public static final int MAGIC = 0x57385452;
+	
+	/**
+	 * Version of the trace format.
+	 */
+	public static final short VERSION = 2;
+	
+	/**
+	 * Size of one instruction record in bytes.
+	 */
+	public static final int RECORD_SIZE = 16;
+	
+	/**
+	 * Size of the header in bytes, before its pages: magic, version, record
+	 * count, program counter, flags, registers and page count.
+	 */
+	public static final int HEADER_SIZE = 4 + 2 + 4 + 2 + 1 + 2 * MachineState.NUM_REGISTERS + 2;
+	
+	/**
+	 * Size in bytes of one page in the header: its index and its cells.
+	 */
+	public static final int PAGE_RECORD_SIZE = 2 + 2 * MemoryBank.PAGE_SIZE;
+	
+	/**
+	 * Number of records the ring buffer holds. Between half of this and all
+	 * of it are retained once a run has wrapped around the ring.
+	 */
+	public static final int BUFFER_RECORDS = 1 << 18;
+	
+	/**
+	 * Number of longs in one half of the ring, two per record.
+	 */
+	private static final int HALF_SIZE = TraceWriter.BUFFER_RECORDS;
+	
+	/**
+	 * Register an instruction changes when it writes its destination field.
+	 */
+	private static final int DESTINATION = -2;
+	
+	/**
+	 * Register an instruction changes when it may change any of them, so the
+	 * registers are compared to find the one.
+	 */
+	private static final int ANY = -3;
+	
+	/**
+	 * Register changed by the instruction with each op-code: DESTINATION,
+	 * the link register, ANY, or -1 for none.
+	 */
+	private static final int[] CHANGED_REGISTERS = new int[] {
+		-1, // BR
+		TraceWriter.DESTINATION, // ADD
+		TraceWriter.DESTINATION, // LD
+		-1, // ST
+		7, // JSR
+		TraceWriter.DESTINATION, // AND
+		TraceWriter.DESTINATION, // LDR
+		-1, // STR
+		TraceWriter.ANY, // DBUG
+		TraceWriter.DESTINATION, // NOT
+		TraceWriter.DESTINATION, // LDI
+		-1, // STI
+		7, // JSRR
+		-1, // RET
+		TraceWriter.DESTINATION, // LEA
+		TraceWriter.ANY, // TRAP
+	};
+	
+	/**
+	 * Number of records converted to bytes at a time when saving.
+	 */
+	private static final int CHUNK_RECORDS = 4096;
+	
+	/**
+	 * Flag set when the negative condition code is set.
+	 */
+	public static final int FLAG_NEGATIVE = 0x1;
+	
+	/**
+	 * Flag set when the zero condition code is set.
+	 */
+	public static final int FLAG_ZERO = 0x2;
+	
+	/**
+	 * Flag set when the positive condition code is set.
+	 */
+	public static final int FLAG_POSITIVE = 0x4;
+	
+	/**
+	 * Flag set when the instruction wrote a memory cell.
+	 */
+	public static final int FLAG_WRITE = 0x8;
+	
+	/**
+	 * Channel the trace is written to.
+	 */
+	private WritableByteChannel channel;
+	
+	/**
+	 * Ring of the records retained since begin was called, each packed into
+	 * two longs in the order they are written to the channel.
+	 */
+	private long[] ring = new long[2 * TraceWriter.BUFFER_RECORDS];
+	
+	/**
+	 * Index in the ring of the next record.
+	 */
+	private int next;
+	
+	/**
+	 * True if and only if recording has wrapped around the ring buffer, so
+	 * the oldest records have been overwritten.
+	 */
+	private boolean wrapped;
+	
+	/**
+	 * Memory of the machine being recorded.
+	 */
+	private MemoryBank memory;
+	
+	/**
+	 * Program counter checkpointed when recording entered each half of the ring.
+	 */
+	private int[] checkpointCounters = new int[2];
+	
+	/**
+	 * Condition code flags checkpointed when recording entered each half of the ring.
+	 */
+	private int[] checkpointFlags = new int[2];
+	
+	/**
+	 * Registers checkpointed when recording entered each half of the ring.
+	 */
+	private short[][] checkpointRegisters = new short[2][MachineState.NUM_REGISTERS];
+	
+	/**
+	 * Memory pages checkpointed when recording entered each half of the ring.
+	 */
+	private short[][][] checkpointPages = new short[2][MemoryBank.PAGE_COUNT][MemoryBank.PAGE_SIZE];
+	
+	/**
+	 * Registers after the last instruction recorded, so before the one being
+	 * recorded, as far as a handler which may change any register needs them.
+	 */
+	private short[] registers = new short[MachineState.NUM_REGISTERS];
+	
+	/**
+	 * True if and only if the instruction being recorded wrote memory.
+	 */
+	private boolean written;
+	
+	/**
+	 * Address of the cell written by the instruction being recorded.
+	 */
+	private int writeAddress;
+	
+	/**
+	 * Value written by the instruction being recorded.
+	 */
+	private short writeValue;
+	
+	/**
+	 * Creates a new TraceWriter writing to the given channel.
+	 * @param _channel The channel to write the trace to, usually a FileChannel.
+	 */
+	public TraceWriter(WritableByteChannel _channel) {
+		this.channel = _channel;
+	}
+	
+	/**
+	 * Starts a new trace, discarding any records not yet saved.
+	 * @param state The state of the machine before the first instruction.
+	 * @param _memory The memory of the machine before the first instruction.
+	 */
+	public void begin(MachineState state, MemoryBank _memory) {
+		this.memory = _memory;
+		this.next = 0;
+		this.wrapped = false;
+		this.written = false;
+		System.arraycopy(state.registers, 0, this.registers, 0, MachineState.NUM_REGISTERS);
+		this.checkpoint(state);
+	}
+	
+	/**
+	 * Records an instruction, given the state after it was executed.
+	 * @param address The address the instruction was executed from.
+	 * @param decoded The instruction executed.
+	 * @param state The state of the machine after the instruction.
+	 */
+	public void record(int address, DecodedInstruction decoded, MachineState state) {
+		short[] registers = state.registers;
+		// Only handlers which may change any register are checked against a copy of the registers
+		int register = TraceWriter.CHANGED_REGISTERS[decoded.opCode];
+		if (register == TraceWriter.DESTINATION) {
+			register = decoded.register1;
+		} else if (register == TraceWriter.ANY) {
+			register = -1;
+			for (int i = 0; i < MachineState.NUM_REGISTERS; i++) {
+				if (registers[i] != this.registers[i]) {
+					register = i;
+				}
+			}
+		} else if (register >= 0 && !decoded.link) {
+			register = -1;
+		}
+		if (register >= 0) {
+			this.registers[register] = registers[register];
+		}
+		int flags = TraceWriter.getFlags(state);
+		if (this.written) {
+			flags |= TraceWriter.FLAG_WRITE;
+			this.written = false;
+		}
+		int registerValue = register < 0 ? 0 : registers[register] & 0xFFFF;
+		long[] ring = this.ring;
+		int next = this.next;
+		ring[next] = ((long) (address & 0xFFFF) << 48) | ((long) (decoded.instruction & 0xFFFF) << 32)
+			| ((long) (register & 0xFF) << 24) | (flags << 16) | registerValue;
+		ring[next + 1] = ((long) (this.writeAddress & 0xFFFF) << 48) | ((long) (this.writeValue & 0xFFFF) << 32)
+			| ((long) (state.programCounter & 0xFFFF) << 16);
+		next += 2;
+		this.next = next;
+		if (next == TraceWriter.HALF_SIZE || next == ring.length) {
+			if (next == ring.length) {
+				this.next = 0;
+				this.wrapped = true;
+			}
+			this.checkpoint(state);
+		}
+	}
+	
+	@Override
+	public void memoryWritten(int address, short previousValue, short value) {
+		this.written = true;
+		this.writeAddress = address;
+		this.writeValue = value;
+	}
+	
+	/**
+	 * Writes the retained records to the channel, preceded by a header
+	 * holding the state the oldest of them starts from. The records stay
+	 * retained until begin is called again.
+	 * @throws IOException If the trace cannot be written.
+	 */
+	public void save() throws IOException {
+		int position = this.next;
+		int current = position / TraceWriter.HALF_SIZE;
+		int oldest = this.wrapped ? 1 - current : 0;
+		int pageCount = 0;
+		for (short[] page : this.checkpointPages[oldest]) {
+			if (!TraceWriter.isEmpty(page)) {
+				pageCount++;
+			}
+		}
+		
+		ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_SIZE + pageCount * TraceWriter.PAGE_RECORD_SIZE);
+		header.putInt(TraceWriter.MAGIC);
+		header.putShort(TraceWriter.VERSION);
+		header.putInt((this.wrapped ? TraceWriter.HALF_SIZE + position - current * TraceWriter.HALF_SIZE : position) / 2);
+		header.putShort((short) this.checkpointCounters[oldest]);
+		header.put((byte) this.checkpointFlags[oldest]);
+		for (short register : this.checkpointRegisters[oldest]) {
+			header.putShort(register);
+		}
+		header.putShort((short) pageCount);
+		for (int i = 0; i < MemoryBank.PAGE_COUNT; i++) {
+			short[] page = this.checkpointPages[oldest][i];
+			if (!TraceWriter.isEmpty(page)) {
+				header.putShort((short) i);
+				for (short cell : page) {
+					header.putShort(cell);
+				}
+			}
+		}
+		header.flip();
+		this.write(header);
+		
+		// Once wrapped, the oldest half runs up to the end of the ring when it is the second half
+		ByteBuffer chunk = ByteBuffer.allocate(TraceWriter.CHUNK_RECORDS * TraceWriter.RECORD_SIZE);
+		if (oldest == 1) {
+			this.writeRecords(chunk, TraceWriter.HALF_SIZE, this.ring.length);
+		}
+		this.writeRecords(chunk, 0, position);
+	}
+	
+	/**
+	 * Writes the records between the given indexes of the ring to the
+	 * channel, through the given buffer.
+	 */
+	private void writeRecords(ByteBuffer chunk, int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			chunk.putLong(this.ring[i]);
+			if (!chunk.hasRemaining() || i == to - 1) {
+				chunk.flip();
+				this.write(chunk);
+				chunk.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Checkpoints the given state as the one the half of the ring being
+	 * entered starts from.
+	 */
+	private void checkpoint(MachineState state) {
+		int half = this.next / TraceWriter.HALF_SIZE;
+		this.checkpointCounters[half] = state.programCounter;
+		this.checkpointFlags[half] = TraceWriter.getFlags(state);
+		System.arraycopy(state.registers, 0, this.checkpointRegisters[half], 0, MachineState.NUM_REGISTERS);
+		for (int i = 0; i < MemoryBank.PAGE_COUNT; i++) {
+			this.memory.readPage(i, this.checkpointPages[half][i]);
+		}
+	}
+	
+	/**
+	 * Writes the remaining bytes of the given buffer to the channel.
+	 */
+	private void write(ByteBuffer source) throws IOException {
+		while (source.hasRemaining()) {
+			this.channel.write(source);
+		}
+	}
+	
+	/**
+	 * Checks whether every cell of the given page is zero.
+	 */
+	private static boolean isEmpty(short[] page) {
+		for (short cell : page) {
+			if (cell != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the condition code flags of the given state.
+	 */
+	private static int getFlags(MachineState state) {
+		int flags = 0;
+		if (state.ccrNegative)
+			flags |= TraceWriter.FLAG_NEGATIVE;
+		if (state.ccrZero)
+			flags |= TraceWriter.FLAG_ZERO;
+		if (state.ccrPositive)
+			flags |= TraceWriter.FLAG_POSITIVE;
+		return flags;
+	}
+}
@@ -0,0 +1,189 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+import Common.MemoryBank;
+import Common.MemoryListener;
+
+/**
+ * A bounded ring of undo records, one per instruction executed, which lets
+ * a Machine step backwards. Each record holds the program counter and
+ * condition codes before the instruction, the register it overwrote and
+ * the memory cell it overwrote, packed into a long and an int. When the
+ * ring is full the oldest record is dropped.
+ */
+public class UndoLog implements MemoryListener {
+	/**
+	 * Number of bytes taken by one record.
+	 */
+	public static final int RECORD_SIZE = 12;
+	
+	/**
+	 * Register field of a record which overwrote no register.
+	 */
+	private static final int NO_REGISTER = 0xF;
+	
+	/**
+	 * Flag set in a record which overwrote a memory cell.
+	 */
+	private static final long WRITE_FLAG = 1L << 40;
+	
+	/**
+	 * Flag set in a record when the negative condition code was set.
+	 */
+	private static final long NEGATIVE_FLAG = 1L << 41;
+	
+	/**
+	 * Flag set in a record when the zero condition code was set.
+	 */
+	private static final long ZERO_FLAG = 1L << 42;
+	
+	/**
+	 * Flag set in a record when the positive condition code was set.
+	 */
+	private static final long POSITIVE_FLAG = 1L << 43;
+	
+	/**
+	 * Program counter, register index, previous register value and flags of each record.
+	 */
+	private long[] states;
+	
+	/**
+	 * Address and previous value of the memory cell overwritten by each record.
+	 */
+	private int[] writes;
+	
+	/**
+	 * Index of the next record to add.
+	 */
+	private int head;
+	
+	/**
+	 * Number of records held.
+	 */
+	private int count;
+	
+	/**
+	 * Registers before the current instruction.
+	 */
+	private short[] registers = new short[MachineState.NUM_REGISTERS];
+	
+	/**
+	 * Record being built for the current instruction.
+	 */
+	private long state;
+	
+	/**
+	 * Memory cell overwritten by the current instruction.
+	 */
+	private int write;
+	
+	/**
+	 * True if and only if an instruction is being recorded.
+	 */
+	private boolean recording;
+	
+	/**
+	 * Creates a new UndoLog holding as many records as fit in the given budget.
+	 * @param budget Number of bytes the records may take; at least one record is kept.
+	 */
+	public UndoLog(long budget) {
+		int capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, budget / UndoLog.RECORD_SIZE));
+		this.states = new long[capacity];
+		this.writes = new int[capacity];
+	}
+	
+	/**
+	 * Starts recording an instruction.
+	 * @param state The state before the instruction.
+	 */
+	public void before(MachineState state) {
+		System.arraycopy(state.registers, 0, this.registers, 0, MachineState.NUM_REGISTERS);
+		long record = state.programCounter & 0xFFFF;
+		if (state.ccrNegative)
+			record |= UndoLog.NEGATIVE_FLAG;
+		if (state.ccrZero)
+			record |= UndoLog.ZERO_FLAG;
+		if (state.ccrPositive)
+			record |= UndoLog.POSITIVE_FLAG;
+		this.state = record;
+		this.recording = true;
+	}
+	
+	@Override
+	public void memoryWritten(int address, short previousValue, short value) {
+		if (this.recording && (this.state & UndoLog.WRITE_FLAG) == 0) {
+			this.state |= UndoLog.WRITE_FLAG;
+			this.write = (address << 16) | (previousValue & 0xFFFF);
+		}
+	}
+	
+	/**
+	 * Finishes recording the instruction started by before.
+	 * @param state The state after the instruction.
+	 */
+	public void after(MachineState state) {
+		int register = UndoLog.NO_REGISTER;
+		for (int i = 0; i < MachineState.NUM_REGISTERS; i++) {
+			if (state.registers[i] != this.registers[i]) {
+				register = i;
+			}
+		}
+		long record = this.state | ((long) register << 16);
+		if (register != UndoLog.NO_REGISTER) {
+			record |= (long) (this.registers[register] & 0xFFFF) << 20;
+		}
+		this.states[this.head] = record;
+		this.writes[this.head] = this.write;
+		this.head = (this.head + 1) % this.states.length;
+		if (this.count < this.states.length)
+			this.count++;
+		this.recording = false;
+	}
+	
+	/**
+	 * Gets the number of instructions which can be undone.
+	 * @return The number of records held.
+	 */
+	public int size() {
+		return this.count;
+	}
+	
+	/**
+	 * Drops every record.
+	 */
+	public void clear() {
+		this.count = 0;
+		this.recording = false;
+	}
+	
+	/**
+	 * Undoes the most recently recorded instruction.
+	 * @param state The state to return to before the instruction.
+	 * @param memory The memory to return to before the instruction.
+	 * @return The address of the memory cell restored, -1 if the instruction wrote none,
+	 * or -2 if there was no instruction to undo.
+	 */
+	public int undo(MachineState state, MemoryBank memory) {
+		if (this.count == 0)
+			return -2;
+		this.head = (this.head + this.states.length - 1) % this.states.length;
+		this.count--;
+		long record = this.states[this.head];
+		int address = -1;
+		if ((record & UndoLog.WRITE_FLAG) != 0) {
+			int write = this.writes[this.head];
+			address = write >>> 16;
+			memory.write(address, (short) write);
+		}
+		int register = (int) (record >>> 16) & 0xF;
+		if (register != UndoLog.NO_REGISTER) {
+			state.registers[register] = (short) (record >>> 20);
+		}
+		state.programCounter = (int) (record & 0xFFFF);
+		state.ccrNegative = (record & UndoLog.NEGATIVE_FLAG) != 0;
+		state.ccrZero = (record & UndoLog.ZERO_FLAG) != 0;
+		state.ccrPositive = (record & UndoLog.POSITIVE_FLAG) != 0;
+		state.executing = true;
+		state.instructionsExecuted--;
+		return address;
+	}
+}
@@ -0,0 +1,121 @@
+package Simulator.program;
+import Simulator.state.MachineState;
+import Common.ByteOperations;
+
+/**
+ * Enforces a limit on the number of instructions a Machine executes and on
+ * the wall time it runs for. Engines do not consult the watchdog on every
+ * instruction; they only call check once the instruction count reaches the
+ * value returned by nextCheck, so the clock is read at most once every
+ * CHECK_INTERVAL instructions. Engines which execute whole blocks of
+ * instructions at a time may overshoot a limit by less than one block.
+ */
+public class Watchdog {
+	/**
+	 * Maximum number of instructions executed between two checks.
+	 */
+	public static final int CHECK_INTERVAL = 0x10000;
+	
+	/**
+	 * Number of nanoseconds in a millisecond.
+	 */
+	private static final long NANOS_PER_MILLI = 1000000L;
+	
+	/**
+	 * Total number of instructions the machine may execute, or zero for no limit.
+	 */
+	private long instructionLimit;
+	
+	/**
+	 * Number of milliseconds the machine may run for, or zero for no limit.
+	 */
+	private long timeLimit;
+	
+	/**
+	 * Value of System.nanoTime at which the time limit is reached.
+	 */
+	private long deadline;
+	
+	/**
+	 * Instruction count at which the machine pauses, or zero to run on.
+	 */
+	private long pausePoint;
+	
+	/**
+	 * True if and only if the machine paused, so the next run continues
+	 * the clock of the paused one instead of starting it afresh.
+	 */
+	private boolean continuing;
+	
+	/**
+	 * Creates a new Watchdog.
+	 * @param _instructionLimit Total number of instructions the machine may
+	 * execute, or zero for no limit.
+	 * @param _timeLimit Number of milliseconds each run may take, or zero
+	 * for no limit.
+	 */
+	public Watchdog(long _instructionLimit, long _timeLimit) {
+		this.instructionLimit = _instructionLimit;
+		this.timeLimit = _timeLimit;
+	}
+	
+	/**
+	 * Starts the clock for a new run, unless the run continues one which paused.
+	 */
+	public void start() {
+		if (!this.continuing) {
+			this.deadline = System.nanoTime() + this.timeLimit * Watchdog.NANOS_PER_MILLI;
+		}
+		this.continuing = false;
+	}
+	
+	/**
+	 * Makes the machine pause once it has executed the given number of
+	 * instructions, unless it reaches a limit first.
+	 * @param count The instruction count to pause at, or zero to run on.
+	 */
+	public void pauseAt(long count) {
+		this.pausePoint = count;
+	}
+	
+	/**
+	 * Gets the instruction count at which check must next be called.
+	 * @param executed The number of instructions executed so far.
+	 * @return The instruction count of the next check.
+	 */
+	public long nextCheck(long executed) {
+		long next = executed + Watchdog.CHECK_INTERVAL;
+		if (this.instructionLimit > 0 && this.instructionLimit < next)
+			next = this.instructionLimit;
+		if (this.pausePoint > 0 && this.pausePoint < next)
+			next = this.pausePoint;
+		return next;
+	}
+	
+	/**
+	 * Stops the machine if it has reached a limit or its pause point. The
+	 * program counter, CCR and instruction count of the given state must be
+	 * up to date.
+	 * @param state The state of the machine being checked.
+	 * @throws ExecutionLimitException If a limit has been reached, or a
+	 * PauseException if the pause point has.
+	 */
+	public void check(MachineState state) throws ExecutionLimitException {
+		String limit = null;
+		if (this.instructionLimit > 0 && state.instructionsExecuted >= this.instructionLimit) {
+			limit = "instruction limit of " + this.instructionLimit;
+		} else if (this.timeLimit > 0 && System.nanoTime() - this.deadline >= 0) {
+			limit = "time limit of " + this.timeLimit + " ms";
+		}
+		if (limit != null) {
+			throw new ExecutionLimitException("Execution stopped: " + limit + " reached at 0x"
+				+ ByteOperations.getHex(state.programCounter, 4) + " after "
+				+ state.instructionsExecuted + " instructions.", state.clone());
+		}
+		if (this.pausePoint > 0 && state.instructionsExecuted >= this.pausePoint) {
+			this.pausePoint = 0;
+			this.continuing = true;
+			throw new PauseException(state.clone());
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package Simulator.state;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+/**
+ * The console of a virtual machine, used by the TRAP instruction. Output is
+ * collected in a single buffer which is written to the output stream when it
+ * fills, before any input is read, and when flush is called (which the
+ * machine does when it halts). Input is read through a single decoder which
+ * lives as long as the console, so characters it reads ahead are kept for
+ * the next input trap instead of being lost.
+ */
+public class Console {
+	/**
+	 * Number of characters buffered before the output is written.
+	 */
+	public static final int BUFFER_SIZE = 8192;
+	
+	/**
+	 * Initial capacity of the line read by readNumber.
+	 */
+	private static final int LINE_SIZE = 64;
+	
+	/**
+	 * Characters printed by println.
+	 */
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	
+	/**
+	 * IO stream the buffered output is written to.
+	 */
+	private PrintStream output;
+	
+	/**
+	 * IO stream input is read from.
+	 */
+	private InputStream input;
+	
+	/**
+	 * Decoder of the input stream, created the first time input is read.
+	 */
+	private InputStreamReader reader;
+	
+	/**
+	 * Buffered output characters.
+	 */
+	private char[] buffer = new char[Console.BUFFER_SIZE];
+	
+	/**
+	 * View of the output buffer which is handed to the output stream.
+	 */
+	private CharBuffer bufferView = CharBuffer.wrap(this.buffer);
+	
+	/**
+	 * Number of characters in the output buffer.
+	 */
+	private int count = 0;
+	
+	/**
+	 * Characters of the last line read by readNumber.
+	 */
+	private char[] line = new char[Console.LINE_SIZE];
+	
+	/**
+	 * View of the last line read by readNumber.
+	 */
+	private CharBuffer lineView = CharBuffer.wrap(this.line);
+	
+	/**
+	 * Source of the numbers returned by the rnd trap.
+	 */
+	private Random random = new Random();
+	
+	/**
+	 * Creates a console over the given IO streams.
+	 * @param _output The IO stream to print output to.
+	 * @param _input The IO stream to retrieve user input from.
+	 */
+	public Console(PrintStream _output, InputStream _input) {
+		this.output = _output;
+		this.input = _input;
+	}
+	
+	/**
+	 * Prints the given character.
+	 * @param c The character to print.
+	 */
+	public void print(char c) {
+		if (this.count == this.buffer.length) {
+			this.flush();
+		}
+		this.buffer[this.count++] = c;
+	}
+	
+	/**
+	 * Prints the given string.
+	 * @param s The string to print.
+	 */
+	public void print(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			this.print(s.charAt(i));
+		}
+	}
+	
+	/**
+	 * Prints the given number in decimal, without allocating a string.
+	 * @param number The number to print.
+	 */
+	public void print(short number) {
+		int value = number;
+		if (value < 0) {
+			this.print('-');
+			value = -value;
+		}
+		int divisor = 1;
+		while (value / divisor >= 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			this.print((char) ('0' + value / divisor % 10));
+		}
+	}
+	
+	/**
+	 * Ends the current line.
+	 */
+	public void println() {
+		this.print(Console.LINE_SEPARATOR);
+	}
+	
+	/**
+	 * Writes all buffered output to the output stream.
+	 */
+	public void flush() {
+		if (this.count > 0) {
+			this.output.append(this.bufferView, 0, this.count);
+			this.count = 0;
+		}
+		this.output.flush();
+	}
+	
+	/**
+	 * Reads the first character of the next line, flushing the output first so
+	 * any prompt is visible. The rest of the line is discarded, since input
+	 * typed at a terminal arrives a whole line at a time.
+	 * @return The character read, or -1 at the end of the input.
+	 */
+	public int read() throws IOException {
+		this.flush();
+		InputStreamReader reader = this.getReader();
+		int c = reader.read();
+		int next = c;
+		while (next != -1 && next != '\n') {
+			next = reader.read();
+		}
+		return c;
+	}
+	
+	/**
+	 * Reads a line and parses it as a decimal number, flushing the output first
+	 * so any prompt is visible.
+	 * @return The number on the line.
+	 * @throws NumberFormatException If the line does not hold a number, or no
+	 * line could be read.
+	 */
+	public int readNumber() throws IOException {
+		int length = this.readIntoLine();
+		if (length < 0) {
+			throw new NumberFormatException("No line to read.");
+		}
+		return Integer.parseInt(this.lineView, 0, length, 10);
+	}
+	
+	/**
+	 * Reads a line, flushing the output first so any prompt is visible.
+	 * @return The line without its line separator, or null at the end of the input.
+	 */
+	public String readLine() throws IOException {
+		int length = this.readIntoLine();
+		return length < 0 ? null : new String(this.line, 0, length);
+	}
+	
+	/**
+	 * Reads a line into the line buffer, flushing the output first.
+	 * @return The length of the line without its line separator, or -1 at the end of the input.
+	 */
+	private int readIntoLine() throws IOException {
+		this.flush();
+		InputStreamReader reader = this.getReader();
+		int length = 0;
+		int c = reader.read();
+		if (c == -1) {
+			return -1;
+		}
+		while (c != -1 && c != '\n') {
+			if (length == this.line.length) {
+				char[] larger = new char[this.line.length * 2];
+				System.arraycopy(this.line, 0, larger, 0, length);
+				this.line = larger;
+				this.lineView = CharBuffer.wrap(this.line);
+			}
+			this.line[length++] = (char) c;
+			c = reader.read();
+		}
+		if (length > 0 && this.line[length - 1] == '\r') {
+			length--;
+		}
+		return length;
+	}
+	
+	/**
+	 * Gets a random 16-bit number.
+	 * @return A random number from -32768 to 32767.
+	 */
+	public short nextRandom() {
+		return (short) this.random.nextInt();
+	}
+	
+	/**
+	 * Gets the decoder of the input stream, creating it if needed.
+	 */
+	private InputStreamReader getReader() {
+		if (this.reader == null) {
+			this.reader = new InputStreamReader(this.input);
+		}
+		return this.reader;
+	}
+}
@@ -0,0 +1,152 @@
+package Simulator.state;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A journal of the nondeterministic inputs of a guest program: the
+ * characters and numbers read by TRAP x23 and x33, and the numbers drawn by
+ * TRAP x43. A journal either records the inputs of a run as it happens or
+ * replays a recorded run, supplying the same inputs without reading the
+ * console. Each input takes three bytes: the TRAP vector and the value
+ * placed in R0.
+ */
+public class Journal {
+	/**
+	 * Identifies a journal: "W8JR".
+	 */
+	private static final int MAGIC = 0x57384A52;
+	
+	/**
+	 * Event recorded when TRAP x33 read a line which was not a number.
+	 */
+	private static final int NOT_A_NUMBER_EVENT = 0xB3;
+	
+	/**
+	 * Value replayed for TRAP x33 when the recorded line was not a number.
+	 */
+	public static final int NOT_A_NUMBER = Integer.MIN_VALUE;
+	
+	/**
+	 * Stream events are recorded to; null when replaying.
+	 */
+	private DataOutputStream output;
+	
+	/**
+	 * Stream events are replayed from; null when recording.
+	 */
+	private DataInputStream input;
+	
+	/**
+	 * Creates a new Journal; use record or replay.
+	 */
+	private Journal() {
+	}
+	
+	/**
+	 * Creates a new Journal recording to the given stream.
+	 * @param _output The stream to record to.
+	 * @return The new Journal.
+	 * @throws IOException If the header cannot be written.
+	 */
+	public static Journal record(OutputStream _output) throws IOException {
+		Journal journal = new Journal();
+		journal.output = new DataOutputStream(new BufferedOutputStream(_output));
+		journal.output.writeInt(Journal.MAGIC);
+		return journal;
+	}
+	
+	/**
+	 * Creates a new Journal replaying the given stream.
+	 * @param _input The stream to replay, written by a recording Journal.
+	 * @return The new Journal.
+	 * @throws IOException If the stream does not hold a journal.
+	 */
+	public static Journal replay(InputStream _input) throws IOException {
+		Journal journal = new Journal();
+		journal.input = new DataInputStream(new BufferedInputStream(_input));
+		try {
+			if (journal.input.readInt() == Journal.MAGIC) {
+				return journal;
+			}
+		} catch (EOFException e) {
+			// Reported below
+		}
+		throw new IOException("The file is not a journal.");
+	}
+	
+	/**
+	 * Determines whether this journal replays a recorded run.
+	 * @return True if and only if this journal replays inputs instead of recording them.
+	 */
+	public boolean isReplaying() {
+		return this.input != null;
+	}
+	
+	/**
+	 * Records the value a TRAP placed in R0.
+	 * @param vector The TRAP vector.
+	 * @param value The value placed in R0, or NOT_A_NUMBER.
+	 * @throws IOException If the event cannot be written.
+	 */
+	public void record(int vector, int value) throws IOException {
+		if (value == Journal.NOT_A_NUMBER) {
+			this.output.writeByte(Journal.NOT_A_NUMBER_EVENT);
+			this.output.writeShort(0);
+		} else {
+			this.output.writeByte(vector);
+			this.output.writeShort(value);
+		}
+	}
+	
+	/**
+	 * Replays the value the next TRAP placed in R0.
+	 * @param vector The TRAP vector being executed.
+	 * @return The value to place in R0, or NOT_A_NUMBER.
+	 * @throws IOException If the journal has ended or recorded another TRAP.
+	 */
+	public int replay(int vector) throws IOException {
+		int event;
+		short value;
+		try {
+			event = this.input.readUnsignedByte();
+			value = this.input.readShort();
+		} catch (EOFException e) {
+			throw new IOException("The journal has no more input.");
+		}
+		if (event == Journal.NOT_A_NUMBER_EVENT && vector == 0x33)
+			return Journal.NOT_A_NUMBER;
+		if (event != vector)
+			throw new IOException("The journal recorded TRAP x" + Integer.toHexString(event)
+				+ " where the program executed TRAP x" + Integer.toHexString(vector) + ".");
+		return value;
+	}
+	
+	/**
+	 * Writes any buffered events and closes the stream.
+	 * @throws IOException If the events cannot be written.
+	 */
+	public void close() throws IOException {
+		if (this.output != null) {
+			this.output.close();
+		}
+		else {
+			this.input.close();
+		}
+	}
+	
+	/**
+	 * Writes any buffered events to the stream.
+	 * @throws IOException If the events cannot be written.
+	 */
+	public void flush() throws IOException {
+		if (this.output != null) {
+			this.output.flush();
+		}
+	}
+}
@@ -44,6 +44,23 @@ public class MachineState {
 	 */
 	public int programCounter;
 	
+	/**
+	 * Number of instructions executed since the machine was created.
+	 */
+	public long instructionsExecuted;
+	
+	/**
+	 * The console used by the TRAP instruction. Null if the machine has no
+	 * console, in which case each TRAP uses a console of its own.
+	 */
+	public Console console;
+	
+	/**
+	 * Records or replays the inputs of input and random TRAPs. Null to read
+	 * the console and draw random numbers without recording them.
+	 */
+	public Journal journal;
+	
 	/**
 	 * Gets a copy of this MachineState.
 	 * @return A copy of this MachineState.
@@ -55,12 +72,28 @@ public class MachineState {
 		x.ccrZero = this.ccrZero;
 		x.programCounter = this.programCounter;
 		x.executing = this.executing;
+		x.instructionsExecuted = this.instructionsExecuted;
 		for(int i = 0; i < MachineState.NUM_REGISTERS; i++) {
 			x.registers[i] = this.registers[i];
 		}
 		return x;
 	}
 	
+	/**
+	 * Sets the registers, condition codes, program counter and counters of
+	 * this MachineState to those of the given one. The console is kept.
+	 * @param other The MachineState to copy.
+	 */
+	public void copyFrom(MachineState other) {
+		this.ccrNegative = other.ccrNegative;
+		this.ccrPositive = other.ccrPositive;
+		this.ccrZero = other.ccrZero;
+		this.programCounter = other.programCounter;
+		this.executing = other.executing;
+		this.instructionsExecuted = other.instructionsExecuted;
+		System.arraycopy(other.registers, 0, this.registers, 0, MachineState.NUM_REGISTERS);
+	}
+	
 	/**
 	 * Updates the CCR register in accordance with the given signed 16-bit value.
 	 * If the value is zero, only the zero bit will be on.
@@ -0,0 +1,113 @@
+package Simulator.testing;
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import Simulator.program.BatchResult;
+import Simulator.program.BatchRunner;
+import Simulator.program.ExecutionEngine;
+import Simulator.program.ExecutionMode;
+
+/**
+ * Tests running several programs as a batch.
+ */
+public class BatchRunnerTest extends TestBase {
+	/**
+	 * Writes the given object file data to a new temporary file.
+	 */
+	private String writeProgram(String data) throws IOException {
+		File file = File.createTempFile("batch", ".obj");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(data);
+		writer.close();
+		return file.getPath();
+	}
+	
+	/**
+	 * Tests that each program's output, status and instruction count are
+	 * reported separately, and that a failing program does not stop the batch.
+	 */
+	@Test
+	public void batchTest() throws IOException, Exception {
+		List<String> programs = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			// OUTN, then HALT
+			programs.add(this.writeProgram("HBATCH 30000002\nT3000F031\nT3001F025\nE3000\n"));
+		}
+		programs.add(this.writeProgram("not an object file\n"));
+		
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		BatchRunner runner = new BatchRunner(new PrintStream(stream), ExecutionMode.QUIET, ExecutionEngine.FAST);
+		BatchResult result = runner.runProgram(programs.get(0));
+		assertTrue("The program should halt", result.halted);
+		assertEquals("The program should execute 2 instructions", 2, result.instructions);
+		assertEquals("The program should print R0", "0", result.output);
+		
+		int failures = runner.run(programs);
+		assertEquals("Only the invalid program should fail", 1, failures);
+		String summary = stream.toString();
+		assertTrue("The summary should total all programs", summary.contains("Batch: 6 programs, 1 failed, 10 instructions"));
+		assertTrue("The programs should be reported in order", summary.indexOf(programs.get(4)) < summary.indexOf(programs.get(5)));
+	}
+	
+	/**
+	 * Tests that an Error thrown while running one program fails only that
+	 * program, and the rest of the batch still runs.
+	 */
+	@Test
+	public void errorTest() throws Exception {
+		final List<String> programs = new ArrayList<String>();
+		for (int i = 0; i < 3; i++) {
+			// OUTN, then HALT
+			programs.add(this.writeProgram("HBATCH 30000002\nT3000F031\nT3001F025\nE3000\n"));
+		}
+		
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		BatchRunner runner = new BatchRunner(new PrintStream(stream), ExecutionMode.QUIET, ExecutionEngine.REFERENCE) {
+			public BatchResult runProgram(String program) {
+				if (program.equals(programs.get(1)))
+					throw new StackOverflowError();
+				return super.runProgram(program);
+			}
+		};
+		int failures = runner.run(programs);
+		assertEquals("Only the program which threw should fail", 1, failures);
+		String summary = stream.toString();
+		assertTrue("The error should be reported with its program", summary.contains(programs.get(1) + ": failed"));
+		assertTrue("The error should be named", summary.contains("java.lang.StackOverflowError"));
+		assertTrue("The other programs should still run", summary.contains("Batch: 3 programs, 1 failed, 4 instructions"));
+	}
+	
+	/**
+	 * Tests that a program which never halts is stopped by the time limit and
+	 * reported in its place, while the programs after it still run.
+	 */
+	@Test
+	public void stoppedTest() throws Exception {
+		List<String> programs = new ArrayList<String>();
+		// BRNZP to itself
+		programs.add(this.writeProgram("HLOOP  30000001\nT30000E00\nE3000\n"));
+		for (int i = 0; i < 10; i++) {
+			// OUTN, then HALT
+			programs.add(this.writeProgram("HBATCH 30000002\nT3000F031\nT3001F025\nE3000\n"));
+		}
+		
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		BatchRunner runner = new BatchRunner(new PrintStream(stream), ExecutionMode.QUIET, ExecutionEngine.FAST);
+		runner.setLimits(0, 200);
+		int failures = runner.run(programs);
+		assertEquals("Only the looping program should fail", 1, failures);
+		String summary = stream.toString();
+		assertTrue("The looping program should be reported as stopped", summary.contains(programs.get(0) + ": stopped"));
+		assertTrue("The time limit should be named", summary.contains("time limit of 200 ms"));
+		for (int i = 1; i < programs.size(); i++) {
+			assertTrue("The programs should be reported in order", summary.indexOf(programs.get(i - 1)) < summary.indexOf(programs.get(i)));
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package Simulator.testing;
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import Common.MemoryBank;
+import Simulator.program.DebugConsole;
+import Simulator.program.ExecutionEngine;
+import Simulator.program.Machine;
+
+/**
+ * Tests the commands of the interactive debugger.
+ */
+public class DebugConsoleTest extends TestBase {
+	/**
+	 * Output printed by the last debugging session.
+	 */
+	private String output;
+	
+	/**
+	 * Debugs a program calling a subroutine, typing the given commands.
+	 * @return The machine after the session.
+	 */
+	private Machine debug(String commands) throws Exception {
+		MemoryBank memory = new MemoryBank();
+		memory.write(0x3000, (short) 0x4806); // JSR x3006
+		memory.write(0x3001, (short) 0x1261); // ADD R1, R1, #1
+		memory.write(0x3002, (short) 0xF025); // TRAP x25
+		memory.write(0x3006, (short) 0x1422); // ADD R2, R0, #2
+		memory.write(0x3007, (short) 0xD000); // RET
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream stream = new PrintStream(bytes, true);
+		ByteArrayInputStream input = new ByteArrayInputStream(commands.getBytes(StandardCharsets.US_ASCII));
+		Machine machine = new Machine(stream, input, memory, ExecutionEngine.REFERENCE);
+		DebugConsole debugger = new DebugConsole(machine, memory, stream);
+		debugger.defineSymbol("SUB", 0x3006);
+		debugger.debug(0x3000);
+		this.output = bytes.toString();
+		return machine;
+	}
+	
+	/**
+	 * Tests stepping over a call, stepping back into it and finishing it.
+	 */
+	@Test(timeout = 10000)
+	public void nextFinishTest() throws Exception {
+		Machine machine = this.debug("next\nback 2\nfinish\nstep\nc\n");
+		assertTrue("next should stop after the call", this.output.contains("(debug) 0x3001: 1261"));
+		assertTrue("back should return into the subroutine", this.output.contains("(debug) 0x3006 <SUB>: 1422"));
+		assertTrue("finish should run to the return address", this.output.contains("Run till exit to 0x3001."));
+		assertTrue("The program should halt", this.output.contains("Program halted after 5 instructions."));
+		assertEquals("R1 should be incremented once", 1, machine.getState().registers[1]);
+		assertEquals("R2 should be set by the subroutine", 2, machine.getState().registers[2]);
+	}
+	
+	/**
+	 * Tests running to a label, breakpoints, examining memory and quitting.
+	 */
+	@Test(timeout = 10000)
+	public void untilBreakTest() throws Exception {
+		Machine machine = this.debug("run until SUB\nx/2 SUB\nbreak 3002\nc\nbogus\nquit\n");
+		assertTrue("run until should stop at the label", this.output.contains("(debug) 0x3006 <SUB>: 1422"));
+		assertTrue("x should display memory", this.output.contains("0x3006: 1422 d000"));
+		assertTrue("The breakpoint should be hit", this.output.contains("Breakpoint at 0x3002."));
+		assertTrue("Unknown commands should be reported", this.output.contains("Unknown command \"bogus\""));
+		assertFalse("quit should stop the program", machine.getState().executing);
+		assertEquals("The halt should not execute", 0x3002, machine.getState().programCounter);
+	}
+}
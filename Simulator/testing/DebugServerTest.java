@@ -0,0 +1,152 @@
+package Simulator.testing;
+import static org.junit.Assert.*;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import Common.MemoryBank;
+import Simulator.program.DebugServer;
+import Simulator.program.ExecutionMode;
+import Simulator.program.Machine;
+
+/**
+ * Tests debugging a machine over the remote debugger protocol.
+ */
+public class DebugServerTest extends TestBase {
+	/**
+	 * Stream packets are sent on.
+	 */
+	private OutputStream output;
+	
+	/**
+	 * Stream replies are read from.
+	 */
+	private InputStream input;
+	
+	/**
+	 * Sends a packet and returns the reply, checking both are acknowledged.
+	 */
+	private String request(String packet) throws Exception {
+		int sum = 0;
+		for (char c : packet.toCharArray()) {
+			sum += c;
+		}
+		this.output.write(String.format("$%s#%02x", packet, sum & 0xFF).getBytes(StandardCharsets.US_ASCII));
+		this.output.flush();
+		assertEquals("The packet should be acknowledged", '+', this.input.read());
+		return this.reply();
+	}
+	
+	/**
+	 * Reads a reply and acknowledges it.
+	 */
+	private String reply() throws Exception {
+		assertEquals("A reply should start a packet", '$', this.input.read());
+		StringBuilder reply = new StringBuilder();
+		int c;
+		while ((c = this.input.read()) != '#') {
+			reply.append((char) c);
+		}
+		this.input.read();
+		this.input.read();
+		return reply.toString();
+	}
+	
+	/**
+	 * Tests reading and writing registers and memory, breakpoints, stepping,
+	 * continuing and the halt notification.
+	 */
+	@Test(timeout = 20000)
+	public void debugTest() throws Exception {
+		MemoryBank memory = new MemoryBank();
+		memory.write(0x3000, (short) 0x2208); // LD R1, x3008
+		memory.write(0x3001, (short) 0x54A0); // AND R2, R2, #0
+		memory.write(0x3002, (short) 0x1481); // ADD R2, R2, R1
+		memory.write(0x3003, (short) 0x7240); // STR R1, R1, #0
+		memory.write(0x3004, (short) 0x127F); // ADD R1, R1, #-1
+		memory.write(0x3005, (short) 0x0202); // BRP x3002
+		memory.write(0x3006, (short) 0xF025); // TRAP x25
+		memory.write(0x3008, (short) 0x0003);
+		final Machine machine = new Machine(TestBase.nullOutStream, memory);
+		final DebugServer server = new DebugServer(machine, 0);
+		final Exception[] failure = new Exception[1];
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					server.debug(0x3000, ExecutionMode.QUIET);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+		thread.start();
+		
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			this.output = socket.getOutputStream();
+			this.input = socket.getInputStream();
+			assertEquals("The machine should pause before the first instruction", "S05", this.request("?"));
+			assertEquals("Memory should be read as words", "220854a01481", this.request("m3000,3"));
+			assertEquals("A breakpoint should be set", "OK", this.request("Z0,3004,1"));
+			this.request("c");
+			assertEquals("Continuing should stop at the breakpoint", "T05swbreak:;", this.request("?"));
+			assertEquals("Registers should hold R0 to R7, the PC and the CCR",
+				"00000003000300000000000000000000" + "3004" + "0001", this.request("g"));
+			assertEquals("A register should be written", "OK", this.request("P1=0001"));
+			assertEquals("A breakpoint should be cleared", "OK", this.request("z0,3004,1"));
+			assertEquals("Stepping should stop after one instruction", "S05", this.request("s"));
+			assertEquals("The PC should advance", "3005", this.request("p8"));
+			assertEquals("Memory should be written", "OK", this.request("M0002,1:1234"));
+			assertEquals("Continuing should report the halt", "W00", this.request("c"));
+		}
+		thread.join();
+		assertEquals("The machine should halt without failing", null, failure[0]);
+		assertEquals("Writing R1 should end the loop early", 3, machine.getState().registers[2]);
+		assertEquals("Memory written by the debugger should stay", 0x1234, memory.read(0x0002));
+	}
+	
+	/**
+	 * Tests that malformed and oversized packets are refused, and that a
+	 * debugger disconnecting in the middle of a checksum kills the program.
+	 */
+	@Test(timeout = 20000)
+	public void malformedPacketTest() throws Exception {
+		MemoryBank memory = new MemoryBank();
+		memory.write(0x3000, (short) 0x0FFF); // BRNZP x3000
+		final Machine machine = new Machine(TestBase.nullOutStream, memory);
+		final DebugServer server = new DebugServer(machine, 0);
+		final Exception[] failure = new Exception[1];
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					server.debug(0x3000, ExecutionMode.QUIET);
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}
+		};
+		thread.start();
+		
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			this.output = socket.getOutputStream();
+			this.input = socket.getInputStream();
+			this.output.write("$g#zz".getBytes(StandardCharsets.US_ASCII));
+			this.output.flush();
+			assertEquals("A malformed checksum should be refused", '-', this.input.read());
+			StringBuilder oversized = new StringBuilder("$");
+			for (int i = 0; i <= DebugServer.PACKET_SIZE; i++) {
+				oversized.append('m');
+			}
+			this.output.write(oversized.append("#00").toString().getBytes(StandardCharsets.US_ASCII));
+			this.output.flush();
+			assertEquals("An oversized packet should be refused", '-', this.input.read());
+			assertEquals("Packets after a refused one should be served", "S05", this.request("?"));
+			this.output.write("$?#3".getBytes(StandardCharsets.US_ASCII));
+			this.output.flush();
+		}
+		thread.join();
+		assertEquals("The machine should be killed without failing", null, failure[0]);
+		assertFalse("The machine should stop", machine.getState().executing);
+	}
+}
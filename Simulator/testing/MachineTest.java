@@ -2,12 +2,28 @@ package Simulator.testing;
 import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
 import Common.MemoryBank;
 import Simulator.state.MachineState;
 import Simulator.program.Machine;
 import Simulator.program.ExecutionMode;
+import Simulator.program.ExecutionEngine;
+import Simulator.program.ExecutionLimitException;
+import Simulator.program.Watchdog;
+import Simulator.program.Profile;
+import Simulator.program.Coverage;
+import Simulator.program.BreakpointKind;
+import Simulator.program.BreakpointListener;
+import Simulator.program.Snapshot;
+import Simulator.program.UndoLog;
+import Simulator.program.TraceDecoder;
+import Simulator.program.TraceWriter;
 
 public class MachineTest extends TestBase {
 	/**
@@ -19,10 +35,75 @@ public class MachineTest extends TestBase {
 	 */
 	private Machine machine;
 	
+	/**
+	 * Final state of each engine, in the order of ExecutionEngine.values(), after runOnAll.
+	 */
+	private MachineState[] states;
+	
 	@Before
 	public void setUp() {
 		bank = new MemoryBank();
 	}
+	
+	/**
+	 * Makes a memory bank holding a program at x3000.
+	 * @param program The instructions and data of the program.
+	 * @return The memory bank.
+	 */
+	private static MemoryBank load(short[] program) {
+		MemoryBank memory = new MemoryBank();
+		for (int i = 0; i < program.length; i++) {
+			memory.write(0x3000 + i, program[i]);
+		}
+		return memory;
+	}
+	
+	/**
+	 * Runs the program in the given memory from x3000 until it halts. An
+	 * exception thrown by the engine fails the test.
+	 * @param engine The engine to run the program with.
+	 * @param mode The mode to run the program in.
+	 * @param memory The memory holding the program.
+	 * @return The machine which ran the program.
+	 */
+	private Machine runOn(ExecutionEngine engine, ExecutionMode mode, MemoryBank memory) throws Exception {
+		machine = new Machine(TestBase.nullOutStream, memory, engine);
+		machine.run(0x3000, mode);
+		return machine;
+	}
+	
+	/**
+	 * Runs a program quietly with every engine, keeping each final state in states.
+	 * @param program The instructions and data of the program.
+	 * @return The memory each engine ran the program in.
+	 */
+	private MemoryBank[] runOnAll(short[] program) throws Exception {
+		ExecutionEngine[] engines = ExecutionEngine.values();
+		MemoryBank[] banks = new MemoryBank[engines.length];
+		this.states = new MachineState[engines.length];
+		for (int i = 0; i < engines.length; i++) {
+			banks[i] = MachineTest.load(program);
+			this.states[i] = this.runOn(engines[i], ExecutionMode.QUIET, banks[i]).getState();
+		}
+		return banks;
+	}
+	
+	/**
+	 * Asserts that every engine left the registers, program counter, CCR and
+	 * memory as the reference engine did, after runOnAll.
+	 * @param banks The memory each engine ran the program in.
+	 */
+	private void assertSameState(MemoryBank[] banks) {
+		ExecutionEngine[] engines = ExecutionEngine.values();
+		for (int e = 1; e < engines.length; e++) {
+			for (int i = 0; i < MachineState.NUM_REGISTERS; i++) {
+				assertEquals(engines[e] + " register " + i + " should match", this.states[0].registers[i], this.states[e].registers[i]);
+			}
+			assertEquals(engines[e] + " program counter should match", this.states[0].programCounter, this.states[e].programCounter);
+			assertEquals(engines[e] + " zero CCR should match", this.states[0].ccrZero, this.states[e].ccrZero);
+			assertEquals(engines[e] + " records should match", banks[0].getRecords(), banks[e].getRecords());
+		}
+	}
 	 /**
 	  * Tests the Machine with a program.
 	  */
@@ -62,4 +143,535 @@ public class MachineTest extends TestBase {
 		assertEquals("Memory location 0x300A should hold -1", -1, state.registers[1]);
 	}
 	
+	/**
+	 * Tests that the fast engine leaves the machine in the same state as the reference engine.
+	 */
+	@Test
+	public void fastEngineTest() throws Exception {
+		// Count R1 down from 200, storing each value at address R1 and summing into R2
+		short[] program = new short[] {
+			(short) 0x2208, // LD R1, x3008
+			(short) 0x54A0, // AND R2, R2, #0
+			(short) 0x1481, // ADD R2, R2, R1
+			(short) 0x7240, // STR R1, R1, #0
+			(short) 0x127F, // ADD R1, R1, #-1
+			(short) 0x0202, // BRP x3002
+			(short) 0x3609, // ST R3, x3009
+			(short) 0xF025, // TRAP x25
+			(short) 0x00C8,
+		};
+		MemoryBank[] banks = this.runOnAll(program);
+		assertEquals("R2 should hold 200 + 199 + ... + 1", 20100, this.states[0].registers[2]);
+		this.assertSameState(banks);
+	}
+	
+	/**
+	 * Tests that superinstructions match the instructions they replace, including
+	 * when a branch lands in the middle of a fused sequence.
+	 */
+	@Test
+	public void superinstructionTest() throws Exception {
+		short[] program = new short[] {
+			(short) 0x5260, // AND R1, R1, #0
+			(short) 0x1265, // ADD R1, R1, #5
+			(short) 0x2410, // LD R2, x3010
+			(short) 0x14A1, // ADD R2, R2, #1
+			(short) 0x3410, // ST R2, x3010
+			(short) 0x127F, // ADD R1, R1, #-1
+			(short) 0x0202, // BRP x3002
+			(short) 0x16E1, // ADD R3, R3, #1
+			(short) 0x10FE, // ADD R0, R3, #-2
+			(short) 0x0801, // BRN x3001
+			(short) 0xF025, // TRAP x25
+			0, 0, 0, 0, 0,
+			(short) 0x0007,
+		};
+		MemoryBank[] banks = this.runOnAll(program);
+		assertEquals("x3010 should be incremented 10 times", 17, banks[0].read(0x3010));
+		this.assertSameState(banks);
+	}
+	
+	/**
+	 * Tests that an infinite loop is stopped by the instruction and time limits
+	 * with every engine, reporting the state at that point.
+	 */
+	@Test
+	public void limitTest() {
+		for (ExecutionEngine engine : ExecutionEngine.values()) {
+			MemoryBank memory = new MemoryBank();
+			memory.write(0x3000, (short) 0x1261); // ADD R1, R1, #1
+			memory.write(0x3001, (short) 0x0E00); // BRNZP x3000
+			
+			machine = new Machine(TestBase.nullOutStream, memory, engine);
+			machine.setLimits(1000, 0);
+			try {
+				machine.run(0x3000, ExecutionMode.QUIET);
+				fail(engine + " should stop at the instruction limit");
+			} catch (ExecutionLimitException e) {
+				assertTrue(engine + " should report the instruction limit", e.getMessage().contains("instruction limit"));
+				assertEquals(engine + " should stop after 1000 instructions", 1000, e.getState().instructionsExecuted);
+				assertEquals(engine + " register 1 should count the loops", 500, e.getState().registers[1]);
+			} catch (Exception e) {
+				fail(e.getMessage());
+			}
+			
+			machine = new Machine(TestBase.nullOutStream, memory, engine);
+			machine.setLimits(0, 50);
+			try {
+				machine.run(0x3000, ExecutionMode.QUIET);
+				fail(engine + " should stop at the time limit");
+			} catch (ExecutionLimitException e) {
+				assertTrue(engine + " should report the time limit", e.getMessage().contains("time limit"));
+				assertTrue(engine + " should be executing", e.getState().executing);
+			} catch (Exception e) {
+				fail(e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Tests that running quietly up to a count stops there with every engine,
+	 * that the run continuing from it keeps the clock of the time limit, and
+	 * that an instruction limit before the count is still reported.
+	 */
+	@Test
+	public void runQuietlyTest() throws Exception {
+		for (ExecutionEngine engine : ExecutionEngine.values()) {
+			MemoryBank memory = new MemoryBank();
+			memory.write(0x3000, (short) 0x1261); // ADD R1, R1, #1
+			memory.write(0x3001, (short) 0x0E00); // BRNZP x3000
+			
+			machine = new Machine(TestBase.nullOutStream, memory, engine);
+			machine.setLimits(0, 200);
+			machine.runQuietly(0x3000, 1000);
+			assertEquals(engine + " should stop after 1000 instructions", 1000, machine.getState().instructionsExecuted);
+			assertTrue(engine + " should be executing", machine.getState().executing);
+			Thread.sleep(250);
+			try {
+				machine.run(machine.getState().programCounter, ExecutionMode.QUIET);
+				fail(engine + " should stop at the time limit");
+			} catch (ExecutionLimitException e) {
+				assertTrue(engine + " should report the time limit", e.getMessage().contains("time limit"));
+				assertTrue(engine + " should stop at the first check of the clock",
+					e.getState().instructionsExecuted <= 1000 + 2 * Watchdog.CHECK_INTERVAL);
+			}
+			
+			machine = new Machine(TestBase.nullOutStream, memory, engine);
+			machine.setLimits(500, 0);
+			try {
+				machine.runQuietly(0x3000, 1000);
+				fail(engine + " should stop at the instruction limit");
+			} catch (ExecutionLimitException e) {
+				assertTrue(engine + " should report the instruction limit", e.getMessage().contains("instruction limit"));
+				assertEquals(engine + " should stop after 500 instructions", 500, e.getState().instructionsExecuted);
+			}
+		}
+	}
+	
+	/**
+	 * Tests that overwriting a loop after it has become hot takes effect with every engine.
+	 */
+	@Test
+	public void hotCodeModificationTest() throws Exception {
+		short[] program = new short[] {
+			(short) 0x2A0E, // LD R5, x300E
+			(short) 0x2C0F, // LD R6, x300F
+			(short) 0x1261, // ADD R1, R1, #1
+			(short) 0x16E1, // ADD R3, R3, #1
+			(short) 0x18C5, // ADD R4, R3, R5
+			(short) 0x0802, // BRN x3002
+			(short) 0x1FE1, // ADD R7, R7, #1
+			(short) 0x11FE, // ADD R0, R7, #-2
+			(short) 0x040D, // BRZ x300D
+			(short) 0x3C02, // ST R6, x3002
+			(short) 0x56E0, // AND R3, R3, #0
+			(short) 0x0E02, // BRNZP x3002
+			(short) 0x0000,
+			(short) 0xF025, // TRAP x25
+			(short) 0xFF9C, // -100
+			(short) 0x1262, // ADD R1, R1, #2
+		};
+		for (ExecutionEngine engine : ExecutionEngine.values()) {
+			this.runOn(engine, ExecutionMode.QUIET, MachineTest.load(program));
+			// 100 passes adding 1, then 100 passes of the stored ADD R1, R1, #2
+			assertEquals(engine + " register 1 should hold 300", 300, machine.getState().registers[1]);
+		}
+	}
+	
+	/**
+	 * Tests that a write made between two runs of the same machine discards
+	 * blocks compiled by the first run.
+	 */
+	@Test
+	public void jitAcrossRunsTest() throws Exception {
+		MemoryBank memory = MachineTest.load(new short[] {
+			(short) 0x1261, // ADD R1, R1, #1
+			(short) 0x0E00, // BRNZP x3000
+		});
+		machine = new Machine(TestBase.nullOutStream, memory, ExecutionEngine.JIT);
+		machine.setLimits(1000, 0);
+		try {
+			machine.run(0x3000, ExecutionMode.QUIET);
+			fail("The loop should stop at the instruction limit");
+		} catch (ExecutionLimitException e) {
+			assertEquals("The first run should loop 500 times", 500, e.getState().registers[1]);
+		}
+		memory.write(0x3000, (short) 0x1262); // ADD R1, R1, #2
+		machine.setLimits(2000, 0);
+		try {
+			machine.run(machine.getState().programCounter, ExecutionMode.QUIET);
+			fail("The loop should stop at the instruction limit");
+		} catch (ExecutionLimitException e) {
+			assertEquals("The second run should add 2 on each of 500 loops", 1500, e.getState().registers[1]);
+		}
+	}
+	
+	/**
+	 * Tests that overwriting an instruction which has already executed takes effect.
+	 */
+	@Test
+	public void selfModifyingTest() throws Exception {
+		short[] program = new short[] {
+			(short) 0x1261, // ADD R1, R1, #1
+			(short) 0x2407, // LD R2, x3007
+			(short) 0x3400, // ST R2, x3000
+			(short) 0x16E1, // ADD R3, R3, #1
+			(short) 0x18FE, // ADD R4, R3, #-2
+			(short) 0x0800, // BRN x3000
+			(short) 0xF025, // TRAP x25
+			(short) 0x1262, // ADD R1, R1, #2
+		};
+		this.runOn(ExecutionEngine.REFERENCE, ExecutionMode.QUIET, MachineTest.load(program));
+		
+		// The first pass adds 1; the second pass executes the stored ADD R1, R1, #2
+		assertEquals("Register 1 should hold 3", 3, machine.getState().registers[1]);
+	}
+	
+	/**
+	 * Tests that profile mode counts each address, op code and TRAP vector.
+	 */
+	@Test
+	public void profileTest() throws Exception {
+		short[] program = new short[] {
+			(short) 0x2208, // LD R1, x3008
+			(short) 0x54A0, // AND R2, R2, #0
+			(short) 0x1481, // ADD R2, R2, R1
+			(short) 0x7240, // STR R1, R1, #0
+			(short) 0x127F, // ADD R1, R1, #-1
+			(short) 0x0202, // BRP x3002
+			(short) 0x3609, // ST R3, x3009
+			(short) 0xF025, // TRAP x25
+			(short) 0x00C8,
+		};
+		this.runOn(ExecutionEngine.REFERENCE, ExecutionMode.PROFILE, MachineTest.load(program));
+		Profile profile = machine.getProfile();
+		assertEquals("R2 should hold 200 + 199 + ... + 1", 20100, machine.getState().registers[2]);
+		assertEquals("LD should run once", 1, profile.getAddressCount(0x3000));
+		assertEquals("The loop body should run 200 times", 200, profile.getAddressCount(0x3002));
+		assertEquals("BRP should run 200 times", 200, profile.getAddressCount(0x3005));
+		assertEquals("Data should never run", 0, profile.getAddressCount(0x3008));
+		assertEquals("ADD should run 400 times", 400, profile.getOpCodeCount(0x1));
+		assertEquals("HALT should run once", 1, profile.getTrapCount(0x25));
+		assertEquals("Total should match the instructions executed", machine.getState().instructionsExecuted, profile.getTotal());
+	}
+	
+	/**
+	 * Tests that profile mode counts instructions in the upper half of memory,
+	 * where the PC holds a sign-extended address after a jump.
+	 */
+	@Test
+	public void profileUpperMemoryTest() throws Exception {
+		MemoryBank memory = MachineTest.load(new short[] {
+			(short) 0x2203, // LD R1, x3003
+			(short) 0xC040, // JSRR R1, #0
+			(short) 0xF025, // TRAP x25
+			(short) 0x8000,
+		});
+		memory.write(0x8000, (short) 0xF025); // TRAP x25
+		this.runOn(ExecutionEngine.REFERENCE, ExecutionMode.PROFILE, memory);
+		Profile profile = machine.getProfile();
+		assertEquals("The HALT at x8000 should run once", 1, profile.getAddressCount(0x8000));
+		assertEquals("The HALT at x3002 should never run", 0, profile.getAddressCount(0x3002));
+		assertEquals("Total should match the instructions executed", machine.getState().instructionsExecuted, profile.getTotal());
+	}
+	
+	/**
+	 * Tests that a decoded binary trace matches the text trace.
+	 */
+	@Test
+	public void binaryTraceTest() throws Exception {
+		short[] program = new short[] {
+			(short) 0x2208, // LD R1, x3008
+			(short) 0x54A0, // AND R2, R2, #0
+			(short) 0x1481, // ADD R2, R2, R1
+			(short) 0x7240, // STR R1, R1, #0
+			(short) 0x127F, // ADD R1, R1, #-1
+			(short) 0x0202, // BRP x3002
+			(short) 0x3609, // ST R3, x3009
+			(short) 0xF025, // TRAP x25
+			(short) 0x0003,
+		};
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		for (int run = 0; run < 2; run++) {
+			machine = new Machine(new PrintStream(text), MachineTest.load(program));
+			if (run == 1) {
+				machine.setTraceWriter(new TraceWriter(Channels.newChannel(binary)));
+			}
+			machine.run(0x3000, ExecutionMode.TRACE);
+		}
+		String expected = text.toString();
+		text.reset();
+		TraceDecoder.decode(Channels.newChannel(new ByteArrayInputStream(binary.toByteArray())), new PrintStream(text));
+		assertEquals("Decoded trace should match the text trace", expected, text.toString());
+		assertEquals("Trace should hold the program page and one record per instruction",
+			TraceWriter.HEADER_SIZE + TraceWriter.PAGE_RECORD_SIZE + 16 * TraceWriter.RECORD_SIZE, binary.size());
+	}
+	
+	/**
+	 * Tests that a binary trace of a run longer than the ring buffer keeps
+	 * only the records since the last half of the ring it completed.
+	 */
+	@Test
+	public void binaryTraceWrapTest() throws Exception {
+		short[] program = new short[] {
+			(short) 0x2408, // LD R2, x3008
+			(short) 0x2208, // LD R1, x3008
+			(short) 0x127F, // ADD R1, R1, #-1
+			(short) 0x0202, // BRP x3002
+			(short) 0x14BF, // ADD R2, R2, #-1
+			(short) 0x0201, // BRP x3001
+			(short) 0xF025, // TRAP x25
+			(short) 0x0000,
+			(short) 0x0170,
+		};
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		machine = new Machine(TestBase.nullOutStream, MachineTest.load(program));
+		machine.setTraceWriter(new TraceWriter(Channels.newChannel(binary)));
+		machine.run(0x3000, ExecutionMode.TRACE);
+		long executed = machine.getState().instructionsExecuted;
+		long half = TraceWriter.BUFFER_RECORDS / 2;
+		assertTrue("Run should wrap around the ring", executed > TraceWriter.BUFFER_RECORDS);
+		long retained = executed - (executed / half - 1) * half;
+		assertEquals("Trace should hold the records since the last completed half",
+			TraceWriter.HEADER_SIZE + TraceWriter.PAGE_RECORD_SIZE + retained * TraceWriter.RECORD_SIZE, binary.size());
+	}
+	
+	/**
+	 * Tests that delta tracing displays the page once and then only the changes.
+	 */
+	@Test
+	public void deltaTraceTest() throws Exception {
+		this.bank.write(0x3000, (short) 0x2208); // LD R1, x3008
+		this.bank.write(0x3001, (short) 0x54A0); // AND R2, R2, #0
+		this.bank.write(0x3002, (short) 0x1481); // ADD R2, R2, R1
+		this.bank.write(0x3003, (short) 0x7240); // STR R1, R1, #0
+		this.bank.write(0x3004, (short) 0x127F); // ADD R1, R1, #-1
+		this.bank.write(0x3005, (short) 0x0202); // BRP x3002
+		this.bank.write(0x3006, (short) 0xF025); // TRAP x25
+		this.bank.write(0x3008, (short) 0x0003);
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		machine = new Machine(new PrintStream(text), bank);
+		machine.setDeltaTrace(true);
+		machine.run(0x3000, ExecutionMode.TRACE);
+		String trace = text.toString();
+		
+		assertEquals("Registers should be displayed on page entry and at the end", 2, trace.split("Registers:").length - 1);
+		assertEquals("Each instruction should be named", 15, trace.split("Executing instruction: ").length - 1);
+		assertTrue("Loading R1 should be displayed", trace.contains("r2 = 0x0003"));
+		assertTrue("Storing should display the cell", trace.contains("0x0002: 0002"));
+		assertTrue("Branching back should display the PC", trace.contains("PC = 0x3002"));
+		assertTrue("Counting down to zero should display the CCR", trace.contains("N Z P = 0 1 0"));
+	}
+	
+	/**
+	 * Tests that step mode takes each keypress from the console, so it does
+	 * not take the input the console has read ahead for the program.
+	 */
+	@Test
+	public void stepInputTest() throws Exception {
+		this.bank.write(0x3000, (short) 0xF023); // TRAP x23
+		this.bank.write(0x3001, (short) 0x1220); // ADD R1, R0, #0
+		this.bank.write(0x3002, (short) 0xF023); // TRAP x23
+		this.bank.write(0x3003, (short) 0xF025); // TRAP x25
+		ByteArrayInputStream input = new ByteArrayInputStream("\nA\n\n\nB\n\n".getBytes());
+		machine = new Machine(TestBase.nullOutStream, input, this.bank, ExecutionEngine.REFERENCE);
+		machine.run(0x3000, ExecutionMode.STEP);
+		assertEquals("The first input should be read", 'A', machine.getState().registers[1]);
+		assertEquals("The second input should be read after the keypresses", 'B', machine.getState().registers[0]);
+	}
+	
+	/**
+	 * Tests that breakpoints and watchpoints hand control to the listener, whatever the engine.
+	 */
+	@Test
+	public void breakpointTest() throws Exception {
+		short[] program = new short[] {
+			(short) 0x2208, // LD R1, x3008
+			(short) 0x54A0, // AND R2, R2, #0
+			(short) 0x1481, // ADD R2, R2, R1
+			(short) 0x7240, // STR R1, R1, #0
+			(short) 0x127F, // ADD R1, R1, #-1
+			(short) 0x0202, // BRP x3002
+			(short) 0xF025, // TRAP x25
+			(short) 0xF025, // TRAP x25
+			(short) 0x0003,
+		};
+		for (ExecutionEngine engine : ExecutionEngine.values()) {
+			final List<String> hits = new ArrayList<String>();
+			machine = new Machine(TestBase.nullOutStream, MachineTest.load(program), engine);
+			machine.getBreakpoints().addBreakpoint(0x3004);
+			machine.getBreakpoints().watchReads(0x3008, 0x3008);
+			machine.getBreakpoints().watchWrites(0x0002, 0x0002);
+			machine.setBreakpointListener(new BreakpointListener() {
+				public void breakpointHit(BreakpointKind kind, int address, MachineState state, MemoryBank memory) {
+					hits.add(kind + " " + Integer.toHexString(address) + " r1=" + state.registers[1]);
+				}
+			});
+			machine.run(0x3000, ExecutionMode.QUIET);
+			assertEquals(engine + " should hit in order", "[READ 3008 r1=0, BREAKPOINT 3004 r1=3, "
+				+ "WRITE 2 r1=2, BREAKPOINT 3004 r1=2, BREAKPOINT 3004 r1=1]", hits.toString());
+			assertEquals(engine + " should still compute the sum", 6, machine.getState().registers[2]);
+		}
+		
+		// Clearing executing stops the run at the breakpoint
+		machine = new Machine(TestBase.nullOutStream, this.bank);
+		for (int i = 0; i < program.length; i++) {
+			this.bank.write(0x3000 + i, program[i]);
+		}
+		machine.getBreakpoints().addBreakpoint(0x3004);
+		machine.setBreakpointListener(new BreakpointListener() {
+			public void breakpointHit(BreakpointKind kind, int address, MachineState state, MemoryBank memory) {
+				state.executing = false;
+			}
+		});
+		machine.run(0x3000, ExecutionMode.QUIET);
+		assertEquals("The run should stop before the breakpoint", 0x3004, machine.getState().programCounter);
+	}
+	
+	/**
+	 * Tests that restoring a snapshot returns registers and memory to it, and
+	 * that execution can continue from it.
+	 */
+	@Test
+	public void snapshotTest() throws Exception {
+		this.bank.write(0x3000, (short) 0x2208); // LD R1, x3008
+		this.bank.write(0x3001, (short) 0x54A0); // AND R2, R2, #0
+		this.bank.write(0x3002, (short) 0x1481); // ADD R2, R2, R1
+		this.bank.write(0x3003, (short) 0x7240); // STR R1, R1, #0
+		this.bank.write(0x3004, (short) 0x127F); // ADD R1, R1, #-1
+		this.bank.write(0x3005, (short) 0x0202); // BRP x3002
+		this.bank.write(0x3006, (short) 0xF025); // TRAP x25
+		this.bank.write(0x3008, (short) 0x0003);
+		machine = new Machine(TestBase.nullOutStream, bank);
+		final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+		machine.getBreakpoints().addBreakpoint(0x3004);
+		machine.setBreakpointListener(new BreakpointListener() {
+			public void breakpointHit(BreakpointKind kind, int address, MachineState state, MemoryBank memory) {
+				snapshots.add(machine.snapshot());
+			}
+		});
+		machine.run(0x3000, ExecutionMode.QUIET);
+		assertEquals("A snapshot should be taken at each breakpoint", 3, snapshots.size());
+		assertEquals("The last pass should store 1", 1, this.bank.read(0x0001));
+		
+		machine.restore(snapshots.get(0));
+		assertEquals("R1 should be restored", 3, machine.getState().registers[1]);
+		assertEquals("Only the first store should remain", 3, this.bank.read(0x0003));
+		assertEquals("Later stores should be undone", 0, this.bank.read(0x0002));
+		assertEquals("Later stores should be undone", 0, this.bank.read(0x0001));
+		
+		machine.restore(snapshots.get(2));
+		assertEquals("R1 should be restored", 1, machine.getState().registers[1]);
+		assertEquals("Stores before the snapshot should be redone", 2, this.bank.read(0x0002));
+		
+		machine.getBreakpoints().clear();
+		machine.run(machine.getState().programCounter, ExecutionMode.QUIET);
+		assertEquals("Execution should continue from the snapshot", 6, machine.getState().registers[2]);
+		assertFalse("The program should halt", machine.getState().executing);
+	}
+	
+	/**
+	 * Tests stepping back and reverse-continuing to a watchpoint.
+	 */
+	@Test
+	public void reverseExecutionTest() throws Exception {
+		this.bank.write(0x3000, (short) 0x2208); // LD R1, x3008
+		this.bank.write(0x3001, (short) 0x54A0); // AND R2, R2, #0
+		this.bank.write(0x3002, (short) 0x1481); // ADD R2, R2, R1
+		this.bank.write(0x3003, (short) 0x7240); // STR R1, R1, #0
+		this.bank.write(0x3004, (short) 0x127F); // ADD R1, R1, #-1
+		this.bank.write(0x3005, (short) 0x0202); // BRP x3002
+		this.bank.write(0x3006, (short) 0xF025); // TRAP x25
+		this.bank.write(0x3008, (short) 0x0003);
+		machine = new Machine(TestBase.nullOutStream, bank, ExecutionEngine.JIT);
+		assertEquals("Nothing can be undone while disabled", 0, machine.stepBack(1));
+		machine.setUndoBudget(1000 * UndoLog.RECORD_SIZE);
+		machine.run(0x3000, ExecutionMode.QUIET);
+		assertEquals("15 instructions should run", 15, machine.getState().instructionsExecuted);
+		
+		assertEquals("Two instructions should be undone", 2, machine.stepBack(2));
+		MachineState state = machine.getState();
+		assertTrue("Undoing HALT should resume execution", state.executing);
+		assertEquals("The PC should be at the last branch", 0x3005, state.programCounter);
+		assertTrue("The CCR should be zero", state.ccrZero);
+		
+		machine.getBreakpoints().watchWrites(0x0002, 0x0002);
+		assertEquals("Should stop at the watched write", BreakpointKind.WRITE, machine.reverseContinue());
+		state = machine.getState();
+		assertEquals("The PC should be at the store", 0x3003, state.programCounter);
+		assertEquals("R1 should be restored", 2, state.registers[1]);
+		assertEquals("R2 should be restored", 5, state.registers[2]);
+		assertEquals("The store should be undone", 0, this.bank.read(0x0002));
+		assertEquals("Earlier stores should remain", 3, this.bank.read(0x0003));
+		
+		machine.getBreakpoints().clear();
+		machine.run(state.programCounter, ExecutionMode.QUIET);
+		assertEquals("Running forward should finish the sum", 6, machine.getState().registers[2]);
+		assertEquals("Running forward should redo the store", 2, this.bank.read(0x0002));
+		
+		// The budget bounds the number of instructions which can be undone
+		MemoryBank memory = new MemoryBank();
+		for (int i = 0x3000; i <= 0x3008; i++) {
+			memory.write(i, this.bank.read(i));
+		}
+		machine = new Machine(TestBase.nullOutStream, memory);
+		machine.setUndoBudget(5 * UndoLog.RECORD_SIZE);
+		machine.run(0x3000, ExecutionMode.QUIET);
+		assertEquals("Only five instructions should be undone", 5, machine.stepBack(100));
+		assertEquals("The PC should be five instructions back", 0x3002, machine.getState().programCounter);
+	}
+	
+	/**
+	 * Tests that coverage marks exactly the instructions executed, whatever
+	 * the engine, and that merged coverage survives a round trip through a file.
+	 */
+	@Test
+	public void coverageTest() throws Exception {
+		this.bank.write(0x3000, (short) 0x2208); // LD R1, x3008
+		this.bank.write(0x3001, (short) 0x0603); // BRZP x3003
+		this.bank.write(0x3002, (short) 0x54A0); // AND R2, R2, #0
+		this.bank.write(0x3003, (short) 0xF025); // TRAP x25
+		this.bank.write(0x3008, (short) 0x0003);
+		machine = new Machine(TestBase.nullOutStream, bank, ExecutionEngine.JIT);
+		Coverage coverage = new Coverage();
+		machine.setCoverage(coverage);
+		machine.run(0x3000, ExecutionMode.QUIET);
+		assertTrue("The load should be covered", coverage.isCovered(0x3000));
+		assertFalse("The skipped AND should not be covered", coverage.isCovered(0x3002));
+		assertTrue("The halt should be covered", coverage.isCovered(0x3003));
+		assertEquals("Only three instructions should run", 3, coverage.count());
+		
+		Coverage other = new Coverage();
+		other.mark(0x3002);
+		other.mark(0xFFFF);
+		coverage.merge(other);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		coverage.write(bytes);
+		Coverage read = Coverage.read(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals("The merge should be a union", 5, read.count());
+		assertTrue("The skipped AND should be covered by the merge", read.isCovered(0x3002));
+		assertTrue("The last address should be covered", read.isCovered(0xFFFF));
+	}
+	
 }
@@ -2,7 +2,12 @@ package Simulator.testing;
 import static org.junit.Assert.assertEquals;
 import org.junit.Before;
 import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import Common.MemoryBank;
+import Simulator.state.Console;
+import Simulator.state.Journal;
 import Simulator.state.MachineState;
 import Simulator.instructions.TrapHandler;
 
@@ -147,6 +152,60 @@ public class TrapTest extends TestBase {
 		this.state.registers[0] = (short) 0x0;
 		assertEquals("Should output 0", new TrapHandler().execute(0xF031, this.state, this.bank), "0");
 	}
+	/**
+	 * Tests that a shared console keeps unread input between traps and holds
+	 * output until the machine halts.
+	 */
+	@Test
+	public void consoleTest() {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		this.state.console = new Console(new PrintStream(stream), new ByteArrayInputStream("a\r\nb\r\n42\r\n".getBytes()));
+		new TrapHandler().execute(0xF023, this.state, this.bank);
+		assertEquals("Register 0 should hold 'a'", 0x61, this.state.registers[0]);
+		new TrapHandler().execute(0xF023, this.state, this.bank);
+		assertEquals("Register 0 should hold 'b'", 0x62, this.state.registers[0]);
+		new TrapHandler().execute(0xF033, this.state, this.bank);
+		assertEquals("Register 0 should hold 42", 42, this.state.registers[0]);
+		
+		new TrapHandler().execute(0xF031, this.state, this.bank);
+		assertEquals("Output should be held until halt", "? ? d? ", stream.toString());
+		new TrapHandler().execute(0xF025, this.state, this.bank);
+		assertEquals("Output should be written at halt", "? ? d? 42", stream.toString());
+	}
+	
+	/**
+	 * Tests that a journal replays recorded input and random numbers without reading the console.
+	 */
+	@Test
+	public void journalTest() throws Exception {
+		ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+		this.state.console = new Console(nullOutStream, new ByteArrayInputStream("a\r\nx\r\n-7\r\n".getBytes()));
+		this.state.journal = Journal.record(recorded);
+		int[] vectors = new int[] { 0xF043, 0xF023, 0xF033, 0xF033, 0xF043 };
+		short[] values = new short[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			new TrapHandler().execute(vectors[i], this.state, this.bank);
+			values[i] = this.state.registers[0];
+		}
+		this.state.journal.flush();
+		assertEquals("Each input should take three bytes", 4 + 3 * vectors.length, recorded.size());
+		
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		this.state.console = new Console(new PrintStream(stream), nullInStream);
+		this.state.journal = Journal.replay(new ByteArrayInputStream(recorded.toByteArray()));
+		for (int i = 0; i < vectors.length; i++) {
+			new TrapHandler().execute(vectors[i], this.state, this.bank);
+			assertEquals("Replayed value " + i + " should match", values[i], this.state.registers[0]);
+		}
+		this.state.console.flush();
+		assertEquals("Prompts should be replayed", "? d? Input by user was not a number." + System.getProperty("line.separator") + "d? ", stream.toString());
+		assertEquals("R0 should hold the replayed number", -7, values[3]);
+		
+		// A journal which does not match the program halts the machine
+		new TrapHandler().execute(0xF043, this.state, this.bank);
+		assertEquals("The machine should halt when the journal runs out", false, this.state.executing);
+	}
+	
 	/**
 	 * Tests the rnd vector.
 	 */
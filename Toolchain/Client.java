@@ -0,0 +1,99 @@
+package Toolchain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * The thin client of the toolchain Daemon. It sends its command line to the
+ * daemon, prints what the tool printed and exits with the tool's exit code,
+ * so that it behaves as running the tool itself would. When no daemon is
+ * listening, it runs the tool itself.
+ */
+public class Client {
+
+	/**
+	 * Program entry point.
+	 * @param args Command line arguments: the tool name, then the tool's arguments.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args[0].equals("--help")) {
+			Client.printUsageInformation();
+			return;
+		}
+		String tool = args[0];
+		String[] toolArgs = Arrays.copyOfRange(args, 1, args.length);
+
+		SocketChannel daemon;
+		try {
+			daemon = SocketChannel.open(UnixDomainSocketAddress.of(Daemon.getSocket()));
+		}
+		catch (IOException e) {
+			// No daemon: run the tool in this JVM, as it always was
+			if (tool.equals(Daemon.ASSEMBLER)) {
+				Assembler.Main.main(toolArgs);
+			}
+			else if (tool.equals(Daemon.LOADER)) {
+				Loader.Main.main(toolArgs);
+			}
+			else if (tool.equals(Daemon.STOP)) {
+				System.out.println("No daemon is listening on " + Daemon.getSocket() + ".");
+			}
+			else {
+				Client.printUsageInformation();
+			}
+			return;
+		}
+
+		int exitCode;
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(daemon)));
+			output.writeUTF(tool);
+			output.writeUTF(System.getProperty("user.dir"));
+			output.writeInt(toolArgs.length);
+			for (String arg : toolArgs) {
+				output.writeUTF(arg);
+			}
+			output.flush();
+
+			DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(daemon)));
+			exitCode = input.readInt();
+			System.out.write(Client.readBytes(input));
+			System.out.flush();
+			System.err.write(Client.readBytes(input));
+			System.err.flush();
+		}
+		finally {
+			daemon.close();
+		}
+		if (exitCode != 0) {
+			System.exit(exitCode);
+		}
+	}
+
+	/**
+	 * Prints usage information for users of this program.
+	 */
+	private static void printUsageInformation() {
+		System.out.println("Usage:\tjava Toolchain.Client tool [arguments]");
+		System.out.println("\t" + Daemon.ASSEMBLER + "\tAssemble, as java Assembler.Main arguments.");
+		System.out.println("\t" + Daemon.LOADER + "\tLink, as java Loader.Main arguments.");
+		System.out.println("\t" + Daemon.STOP + "\tStop the daemon.");
+		System.out.println("The daemon is found at the socket in TOOLCHAIN_SOCKET, or " + Daemon.getSocket() + ".");
+	}
+
+	/**
+	 * Reads bytes preceded by their length.
+	 */
+	private static byte[] readBytes(DataInputStream input) throws IOException {
+		byte[] data = new byte[input.readInt()];
+		input.readFully(data);
+		return data;
+	}
+}
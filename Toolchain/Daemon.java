@@ -0,0 +1,259 @@
+package Toolchain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import Assembler.InstructionDefinition;
+
+/**
+ * A Daemon keeps the assembler and loader loaded in one long-lived JVM and
+ * runs them for clients connecting over a Unix-domain socket, so that a build
+ * which runs the tools on many small files pays for JVM startup, class
+ * loading and building the instruction table once rather than on every call.
+ *
+ * A request is the name of a tool, the client's working directory and the
+ * tool's command line arguments, each written with writeUTF after the number
+ * of arguments. The reply is the exit code the tool would have given on its
+ * own, then the bytes it printed to standard output and to standard error,
+ * each preceded by its length. Each request runs on a thread of its own, so
+ * a parallel build may send many at once.
+ */
+public class Daemon {
+
+	/**
+	 * Tool name of the assembler.
+	 */
+	public static final String ASSEMBLER = "asm";
+
+	/**
+	 * Tool name of the loader.
+	 */
+	public static final String LOADER = "ld";
+
+	/**
+	 * Request which stops the daemon.
+	 */
+	public static final String STOP = "stop";
+
+	/**
+	 * Exit code of a tool which throws out of its entry point, as the JVM gives.
+	 */
+	public static final int EXCEPTION_EXIT_CODE = 1;
+
+	/**
+	 * Environment variable naming the socket, instead of the default.
+	 */
+	private static final String SOCKET_VARIABLE = "TOOLCHAIN_SOCKET";
+
+	/**
+	 * Socket the daemon accepts clients on.
+	 */
+	private ServerSocketChannel server;
+
+	/**
+	 * Runs the requests.
+	 */
+	private ExecutorService pool = Executors.newCachedThreadPool();
+
+	/**
+	 * Program entry point.
+	 * @param args Command line arguments: optionally the path of the socket.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 1 || (args.length == 1 && args[0].equals("--help"))) {
+			System.out.println("Usage:\tjava Toolchain.Daemon [socket]");
+			System.out.println("\tsocket\tPath of the Unix-domain socket to listen on (default " + Daemon.getSocket() + ").");
+			return;
+		}
+		final Path socket = args.length == 1 ? Paths.get(args[0]) : Daemon.getSocket();
+		if (Daemon.isListening(socket)) {
+			System.out.println("A daemon is already listening on " + socket + ".");
+			return;
+		}
+		// A socket file left by a daemon which was killed
+		Files.deleteIfExists(socket);
+
+		// Build the instruction table before the first client waits for it
+		InstructionDefinition.getTable();
+
+		Daemon daemon = new Daemon(socket);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					Files.deleteIfExists(socket);
+				}
+				catch (IOException e) {
+					// Replaced when the next daemon starts
+				}
+			}
+		});
+		System.out.println("Listening on " + socket + ".");
+		daemon.serve();
+	}
+
+	/**
+	 * Gets the socket clients and the daemon use unless told otherwise: the
+	 * path in TOOLCHAIN_SOCKET, or a socket per user in the temporary directory.
+	 * @return The path of the socket.
+	 */
+	public static Path getSocket() {
+		String path = System.getenv(Daemon.SOCKET_VARIABLE);
+		if (path == null) {
+			path = new File(System.getProperty("java.io.tmpdir"), "toolchain-" + System.getProperty("user.name") + ".sock").getPath();
+		}
+		return Paths.get(path);
+	}
+
+	/**
+	 * Creates a new Daemon listening on the given socket.
+	 * @param socket Path of the socket, which must not exist.
+	 * @throws IOException If the socket cannot be made.
+	 */
+	public Daemon(Path socket) throws IOException {
+		this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		this.server.bind(UnixDomainSocketAddress.of(socket));
+	}
+
+	/**
+	 * Accepts clients until a client asks the daemon to stop, then waits
+	 * for the requests being run to finish.
+	 */
+	public void serve() throws IOException, InterruptedException {
+		try {
+			while (true) {
+				final SocketChannel client = this.server.accept();
+				this.pool.execute(new Runnable() {
+					public void run() {
+						Daemon.this.answer(client);
+					}
+				});
+			}
+		}
+		catch (AsynchronousCloseException e) {
+			// Stopped by a client
+		}
+		finally {
+			this.server.close();
+			this.pool.shutdown();
+		}
+	}
+
+	/**
+	 * Reads one request from a client, runs it and replies.
+	 * @param client The client.
+	 */
+	private void answer(SocketChannel client) {
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+			String tool = input.readUTF();
+			File directory = new File(input.readUTF());
+			String[] args = new String[input.readInt()];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = input.readUTF();
+			}
+
+			ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+			ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(outBytes);
+			PrintStream err = new PrintStream(errBytes);
+			int exitCode = 0;
+			if (tool.equals(Daemon.STOP)) {
+				this.server.close();
+			}
+			else {
+				exitCode = Daemon.run(tool, args, directory, out, err);
+			}
+			out.flush();
+			err.flush();
+
+			output.writeInt(exitCode);
+			Daemon.writeBytes(output, outBytes.toByteArray());
+			Daemon.writeBytes(output, errBytes.toByteArray());
+			output.flush();
+		}
+		catch (IOException e) {
+			// The client went away; there is no one to tell
+		}
+		finally {
+			try {
+				client.close();
+			}
+			catch (IOException e) {
+				// Already closed
+			}
+		}
+	}
+
+	/**
+	 * Runs a tool as its command line entry point would.
+	 * @param tool Name of the tool.
+	 * @param args Command line arguments of the tool.
+	 * @param directory The working directory of the client.
+	 * @param out Standard output of the tool.
+	 * @param err Standard error of the tool.
+	 * @return The exit code the tool would have given.
+	 */
+	private static int run(String tool, String[] args, File directory, PrintStream out, PrintStream err) {
+		try {
+			if (tool.equals(Daemon.ASSEMBLER)) {
+				Assembler.Main.run(args, directory, out, err);
+			}
+			else if (tool.equals(Daemon.LOADER)) {
+				Loader.Main.run(args, directory, out);
+			}
+			else {
+				throw new Exception("Unknown tool \"" + tool + "\".");
+			}
+			return 0;
+		}
+		catch (Throwable e) {
+			// As the JVM reports an exception thrown out of main
+			err.print("Exception in thread \"main\" ");
+			e.printStackTrace(err);
+			return Daemon.EXCEPTION_EXIT_CODE;
+		}
+	}
+
+	/**
+	 * Determines whether a daemon is listening on the given socket.
+	 * @param socket Path of the socket.
+	 * @return True iff a client could connect.
+	 */
+	private static boolean isListening(Path socket) {
+		if (!Files.exists(socket)) {
+			return false;
+		}
+		try {
+			SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes bytes preceded by their length.
+	 */
+	private static void writeBytes(DataOutputStream output, byte[] data) throws IOException {
+		output.writeInt(data.length);
+		output.write(data);
+	}
+}
@@ -1 +1 @@
-java Assembler.Main %*
\ No newline at end of file
+java Toolchain.Client asm %*
\ No newline at end of file
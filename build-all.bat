@@ -1,4 +1,5 @@
 javac Assembler/*.java
 javac Loader\*.java
+javac Toolchain/*.java
 javac Simulator/*.java
 javac Simulator/testing/*.java
\ No newline at end of file
@@ -1 +1 @@
-javac Common/*.java Assembler/*.java
\ No newline at end of file
+javac Common/*.java Assembler/*.java Toolchain/*.java
\ No newline at end of file
@@ -1 +1 @@
-javac Common/*.java Loader/*.java
\ No newline at end of file
+javac Common/*.java Loader/*.java Toolchain/*.java
\ No newline at end of file
@@ -1 +1 @@
-java Loader.Main %*
\ No newline at end of file
+java Toolchain.Client ld %*
\ No newline at end of file
@@ -0,0 +1 @@
+java Toolchain.Daemon %*
\ No newline at end of file